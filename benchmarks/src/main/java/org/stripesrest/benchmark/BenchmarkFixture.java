@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockServletContext;
+
+/**
+ * Sets up a MockServletContext for the benchmarks in the same way the
+ * StripesTestFixture does for the tests.
+ */
+public class BenchmarkFixture
+{
+
+    /**
+     * Create and return a new MockServletContext.
+     *
+     * @return an instance of MockServletContext to benchmark with
+     */
+    public static synchronized MockServletContext createServletContext()
+    {
+        return new MockServletContext( "test" )
+                .addFilter( StripesFilter.class, "StripesFilter", getDefaultFilterParams() )
+                .setServlet( DispatcherServlet.class, "StripesDispatcher", null );
+    }
+
+    /** Gets a map containing the default initialization parameters for StripesFilter */
+    public static Map< String, String> getDefaultFilterParams()
+    {
+        Map< String, String> map = new HashMap< String, String>();
+        map.put( "ActionResolver.Packages", "org.stripesrest.benchmark" );
+        // The interceptor is registered directly rather than through
+        // Extension.Packages, so that the benchmark's own Interceptor
+        // targets are not picked up by the scan.
+        map.put( "Interceptor.Classes", "org.stripesrest.RestActionInterceptor" );
+        return map;
+    }
+}
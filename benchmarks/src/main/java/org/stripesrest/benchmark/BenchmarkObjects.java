@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Object graphs of different shapes and sizes which the benchmarks
+ * serialize.
+ */
+public class BenchmarkObjects
+{
+
+    public enum Status
+    {
+        OPEN, SHIPPED, CANCELLED
+    }
+
+    public static class Customer
+    {
+        private final long id;
+        private final String name;
+        private final String email;
+
+        public Customer( long id, String name, String email )
+        {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getEmail()
+        {
+            return email;
+        }
+    }
+
+    public static class OrderLine
+    {
+        private final String sku;
+        private final int quantity;
+        private final BigDecimal price;
+
+        public OrderLine( String sku, int quantity, BigDecimal price )
+        {
+            this.sku = sku;
+            this.quantity = quantity;
+            this.price = price;
+        }
+
+        public String getSku()
+        {
+            return sku;
+        }
+
+        public int getQuantity()
+        {
+            return quantity;
+        }
+
+        public BigDecimal getPrice()
+        {
+            return price;
+        }
+    }
+
+    public static class Order
+    {
+        private final long id;
+        private final Customer customer;
+        private final List< OrderLine> lines = new ArrayList< OrderLine>();
+        private final Date created;
+        private final Status status;
+        private final double weight;
+
+        public Order( long id, Customer customer, Date created, Status status, double weight )
+        {
+            this.id = id;
+            this.customer = customer;
+            this.created = created;
+            this.status = status;
+            this.weight = weight;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public Customer getCustomer()
+        {
+            return customer;
+        }
+
+        public List< OrderLine> getLines()
+        {
+            return lines;
+        }
+
+        public Date getCreated()
+        {
+            return created;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        public double getWeight()
+        {
+            return weight;
+        }
+    }
+
+    /**
+     * A flat map of a handful of scalars, like a typical small API response.
+     */
+    public static Map< String, Object> small()
+    {
+        Map< String, Object> response = new LinkedHashMap< String, Object>();
+        response.put( "foo", "bar" );
+        response.put( "hello", "world" );
+        response.put( "count", 42 );
+        response.put( "ratio", 0.75d );
+        response.put( "active", true );
+        return response;
+    }
+
+    /**
+     * A single order with its customer and a few lines.
+     */
+    public static Order nested()
+    {
+        return order( 1 );
+    }
+
+    /**
+     * A list of one thousand orders, like a large list response.
+     */
+    public static List< Order> large()
+    {
+        List< Order> orders = new ArrayList< Order>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            orders.add( order( i ) );
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the graph with the passed shape name: small, nested or large.
+     *
+     * @param shape - Name of the shape
+     * @return Object graph
+     */
+    public static Object forShape( String shape )
+    {
+        if ( "small".equals( shape ) )
+        {
+            return small();
+        }
+        else if ( "nested".equals( shape ) )
+        {
+            return nested();
+        }
+        else if ( "large".equals( shape ) )
+        {
+            return large();
+        }
+        throw new IllegalArgumentException( "Unknown object graph shape : " + shape );
+    }
+
+    private static Order order( int i )
+    {
+        Customer customer = new Customer( i, "Customer \"" + i + "\"", "customer" + i + "@example.com" );
+        Order order = new Order( i, customer, new Date( 1400000000000L + i ), Status.values()[ i % 3 ], i * 1.5d );
+        for ( int line = 0; line < 5; line++ )
+        {
+            order.getLines().add( new OrderLine( "SKU-" + i + "-" + line, line + 1, new BigDecimal( "19.99" ) ) );
+        }
+        return order;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.UrlBinding;
+import net.sourceforge.stripes.validation.Validate;
+import org.stripesrest.CacheResponse;
+import org.stripesrest.GET;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.POST;
+import org.stripesrest.RestActionBean;
+
+/**
+ * REST action bean exercised by the interceptor benchmarks.
+ */
+@UrlBinding( "/benchmark" )
+public class BenchmarkRestActionBean implements ActionBean, RestActionBean
+{
+
+    @Validate( on = "post", required = true )
+    private String id;
+
+    private ActionBeanContext context;
+
+    public Resolution get()
+    {
+        return new JsonResolution( BenchmarkObjects.small() );
+    }
+
+    @GET
+    @CacheResponse( ttl = 1, unit = TimeUnit.HOURS )
+    public Resolution cached()
+    {
+        return new JsonResolution( BenchmarkObjects.nested() );
+    }
+
+    public Resolution post()
+    {
+        return new JsonResolution( BenchmarkObjects.nested() );
+    }
+
+    @POST
+    public Resolution fail()
+    {
+        throw new IllegalStateException( "Benchmark failure" );
+    }
+
+    public void setId( String id )
+    {
+        this.id = id;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public ActionBeanContext getContext()
+    {
+        return context;
+    }
+
+    public void setContext( ActionBeanContext context )
+    {
+        this.context = context;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.stripesrest.JsonBuilder;
+
+/**
+ * Measures JsonBuilder serialization of small, nested and large object
+ * graphs, both to a String and streamed to an OutputStream.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class JsonBuilderBenchmark
+{
+
+    @Param( { "small", "nested", "large" } )
+    public String shape;
+
+    private Object root;
+    private OutputStream out;
+
+    @Setup
+    public void setup( final Blackhole blackhole )
+    {
+        root = BenchmarkObjects.forShape( shape );
+        out = new OutputStream()
+        {
+            @Override
+            public void write( int b )
+            {
+                blackhole.consume( b );
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len )
+            {
+                blackhole.consume( b );
+            }
+        };
+    }
+
+    @Benchmark
+    public String buildString()
+    {
+        return new JsonBuilder( root ).build();
+    }
+
+    @Benchmark
+    public void buildStream()
+    {
+        new JsonBuilder( root ).build( out );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.stripesrest.JsonResolution;
+
+/**
+ * Measures creating and executing a JsonResolution against a mock response,
+ * which is what a REST handler returning an object costs end to end, with
+ * and without gzip, and the conditional GET which is answered with a 304.
+ * Bodies beyond the ETag size limit carry no ETag, so for them the
+ * conditional GET is answered in full.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class JsonResolutionBenchmark
+{
+
+    @Param( { "small", "nested", "large" } )
+    public String shape;
+
+    private Object root;
+    private MockHttpServletRequest request;
+    private MockHttpServletRequest conditionalRequest;
+    private MockHttpServletRequest gzipRequest;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        root = BenchmarkObjects.forShape( shape );
+        request = new MockHttpServletRequest( "/test", "/benchmark" );
+        request.setMethod( "GET" );
+
+        // Executed once to learn the ETag a polling client would send back
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( root ).execute( request, response );
+
+        conditionalRequest = new MockHttpServletRequest( "/test", "/benchmark" );
+        conditionalRequest.setMethod( "GET" );
+        List< Object> eTag = response.getHeaderMap().get( "ETag" );
+        if ( eTag != null )
+        {
+            conditionalRequest.addHeader( "If-None-Match", eTag.get( 0 ) );
+        }
+
+        gzipRequest = new MockHttpServletRequest( "/test", "/benchmark" );
+        gzipRequest.setMethod( "GET" );
+        gzipRequest.addHeader( "Accept-Encoding", "gzip, deflate" );
+    }
+
+    @Benchmark
+    public MockHttpServletResponse execute() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( root ).execute( request, response );
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse executeGzip() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( root ).execute( gzipRequest, response );
+        return response;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse executeNotModified() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( root ).execute( conditionalRequest, response );
+        return response;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.ExecutionContext;
+import net.sourceforge.stripes.controller.Interceptor;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockRoundtrip;
+import net.sourceforge.stripes.mock.MockServletContext;
+import net.sourceforge.stripes.validation.LocalizableError;
+import net.sourceforge.stripes.validation.SimpleError;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.stripesrest.ResourceNotFoundError;
+import org.stripesrest.RestActionInterceptor;
+
+/**
+ * Measures each lifecycle branch of the RestActionInterceptor in isolation:
+ * the interceptor is driven through a Stripes ExecutionContext whose target
+ * either does nothing or fails, and any resolution it returns is executed
+ * against a mock response. A full MockRoundtrip GET is included for
+ * comparison with the cost of the whole Stripes lifecycle.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RestActionInterceptorBenchmark
+{
+
+    private static final Interceptor PROCEED = new Interceptor()
+    {
+        public Resolution intercept( ExecutionContext context )
+        {
+            return null;
+        }
+    };
+
+    private static final Interceptor FAIL = new Interceptor()
+    {
+        public Resolution intercept( ExecutionContext context ) throws Exception
+        {
+            throw new IllegalStateException( "Benchmark failure", new IllegalArgumentException( "Downstream failure" ) );
+        }
+    };
+
+    private MockServletContext servletContext;
+    private RestActionInterceptor interceptor;
+    private BenchmarkRestActionBean bean;
+    private Method get;
+    private Method post;
+    private Method fail;
+    private ValidationErrors noErrors;
+    private ValidationErrors notFoundErrors;
+    private ValidationErrors validationErrors;
+
+    @Setup
+    public void setup() throws NoSuchMethodException
+    {
+        servletContext = BenchmarkFixture.createServletContext();
+        interceptor = new RestActionInterceptor();
+        bean = new BenchmarkRestActionBean();
+        get = BenchmarkRestActionBean.class.getMethod( "get" );
+        post = BenchmarkRestActionBean.class.getMethod( "post" );
+        fail = BenchmarkRestActionBean.class.getMethod( "fail" );
+
+        noErrors = new ValidationErrors();
+
+        notFoundErrors = new ValidationErrors();
+        notFoundErrors.add( "id", prepare( new ResourceNotFoundError( "No widget could be found for {1}", "WIDGET-1" ), "id", "WIDGET-1" ) );
+
+        validationErrors = new ValidationErrors();
+        validationErrors.addGlobalError( prepare( new SimpleError( "The request was not valid for whatever custom reason." ), null, null ) );
+        validationErrors.add( "id", prepare( new LocalizableError( "validation.required.valueNotPresent" ), "id", null ) );
+        validationErrors.add( "quantity", prepare( new SimpleError( "{0} must be a positive number" ), "quantity", "-1" ) );
+        validationErrors.add( "quantity", prepare( new SimpleError( "{0} is too small" ), "quantity", "-1" ) );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        servletContext.close();
+    }
+
+    @Benchmark
+    public Resolution handlerResolution() throws Exception
+    {
+        return run( LifecycleStage.HandlerResolution, "GET", null, noErrors, PROCEED );
+    }
+
+    @Benchmark
+    public Resolution handlerResolutionMethodNotAllowed() throws Exception
+    {
+        return run( LifecycleStage.HandlerResolution, "DELETE", null, noErrors, PROCEED );
+    }
+
+    @Benchmark
+    public Resolution bindingAndValidationNoErrors() throws Exception
+    {
+        return run( LifecycleStage.BindingAndValidation, "GET", get, noErrors, PROCEED );
+    }
+
+    @Benchmark
+    public Resolution bindingAndValidationNotFound() throws Exception
+    {
+        return run( LifecycleStage.BindingAndValidation, "GET", get, notFoundErrors, PROCEED );
+    }
+
+    @Benchmark
+    public Resolution customValidationErrors() throws Exception
+    {
+        return run( LifecycleStage.CustomValidation, "POST", post, validationErrors, PROCEED );
+    }
+
+    @Benchmark
+    public Resolution eventHandlingException() throws Exception
+    {
+        return run( LifecycleStage.EventHandling, "POST", fail, noErrors, FAIL );
+    }
+
+    @Benchmark
+    public MockRoundtrip roundtripGet() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( servletContext, BenchmarkRestActionBean.class );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute();
+        return trip;
+    }
+
+    @Benchmark
+    public MockRoundtrip roundtripCachedGet() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( servletContext, BenchmarkRestActionBean.class );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "cached" );
+        return trip;
+    }
+
+    /**
+     * Runs one lifecycle stage through the interceptor, then executes the
+     * resolution it produced (if any) the same way Stripes would. The handler
+     * is the one Stripes would have resolved by the stage, or null before
+     * handler resolution.
+     */
+    private Resolution run( LifecycleStage stage, String method, Method handler, ValidationErrors errors, Interceptor target ) throws Exception
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/benchmark" );
+        request.setMethod( method );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ActionBeanContext actionBeanContext = new ActionBeanContext();
+        actionBeanContext.setRequest( request );
+        actionBeanContext.setResponse( response );
+        actionBeanContext.setServletContext( servletContext );
+        actionBeanContext.setValidationErrors( errors );
+        bean.setContext( actionBeanContext );
+
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.setInterceptors( Collections.< Interceptor>singletonList( interceptor ) );
+        ctx.setActionBean( bean );
+        ctx.setActionBeanContext( actionBeanContext );
+        ctx.setHandler( handler );
+        ctx.setLifecycleStage( stage );
+
+        Resolution resolution = ctx.wrap( target );
+        if ( resolution != null )
+        {
+            resolution.execute( request, response );
+        }
+        return resolution;
+    }
+
+    private static ValidationError prepare( ValidationError error, String fieldName, String fieldValue )
+    {
+        error.setActionPath( "/benchmark" );
+        error.setBeanclass( BenchmarkRestActionBean.class );
+        error.setFieldName( fieldName );
+        error.setFieldValue( fieldValue );
+        return error;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Runs every benchmark exactly once, in process, so that a benchmark which
+ * no longer compiles or fails at run time breaks the build instead of
+ * going unnoticed until somebody measures with it.
+ */
+public class BenchmarksTest
+{
+
+    @Test
+    public void everyBenchmarkRuns() throws Exception
+    {
+        Runner runner = new Runner( new OptionsBuilder()
+                .include( "org\\.stripesrest\\.benchmark\\..*" )
+                .mode( Mode.SingleShotTime )
+                .forks( 0 )
+                .warmupIterations( 0 )
+                .measurementIterations( 1 )
+                .shouldFailOnError( true )
+                .build() );
+
+        Assert.assertFalse( runner.run().isEmpty() );
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * Finishes a REST call whose handler returned a CompletionStage after the
+ * request has been put into servlet async mode. Whichever comes first -- the
+ * stage completing or the async timeout -- writes the response and completes
+ * the async context; the other is ignored.
+ *
+ * The resolution is executed on a container thread through
+ * {@link AsyncContext#start(Runnable)}, so the thread which completed the
+ * stage never blocks on the client. If the call is metered, the response is
+ * written through its {@link MeteredResponse} and recorded once written.
+ */
+final class AsyncHandlerCompletion implements AsyncListener, BiConsumer< Object, Throwable>
+{
+
+    private static final Log log = Log.getInstance( AsyncHandlerCompletion.class );
+
+    private final AsyncContext asyncContext;
+    private final CompletableFuture<?> future;
+    private final long timeout;
+    private final int timeoutStatus;
+    private final MeteredResponse meteredResponse;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    AsyncHandlerCompletion( AsyncContext asyncContext, CompletableFuture<?> future, long timeout, int timeoutStatus, MeteredResponse meteredResponse )
+    {
+        this.asyncContext = asyncContext;
+        this.future = future;
+        this.timeout = timeout;
+        this.timeoutStatus = timeoutStatus;
+        this.meteredResponse = meteredResponse;
+    }
+
+    /**
+     * Called when the handler's stage completes.
+     */
+    public void accept( Object value, Throwable failure )
+    {
+        if ( !finished.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        final Resolution resolution = RestActionInterceptor.completedResolution( value, failure );
+
+        asyncContext.start( new Runnable()
+        {
+            public void run()
+            {
+                write( resolution );
+            }
+        } );
+    }
+
+    public void onTimeout( AsyncEvent event ) throws IOException
+    {
+        if ( finished.compareAndSet( false, true ) )
+        {
+            log.warn( "Asynchronous handler did not complete within ", timeout, "ms." );
+
+            // Nobody is waiting for the result anymore
+            future.cancel( false );
+            write( RestActionInterceptor.asyncTimeoutResolution( timeoutStatus, timeout ) );
+        }
+    }
+
+    public void onError( AsyncEvent event ) throws IOException
+    {
+        // The container completes the request itself
+        if ( finished.compareAndSet( false, true ) )
+        {
+            log.warn( event.getThrowable(), "Asynchronous REST call failed before its handler completed." );
+            future.cancel( false );
+        }
+    }
+
+    public void onComplete( AsyncEvent event ) throws IOException
+    {
+    }
+
+    public void onStartAsync( AsyncEvent event ) throws IOException
+    {
+    }
+
+    private void write( Resolution resolution )
+    {
+        boolean succeeded = false;
+        try
+        {
+            if ( resolution != null )
+            {
+                HttpServletResponse response = meteredResponse != null ? meteredResponse : (HttpServletResponse) asyncContext.getResponse();
+                resolution.execute( (HttpServletRequest) asyncContext.getRequest(), response );
+            }
+            succeeded = true;
+        }
+        catch ( Exception e )
+        {
+            log.error( e, "Unable to write the response of an asynchronous handler." );
+        }
+        finally
+        {
+            if ( meteredResponse != null )
+            {
+                meteredResponse.complete( succeeded );
+            }
+            asyncContext.complete();
+        }
+    }
+}
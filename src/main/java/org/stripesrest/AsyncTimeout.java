@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Overrides how long the interceptor waits for an asynchronous event handler
+ * (one returning a CompletionStage) to complete, and which error is returned
+ * to the caller when it does not. It may be placed on the handler method or
+ * on the action bean class; the method annotation wins.
+ *
+ * Handlers without this annotation use the RestAsync.Timeout and
+ * RestAsync.TimeoutStatus Stripes filter parameters.
+ */
+@Target(
+                {
+            ElementType.METHOD, ElementType.TYPE
+        } )
+@Retention( RetentionPolicy.RUNTIME )
+@Documented
+public @interface AsyncTimeout
+{
+
+    /**
+     * @return Time to wait for the handler to complete, in milliseconds
+     */
+    long value();
+
+    /**
+     * @return HTTP status returned when the handler times out. Must be either
+     * 503 (Service Unavailable) or 504 (Gateway Timeout).
+     */
+    int status() default HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import net.sourceforge.stripes.controller.StripesRequestWrapper;
+
+/**
+ * One entry of a batch, presented to Stripes as a request of its own. The
+ * method, path, parameters, body and attributes are the entry's; the session,
+ * locale, cookies and remaining headers are those of the batch request.
+ *
+ * Headers which describe the batch body, or which would make the entry's
+ * response conditional, compressed, replayed, cross-origin or other than JSON, are hidden: the
+ * entry's response is embedded in the batch response, which is negotiated
+ * and compressed as a whole. Entries never run asynchronously.
+ */
+final class BatchRequest extends HttpServletRequestWrapper
+{
+
+    private static final List< String> HIDDEN_HEADERS = Arrays.asList( "accept", "accept-encoding", "content-encoding", "content-length", "content-type", "idempotency-key", "if-match", "if-modified-since", "if-none-match", "if-unmodified-since", "origin", "range", "transfer-encoding" );
+
+    private final String method;
+    private final String servletPath;
+    private final String queryString;
+    private final Map< String, String[]> parameters;
+    private final byte[] body;
+    private final Map< String, Object> attributes = new HashMap< String, Object>();
+    private String characterEncoding;
+
+    /**
+     * @param request - Batch request
+     * @param method - HTTP method of the entry
+     * @param path - Path of the entry within the application, optionally
+     * followed by a query string
+     * @param parameters - Parameters of the entry, added to those of the query
+     * string
+     * @param body - UTF-8 encoded JSON body of the entry, or null
+     */
+    BatchRequest( HttpServletRequest request, String method, String path, Map< String, List< String>> parameters, byte[] body )
+    {
+        super( unwrap( request ) );
+        this.method = method;
+        this.body = body;
+        this.characterEncoding = body != null ? "UTF-8" : null;
+
+        int query = path.indexOf( '?' );
+        this.servletPath = query >= 0 ? path.substring( 0, query ) : path;
+        this.queryString = query >= 0 ? path.substring( query + 1 ) : null;
+
+        Map< String, List< String>> values = new LinkedHashMap< String, List< String>>();
+        if ( queryString != null )
+        {
+            for ( String pair : queryString.split( "&" ) )
+            {
+                if ( !pair.isEmpty() )
+                {
+                    int equals = pair.indexOf( '=' );
+                    add( values, decode( equals >= 0 ? pair.substring( 0, equals ) : pair ), equals >= 0 ? decode( pair.substring( equals + 1 ) ) : "" );
+                }
+            }
+        }
+        for ( Map.Entry< String, List< String>> parameter : parameters.entrySet() )
+        {
+            for ( String value : parameter.getValue() )
+            {
+                add( values, parameter.getKey(), value );
+            }
+        }
+
+        Map< String, String[]> merged = new LinkedHashMap< String, String[]>();
+        for ( Map.Entry< String, List< String>> parameter : values.entrySet() )
+        {
+            merged.put( parameter.getKey(), parameter.getValue().toArray( new String[ parameter.getValue().size() ] ) );
+        }
+        this.parameters = Collections.unmodifiableMap( merged );
+    }
+
+    /**
+     * Returns the request below the StripesRequestWrapper of the batch, which
+     * would otherwise be reused by the StripesFilter for the entry, parameters
+     * and all.
+     */
+    private static HttpServletRequest unwrap( HttpServletRequest request )
+    {
+        HttpServletRequest unwrapped = request;
+        for ( ServletRequest wrapped = request; wrapped instanceof ServletRequestWrapper; wrapped = ( (ServletRequestWrapper) wrapped ).getRequest() )
+        {
+            if ( wrapped instanceof StripesRequestWrapper )
+            {
+                unwrapped = (HttpServletRequest) ( (StripesRequestWrapper) wrapped ).getRequest();
+            }
+        }
+        return unwrapped;
+    }
+
+    private static void add( Map< String, List< String>> values, String name, String value )
+    {
+        List< String> list = values.get( name );
+        if ( list == null )
+        {
+            list = new ArrayList< String>( 1 );
+            values.put( name, list );
+        }
+        list.add( value );
+    }
+
+    private static String decode( String text )
+    {
+        try
+        {
+            return URLDecoder.decode( text, "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // Malformed escapes are passed through as they are
+            return text;
+        }
+    }
+
+    @Override
+    public String getMethod()
+    {
+        return method;
+    }
+
+    @Override
+    public String getServletPath()
+    {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo()
+    {
+        return null;
+    }
+
+    @Override
+    public String getPathTranslated()
+    {
+        return null;
+    }
+
+    @Override
+    public String getRequestURI()
+    {
+        return getContextPath() + servletPath;
+    }
+
+    @Override
+    public StringBuffer getRequestURL()
+    {
+        StringBuffer url = new StringBuffer();
+        url.append( getScheme() ).append( "://" ).append( getServerName() ).append( ':' ).append( getServerPort() ).append( getRequestURI() );
+        return url;
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter( String name )
+    {
+        String[] values = parameters.get( name );
+        return values != null ? values[0] : null;
+    }
+
+    @Override
+    public Map< String, String[]> getParameterMap()
+    {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration< String> getParameterNames()
+    {
+        return Collections.enumeration( parameters.keySet() );
+    }
+
+    @Override
+    public String[] getParameterValues( String name )
+    {
+        String[] values = parameters.get( name );
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public String getHeader( String name )
+    {
+        if ( isHidden( name ) )
+        {
+            return "content-type".equalsIgnoreCase( name ) ? getContentType() : null;
+        }
+        return super.getHeader( name );
+    }
+
+    @Override
+    public Enumeration< String> getHeaders( String name )
+    {
+        if ( isHidden( name ) )
+        {
+            String value = getHeader( name );
+            return Collections.enumeration( value != null ? Collections.singletonList( value ) : Collections.< String>emptyList() );
+        }
+        return super.getHeaders( name );
+    }
+
+    @Override
+    public Enumeration< String> getHeaderNames()
+    {
+        List< String> names = new ArrayList< String>();
+        Enumeration< String> all = super.getHeaderNames();
+        while ( all != null && all.hasMoreElements() )
+        {
+            String name = all.nextElement();
+            if ( !isHidden( name ) )
+            {
+                names.add( name );
+            }
+        }
+        if ( body != null )
+        {
+            names.add( "Content-Type" );
+        }
+        return Collections.enumeration( names );
+    }
+
+    @Override
+    public long getDateHeader( String name )
+    {
+        return isHidden( name ) ? -1 : super.getDateHeader( name );
+    }
+
+    @Override
+    public int getIntHeader( String name )
+    {
+        return isHidden( name ) ? -1 : super.getIntHeader( name );
+    }
+
+    private static boolean isHidden( String name )
+    {
+        return name != null && HIDDEN_HEADERS.contains( name.toLowerCase() );
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return body != null ? "application/json; charset=UTF-8" : null;
+    }
+
+    @Override
+    public int getContentLength()
+    {
+        return body != null ? body.length : -1;
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding( String encoding )
+    {
+        this.characterEncoding = encoding;
+    }
+
+    @Override
+    public ServletInputStream getInputStream()
+    {
+        final ByteArrayInputStream in = new ByteArrayInputStream( body != null ? body : new byte[ 0 ] );
+        return new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return in.read();
+            }
+
+            @Override
+            public int read( byte[] b, int off, int len )
+            {
+                return in.read( b, off, len );
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException
+    {
+        return new BufferedReader( new InputStreamReader( getInputStream(), characterEncoding != null ? characterEncoding : StandardCharsets.UTF_8.name() ) );
+    }
+
+    @Override
+    public Object getAttribute( String name )
+    {
+        return attributes.get( name );
+    }
+
+    @Override
+    public Enumeration< String> getAttributeNames()
+    {
+        return Collections.enumeration( new ArrayList< String>( attributes.keySet() ) );
+    }
+
+    @Override
+    public void setAttribute( String name, Object value )
+    {
+        if ( value == null )
+        {
+            attributes.remove( name );
+        }
+        else
+        {
+            attributes.put( name, value );
+        }
+    }
+
+    @Override
+    public void removeAttribute( String name )
+    {
+        attributes.remove( name );
+    }
+
+    @Override
+    public DispatcherType getDispatcherType()
+    {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public boolean isAsyncSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncStarted()
+    {
+        return false;
+    }
+
+    @Override
+    public AsyncContext startAsync()
+    {
+        throw new IllegalStateException( "Batch entries cannot be processed asynchronously" );
+    }
+
+    @Override
+    public AsyncContext startAsync( ServletRequest request, ServletResponse response )
+    {
+        throw new IllegalStateException( "Batch entries cannot be processed asynchronously" );
+    }
+}
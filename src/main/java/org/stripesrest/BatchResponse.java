@@ -0,0 +1,386 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Buffers the response to one entry of a batch: its status, headers and body
+ * are kept in memory, to be embedded in the batch response once the entry
+ * has completed. Nothing reaches the batch response through it, except
+ * cookies. It also captures the responses kept by {@link IdempotentCalls}.
+ */
+final class BatchResponse extends HttpServletResponseWrapper
+{
+
+    private final Map< String, List< String>> headers = new TreeMap< String, List< String>>( String.CASE_INSENSITIVE_ORDER );
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int status = HttpServletResponse.SC_OK;
+    private String contentType;
+    private String characterEncoding;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    BatchResponse( HttpServletResponse response )
+    {
+        super( response );
+    }
+
+    /**
+     * @return Headers set by the entry, by case-insensitive name
+     */
+    Map< String, List< String>> getHeaderMap()
+    {
+        return headers;
+    }
+
+    /**
+     * @return Body written by the entry, decoded with its character encoding
+     */
+    String getBodyText()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+        return new String( body.toByteArray(), getCharset() );
+    }
+
+    /**
+     * @return Body written by the entry, as bytes
+     */
+    byte[] getBodyBytes()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * @return True if the entry wrote a JSON body
+     */
+    boolean isJson()
+    {
+        if ( contentType == null || body.size() == 0 )
+        {
+            return false;
+        }
+
+        int end = contentType.indexOf( ';' );
+        String mediaType = ( end >= 0 ? contentType.substring( 0, end ) : contentType ).trim();
+        return mediaType.equalsIgnoreCase( "application/json" ) || mediaType.regionMatches( true, mediaType.length() - 5, "+json", 0, 5 );
+    }
+
+    /**
+     * @return True if the entry wrote a body
+     */
+    boolean hasBody()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+        return body.size() > 0;
+    }
+
+    private Charset getCharset()
+    {
+        try
+        {
+            return characterEncoding != null ? Charset.forName( characterEncoding ) : StandardCharsets.ISO_8859_1;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    @Override
+    public int getStatus()
+    {
+        return status;
+    }
+
+    @Override
+    public void setStatus( int status )
+    {
+        this.status = status;
+    }
+
+    @Override
+    @SuppressWarnings( "deprecation" )
+    public void setStatus( int status, String message )
+    {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError( int status )
+    {
+        sendError( status, null );
+    }
+
+    @Override
+    public void sendError( int status, String message )
+    {
+        resetBuffer();
+        this.status = status;
+    }
+
+    @Override
+    public void sendRedirect( String location )
+    {
+        resetBuffer();
+        this.status = HttpServletResponse.SC_FOUND;
+        setHeader( "Location", location );
+    }
+
+    @Override
+    public void addCookie( Cookie cookie )
+    {
+        synchronized ( getResponse() )
+        {
+            super.addCookie( cookie );
+        }
+    }
+
+    @Override
+    public boolean containsHeader( String name )
+    {
+        return headers.containsKey( name );
+    }
+
+    @Override
+    public String getHeader( String name )
+    {
+        List< String> values = headers.get( name );
+        return values != null ? values.get( 0 ) : null;
+    }
+
+    @Override
+    public Collection< String> getHeaders( String name )
+    {
+        List< String> values = headers.get( name );
+        return values != null ? new ArrayList< String>( values ) : new ArrayList< String>();
+    }
+
+    @Override
+    public Collection< String> getHeaderNames()
+    {
+        return new ArrayList< String>( headers.keySet() );
+    }
+
+    @Override
+    public void setHeader( String name, String value )
+    {
+        headers.remove( name );
+        addHeader( name, value );
+    }
+
+    @Override
+    public void addHeader( String name, String value )
+    {
+        if ( "content-type".equalsIgnoreCase( name ) )
+        {
+            setContentType( value );
+            return;
+        }
+
+        List< String> values = headers.get( name );
+        if ( values == null )
+        {
+            values = new ArrayList< String>( 1 );
+            headers.put( name, values );
+        }
+        values.add( value );
+    }
+
+    @Override
+    public void setIntHeader( String name, int value )
+    {
+        setHeader( name, Integer.toString( value ) );
+    }
+
+    @Override
+    public void addIntHeader( String name, int value )
+    {
+        addHeader( name, Integer.toString( value ) );
+    }
+
+    @Override
+    public void setDateHeader( String name, long date )
+    {
+        setHeader( name, formatDate( date ) );
+    }
+
+    @Override
+    public void addDateHeader( String name, long date )
+    {
+        addHeader( name, formatDate( date ) );
+    }
+
+    private static String formatDate( long date )
+    {
+        SimpleDateFormat format = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+        return format.format( new Date( date ) );
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    public void setContentType( String type )
+    {
+        this.contentType = type;
+        if ( type != null )
+        {
+            int charset = type.toLowerCase( Locale.ENGLISH ).indexOf( "charset=" );
+            if ( charset >= 0 )
+            {
+                characterEncoding = type.substring( charset + 8 ).trim();
+            }
+        }
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return characterEncoding != null ? characterEncoding : StandardCharsets.ISO_8859_1.name();
+    }
+
+    @Override
+    public void setCharacterEncoding( String encoding )
+    {
+        if ( writer == null )
+        {
+            this.characterEncoding = encoding;
+        }
+    }
+
+    @Override
+    public void setContentLength( int length )
+    {
+        // The length of the embedded body is irrelevant to the batch
+    }
+
+    @Override
+    public void setLocale( Locale locale )
+    {
+        // The locale belongs to the batch response
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream()
+    {
+        if ( outputStream == null )
+        {
+            outputStream = new ServletOutputStream()
+            {
+                @Override
+                public void write( int b )
+                {
+                    body.write( b );
+                }
+
+                @Override
+                public void write( byte[] b, int off, int len )
+                {
+                    body.write( b, off, len );
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter()
+    {
+        if ( writer == null )
+        {
+            writer = new PrintWriter( new OutputStreamWriter( body, getCharset() ) );
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public int getBufferSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setBufferSize( int size )
+    {
+        // Everything is buffered
+    }
+
+    @Override
+    public boolean isCommitted()
+    {
+        return false;
+    }
+
+    @Override
+    public void reset()
+    {
+        resetBuffer();
+        headers.clear();
+        status = HttpServletResponse.SC_OK;
+        contentType = null;
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+        body.reset();
+    }
+}
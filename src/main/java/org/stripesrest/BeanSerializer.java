@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.ReflectUtil;
+
+/**
+ * The readable properties of one bean class, prepared once for
+ * {@link JsonBuilder}: each property has a getter bound without reflection and
+ * its name already encoded for {@link JsonWriter} and {@link CborWriter}.
+ * Properties which can never be written -- those without a read method and
+ * those holding a Class, which every JsonBuilder excludes -- are dropped up
+ * front.
+ *
+ * A class marked {@link JsonSerializable} and compiled with
+ * {@link RestAnnotationProcessor} is described by its generated
+ * {@link JsonAccessor} instead, without any introspection. Otherwise, getters
+ * are spun with LambdaMetafactory when the bean class is public and
+ * visible from this library's class loader, so that the JIT can inline them
+ * like any other call. Other getters fall back to a MethodHandle, or to
+ * reflection where no handle can be made, which fails just as it always has.
+ *
+ * Serializers live in a ClassValue, which stores them with the class itself:
+ * they are collected along with the class and never keep a redeployed web
+ * application's class loader alive.
+ */
+final class BeanSerializer
+{
+
+    private static final ClassValue< BeanSerializer> SERIALIZERS = new ClassValue< BeanSerializer>()
+    {
+        @Override
+        protected BeanSerializer computeValue( Class<?> type )
+        {
+            return new BeanSerializer( type );
+        }
+    };
+
+    private final Property[] properties;
+    private final Map< String, Property> propertiesByName;
+
+    private BeanSerializer( Class<?> type )
+    {
+        List< Property> readable = new ArrayList< Property>();
+        JsonAccessor accessor = findAccessor( type );
+        if ( accessor != null )
+        {
+            String[] names = accessor.getPropertyNames();
+            Class<?>[] propertyTypes = accessor.getPropertyTypes();
+            for ( int i = 0; i < names.length; i++ )
+            {
+                if ( !isClassType( propertyTypes[ i ] ) )
+                {
+                    readable.add( new Property( names[ i ], propertyTypes[ i ], generatedGetter( accessor, i ) ) );
+                }
+            }
+        }
+        else
+        {
+            for ( PropertyDescriptor descriptor : ReflectUtil.getPropertyDescriptors( type ) )
+            {
+                Method readMethod = descriptor.getReadMethod();
+                if ( readMethod != null && !isClassType( descriptor.getPropertyType() ) )
+                {
+                    readable.add( new Property( descriptor.getName(), descriptor.getPropertyType(), createGetter( readMethod ) ) );
+                }
+            }
+        }
+
+        Map< String, Property> byName = new HashMap< String, Property>();
+        for ( Property property : readable )
+        {
+            byName.put( property.getName(), property );
+        }
+        this.properties = readable.toArray( new Property[ readable.size() ] );
+        this.propertiesByName = Collections.unmodifiableMap( byName );
+    }
+
+    /**
+     * @param type - Bean class
+     * @return Serializer of the class, created the first time it is asked for
+     */
+    static BeanSerializer forClass( Class<?> type )
+    {
+        return SERIALIZERS.get( type );
+    }
+
+    /**
+     * @return Writable properties, in the order of their property descriptors
+     */
+    Property[] getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @param name - Property name
+     * @return Writable property of that name, or null
+     */
+    Property getProperty( String name )
+    {
+        return propertiesByName.get( name );
+    }
+
+    /**
+     * Reads a property of a bean. Implemented by generated classes, hence not
+     * private.
+     */
+    interface Getter
+    {
+
+        Object get( Object bean ) throws Throwable;
+    }
+
+    /**
+     * One readable property of a bean class.
+     */
+    static final class Property
+    {
+
+        private final String name;
+        private final Class<?> type;
+        private final Getter getter;
+
+        // "name", escaped and quoted
+        private final String quotedName;
+        private final byte[] jsonName;
+
+        // Text string head followed by the UTF-8 bytes of the name
+        private final byte[] cborName;
+
+        private Property( String name, Class<?> type, Getter getter )
+        {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+
+            try
+            {
+                StringWriter quoted = new StringWriter();
+                new JsonWriter( quoted, 0 ).value( name ).flush();
+                this.quotedName = quoted.toString();
+                this.jsonName = quotedName.getBytes( StandardCharsets.UTF_8 );
+
+                ByteArrayOutputStream cbor = new ByteArrayOutputStream();
+                new CborWriter( cbor ).value( name ).flush();
+                this.cborName = cbor.toByteArray();
+            }
+            catch ( IOException e )
+            {
+                // Neither writer can fail over an in-memory target
+                throw new IllegalStateException( e );
+            }
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return Declared type of the property
+         */
+        Class<?> getType()
+        {
+            return type;
+        }
+
+        /**
+         * @param bean - Bean to read the property of
+         * @return Value of the property
+         * @throws Exception if the read method throws or cannot be called
+         */
+        Object read( Object bean ) throws Exception
+        {
+            try
+            {
+                return getter.get( bean );
+            }
+            catch ( Exception e )
+            {
+                throw e;
+            }
+            catch ( Error e )
+            {
+                throw e;
+            }
+            catch ( Throwable t )
+            {
+                throw new UndeclaredThrowableException( t );
+            }
+        }
+
+        /**
+         * Writes the name of this property, copying the pre-encoded bytes
+         * when the writer is one of this library's.
+         *
+         * @param writer - Writer positioned inside an object
+         * @throws IOException if the underlying stream fails
+         */
+        void writeName( DocumentWriter writer ) throws IOException
+        {
+            if ( writer.getClass() == JsonWriter.class )
+            {
+                ( (JsonWriter) writer ).name( quotedName, jsonName );
+            }
+            else if ( writer.getClass() == CborWriter.class )
+            {
+                ( (CborWriter) writer ).name( cborName );
+            }
+            else
+            {
+                writer.name( name );
+            }
+        }
+    }
+
+    /**
+     * Returns true for the properties every JsonBuilder excludes.
+     */
+    private static boolean isClassType( Class<?> type )
+    {
+        return type == Class.class || ( type.isArray() && type.getComponentType() == Class.class );
+    }
+
+    /**
+     * Loads the accessor generated for a class marked {@link JsonSerializable},
+     * if it was compiled with the annotation processor.
+     */
+    private static JsonAccessor findAccessor( Class<?> type )
+    {
+        if ( !type.isAnnotationPresent( JsonSerializable.class ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            Class<?> accessorClass = Class.forName( type.getName() + JsonAccessor.SUFFIX, true, type.getClassLoader() );
+            return accessorClass.asSubclass( JsonAccessor.class ).getConstructor().newInstance();
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return null;
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Unable to create the generated JSON accessor of " + type.getName(), e );
+        }
+    }
+
+    private static Getter generatedGetter( final JsonAccessor accessor, final int index )
+    {
+        return new Getter()
+        {
+            public Object get( Object bean ) throws Throwable
+            {
+                return accessor.read( bean, index );
+            }
+        };
+    }
+
+    private static Getter createGetter( final Method readMethod )
+    {
+        Class<?> declaringClass = readMethod.getDeclaringClass();
+        if ( Modifier.isPublic( readMethod.getModifiers() ) && Modifier.isPublic( declaringClass.getModifiers() ) && isVisible( declaringClass ) )
+        {
+            try
+            {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                CallSite site = LambdaMetafactory.metafactory( lookup, "get", MethodType.methodType( Getter.class ),
+                        MethodType.methodType( Object.class, Object.class ), lookup.unreflect( readMethod ),
+                        MethodType.methodType( Object.class, declaringClass ) );
+                return (Getter) site.getTarget().invokeExact();
+            }
+            catch ( Throwable t )
+            {
+                // Fall back to a method handle
+            }
+        }
+
+        try
+        {
+            final MethodHandle handle = MethodHandles.publicLookup().unreflect( readMethod ).asType( MethodType.methodType( Object.class, Object.class ) );
+            return new Getter()
+            {
+                public Object get( Object bean ) throws Throwable
+                {
+                    return (Object) handle.invokeExact( bean );
+                }
+            };
+        }
+        catch ( IllegalAccessException e )
+        {
+            return new Getter()
+            {
+                public Object get( Object bean ) throws Throwable
+                {
+                    return readMethod.invoke( bean );
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns true if the class can be resolved by name from this library's
+     * class loader, as a generated getter which refers to it must. A class of
+     * a web application is not visible when the library is shared by the
+     * container.
+     */
+    private static boolean isVisible( Class<?> type )
+    {
+        try
+        {
+            return Class.forName( type.getName(), false, BeanSerializer.class.getClassLoader() ) == type;
+        }
+        catch ( Throwable t )
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * The pool of byte buffers which the responses of this library are encoded
+ * into before they reach the servlet output stream. Every buffer has the same,
+ * fixed size: a large response streams through one buffer or, if it must be
+ * held in memory, is spread over several, so no response ever leaves a giant
+ * buffer behind in the pool.
+ *
+ * The pool is split into stripes picked by thread, so threads rarely contend
+ * for a buffer. A thread which finds its stripe empty allocates a buffer, and
+ * a buffer returned to a full stripe is left to the garbage collector. Buffers
+ * which are never returned, such as those of a failed response, are simply
+ * collected too.
+ */
+final class BufferPool
+{
+
+    /** Size, in bytes, of every pooled buffer. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** Default number of buffers kept in the pool. */
+    static final int DEFAULT_POOL_SIZE = 64;
+
+    private static final Log log = Log.getInstance( BufferPool.class );
+
+    private static final int STRIPES = Integer.highestOneBit( Math.max( 1, Runtime.getRuntime().availableProcessors() ) * 2 - 1 );
+
+    private static final LongAdder acquired = new LongAdder();
+    private static final LongAdder allocated = new LongAdder();
+    private static final LongAdder discarded = new LongAdder();
+
+    private static volatile int poolSize = DEFAULT_POOL_SIZE;
+    private static volatile BlockingQueue< byte[]>[] stripes = createStripes( DEFAULT_POOL_SIZE );
+    private static volatile ObjectName objectName;
+
+    /**
+     * The JMX and metrics view of the pool.
+     */
+    static final BufferPoolMXBean STATISTICS = new BufferPoolMXBean()
+    {
+        public int getBufferSize()
+        {
+            return BUFFER_SIZE;
+        }
+
+        public int getPoolSize()
+        {
+            return poolSize;
+        }
+
+        public int getPooledCount()
+        {
+            int pooled = 0;
+            for ( BlockingQueue< byte[]> stripe : stripes )
+            {
+                pooled += stripe.size();
+            }
+            return pooled;
+        }
+
+        public long getAcquireCount()
+        {
+            return acquired.sum();
+        }
+
+        public long getAllocationCount()
+        {
+            return allocated.sum();
+        }
+
+        public long getDiscardCount()
+        {
+            return discarded.sum();
+        }
+    };
+
+    private BufferPool()
+    {
+    }
+
+    /**
+     * Sets the number of buffers kept in the pool. Zero turns pooling off.
+     *
+     * @param size - Largest number of pooled buffers
+     */
+    static void setPoolSize( int size )
+    {
+        poolSize = Math.max( size, 0 );
+        stripes = createStripes( size );
+    }
+
+    /**
+     * Takes a buffer of {@link #BUFFER_SIZE} bytes from the pool, allocating
+     * one if the pool has none to spare.
+     *
+     * @return Buffer whose content is undefined
+     */
+    static byte[] acquire()
+    {
+        acquired.increment();
+        byte[] buffer = stripe().poll();
+        if ( buffer == null )
+        {
+            allocated.increment();
+            buffer = new byte[ BUFFER_SIZE ];
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use it afterwards.
+     * Buffers of any other size than {@link #BUFFER_SIZE} are ignored, so a
+     * buffer which was grown or trimmed can be passed as well.
+     *
+     * @param buffer - Buffer from {@link #acquire()}, or null
+     */
+    static void release( byte[] buffer )
+    {
+        if ( buffer != null && buffer.length == BUFFER_SIZE && ( poolSize == 0 || !stripe().offer( buffer ) ) )
+        {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Registers the pool as the JMX MXBean
+     * <code>org.stripesrest:type=BufferPool</code>.
+     */
+    static void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "org.stripesrest:type=BufferPool" );
+            try
+            {
+                server.registerMBean( STATISTICS, name );
+            }
+            catch ( InstanceAlreadyExistsException e )
+            {
+                // Left behind by an earlier deployment of the application
+                server.unregisterMBean( name );
+                server.registerMBean( STATISTICS, name );
+            }
+            objectName = name;
+        }
+        catch ( JMException e )
+        {
+            log.warn( e, "Unable to register the REST buffer pool with JMX." );
+        }
+    }
+
+    /**
+     * Unregisters the JMX MXBean of the pool, if {@link #register()} did
+     * register it.
+     */
+    static void unregister()
+    {
+        ObjectName name = objectName;
+        if ( name != null )
+        {
+            objectName = null;
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+            }
+            catch ( InstanceNotFoundException e )
+            {
+                // Already unregistered by someone else
+            }
+            catch ( JMException e )
+            {
+                log.warn( e, "Unable to unregister the REST buffer pool from JMX." );
+            }
+        }
+    }
+
+    private static BlockingQueue< byte[]> stripe()
+    {
+        BlockingQueue< byte[]>[] current = stripes;
+        return current[ (int) Thread.currentThread().getId() & ( current.length - 1 ) ];
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static BlockingQueue< byte[]>[] createStripes( int size )
+    {
+        BlockingQueue< byte[]>[] created = (BlockingQueue< byte[]>[]) new BlockingQueue< ?>[ STRIPES ];
+        for ( int i = 0; i < created.length; i++ )
+        {
+            created[ i ] = new ArrayBlockingQueue< byte[]>( Math.max( 1, size / STRIPES ) );
+        }
+        return created;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+/**
+ * JMX view of the pool of byte buffers which REST responses are encoded into,
+ * registered as <code>org.stripesrest:type=BufferPool</code>. Also available
+ * through {@link RestMetrics#getBufferPool()}.
+ */
+public interface BufferPoolMXBean
+{
+
+    /**
+     * @return Size, in bytes, of every pooled buffer
+     */
+    int getBufferSize();
+
+    /**
+     * @return Largest number of buffers kept in the pool, zero if pooling is
+     * off
+     */
+    int getPoolSize();
+
+    /**
+     * @return Number of buffers currently waiting in the pool
+     */
+    int getPooledCount();
+
+    /**
+     * @return Number of buffers taken from the pool, whether reused or newly
+     * allocated
+     */
+    long getAcquireCount();
+
+    /**
+     * @return Number of buffers allocated because the pool had none to spare
+     */
+    long getAllocationCount();
+
+    /**
+     * @return Number of buffers dropped because the pool was full when they
+     * were returned
+     */
+    long getDiscardCount();
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GET event handler with this annotation has its JSON responses cached on
+ * the server. Requests for the same URL, key parameters, remote user and
+ * {@link #varyHeaders()} are then answered from the serialized bytes without
+ * invoking the handler until the entry expires or is invalidated through
+ * {@link ResponseCache}.
+ *
+ * Only responses which the handler returns as a JsonResolution are cached. A
+ * request with an Authorization or Cookie header which is not listed in
+ * {@link #varyHeaders()} always invokes the handler, and its response is not
+ * cached: it may depend on a token or a session.
+ */
+@Target( ElementType.METHOD )
+@Retention( RetentionPolicy.RUNTIME )
+@Documented
+public @interface CacheResponse
+{
+
+    /**
+     * @return How long an entry stays fresh, in {@link #unit()}s
+     */
+    long ttl();
+
+    /**
+     * @return Unit of the time to live
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * @return Maximum number of entries; the least recently used are evicted
+     * beyond it
+     */
+    int maxEntries() default 1000;
+
+    /**
+     * @return Request parameters which identify an entry along with the
+     * request URI. If empty, all request parameters are used. The fields
+     * parameter of {@link JsonResolution}, when turned on, is always part of
+     * the key.
+     */
+    String[] keyParameters() default {};
+
+    /**
+     * @return Request headers which may change the response, and so identify
+     * an entry along with the URL. Listing Authorization or Cookie caches the
+     * responses of each client, rather than of none.
+     */
+    String[] varyHeaders() default {};
+}
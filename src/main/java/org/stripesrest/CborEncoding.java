@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.OutputStream;
+
+/**
+ * The Concise Binary Object Representation (RFC 7049), offered to clients
+ * which accept <code>application/cbor</code>. Numbers are written in binary
+ * and strings without escaping, so CBOR is both smaller and cheaper to parse
+ * than JSON for numeric payloads. See {@link CborWriter}.
+ *
+ * @author Rick Grashel
+ */
+public class CborEncoding implements ResponseEncoding
+{
+
+    /** Media type of CBOR documents. */
+    public static final String MEDIA_TYPE = "application/cbor";
+
+    public String getMediaType()
+    {
+        return MEDIA_TYPE;
+    }
+
+    public DocumentWriter newWriter( OutputStream out )
+    {
+        return new CborWriter( out );
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * A small, forward-only CBOR (RFC 7049) writer -- the binary counterpart of
+ * {@link JsonWriter}. Objects and arrays are written with indefinite lengths,
+ * so their size never needs to be known up front and tokens are encoded into
+ * a pooled buffer and sent to the stream as they are produced. The buffer is
+ * returned to the {@link BufferPool} whenever the writer is flushed.
+ *
+ * Integers are written in their shortest form, floats and doubles as single
+ * and double precision floats, BigIntegers beyond the range of a long as
+ * bignums and BigDecimals as decimal fractions. As in JSON, NaN and the
+ * infinities are written as null.
+ *
+ * @author Rick Grashel
+ */
+public class CborWriter implements DocumentWriter
+{
+
+    private static final int UNSIGNED = 0x00;
+    private static final int NEGATIVE = 0x20;
+    private static final int BYTES = 0x40;
+    private static final int TEXT = 0x60;
+    private static final int ARRAY = 0x80;
+    private static final int TAG = 0xC0;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT = 0xFA;
+    private static final int DOUBLE = 0xFB;
+    private static final int BREAK = 0xFF;
+
+    private static final int TAG_POSITIVE_BIGNUM = 2;
+    private static final int TAG_NEGATIVE_BIGNUM = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf( Long.MIN_VALUE );
+    private static final BigInteger MAX_LONG = BigInteger.valueOf( Long.MAX_VALUE );
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+    private int depth;
+
+    /**
+     * Constructs a CborWriter which encodes a document to the passed stream.
+     *
+     * @param out - Stream to send CBOR to
+     */
+    public CborWriter( OutputStream out )
+    {
+        this.out = out;
+    }
+
+    public CborWriter beginObject() throws IOException
+    {
+        depth++;
+        write( INDEFINITE_MAP );
+        return this;
+    }
+
+    public CborWriter endObject() throws IOException
+    {
+        return close();
+    }
+
+    public CborWriter beginArray() throws IOException
+    {
+        depth++;
+        write( INDEFINITE_ARRAY );
+        return this;
+    }
+
+    public CborWriter endArray() throws IOException
+    {
+        return close();
+    }
+
+    public CborWriter name( String name ) throws IOException
+    {
+        if ( depth == 0 )
+        {
+            throw new IllegalStateException( "A CBOR map key can only be written inside a map." );
+        }
+        return value( name );
+    }
+
+    /**
+     * Writes a map key which has already been encoded as a text string.
+     *
+     * @param encoded - Head and UTF-8 bytes of the key
+     * @return this writer
+     * @throws IOException if the underlying stream fails
+     */
+    CborWriter name( byte[] encoded ) throws IOException
+    {
+        if ( depth == 0 )
+        {
+            throw new IllegalStateException( "A CBOR map key can only be written inside a map." );
+        }
+        writeBytes( encoded, 0, encoded.length );
+        return this;
+    }
+
+    public CborWriter value( String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            return nullValue();
+        }
+
+        writeText( value );
+        return this;
+    }
+
+    public CborWriter value( boolean value ) throws IOException
+    {
+        write( value ? TRUE : FALSE );
+        return this;
+    }
+
+    public CborWriter value( long value ) throws IOException
+    {
+        // A negative n is encoded as -1 - n, which is ~n
+        if ( value < 0 )
+        {
+            writeHead( NEGATIVE, ~value );
+        }
+        else
+        {
+            writeHead( UNSIGNED, value );
+        }
+        return this;
+    }
+
+    public CborWriter value( Number value ) throws IOException
+    {
+        if ( value == null )
+        {
+            return nullValue();
+        }
+
+        if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte )
+        {
+            return value( value.longValue() );
+        }
+
+        if ( value instanceof BigInteger )
+        {
+            writeInteger( (BigInteger) value );
+            return this;
+        }
+
+        if ( value instanceof BigDecimal )
+        {
+            // A decimal fraction is the array [ exponent, mantissa ]
+            BigDecimal decimal = (BigDecimal) value;
+            writeHead( TAG, TAG_DECIMAL_FRACTION );
+            writeHead( ARRAY, 2 );
+            value( -(long) decimal.scale() );
+            writeInteger( decimal.unscaledValue() );
+            return this;
+        }
+
+        if ( value instanceof Float )
+        {
+            float floatValue = value.floatValue();
+            if ( Float.isNaN( floatValue ) || Float.isInfinite( floatValue ) )
+            {
+                return nullValue();
+            }
+
+            ensure( 5 );
+            buffer[ count++ ] = (byte) FLOAT;
+            putInt( Float.floatToIntBits( floatValue ) );
+            return this;
+        }
+
+        double doubleValue = value.doubleValue();
+        if ( Double.isNaN( doubleValue ) || Double.isInfinite( doubleValue ) )
+        {
+            return nullValue();
+        }
+
+        ensure( 9 );
+        buffer[ count++ ] = (byte) DOUBLE;
+        putLong( Double.doubleToLongBits( doubleValue ) );
+        return this;
+    }
+
+    public CborWriter nullValue() throws IOException
+    {
+        write( NULL );
+        return this;
+    }
+
+    public void flush() throws IOException
+    {
+        if ( buffer != null )
+        {
+            drain();
+            BufferPool.release( buffer );
+            buffer = null;
+        }
+        out.flush();
+    }
+
+    private CborWriter close() throws IOException
+    {
+        if ( depth == 0 )
+        {
+            throw new IllegalStateException( "Unbalanced CBOR document: there is nothing to close." );
+        }
+
+        depth--;
+        write( BREAK );
+        return this;
+    }
+
+    private void writeInteger( BigInteger value ) throws IOException
+    {
+        if ( value.compareTo( MIN_LONG ) >= 0 && value.compareTo( MAX_LONG ) <= 0 )
+        {
+            value( value.longValue() );
+            return;
+        }
+
+        // A negative bignum n is encoded as the magnitude of -1 - n
+        boolean negative = value.signum() < 0;
+        byte[] magnitude = ( negative ? value.not() : value ).toByteArray();
+        int offset = magnitude[ 0 ] == 0 ? 1 : 0;
+
+        writeHead( TAG, negative ? TAG_NEGATIVE_BIGNUM : TAG_POSITIVE_BIGNUM );
+        writeHead( BYTES, magnitude.length - offset );
+        writeBytes( magnitude, offset, magnitude.length - offset );
+    }
+
+    private void writeText( String value ) throws IOException
+    {
+        int length = value.length();
+        writeHead( TEXT, utf8Length( value ) );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = value.charAt( i );
+
+            // The longest encoding of a code point is four bytes
+            if ( count + 4 > buffer.length )
+            {
+                drain();
+            }
+
+            if ( c < 0x80 )
+            {
+                buffer[ count++ ] = (byte) c;
+            }
+            else if ( c < 0x800 )
+            {
+                buffer[ count++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+                buffer[ count++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                // Unpaired surrogates are replaced, as String.getBytes() does
+                buffer[ count++ ] = '?';
+            }
+            else
+            {
+                buffer[ count++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+        }
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a string, which CBOR writes ahead of them.
+     */
+    private static long utf8Length( String value )
+    {
+        int length = value.length();
+        long bytes = length;
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = value.charAt( i );
+            if ( c >= 0x800 )
+            {
+                if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+                {
+                    // Four bytes for two chars
+                    bytes += 2;
+                    i++;
+                }
+                else if ( !Character.isSurrogate( c ) )
+                {
+                    bytes += 2;
+                }
+            }
+            else if ( c >= 0x80 )
+            {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the initial byte of a data item with its argument, in the
+     * shortest form which holds it.
+     */
+    private void writeHead( int majorType, long argument ) throws IOException
+    {
+        ensure( 9 );
+        if ( argument < 24 )
+        {
+            buffer[ count++ ] = (byte) ( majorType | argument );
+        }
+        else if ( argument <= 0xFF )
+        {
+            buffer[ count++ ] = (byte) ( majorType | 24 );
+            buffer[ count++ ] = (byte) argument;
+        }
+        else if ( argument <= 0xFFFF )
+        {
+            buffer[ count++ ] = (byte) ( majorType | 25 );
+            buffer[ count++ ] = (byte) ( argument >> 8 );
+            buffer[ count++ ] = (byte) argument;
+        }
+        else if ( argument <= 0xFFFFFFFFL )
+        {
+            buffer[ count++ ] = (byte) ( majorType | 26 );
+            putInt( (int) argument );
+        }
+        else
+        {
+            buffer[ count++ ] = (byte) ( majorType | 27 );
+            putLong( argument );
+        }
+    }
+
+    private void putInt( int value )
+    {
+        buffer[ count++ ] = (byte) ( value >> 24 );
+        buffer[ count++ ] = (byte) ( value >> 16 );
+        buffer[ count++ ] = (byte) ( value >> 8 );
+        buffer[ count++ ] = (byte) value;
+    }
+
+    private void putLong( long value )
+    {
+        putInt( (int) ( value >> 32 ) );
+        putInt( (int) value );
+    }
+
+    private void write( int b ) throws IOException
+    {
+        ensure( 1 );
+        buffer[ count++ ] = (byte) b;
+    }
+
+    private void writeBytes( byte[] bytes, int offset, int length ) throws IOException
+    {
+        if ( buffer == null || length > buffer.length - count )
+        {
+            drain();
+            out.write( bytes, offset, length );
+            return;
+        }
+        System.arraycopy( bytes, offset, buffer, count, length );
+        count += length;
+    }
+
+    private void ensure( int length ) throws IOException
+    {
+        if ( buffer == null )
+        {
+            buffer = BufferPool.acquire();
+        }
+        else if ( count + length > buffer.length )
+        {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        if ( count > 0 )
+        {
+            out.write( buffer, 0, count );
+            count = 0;
+        }
+    }
+}
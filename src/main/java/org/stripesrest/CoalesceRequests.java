@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A GET event handler with this annotation shares its executions between
+ * identical concurrent requests. While the handler runs for one request, the
+ * requests which arrive for the same URL, parameters, encoding, remote user
+ * and {@link #varyHeaders()} wait for it instead of invoking the handler
+ * themselves. Each of them is then sent the same serialized bytes in a
+ * response of its own. See {@link RequestCoalescer}.
+ *
+ * Only responses which the handler returns as a JsonResolution are shared. A
+ * request with a <code>Cache-Control: no-cache</code> header, or with an
+ * Authorization or Cookie header which is not listed in
+ * {@link #varyHeaders()}, always invokes the handler itself.
+ */
+@Target( ElementType.METHOD )
+@Retention( RetentionPolicy.RUNTIME )
+@Documented
+public @interface CoalesceRequests
+{
+
+    /**
+     * @return Request headers which may change the response, and so tell
+     * requests apart along with the URL. Listing Authorization or Cookie lets
+     * the requests of one client, rather than none, be coalesced.
+     */
+    String[] varyHeaders() default {};
+
+    /**
+     * @return Time a request waits for the execution in flight before
+     * invoking the handler itself, in milliseconds
+     */
+    long maxWait() default 10000;
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Compresses a response body as it is written, with gzip or deflate framing,
+ * using a pooled Deflater.
+ *
+ * When writing to a response, the first bytes are held back until the minimum
+ * compression size has been reached. A body which turns out to be smaller is
+ * sent uncompressed; otherwise the Content-Encoding header is set and
+ * everything from then on is compressed incrementally, so the serializer never
+ * has to produce the whole document up front.
+ *
+ * {@link #finish()} must be called to complete the body and
+ * {@link #release()} -- normally in a finally block -- to return the Deflater
+ * and the buffers, which come from the {@link BufferPool}, to their pools. Flushing is ignored until the body is finished so that the
+ * response is not committed early and compression is not degraded by sync
+ * flushes; streamed bodies which must reach the client in chunks call
+ * {@link #syncFlush()} instead.
+ */
+final class CompressingOutputStream extends OutputStream
+{
+
+    private static final byte[] GZIP_HEADER =
+    {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final HttpServletResponse response;
+    private final String encoding;
+    private final boolean gzip;
+    private final int minSize;
+
+    private OutputStream target;
+    private byte[] pending;
+    private int pendingCount;
+    private Deflater deflater;
+    private CRC32 crc;
+    private byte[] deflated;
+    private final byte[] single = new byte[1];
+    private boolean finished;
+
+    /**
+     * Creates a stream which writes to a response, compressing the body only
+     * if it reaches the minimum size.
+     *
+     * @param response - Response to write to
+     * @param encoding - "gzip" or "deflate"
+     * @param minSize - Size, in bytes, from which the body is compressed; at
+     * most {@link BufferPool#BUFFER_SIZE}, as only one buffer is held back
+     */
+    CompressingOutputStream( HttpServletResponse response, String encoding, int minSize )
+    {
+        this.response = response;
+        this.encoding = encoding;
+        this.gzip = ResponseCompression.GZIP.equals( encoding );
+        this.minSize = Math.min( minSize, BufferPool.BUFFER_SIZE );
+        this.pending = BufferPool.acquire();
+    }
+
+    /**
+     * Creates a stream which compresses everything written to it.
+     *
+     * @param target - Stream receiving the compressed body
+     * @param encoding - "gzip" or "deflate"
+     */
+    CompressingOutputStream( OutputStream target, String encoding )
+    {
+        this.response = null;
+        this.target = target;
+        this.encoding = encoding;
+        this.gzip = ResponseCompression.GZIP.equals( encoding );
+        this.minSize = 0;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        single[0] = (byte) b;
+        write( single, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException
+    {
+        if ( finished )
+        {
+            throw new IOException( "The compressed body has already been finished" );
+        }
+
+        if ( deflater == null )
+        {
+            if ( pendingCount + len < minSize )
+            {
+                System.arraycopy( b, off, pending, pendingCount, len );
+                pendingCount += len;
+                return;
+            }
+            start();
+        }
+
+        deflate( b, off, len );
+    }
+
+    @Override
+    public void flush()
+    {
+        // Deliberately ignored until finish(); see the class comment
+    }
+
+    /**
+     * Pushes everything compressed so far to the client, for bodies which are
+     * streamed in chunks. Does nothing while the first bytes are still held
+     * back below the minimum compression size.
+     *
+     * @throws IOException if writing to the target fails
+     */
+    void syncFlush() throws IOException
+    {
+        if ( deflater == null || finished )
+        {
+            return;
+        }
+
+        int count;
+        do
+        {
+            count = deflater.deflate( deflated, 0, deflated.length, Deflater.SYNC_FLUSH );
+            target.write( deflated, 0, count );
+        }
+        while ( count == deflated.length );
+
+        target.flush();
+    }
+
+    /**
+     * Completes the body: either writes the held back bytes uncompressed or
+     * finishes the compressed stream and its framing. The target is flushed
+     * but not closed.
+     *
+     * @throws IOException if writing to the target fails
+     */
+    void finish() throws IOException
+    {
+        if ( finished )
+        {
+            return;
+        }
+        finished = true;
+
+        if ( deflater == null && response != null )
+        {
+            response.setContentLength( pendingCount );
+            target = response.getOutputStream();
+            target.write( pending, 0, pendingCount );
+        }
+        else
+        {
+            if ( deflater == null )
+            {
+                start();
+            }
+
+            deflater.finish();
+            while ( !deflater.finished() )
+            {
+                drain();
+            }
+
+            if ( gzip )
+            {
+                writeIntLE( (int) crc.getValue() );
+                writeIntLE( (int) deflater.getBytesRead() );
+            }
+        }
+
+        target.flush();
+    }
+
+    /**
+     * Returns the Deflater and the buffers to their pools. Safe to call more
+     * than once; the stream cannot be written to afterwards.
+     */
+    void release()
+    {
+        if ( deflater != null )
+        {
+            ResponseCompression.releaseDeflater( deflater, gzip );
+            deflater = null;
+        }
+        BufferPool.release( pending );
+        pending = null;
+        BufferPool.release( deflated );
+        deflated = null;
+        finished = true;
+    }
+
+    private void start() throws IOException
+    {
+        if ( response != null )
+        {
+            response.setHeader( "Content-Encoding", encoding );
+            target = response.getOutputStream();
+        }
+
+        deflater = ResponseCompression.acquireDeflater( gzip );
+        deflated = BufferPool.acquire();
+        if ( gzip )
+        {
+            crc = new CRC32();
+            target.write( GZIP_HEADER );
+        }
+
+        if ( pendingCount > 0 )
+        {
+            deflate( pending, 0, pendingCount );
+            pendingCount = 0;
+        }
+        BufferPool.release( pending );
+        pending = null;
+    }
+
+    private void deflate( byte[] b, int off, int len ) throws IOException
+    {
+        if ( len == 0 )
+        {
+            return;
+        }
+
+        if ( gzip )
+        {
+            crc.update( b, off, len );
+        }
+
+        deflater.setInput( b, off, len );
+        while ( !deflater.needsInput() )
+        {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        int count = deflater.deflate( deflated, 0, deflated.length );
+        if ( count > 0 )
+        {
+            target.write( deflated, 0, count );
+        }
+    }
+
+    private void writeIntLE( int value ) throws IOException
+    {
+        target.write( value & 0xff );
+        target.write( ( value >> 8 ) & 0xff );
+        target.write( ( value >> 16 ) & 0xff );
+        target.write( ( value >> 24 ) & 0xff );
+    }
+}
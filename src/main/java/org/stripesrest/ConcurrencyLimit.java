@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Limits the number of calls to an HTTP verb of a REST action bean which may
+ * be handled at the same time, so that a resource whose handlers are stuck
+ * waiting on a slow downstream system cannot hold every container thread.
+ * Calls over the limit are not queued: they are answered at once with a JSON
+ * 429 or 503 error and a Retry-After header. It may be placed on the handler
+ * method or on the action bean class; the method annotation wins. A class
+ * annotation limits each verb separately.
+ *
+ * The limit of an asynchronous handler is held until its CompletionStage
+ * completes. Limits can also be set, or overridden, with the RestLimit.*
+ * Stripes filter parameters described in {@link RestActionInterceptor}.
+ */
+@Target(
+                {
+            ElementType.METHOD, ElementType.TYPE
+        } )
+@Retention( RetentionPolicy.RUNTIME )
+@Documented
+public @interface ConcurrencyLimit
+{
+
+    /**
+     * @return Largest number of calls handled at once. An adaptive limit
+     * never grows beyond it.
+     */
+    int value();
+
+    /**
+     * @return True to lower the limit while handler latency rises above its
+     * usual level or handlers fail, and raise it again while they recover
+     */
+    boolean adaptive() default false;
+
+    /**
+     * @return HTTP status of rejected calls. Must be either 429 (Too Many
+     * Requests) or 503 (Service Unavailable).
+     */
+    int status() default HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+
+    /**
+     * @return Seconds sent in the Retry-After header of rejected calls
+     */
+    int retryAfter() default 1;
+}
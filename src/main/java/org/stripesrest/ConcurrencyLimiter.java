@@ -0,0 +1,413 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+
+/**
+ * The bulkhead of one HTTP verb of a REST action bean: it admits calls while
+ * fewer than the limit are being handled and turns the others away at once.
+ * Admission is a single compare-and-set; nothing ever waits for a permit.
+ *
+ * An adaptive limit follows an additive-increase, multiplicative-decrease
+ * rule. Every completed call is compared with a slowly moving baseline of
+ * handler latency: a call more than twice as slow as the baseline, or one
+ * which failed, cuts the limit by a tenth, while other calls made while the
+ * limit was at least half used raise it by one over the limit, up to the
+ * configured maximum. The limit never drops below one.
+ *
+ * Rejections are answered with a JSON error encoded once per limiter.
+ */
+final class ConcurrencyLimiter
+{
+
+    /** HTTP status "Too Many Requests", which Servlet 3.0 has no constant for. */
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+    private static final double BASELINE_SMOOTHING = 0.01;
+
+    // Stands for "no limit", since the maps cannot hold null
+    private static final ConcurrencyLimiter UNLIMITED = new ConcurrencyLimiter( 0, false, HttpServletResponse.SC_SERVICE_UNAVAILABLE, 0 );
+
+    private static final ClassValue< ConcurrentMap< String, ConcurrencyLimiter>> LIMITERS = new ClassValue< ConcurrentMap< String, ConcurrencyLimiter>>()
+    {
+        @Override
+        protected ConcurrentMap< String, ConcurrencyLimiter> computeValue( Class<?> beanClass )
+        {
+            return new ConcurrentHashMap< String, ConcurrencyLimiter>( 8 );
+        }
+    };
+
+    private static volatile int defaultLimit;
+    private static volatile boolean defaultAdaptive;
+    private static volatile int defaultStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    private static volatile int defaultRetryAfter = 1;
+    private static volatile Map< String, Integer> configuredLimits = Collections.emptyMap();
+
+    /**
+     * Sets the limit of every verb which has neither an annotation nor a
+     * configured limit of its own.
+     *
+     * @param limit - Default limit; zero or less means no limit
+     */
+    static void setDefaultLimit( int limit )
+    {
+        defaultLimit = limit;
+    }
+
+    /**
+     * @param adaptive - True if limits not set by an annotation are adaptive
+     */
+    static void setDefaultAdaptive( boolean adaptive )
+    {
+        defaultAdaptive = adaptive;
+    }
+
+    /**
+     * @param status - Status of rejections for limits not set by an
+     * annotation, 429 or 503
+     */
+    static void setDefaultStatus( int status )
+    {
+        checkStatus( status, "RestLimit.Status" );
+        defaultStatus = status;
+    }
+
+    /**
+     * @param seconds - Retry-After of rejections for limits not set by an
+     * annotation
+     */
+    static void setDefaultRetryAfter( int seconds )
+    {
+        defaultRetryAfter = Math.max( seconds, 0 );
+    }
+
+    /**
+     * Sets limits by resource, overriding any annotation. Each entry of the
+     * comma-separated list names an action bean class, optionally followed by
+     * a dot and a verb, e.g. <code>com.example.OrderActionBean.POST=5</code>.
+     * A verb entry wins over a class entry.
+     *
+     * @param limits - Comma-separated <code>resource=limit</code> entries
+     */
+    static void setLimits( String limits )
+    {
+        Map< String, Integer> parsed = new HashMap< String, Integer>();
+        for ( String entry : limits.split( "," ) )
+        {
+            if ( entry.trim().isEmpty() )
+            {
+                continue;
+            }
+
+            int equals = entry.indexOf( '=' );
+            if ( equals < 0 )
+            {
+                throw new StripesRuntimeException( "RestLimit.Resources entries must look like resource=limit, not " + entry.trim() );
+            }
+            parsed.put( entry.substring( 0, equals ).trim(), Integer.parseInt( entry.substring( equals + 1 ).trim() ) );
+        }
+        configuredLimits = Collections.unmodifiableMap( parsed );
+    }
+
+    static void checkStatus( int status, String source )
+    {
+        if ( status != SC_TOO_MANY_REQUESTS && status != HttpServletResponse.SC_SERVICE_UNAVAILABLE )
+        {
+            throw new StripesRuntimeException( "The rejection status of " + source + " must be 429 or 503, not " + status );
+        }
+    }
+
+    /**
+     * Returns the limiter of an HTTP verb of a REST action bean, creating it
+     * from the configuration and the declared annotation the first time.
+     *
+     * @param beanClass - REST action bean class
+     * @param httpMethod - HTTP verb
+     * @param declared - Annotation of the handler or its class, or null
+     * @return Limiter of the verb, or null if the verb is not limited
+     */
+    static ConcurrencyLimiter forResource( Class<?> beanClass, String httpMethod, ConcurrencyLimit declared )
+    {
+        ConcurrentMap< String, ConcurrencyLimiter> byMethod = LIMITERS.get( beanClass );
+
+        ConcurrencyLimiter limiter = byMethod.get( httpMethod );
+        if ( limiter == null )
+        {
+            ConcurrencyLimiter created = create( beanClass, httpMethod, declared );
+            limiter = byMethod.putIfAbsent( httpMethod, created );
+            if ( limiter == null )
+            {
+                limiter = created;
+            }
+        }
+        return limiter != UNLIMITED ? limiter : null;
+    }
+
+    /**
+     * @param beanClass - REST action bean class
+     * @param httpMethod - HTTP verb
+     * @return Limiter of the verb, or null if it is not limited or has not
+     * been called yet
+     */
+    static ConcurrencyLimiter find( Class<?> beanClass, String httpMethod )
+    {
+        ConcurrencyLimiter limiter = LIMITERS.get( beanClass ).get( httpMethod );
+        return limiter != UNLIMITED ? limiter : null;
+    }
+
+    private static ConcurrencyLimiter create( Class<?> beanClass, String httpMethod, ConcurrencyLimit declared )
+    {
+        Map< String, Integer> limits = configuredLimits;
+        Integer configured = limits.get( beanClass.getName() + "." + httpMethod );
+        if ( configured == null )
+        {
+            configured = limits.get( beanClass.getName() );
+        }
+
+        int limit = configured != null ? configured : declared != null ? declared.value() : defaultLimit;
+        if ( limit <= 0 )
+        {
+            return UNLIMITED;
+        }
+
+        if ( declared != null )
+        {
+            return new ConcurrencyLimiter( limit, declared.adaptive(), declared.status(), declared.retryAfter() );
+        }
+        return new ConcurrencyLimiter( limit, defaultAdaptive, defaultStatus, defaultRetryAfter );
+    }
+
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final Resolution rejection;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimate;
+    private double baselineNanos;
+
+    private ConcurrencyLimiter( int maxLimit, boolean adaptive, int status, int retryAfter )
+    {
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.limit = maxLimit;
+        this.estimate = maxLimit;
+        this.rejection = new Rejection( status, retryAfter );
+    }
+
+    /**
+     * Admits a call if the limit allows it.
+     *
+     * @return Permit to release once the call has been handled, or null if
+     * the call must be rejected
+     */
+    Permit tryAcquire()
+    {
+        while ( true )
+        {
+            int current = inFlight.get();
+            if ( current >= limit )
+            {
+                rejected.increment();
+                return null;
+            }
+            if ( inFlight.compareAndSet( current, current + 1 ) )
+            {
+                return new Permit();
+            }
+        }
+    }
+
+    /**
+     * @return Resolution answering a rejected call
+     */
+    Resolution getRejection()
+    {
+        return rejection;
+    }
+
+    /**
+     * @return Number of calls currently admitted
+     */
+    int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Number of calls admitted at once right now
+     */
+    int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return Number of calls rejected so far
+     */
+    long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    private void release( long latencyNanos, boolean failed )
+    {
+        int used = inFlight.getAndDecrement();
+        if ( adaptive )
+        {
+            adapt( latencyNanos, failed, used );
+        }
+    }
+
+    private synchronized void adapt( long latencyNanos, boolean failed, int used )
+    {
+        if ( baselineNanos == 0 )
+        {
+            baselineNanos = latencyNanos;
+        }
+
+        if ( failed || latencyNanos > baselineNanos * TOLERANCE )
+        {
+            estimate = Math.max( 1, estimate * BACKOFF );
+        }
+        else if ( used * 2 >= estimate )
+        {
+            // A limit which is not being used says nothing about the capacity
+            estimate = Math.min( maxLimit, estimate + 1 / estimate );
+        }
+        limit = (int) estimate;
+
+        baselineNanos += ( latencyNanos - baselineNanos ) * BASELINE_SMOOTHING;
+    }
+
+    /**
+     * An admitted call. It is released once -- when the handler returns or,
+     * for an asynchronous handler, when its CompletionStage completes.
+     */
+    final class Permit implements BiConsumer< Object, Throwable>
+    {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean deferred;
+
+        /**
+         * Hands the permit over to an asynchronous handler's stage, which
+         * releases it on completion -- including cancellation on timeout.
+         */
+        void defer( CompletableFuture<?> stage )
+        {
+            deferred = true;
+            stage.whenComplete( this );
+        }
+
+        /**
+         * @return True if the permit is released by a handler's stage
+         */
+        boolean isDeferred()
+        {
+            return deferred;
+        }
+
+        /**
+         * @param failed - True if the handler failed
+         */
+        void release( boolean failed )
+        {
+            if ( released.compareAndSet( false, true ) )
+            {
+                ConcurrencyLimiter.this.release( System.nanoTime() - startNanos, failed );
+            }
+        }
+
+        public void accept( Object value, Throwable failure )
+        {
+            release( failure != null );
+        }
+    }
+
+    /**
+     * The pre-encoded rejection of a limiter.
+     */
+    private static final class Rejection implements Resolution
+    {
+
+        private final int status;
+        private final String retryAfter;
+        private final String message;
+        private final byte[] body;
+
+        private Rejection( int status, int retryAfter )
+        {
+            this.status = status;
+            this.retryAfter = Integer.toString( retryAfter );
+            this.message = "This resource is handling too many calls; retry in " + retryAfter + "s.";
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream( 96 );
+            try
+            {
+                JsonErrorWriter writer = new JsonErrorWriter( encoded );
+                writer.writeGlobalError( message );
+                writer.flush();
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( e );
+            }
+            this.body = encoded.toByteArray();
+        }
+
+        public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+        {
+            // Only the JSON form is pre-encoded
+            if ( ContentNegotiation.select( request ) != null )
+            {
+                response.setHeader( "Retry-After", retryAfter );
+                new JsonErrorResolution( status, message ).execute( request, response );
+                return;
+            }
+
+            ContentNegotiation.addVary( response );
+            response.setStatus( status );
+            response.setContentType( "application/json" );
+            response.setCharacterEncoding( "UTF-8" );
+            response.setHeader( "Retry-After", retryAfter );
+            response.setContentLength( body.length );
+            response.getOutputStream().write( body );
+            response.flushBuffer();
+        }
+    }
+}
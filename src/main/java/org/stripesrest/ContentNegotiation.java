@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.ReflectUtil;
+
+/**
+ * Accept header negotiation between JSON and the {@link ResponseEncoding}s
+ * configured for the JSON responses of this library. An encoding is only
+ * chosen when the client prefers it to JSON; JSON wins ties, so clients
+ * which send no Accept header, or accept anything, keep getting JSON.
+ */
+final class ContentNegotiation
+{
+
+    /** Media type of JSON documents. */
+    static final String JSON = "application/json";
+
+    private static volatile List< ResponseEncoding> encodings = Collections.< ResponseEncoding>singletonList( new CborEncoding() );
+
+    private ContentNegotiation()
+    {
+    }
+
+    /**
+     * Replaces the encodings offered besides JSON.
+     *
+     * @param classNames - Comma-separated class names of ResponseEncoding
+     * implementations, in order of preference; empty to offer JSON only
+     */
+    static void setEncodings( String classNames )
+    {
+        List< ResponseEncoding> configured = new ArrayList< ResponseEncoding>();
+        for ( String className : classNames.split( "," ) )
+        {
+            className = className.trim();
+            if ( className.isEmpty() )
+            {
+                continue;
+            }
+
+            try
+            {
+                Class<?> encodingClass = ReflectUtil.findClass( className );
+                configured.add( encodingClass.asSubclass( ResponseEncoding.class ).getConstructor().newInstance() );
+            }
+            catch ( Exception e )
+            {
+                throw new StripesRuntimeException( "Unable to create the REST response encoding " + className, e );
+            }
+        }
+        encodings = Collections.unmodifiableList( configured );
+    }
+
+    /**
+     * Picks the encoding of a response and, if there is a choice, marks the
+     * response as varying by Accept.
+     *
+     * @param request - Current request
+     * @param response - Response about to be written
+     * @return Encoding to send, or null to send JSON
+     */
+    static ResponseEncoding negotiate( HttpServletRequest request, HttpServletResponse response )
+    {
+        addVary( response );
+        return select( request );
+    }
+
+    /**
+     * Marks a response as varying by Accept, if there is a choice of
+     * encodings at all.
+     *
+     * @param response - Response about to be written
+     */
+    static void addVary( HttpServletResponse response )
+    {
+        if ( !encodings.isEmpty() )
+        {
+            response.addHeader( "Vary", "Accept" );
+        }
+    }
+
+    /**
+     * Picks the encoding of a response without touching the response.
+     *
+     * @param request - Current request
+     * @return Encoding to send, or null to send JSON
+     */
+    static ResponseEncoding select( HttpServletRequest request )
+    {
+        List< ResponseEncoding> offered = encodings;
+        String accept = request.getHeader( "Accept" );
+        if ( offered.isEmpty() || accept == null || accept.isEmpty() )
+        {
+            return null;
+        }
+
+        String[] ranges = accept.split( "," );
+        float best = quality( ranges, JSON );
+        ResponseEncoding selected = null;
+        for ( ResponseEncoding encoding : offered )
+        {
+            float quality = quality( ranges, encoding.getMediaType() );
+            if ( quality > best )
+            {
+                best = quality;
+                selected = encoding;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return Media type of a response in the passed encoding
+     */
+    static String mediaType( ResponseEncoding encoding )
+    {
+        return encoding != null ? encoding.getMediaType() : JSON;
+    }
+
+    /**
+     * Returns the quality given to a media type by the most specific of the
+     * media ranges which match it, or 0 if none does.
+     */
+    private static float quality( String[] ranges, String mediaType )
+    {
+        int slash = mediaType.indexOf( '/' );
+        float quality = 0;
+        int specificity = 0;
+        for ( String range : ranges )
+        {
+            float rangeQuality = 1;
+            int parameters = range.indexOf( ';' );
+            if ( parameters >= 0 )
+            {
+                rangeQuality = ResponseCompression.quality( range.substring( parameters + 1 ) );
+                range = range.substring( 0, parameters );
+            }
+            range = range.trim();
+
+            int rangeSpecificity;
+            if ( range.equalsIgnoreCase( mediaType ) )
+            {
+                rangeSpecificity = 3;
+            }
+            else if ( range.length() == slash + 2 && range.endsWith( "/*" ) && range.regionMatches( true, 0, mediaType, 0, slash ) )
+            {
+                rangeSpecificity = 2;
+            }
+            else if ( range.equals( "*/*" ) || range.equals( "*" ) )
+            {
+                rangeSpecificity = 1;
+            }
+            else
+            {
+                continue;
+            }
+
+            if ( rangeSpecificity > specificity )
+            {
+                specificity = rangeSpecificity;
+                quality = rangeQuality;
+            }
+        }
+        return quality;
+    }
+}
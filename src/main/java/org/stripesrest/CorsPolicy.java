@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * Cross-origin resource sharing for REST action beans, configured with the
+ * RestCors Stripes filter parameters. Without configured origins there is no
+ * policy and no CORS header is ever sent.
+ *
+ * Preflights -- OPTIONS requests with an Origin and an
+ * Access-Control-Request-Method header -- from allowed origins are answered
+ * before any handler is looked up, with a 204 carrying headers encoded once
+ * per resource. Access-Control-Max-Age lets browsers cache them. Other
+ * requests from allowed origins have the origin and exposed headers added to
+ * their response. Requests from any other origin are handled as if the
+ * policy did not exist, which the browser then refuses.
+ */
+final class CorsPolicy
+{
+
+    /**
+     * Default time, in seconds, browsers may cache a preflight.
+     */
+    static final int DEFAULT_MAX_AGE = 3600;
+
+    /**
+     * Default request headers allowed in cross-origin calls.
+     */
+    static final String DEFAULT_ALLOW_HEADERS = "Accept, Content-Type, Idempotency-Key, If-Match, If-None-Match";
+
+    /**
+     * Default response headers exposed to cross-origin scripts.
+     */
+    static final String DEFAULT_EXPOSE_HEADERS = "ETag, Idempotent-Replayed, Retry-After";
+
+    private static final Log log = Log.getInstance( CorsPolicy.class );
+
+    private static volatile CorsPolicy policy;
+
+    /**
+     * The precomputed preflight answer of one resource. Only the allowed
+     * origin is written per request.
+     */
+    private final class Preflight implements Resolution
+    {
+
+        private final String[] names;
+        private final String[] values;
+
+        private Preflight( String allow )
+        {
+            List< String> headerNames = new ArrayList< String>();
+            List< String> headerValues = new ArrayList< String>();
+            headerNames.add( "Access-Control-Allow-Methods" );
+            headerValues.add( allow );
+            if ( !allowHeaders.isEmpty() )
+            {
+                headerNames.add( "Access-Control-Allow-Headers" );
+                headerValues.add( allowHeaders );
+            }
+            headerNames.add( "Access-Control-Max-Age" );
+            headerValues.add( maxAge );
+            this.names = headerNames.toArray( new String[ headerNames.size() ] );
+            this.values = headerValues.toArray( new String[ headerValues.size() ] );
+        }
+
+        public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+        {
+            response.setStatus( HttpServletResponse.SC_NO_CONTENT );
+            allowOrigin( request.getHeader( "Origin" ), response );
+            for ( int i = 0; i < names.length; i++ )
+            {
+                response.setHeader( names[ i ], values[ i ] );
+            }
+        }
+    }
+
+    private final Set< String> origins;
+    private final boolean anyOrigin;
+    private final String allowHeaders;
+    private final String exposeHeaders;
+    private final boolean allowCredentials;
+    private final String maxAge;
+    private final ClassValue< Preflight> preflights = new ClassValue< Preflight>()
+    {
+        @Override
+        protected Preflight computeValue( Class<?> beanClass )
+        {
+            return new Preflight( RestDispatchTable.forClass( beanClass ).getAllow() );
+        }
+    };
+
+    /**
+     * @param origins - Comma-separated origins allowed to call, such as
+     * <code>https://app.example.com</code>, or * for any origin
+     * @param allowHeaders - Comma-separated request headers allowed in calls
+     * @param exposeHeaders - Comma-separated response headers exposed to
+     * scripts
+     * @param allowCredentials - True if calls may carry cookies and
+     * credentials; ignored with * as origins
+     * @param maxAge - Time, in seconds, browsers may cache a preflight
+     */
+    CorsPolicy( String origins, String allowHeaders, String exposeHeaders, boolean allowCredentials, int maxAge )
+    {
+        Set< String> allowed = new HashSet< String>();
+        for ( String origin : origins.split( "," ) )
+        {
+            if ( !origin.trim().isEmpty() )
+            {
+                allowed.add( origin.trim().toLowerCase( Locale.ENGLISH ) );
+            }
+        }
+        this.anyOrigin = allowed.contains( "*" );
+
+        // Echoing any origin with credentials would let every site make
+        // authenticated calls and read their responses
+        if ( anyOrigin && allowCredentials )
+        {
+            log.warn( "Credentials are never allowed from any origin; list the origins allowed to make credentialed calls instead of *" );
+        }
+        this.origins = Collections.unmodifiableSet( allowed );
+        this.allowHeaders = allowHeaders.trim();
+        this.exposeHeaders = exposeHeaders.trim();
+        this.allowCredentials = allowCredentials && !anyOrigin;
+        this.maxAge = Integer.toString( Math.max( maxAge, 0 ) );
+    }
+
+    /**
+     * @param corsPolicy - Policy of every REST action bean, or null to send
+     * no CORS headers
+     */
+    static void setPolicy( CorsPolicy corsPolicy )
+    {
+        policy = corsPolicy;
+    }
+
+    /**
+     * @return Policy of every REST action bean, or null if none is configured
+     */
+    static CorsPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Applies the policy to a request about to be dispatched.
+     *
+     * @param request - Current request
+     * @param response - Current response, receiving the CORS headers of a
+     * call from an allowed origin
+     * @param beanClass - Class of the action bean the request is bound to
+     * @return Answer to a preflight from an allowed origin, or null if the
+     * request is to be dispatched
+     */
+    Resolution apply( HttpServletRequest request, HttpServletResponse response, Class<?> beanClass )
+    {
+        String origin = request.getHeader( "Origin" );
+        if ( origin == null || !isAllowed( origin ) )
+        {
+            return null;
+        }
+
+        if ( "OPTIONS".equalsIgnoreCase( request.getMethod() ) && request.getHeader( "Access-Control-Request-Method" ) != null )
+        {
+            return preflights.get( beanClass );
+        }
+
+        allowOrigin( origin, response );
+        if ( !exposeHeaders.isEmpty() )
+        {
+            response.setHeader( "Access-Control-Expose-Headers", exposeHeaders );
+        }
+        return null;
+    }
+
+    private boolean isAllowed( String origin )
+    {
+        return anyOrigin || origins.contains( origin.toLowerCase( Locale.ENGLISH ) );
+    }
+
+    private void allowOrigin( String origin, HttpServletResponse response )
+    {
+        // Credentials are never allowed from any origin, so * is only sent
+        // without them
+        if ( anyOrigin )
+        {
+            response.setHeader( "Access-Control-Allow-Origin", "*" );
+        }
+        else
+        {
+            response.setHeader( "Access-Control-Allow-Origin", origin );
+            response.addHeader( "Vary", "Origin" );
+        }
+
+        if ( allowCredentials )
+        {
+            response.setHeader( "Access-Control-Allow-Credentials", "true" );
+        }
+    }
+}
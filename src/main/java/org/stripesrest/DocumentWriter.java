@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+
+/**
+ * A forward-only writer of structured documents: objects of named values,
+ * arrays and scalars. {@link JsonBuilder} walks an object graph into one, so
+ * that the same walk -- exclusions, field projections and all -- can produce
+ * JSON or any of the binary encodings negotiated through
+ * {@link ResponseEncoding}.
+ *
+ * Implementations write tokens as they arrive and never hold the whole
+ * document in memory.
+ *
+ * @author Rick Grashel
+ */
+public interface DocumentWriter
+{
+
+    DocumentWriter beginObject() throws IOException;
+
+    DocumentWriter endObject() throws IOException;
+
+    DocumentWriter beginArray() throws IOException;
+
+    DocumentWriter endArray() throws IOException;
+
+    /**
+     * Writes the name of the next property of the current object.
+     *
+     * @param name - Property name
+     * @return this writer
+     * @throws IOException if the underlying stream fails
+     */
+    DocumentWriter name( String name ) throws IOException;
+
+    DocumentWriter value( String value ) throws IOException;
+
+    DocumentWriter value( boolean value ) throws IOException;
+
+    DocumentWriter value( long value ) throws IOException;
+
+    /**
+     * Writes a number. Values which have no JSON representation (NaN and the
+     * infinities) are written as null by every encoding, so all of them
+     * describe the same document.
+     *
+     * @param value - Number to write
+     * @return this writer
+     * @throws IOException if the underlying stream fails
+     */
+    DocumentWriter value( Number value ) throws IOException;
+
+    DocumentWriter nullValue() throws IOException;
+
+    /**
+     * Sends everything written so far to the underlying stream and flushes
+     * it. The stream is not closed.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers a response body and hashes it as it is written, so that a strong
+ * ETag is available as soon as the body is complete without a second pass
+ * over the bytes.
+ *
+ * The body is held in a list of buffers from the {@link BufferPool} rather
+ * than one growing array, so a large body is never copied as it grows. Bodies
+ * which are sent once are handed back to the pool with {@link #release()};
+ * bodies which are kept around are copied into a single array of their exact
+ * size with {@link #trimToSize()}.
+ *
+ * The hash is 64-bit FNV-1a. It is not cryptographic, but the ETag also
+ * carries the body length, which makes accidental collisions between two
+ * versions of the same resource vanishingly unlikely.
+ */
+class ETagOutputStream extends OutputStream
+{
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET_BASIS;
+
+    // Buffers which have been filled, followed by the one being written
+    private final List< byte[]> filled = new ArrayList< byte[]>( 4 );
+    private byte[] current;
+    private int position;
+    private int count;
+    private boolean trimmedToSize;
+
+    @Override
+    public void write( int b )
+    {
+        hash = ( hash ^ ( b & 0xff ) ) * FNV_PRIME;
+        if ( current == null || position == current.length )
+        {
+            next();
+        }
+        current[ position++ ] = (byte) b;
+        count++;
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len )
+    {
+        long h = hash;
+        for ( int i = off, end = off + len; i < end; i++ )
+        {
+            h = ( h ^ ( b[i] & 0xff ) ) * FNV_PRIME;
+        }
+        hash = h;
+
+        count += len;
+        while ( len > 0 )
+        {
+            if ( current == null || position == current.length )
+            {
+                next();
+            }
+
+            int copied = Math.min( len, current.length - position );
+            System.arraycopy( b, off, current, position, copied );
+            position += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    /**
+     * @return Number of bytes written
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Writes the body to a stream.
+     *
+     * @param out - Stream receiving the body
+     * @throws IOException if writing to the stream fails
+     */
+    void writeTo( OutputStream out ) throws IOException
+    {
+        for ( byte[] buffer : filled )
+        {
+            out.write( buffer, 0, buffer.length );
+        }
+        if ( current != null )
+        {
+            out.write( current, 0, position );
+        }
+    }
+
+    /**
+     * Returns the strong, quoted ETag for the bytes written so far.
+     *
+     * @param encoding - Content coding the body will be sent with, or null
+     * @return ETag of the body in that coding
+     */
+    String getETag( String encoding )
+    {
+        String eTag = "\"" + Integer.toHexString( count ) + "-" + Long.toHexString( hash );
+        return encoding != null ? eTag + "-" + encoding + "\"" : eTag + "\"";
+    }
+
+    /**
+     * Compresses the bytes written so far.
+     *
+     * @param encoding - "gzip" or "deflate"
+     * @return Compressed body
+     * @throws IOException never, in practice
+     */
+    ByteArrayOutputStream compress( String encoding ) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream( count / 4 + 64 );
+        CompressingOutputStream out = new CompressingOutputStream( compressed, encoding );
+        try
+        {
+            writeTo( out );
+            out.finish();
+        }
+        finally
+        {
+            out.release();
+        }
+        return compressed;
+    }
+
+    /**
+     * Copies the body into a single array of its exact size and returns the
+     * pooled buffers, for bodies which are kept around.
+     */
+    void trimToSize()
+    {
+        // Even a single, exactly full buffer is copied, as it belongs to the pool
+        if ( current != null && !trimmedToSize )
+        {
+            byte[] trimmed = new byte[ count ];
+            int offset = 0;
+            for ( byte[] buffer : filled )
+            {
+                System.arraycopy( buffer, 0, trimmed, offset, buffer.length );
+                offset += buffer.length;
+            }
+            System.arraycopy( current, 0, trimmed, offset, position );
+
+            release();
+            current = trimmed;
+            position = trimmed.length;
+            trimmedToSize = true;
+        }
+    }
+
+    /**
+     * Returns the pooled buffers once the body has been sent. Nothing may be
+     * read from or written to the stream afterwards.
+     */
+    void release()
+    {
+        for ( byte[] buffer : filled )
+        {
+            BufferPool.release( buffer );
+        }
+        filled.clear();
+        BufferPool.release( current );
+        current = null;
+        position = 0;
+    }
+
+    private void next()
+    {
+        if ( current != null )
+        {
+            filled.add( current );
+        }
+        current = BufferPool.acquire();
+        position = 0;
+    }
+
+    /**
+     * Checks an If-None-Match header against an ETag. As required for
+     * If-None-Match, the weak comparison is used.
+     *
+     * @param ifNoneMatch - Value of the If-None-Match header, may be null
+     * @param etag - ETag of the current representation
+     * @return True if the client already holds the current representation
+     */
+    static boolean matches( String ifNoneMatch, String etag )
+    {
+        if ( ifNoneMatch == null )
+        {
+            return false;
+        }
+
+        for ( String candidate : ifNoneMatch.split( "," ) )
+        {
+            candidate = candidate.trim();
+            if ( candidate.startsWith( "W/" ) )
+            {
+                candidate = candidate.substring( 2 );
+            }
+
+            if ( candidate.equals( "*" ) || candidate.equals( etag ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Broadcasts events to every client subscribed through an
+ * {@link EventStreamResolution}. Each event is serialized once, whatever the
+ * number of subscribers, and gets the next id of the feed.
+ *
+ * The most recent events are kept so that a client reconnecting with a
+ * Last-Event-ID header is sent the events it missed before any new ones. A
+ * feed is typically held in a static field of the action bean:
+ *
+ * <pre>
+ * private static final EventFeed PRICES = new EventFeed( 1000 );
+ *
+ * public Resolution get()
+ * {
+ *     return PRICES.subscribe( EventStreamResolution.Format.SERVER_SENT_EVENTS );
+ * }
+ * </pre>
+ */
+public class EventFeed
+{
+
+    private final int historySize;
+    private final List< EventStreamResolution> subscribers = new CopyOnWriteArrayList< EventStreamResolution>();
+
+    // Guarded by this
+    private final ArrayDeque< EventStreamResolution.Event> history = new ArrayDeque< EventStreamResolution.Event>();
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * @param historySize - Number of recent events kept for resuming clients;
+     * zero turns resuming off
+     */
+    public EventFeed( int historySize )
+    {
+        this.historySize = Math.max( historySize, 0 );
+    }
+
+    /**
+     * Creates a stream which receives the events of this feed once it has
+     * executed. Its queue capacity, overflow policy and heartbeat interval can
+     * be set before it is returned from the handler.
+     *
+     * @param format - Wire format of the stream
+     * @return Resolution to return from the handler
+     */
+    public EventStreamResolution subscribe( EventStreamResolution.Format format )
+    {
+        return new EventStreamResolution( format, this );
+    }
+
+    /**
+     * Publishes an unnamed event to every subscriber.
+     *
+     * @param data - Event data, serialized to JSON
+     */
+    public void publish( Object data )
+    {
+        publish( null, data );
+    }
+
+    /**
+     * Publishes a named event to every subscriber.
+     *
+     * @param event - Event name, or null
+     * @param data - Event data, serialized to JSON
+     */
+    public void publish( String event, Object data )
+    {
+        String json = EventStreamResolution.serialize( data );
+
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            EventStreamResolution.Event published = new EventStreamResolution.Event( Long.toString( ++sequence ), event, json );
+            if ( historySize > 0 )
+            {
+                if ( history.size() == historySize )
+                {
+                    history.pollFirst();
+                }
+                history.addLast( published );
+            }
+
+            for ( EventStreamResolution subscriber : subscribers )
+            {
+                subscriber.offer( published );
+            }
+        }
+    }
+
+    /**
+     * Ends the streams of all subscribers once their queued events have been
+     * written. Publishing afterwards has no effect.
+     */
+    public void close()
+    {
+        synchronized ( this )
+        {
+            closed = true;
+        }
+
+        for ( EventStreamResolution subscriber : subscribers )
+        {
+            subscriber.close();
+        }
+    }
+
+    /**
+     * @return Number of open streams
+     */
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**
+     * Adds a stream which has started executing, first queueing the kept
+     * events after the one the client last received.
+     */
+    synchronized void attach( EventStreamResolution subscriber, String lastEventId )
+    {
+        if ( closed )
+        {
+            subscriber.close();
+            return;
+        }
+
+        long last = parseId( lastEventId );
+        if ( last >= 0 )
+        {
+            for ( EventStreamResolution.Event event : history )
+            {
+                if ( Long.parseLong( event.id ) > last )
+                {
+                    subscriber.offer( event );
+                }
+            }
+        }
+        subscribers.add( subscriber );
+    }
+
+    void detach( EventStreamResolution subscriber )
+    {
+        subscribers.remove( subscriber );
+    }
+
+    private static long parseId( String id )
+    {
+        if ( id == null )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Long.parseLong( id.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            // Not an id of this feed
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,727 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * This resolution keeps the response open and pushes events to the client as
+ * they are published, either as Server-Sent Events (text/event-stream) or as
+ * newline-delimited JSON (application/x-ndjson). Event data is serialized to
+ * compact JSON with {@link JsonBuilder} on the publishing thread.
+ *
+ * A handler returns the resolution and publishes to it -- or, for a feed
+ * shared by many clients, returns {@link EventFeed#subscribe}. If the
+ * container supports it, the request is put into servlet async mode and no
+ * thread is held while the stream is idle: published events are written by a
+ * container thread started through {@link AsyncContext#start(Runnable)}.
+ * Containers without async support write the stream on the request thread.
+ *
+ * Each connection has a bounded queue. When a client cannot keep up and the
+ * queue is full, the {@link OverflowPolicy} decides what gives. Heartbeats --
+ * an SSE comment or an empty NDJSON line -- are sent when the stream has been
+ * idle for the heartbeat interval, which keeps proxies from closing the
+ * connection and reveals clients which have gone away.
+ *
+ * The stream ends when {@link #close()} is called, after the queued events
+ * have been written, or as soon as the client disconnects.
+ */
+public class EventStreamResolution implements Resolution
+{
+
+    private static final Log log = Log.getInstance( EventStreamResolution.class );
+
+    /** Number of events queued per connection unless set otherwise. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /** Milliseconds between heartbeats unless set otherwise. */
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 15000;
+
+    /**
+     * The wire format of an event stream.
+     */
+    public enum Format
+    {
+
+        /** Server-Sent Events, with id, event and data fields. */
+        SERVER_SENT_EVENTS( "text/event-stream" ),
+        /** One JSON document per line; event ids and names are not sent. */
+        NDJSON( "application/x-ndjson" );
+
+        private final String contentType;
+
+        private Format( String contentType )
+        {
+            this.contentType = contentType;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+    }
+
+    /**
+     * What happens when an event is published to a connection whose queue is
+     * full.
+     */
+    public enum OverflowPolicy
+    {
+
+        /** The oldest queued event is discarded. */
+        DROP_OLDEST,
+        /** The queued event with the same name is replaced, or else the oldest discarded. */
+        COALESCE,
+        /** The client is disconnected; it may reconnect and resume with Last-Event-ID. */
+        DISCONNECT
+    }
+
+    /**
+     * A published event, serialized once for every connection it is sent to.
+     */
+    static final class Event
+    {
+
+        final String id;
+        final String name;
+        final String data;
+
+        Event( String id, String name, String data )
+        {
+            this.id = checkField( id );
+            this.name = checkField( name );
+            this.data = data;
+        }
+
+        private static String checkField( String value )
+        {
+            if ( value != null && ( value.indexOf( '\n' ) >= 0 || value.indexOf( '\r' ) >= 0 ) )
+            {
+                throw new IllegalArgumentException( "Event ids and names cannot contain line breaks: " + value );
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Schedules the heartbeats of all async streams, created on first use and
+     * again after a shutdown.
+     */
+    private static final class Heartbeats
+    {
+
+        // Guarded by Heartbeats.class
+        private static ScheduledExecutorService executor;
+
+        static synchronized ScheduledExecutorService get()
+        {
+            if ( executor == null )
+            {
+                executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+                {
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "stripes-rest-heartbeat" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+            }
+            return executor;
+        }
+
+        static synchronized void shutdown()
+        {
+            if ( executor != null )
+            {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the thread which schedules the heartbeats of async streams, so
+     * that it does not outlive the application. Streams which are still open
+     * send no more heartbeats.
+     */
+    static void shutdownHeartbeats()
+    {
+        Heartbeats.shutdown();
+    }
+
+    private final Format format;
+    private final EventFeed feed;
+    private final List< Runnable> closeListeners = new CopyOnWriteArrayList< Runnable>();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+
+    // Guarded by this
+    private final ArrayDeque< Event> queue = new ArrayDeque< Event>();
+    private boolean closing;
+    private boolean aborted;
+    private boolean heartbeatDue;
+    private boolean finished;
+    private long droppedCount;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile AsyncContext asyncContext;
+    private volatile String lastEventId;
+    private volatile ScheduledFuture<?> heartbeat;
+    private Writer writer;
+
+    private final Runnable drainTask = new Runnable()
+    {
+        public void run()
+        {
+            do
+            {
+                drain();
+                draining.set( false );
+            }
+            while ( hasWork() && draining.compareAndSet( false, true ) );
+        }
+    };
+
+    /**
+     * Constructs a stream which the handler publishes to directly.
+     *
+     * @param format - Wire format of the stream
+     */
+    public EventStreamResolution( Format format )
+    {
+        this( format, null );
+    }
+
+    EventStreamResolution( Format format, EventFeed feed )
+    {
+        this.format = format;
+        this.feed = feed;
+    }
+
+    /**
+     * Sets the number of events which may be queued for this connection
+     * before the overflow policy applies.
+     *
+     * @param queueCapacity - Queue capacity, at least one
+     * @return This resolution
+     */
+    public EventStreamResolution setQueueCapacity( int queueCapacity )
+    {
+        this.queueCapacity = Math.max( queueCapacity, 1 );
+        return this;
+    }
+
+    /**
+     * Sets what happens when an event is published while the queue is full.
+     * Defaults to {@link OverflowPolicy#DROP_OLDEST}.
+     *
+     * @param overflowPolicy - Overflow policy
+     * @return This resolution
+     */
+    public EventStreamResolution setOverflowPolicy( OverflowPolicy overflowPolicy )
+    {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Sets how long the stream may be idle before a heartbeat is sent. Zero
+     * or less turns heartbeats off.
+     *
+     * @param heartbeatInterval - Interval, in milliseconds
+     * @return This resolution
+     */
+    public EventStreamResolution setHeartbeatInterval( long heartbeatInterval )
+    {
+        this.heartbeatInterval = heartbeatInterval;
+        return this;
+    }
+
+    /**
+     * Registers a callback to run once the stream has ended, for example to
+     * stop publishing to it.
+     *
+     * @param listener - Callback
+     * @return This resolution
+     */
+    public EventStreamResolution onClose( Runnable listener )
+    {
+        closeListeners.add( listener );
+        return this;
+    }
+
+    /**
+     * Publishes an unnamed event without an id.
+     *
+     * @param data - Event data, serialized to JSON
+     * @return False if the stream has ended and the event was not queued
+     */
+    public boolean publish( Object data )
+    {
+        return publish( null, null, data );
+    }
+
+    /**
+     * Publishes a named event without an id.
+     *
+     * @param event - Event name, or null
+     * @param data - Event data, serialized to JSON
+     * @return False if the stream has ended and the event was not queued
+     */
+    public boolean publish( String event, Object data )
+    {
+        return publish( null, event, data );
+    }
+
+    /**
+     * Publishes an event.
+     *
+     * @param id - Event id, sent back by reconnecting SSE clients as
+     * Last-Event-ID, or null
+     * @param event - Event name, or null
+     * @param data - Event data, serialized to JSON
+     * @return False if the stream has ended and the event was not queued
+     */
+    public boolean publish( String id, String event, Object data )
+    {
+        return offer( new Event( id, event, serialize( data ) ) );
+    }
+
+    /**
+     * Ends the stream once the queued events have been written. Publishing
+     * afterwards has no effect.
+     */
+    public void close()
+    {
+        synchronized ( this )
+        {
+            if ( closing || aborted )
+            {
+                return;
+            }
+            closing = true;
+        }
+        signal();
+    }
+
+    /**
+     * @return True if the stream has ended or is ending
+     */
+    public synchronized boolean isClosed()
+    {
+        return closing || aborted;
+    }
+
+    /**
+     * @return The Last-Event-ID header of the request, which a reconnecting
+     * client sends with the id of the last event it received; null before the
+     * resolution has executed
+     */
+    public String getLastEventId()
+    {
+        return lastEventId;
+    }
+
+    /**
+     * @return Number of events discarded or coalesced because the queue was
+     * full
+     */
+    public synchronized long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    /**
+     * Opens the stream and writes events as they are published.
+     */
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        lastEventId = request.getHeader( "Last-Event-ID" );
+
+        response.setContentType( format.getContentType() );
+        response.setCharacterEncoding( "UTF-8" );
+        response.setHeader( "Cache-Control", "no-cache" );
+
+        // Keeps proxies such as nginx from buffering the stream
+        response.setHeader( "X-Accel-Buffering", "no" );
+
+        if ( "HEAD".equalsIgnoreCase( request.getMethod() ) )
+        {
+            abort();
+            finish( false );
+            return;
+        }
+
+        writer = new Utf8Writer( response.getOutputStream() );
+        if ( feed != null )
+        {
+            feed.attach( this, lastEventId );
+        }
+
+        // Lets the client know the stream is open before the first event
+        response.flushBuffer();
+
+        if ( RestActionInterceptor.isAsyncSupported( request ) )
+        {
+            AsyncContext async = request.startAsync( request, response );
+            async.setTimeout( 0 );
+            async.addListener( new AsyncListener()
+            {
+                public void onComplete( AsyncEvent event )
+                {
+                    abort();
+                    finish( false );
+                }
+
+                public void onTimeout( AsyncEvent event )
+                {
+                    abort();
+                    finish( true );
+                }
+
+                public void onError( AsyncEvent event )
+                {
+                    log.debug( "Event stream failed: ", event.getThrowable() );
+                    abort();
+                    finish( false );
+                }
+
+                public void onStartAsync( AsyncEvent event )
+                {
+                }
+            } );
+            asyncContext = async;
+
+            if ( heartbeatInterval > 0 )
+            {
+                scheduleHeartbeat();
+            }
+            signal();
+        }
+        else
+        {
+            streamOnRequestThread();
+        }
+    }
+
+    static String serialize( Object data )
+    {
+        JsonBuilder builder = new JsonBuilder( data );
+        builder.setIndent( 0 );
+        return builder.build();
+    }
+
+    /**
+     * Queues an event, applying the overflow policy if the queue is full.
+     *
+     * @return False if the stream has ended, or was ended by the overflow
+     * policy
+     */
+    boolean offer( Event event )
+    {
+        boolean queued;
+        synchronized ( this )
+        {
+            if ( closing || aborted )
+            {
+                return false;
+            }
+
+            if ( queue.size() >= queueCapacity )
+            {
+                droppedCount++;
+                if ( overflowPolicy == OverflowPolicy.DISCONNECT )
+                {
+                    log.warn( "Disconnecting an event stream client which fell ", queue.size(), " events behind." );
+                    aborted = true;
+                    queue.clear();
+                }
+                else if ( overflowPolicy != OverflowPolicy.COALESCE || !removeNamed( event.name ) )
+                {
+                    queue.pollFirst();
+                }
+            }
+
+            queued = !aborted;
+            if ( queued )
+            {
+                queue.addLast( event );
+            }
+        }
+
+        signal();
+        return queued;
+    }
+
+    private boolean removeNamed( String name )
+    {
+        for ( Iterator< Event> i = queue.descendingIterator(); i.hasNext(); )
+        {
+            Event queued = i.next();
+            if ( name == null ? queued.name == null : name.equals( queued.name ) )
+            {
+                i.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signal()
+    {
+        AsyncContext async = asyncContext;
+        if ( async == null )
+        {
+            synchronized ( this )
+            {
+                notifyAll();
+            }
+        }
+        else if ( draining.compareAndSet( false, true ) )
+        {
+            try
+            {
+                async.start( drainTask );
+            }
+            catch ( IllegalStateException e )
+            {
+                // The async context has already been completed
+                draining.set( false );
+                abort();
+                finish( false );
+            }
+        }
+    }
+
+    private synchronized boolean hasWork()
+    {
+        return !finished && ( !queue.isEmpty() || heartbeatDue || closing || aborted );
+    }
+
+    private void scheduleHeartbeat()
+    {
+        heartbeat = Heartbeats.get().scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                synchronized ( EventStreamResolution.this )
+                {
+                    heartbeatDue = true;
+                }
+                signal();
+            }
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS );
+    }
+
+    private void streamOnRequestThread()
+    {
+        try
+        {
+            while ( true )
+            {
+                synchronized ( this )
+                {
+                    if ( queue.isEmpty() && !closing && !aborted )
+                    {
+                        wait( Math.max( heartbeatInterval, 0 ) );
+                        heartbeatDue = heartbeatInterval > 0 && queue.isEmpty() && !closing && !aborted;
+                    }
+                }
+
+                drain();
+
+                synchronized ( this )
+                {
+                    if ( finished )
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            abort();
+            finish( false );
+        }
+    }
+
+    /**
+     * Writes the queued events, or a heartbeat if there are none, and ends the
+     * stream if it is closing.
+     */
+    private void drain()
+    {
+        try
+        {
+            boolean wrote = false;
+            for ( Event event = poll(); event != null; event = poll() )
+            {
+                write( event );
+                wrote = true;
+            }
+
+            if ( takeHeartbeat() && !wrote )
+            {
+                writer.write( format == Format.SERVER_SENT_EVENTS ? ": heartbeat\n\n" : "\n" );
+                wrote = true;
+            }
+
+            if ( wrote )
+            {
+                writer.flush();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Event stream client disconnected: ", e.getMessage() );
+            abort();
+        }
+
+        if ( isEnding() )
+        {
+            finish( true );
+        }
+    }
+
+    private void write( Event event ) throws IOException
+    {
+        if ( format == Format.SERVER_SENT_EVENTS )
+        {
+            if ( event.id != null )
+            {
+                writer.write( "id: " );
+                writer.write( event.id );
+                writer.write( '\n' );
+            }
+            if ( event.name != null )
+            {
+                writer.write( "event: " );
+                writer.write( event.name );
+                writer.write( '\n' );
+            }
+            writer.write( "data: " );
+            writer.write( event.data );
+            writer.write( "\n\n" );
+        }
+        else
+        {
+            writer.write( event.data );
+            writer.write( '\n' );
+        }
+    }
+
+    private synchronized Event poll()
+    {
+        return aborted ? null : queue.pollFirst();
+    }
+
+    private synchronized boolean takeHeartbeat()
+    {
+        boolean due = heartbeatDue;
+        heartbeatDue = false;
+        return due && !aborted;
+    }
+
+    private synchronized boolean isEnding()
+    {
+        return aborted || ( closing && queue.isEmpty() );
+    }
+
+    private void abort()
+    {
+        synchronized ( this )
+        {
+            aborted = true;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases everything held by the stream, once.
+     *
+     * @param complete - True to complete the async context, false if the
+     * container has already done so
+     */
+    private void finish( boolean complete )
+    {
+        synchronized ( this )
+        {
+            if ( finished )
+            {
+                return;
+            }
+            finished = true;
+        }
+
+        if ( heartbeat != null )
+        {
+            heartbeat.cancel( false );
+        }
+
+        if ( feed != null )
+        {
+            feed.detach( this );
+        }
+
+        AsyncContext async = asyncContext;
+        if ( complete && async != null )
+        {
+            try
+            {
+                async.complete();
+            }
+            catch ( IllegalStateException e )
+            {
+                // Already completed by the container
+            }
+        }
+
+        for ( Runnable listener : closeListeners )
+        {
+            try
+            {
+                listener.run();
+            }
+            catch ( RuntimeException e )
+            {
+                log.warn( e, "Event stream close listener failed." );
+            }
+        }
+    }
+}
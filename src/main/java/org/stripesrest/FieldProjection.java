@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The properties to include in a JSON document, compiled from a list of
+ * dotted paths such as <code>id,name,address.city</code> into a tree. A path
+ * includes everything below its last segment. Paths apply to the elements of
+ * collections, arrays and maps as well as to beans, so
+ * <code>lines.sku</code> keeps only the sku of every order line.
+ *
+ * Compiled projections are immutable and cached by their text, up to a fixed
+ * number of distinct projections, so a projection requested over and over is
+ * only parsed once.
+ */
+final class FieldProjection
+{
+
+    // Projections come from clients, so the cache must not grow without bound
+    private static final int CACHE_LIMIT = 1024;
+    private static final ConcurrentMap< String, FieldProjection> CACHE = new ConcurrentHashMap< String, FieldProjection>();
+
+    // A null child means everything below the name is included
+    private final Map< String, FieldProjection> children;
+
+    private FieldProjection( Map< String, FieldProjection> children )
+    {
+        this.children = Collections.unmodifiableMap( children );
+    }
+
+    /**
+     * Returns the projection for a comma-separated list of dotted paths.
+     *
+     * @param fields - Paths to include, e.g. <code>id,address.city</code>
+     * @return Compiled projection, or null if no path was given
+     */
+    static FieldProjection compile( String fields )
+    {
+        if ( fields == null )
+        {
+            return null;
+        }
+
+        FieldProjection projection = CACHE.get( fields );
+        if ( projection == null )
+        {
+            projection = parse( fields );
+            if ( projection != null && CACHE.size() < CACHE_LIMIT )
+            {
+                CACHE.putIfAbsent( fields, projection );
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * @return Names included at this level, in the order first requested
+     */
+    Set< String> getNames()
+    {
+        return children.keySet();
+    }
+
+    /**
+     * @param name - Property or map key name
+     * @return True if the name is included at this level
+     */
+    boolean includes( String name )
+    {
+        return children.containsKey( name );
+    }
+
+    /**
+     * @param name - Included property or map key name
+     * @return Projection below the name, or null if everything below it is
+     * included
+     */
+    FieldProjection getChild( String name )
+    {
+        return children.get( name );
+    }
+
+    private static FieldProjection parse( String fields )
+    {
+        Node root = new Node();
+        for ( String path : fields.split( "," ) )
+        {
+            Node node = root;
+            for ( String segment : path.split( "\\." ) )
+            {
+                segment = segment.trim();
+                if ( segment.isEmpty() || node.all )
+                {
+                    continue;
+                }
+
+                Node child = node.children.get( segment );
+                if ( child == null )
+                {
+                    child = new Node();
+                    node.children.put( segment, child );
+                }
+                node = child;
+            }
+
+            if ( node != root )
+            {
+                // A shorter path wins over longer ones below it
+                node.all = true;
+                node.children.clear();
+            }
+        }
+
+        return root.children.isEmpty() ? null : root.toProjection();
+    }
+
+    /**
+     * Mutable tree node used while parsing.
+     */
+    private static final class Node
+    {
+
+        private final Map< String, Node> children = new LinkedHashMap< String, Node>();
+        private boolean all;
+
+        private FieldProjection toProjection()
+        {
+            Map< String, FieldProjection> compiled = new LinkedHashMap< String, FieldProjection>();
+            for ( Map.Entry< String, Node> child : children.entrySet() )
+            {
+                compiled.put( child.getKey(), child.getValue().all ? null : child.getValue().toProjection() );
+            }
+            return new FieldProjection( compiled );
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.controller.ExecutionContext;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.controller.StripesConstants;
+
+/**
+ * Records the {@link RestStageEvent}s and {@link RestSerializationEvent}s of
+ * this library. This is the only class, besides the events themselves, which
+ * is compiled against jdk.jfr: {@link RestEvents} loads it by name, and only
+ * on a JVM with JDK Flight Recorder.
+ */
+final class FlightRecorderEvents implements RestEvents.Recorder
+{
+
+    public Object beginStage()
+    {
+        RestStageEvent event = new RestStageEvent();
+        if ( !event.isEnabled() )
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public void commitStage( Object recorded, ExecutionContext ctx )
+    {
+        RestStageEvent event = (RestStageEvent) recorded;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            event.resource = ctx.getActionBean().getClass();
+            event.httpMethod = ctx.getActionBeanContext().getRequest().getMethod();
+            event.eventName = ctx.getActionBeanContext().getEventName();
+            event.stage = ctx.getLifecycleStage().name();
+            event.status = ctx.getLifecycleStage() == LifecycleStage.ResolutionExecution ? ctx.getActionBeanContext().getResponse().getStatus() : 0;
+            event.commit();
+        }
+    }
+
+    public Object beginSerialization()
+    {
+        RestSerializationEvent event = new RestSerializationEvent();
+        if ( !event.isEnabled() )
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public void commitSerialization( Object recorded, HttpServletRequest request, Object root, String mediaType, long bytes )
+    {
+        RestSerializationEvent event = (RestSerializationEvent) recorded;
+        event.end();
+        if ( event.shouldCommit() )
+        {
+            if ( request != null )
+            {
+                Object actionBean = request.getAttribute( StripesConstants.REQ_ATTR_ACTION_BEAN );
+                event.resource = actionBean instanceof ActionBean ? actionBean.getClass() : null;
+                event.httpMethod = request.getMethod();
+                event.eventName = (String) request.getAttribute( StripesConstants.REQ_ATTR_EVENT_NAME );
+            }
+            event.rootType = root != null ? root.getClass() : null;
+            event.mediaType = mediaType;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
@@ -15,6 +15,9 @@
  */
 package org.stripesrest;
 
+import java.lang.annotation.Annotation;
+import java.util.Locale;
+
 /**
  * This is an enumeration of all of the valid HTTP request method types
  * which can be used 
@@ -22,6 +25,36 @@ package org.stripesrest;
  */
 public enum HttpRequestMethod
 {
-    GET, POST, HEAD, PUT, DELETE;
-    
+    GET( GET.class ), POST( POST.class ), HEAD( HEAD.class ), PUT( PUT.class ), DELETE( DELETE.class ), PATCH( PATCH.class ), OPTIONS( OPTIONS.class );
+
+    private final Class< ? extends Annotation> annotationType;
+    private final String handlerName;
+
+    private HttpRequestMethod( Class< ? extends Annotation> annotationType )
+    {
+        this.annotationType = annotationType;
+        this.handlerName = name().toLowerCase( Locale.ENGLISH );
+    }
+
+    /**
+     * Returns the annotation which marks an event handler as supporting this
+     * HTTP method.
+     *
+     * @return Annotation type for this HTTP method
+     */
+    public Class< ? extends Annotation> getAnnotationType()
+    {
+        return annotationType;
+    }
+
+    /**
+     * Returns the name of the event handler method which handles this HTTP
+     * method by default. For example, get() handles GET requests.
+     *
+     * @return Default event handler name
+     */
+    public String getHandlerName()
+    {
+        return handlerName;
+    }
 }
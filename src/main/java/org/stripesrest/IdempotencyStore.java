@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+/**
+ * Keeps the outcome of calls made with an <code>Idempotency-Key</code>
+ * header, so that retries of a POST, PUT or DELETE are answered with the
+ * stored response instead of running the handler again.
+ *
+ * A key is claimed by the first call which uses it. The claim is then either
+ * completed with the call's response or released if the call failed, in
+ * which case a retry runs the handler again. How long completed responses
+ * are kept, and how many, is up to the store. The default is an
+ * {@link InMemoryIdempotencyStore}; one shared by every instance of a service
+ * can be configured with the RestIdempotency.Store Stripes filter parameter.
+ *
+ * Implementations must be thread safe.
+ */
+public interface IdempotencyStore
+{
+
+    /**
+     * Claims a key for a call which is about to run.
+     *
+     * @param key - Key of the call, scoped to its resource and caller
+     * @return True if the caller now holds the key and must complete or
+     * release it; false if another call holds it or has completed it
+     */
+    boolean claim( String key );
+
+    /**
+     * Waits for the call holding a key to complete.
+     *
+     * @param key - Key of the call
+     * @param timeoutMillis - Longest time to wait, in milliseconds; zero or
+     * less only looks
+     * @return Response of the completed call, or null if it is still in flight
+     * or the key is free again
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    StoredResponse await( String key, long timeoutMillis ) throws InterruptedException;
+
+    /**
+     * Stores the response of the call holding a key.
+     *
+     * @param key - Key of the call
+     * @param response - Response to replay to retries
+     */
+    void complete( String key, StoredResponse response );
+
+    /**
+     * Frees a key whose call did not produce a response worth replaying.
+     *
+     * @param key - Key of the call
+     */
+    void release( String key );
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.ExecutionContext;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.Log;
+import net.sourceforge.stripes.util.ReflectUtil;
+
+/**
+ * Honors the <code>Idempotency-Key</code> header of calls other than GET,
+ * HEAD and OPTIONS. The first call with a key runs the handler; its response is captured
+ * and kept in the {@link IdempotencyStore}, then replayed to every retry with
+ * the same key without running the handler again. A retry made while the
+ * first call is still in flight waits for it, up to the configured wait
+ * timeout, and is otherwise answered with a JSON 409.
+ *
+ * Keys are scoped to the verb, the request URI and the remote user, so that
+ * one client cannot replay the response of another. Responses with a 5xx
+ * status are not kept: the key is freed and a retry runs the handler again.
+ * Asynchronous handlers and streamed responses are not covered.
+ */
+final class IdempotentCalls
+{
+
+    /**
+     * Request header carrying the key of a call.
+     */
+    static final String HEADER = "Idempotency-Key";
+
+    /**
+     * Request attribute holding the store key claimed by the current call.
+     */
+    static final String ATTRIBUTE = IdempotentCalls.class.getName() + ".key";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private static final Log log = Log.getInstance( IdempotentCalls.class );
+
+    private static volatile IdempotencyStore store = new InMemoryIdempotencyStore();
+    private static volatile long waitTimeout;
+
+    private IdempotentCalls()
+    {
+    }
+
+    /**
+     * @param idempotencyStore - Store of the keys and completed responses
+     */
+    static void setStore( IdempotencyStore idempotencyStore )
+    {
+        store = idempotencyStore;
+    }
+
+    /**
+     * Replaces the store with one of a class named in the configuration.
+     *
+     * @param className - Name of an {@link IdempotencyStore} class with a
+     * public no-argument constructor
+     */
+    static void setStore( String className )
+    {
+        try
+        {
+            Class<?> storeClass = ReflectUtil.findClass( className );
+            setStore( storeClass.asSubclass( IdempotencyStore.class ).getConstructor().newInstance() );
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Unable to create the REST idempotency store " + className, e );
+        }
+    }
+
+    /**
+     * @return Store of the keys and completed responses
+     */
+    static IdempotencyStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * @param millis - Longest time a retry waits for the call in flight with
+     * its key; zero or less answers it with a 409 at once
+     */
+    static void setWaitTimeout( long millis )
+    {
+        waitTimeout = millis;
+    }
+
+    /**
+     * Claims the key of a call about to invoke its handler.
+     *
+     * @param ctx - Execution context at event handling
+     * @return Replayed response of an earlier call with the same key, an
+     * error resolution, or null if the handler is to be invoked
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * for an earlier call
+     */
+    static Resolution begin( ExecutionContext ctx ) throws InterruptedException
+    {
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        String header = request.getHeader( HEADER );
+        if ( header == null || "GET".equalsIgnoreCase( request.getMethod() ) || "HEAD".equalsIgnoreCase( request.getMethod() ) || "OPTIONS".equalsIgnoreCase( request.getMethod() ) )
+        {
+            return null;
+        }
+
+        header = header.trim();
+        if ( header.isEmpty() || header.length() > MAX_KEY_LENGTH )
+        {
+            return new JsonErrorResolution( HttpServletResponse.SC_BAD_REQUEST, "The " + HEADER + " header must have 1 to " + MAX_KEY_LENGTH + " characters." );
+        }
+
+        String remoteUser = request.getRemoteUser();
+        String key = request.getMethod().toUpperCase() + ' ' + request.getRequestURI() + ' ' + ( remoteUser != null ? remoteUser.length() + ":" + remoteUser : "-" ) + ' ' + header;
+
+        IdempotencyStore idempotencyStore = store;
+        if ( !idempotencyStore.claim( key ) )
+        {
+            StoredResponse stored = idempotencyStore.await( key, waitTimeout );
+            if ( stored != null )
+            {
+                log.debug( "(", ctx.getActionBean().getClass(), ") Replaying the response to ", HEADER, " : ", header );
+                return stored;
+            }
+
+            // The earlier call may have freed the key while this one waited
+            if ( !idempotencyStore.claim( key ) )
+            {
+                return new JsonErrorResolution( HttpServletResponse.SC_CONFLICT, "A call with this " + HEADER + " is still in progress." );
+            }
+        }
+
+        request.setAttribute( ATTRIBUTE, key );
+        return null;
+    }
+
+    /**
+     * Frees the key of a call whose handler returned no resolution.
+     *
+     * @param ctx - Execution context
+     */
+    static void abandon( ExecutionContext ctx )
+    {
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        String key = (String) request.getAttribute( ATTRIBUTE );
+        if ( key != null )
+        {
+            request.removeAttribute( ATTRIBUTE );
+            store.release( key );
+        }
+    }
+
+    /**
+     * Executes the resolution of a call. If the call claimed a key, the
+     * response is captured, stored under the key, then written out.
+     *
+     * @param ctx - Execution context at resolution execution
+     * @return Resolution of the next step in the lifecycle
+     * @throws Exception if the resolution fails
+     */
+    static Resolution execute( ExecutionContext ctx ) throws Exception
+    {
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        String key = (String) request.getAttribute( ATTRIBUTE );
+        if ( key == null )
+        {
+            return ctx.proceed();
+        }
+        request.removeAttribute( ATTRIBUTE );
+
+        IdempotencyStore idempotencyStore = store;
+        if ( ctx.getResolution() instanceof EventStreamResolution || ctx.getResolution() instanceof JsonStreamResolution )
+        {
+            idempotencyStore.release( key );
+            return ctx.proceed();
+        }
+
+        HttpServletResponse response = ctx.getActionBeanContext().getResponse();
+        BatchResponse capture = new BatchResponse( response );
+        ctx.getActionBeanContext().setResponse( capture );
+
+        StoredResponse stored = null;
+        Resolution resolution;
+        try
+        {
+            resolution = ctx.proceed();
+            stored = new StoredResponse( capture.getStatus(), capture.getContentType(), capture.getHeaderMap(), capture.getBodyBytes() );
+        }
+        finally
+        {
+            ctx.getActionBeanContext().setResponse( response );
+            if ( stored != null && stored.getStatus() < HttpServletResponse.SC_INTERNAL_SERVER_ERROR )
+            {
+                idempotencyStore.complete( key, stored );
+            }
+            else
+            {
+                idempotencyStore.release( key );
+            }
+        }
+
+        stored.writeTo( response );
+        return resolution;
+    }
+}
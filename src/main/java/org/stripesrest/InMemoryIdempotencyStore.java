@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default {@link IdempotencyStore}, holding keys in the memory of one
+ * instance. Completed responses are kept for a time to live; beyond a maximum
+ * number of keys, the oldest are dropped, so a flood of unique keys cannot
+ * exhaust the heap. Calls waiting on a key in flight are woken as soon as it
+ * is completed or released.
+ *
+ * Subclasses, or other implementations, can keep the keys somewhere shared
+ * by every instance of a service.
+ */
+public class InMemoryIdempotencyStore implements IdempotencyStore
+{
+
+    /**
+     * Default time to live of a key: 24 hours, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis( 24 );
+
+    /**
+     * Default maximum number of keys.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final class Entry
+    {
+
+        // Null while the call is in flight
+        private final StoredResponse response;
+        private final long expiresAt;
+
+        private Entry( StoredResponse response, long expiresAt )
+        {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final Map< String, Entry> entries;
+
+    /**
+     * Creates a store with the default time to live and maximum size.
+     */
+    public InMemoryIdempotencyStore()
+    {
+        this( DEFAULT_TTL, DEFAULT_MAX_ENTRIES );
+    }
+
+    /**
+     * @param ttlMillis - Time to live of a key, in milliseconds
+     * @param maxEntries - Maximum number of keys
+     */
+    public InMemoryIdempotencyStore( long ttlMillis, final int maxEntries )
+    {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos( ttlMillis );
+
+        // Keys are in insertion order, which is also their order of expiry
+        this.entries = new LinkedHashMap< String, Entry>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry< String, InMemoryIdempotencyStore.Entry> eldest )
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized boolean claim( String key )
+    {
+        long now = System.nanoTime();
+        removeExpired( now );
+        if ( entries.containsKey( key ) )
+        {
+            return false;
+        }
+        entries.put( key, new Entry( null, now + ttlNanos ) );
+        return true;
+    }
+
+    public synchronized StoredResponse await( String key, long timeoutMillis ) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+        while ( true )
+        {
+            long now = System.nanoTime();
+            Entry entry = entries.get( key );
+            if ( entry == null || now - entry.expiresAt >= 0 )
+            {
+                return null;
+            }
+            if ( entry.response != null )
+            {
+                return entry.response;
+            }
+
+            long remaining = deadline - now;
+            if ( remaining <= 0 )
+            {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait( this, remaining );
+        }
+    }
+
+    public synchronized void complete( String key, StoredResponse response )
+    {
+        entries.remove( key );
+        entries.put( key, new Entry( response, System.nanoTime() + ttlNanos ) );
+        notifyAll();
+    }
+
+    public synchronized void release( String key )
+    {
+        entries.remove( key );
+        notifyAll();
+    }
+
+    /**
+     * @return Number of keys held, in flight or completed
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private void removeExpired( long now )
+    {
+        Iterator< Entry> iterator = entries.values().iterator();
+        while ( iterator.hasNext() && now - iterator.next().expiresAt >= 0 )
+        {
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+/**
+ * Reads the properties of one class marked {@link JsonSerializable} without
+ * reflection. Implementations are generated at compile time by
+ * {@link RestAnnotationProcessor}, as a class named after the serialized
+ * class's binary name followed by <code>$$JsonAccessor</code>, and are picked
+ * up by {@link JsonBuilder}. Classes without one are read through reflection.
+ *
+ * Properties follow the JavaBeans getter conventions, ordered by name like
+ * the property descriptors JsonBuilder otherwise uses, and are identified by
+ * their index in {@link #getPropertyNames()}.
+ *
+ * @author Rick Grashel
+ */
+public interface JsonAccessor
+{
+
+    /**
+     * Suffix appended to the binary name of a serializable class to name its
+     * generated accessor.
+     */
+    String SUFFIX = "$$JsonAccessor";
+
+    /**
+     * @return Names of the readable properties
+     */
+    String[] getPropertyNames();
+
+    /**
+     * @return Declared types of the readable properties, erased
+     */
+    Class<?>[] getPropertyTypes();
+
+    /**
+     * Reads a property of an object.
+     *
+     * @param bean - Object of the class this accessor was generated for
+     * @param property - Index of the property
+     * @return Value of the property
+     * @throws Exception thrown by the getter
+     */
+    Object read( Object bean, int property ) throws Exception;
+}
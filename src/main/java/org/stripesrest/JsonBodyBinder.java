@@ -0,0 +1,1028 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.controller.BindingPolicyManager;
+import net.sourceforge.stripes.controller.ParameterName;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.Log;
+import net.sourceforge.stripes.util.ReflectUtil;
+import net.sourceforge.stripes.util.bean.PropertyExpression;
+import net.sourceforge.stripes.util.bean.PropertyExpressionEvaluation;
+import net.sourceforge.stripes.validation.ScopedLocalizableError;
+import net.sourceforge.stripes.validation.SimpleError;
+import net.sourceforge.stripes.validation.TypeConverter;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrors;
+import net.sourceforge.stripes.validation.ValidationMetadata;
+
+/**
+ * Binds a JSON request body to a REST action bean as it is read, without
+ * buffering it. The members of an object body are bound to the bean's
+ * properties -- or the whole body to its {@link JsonBody} property -- and
+ * nested objects and arrays to beans, collections, maps and arrays of the
+ * declared property types.
+ *
+ * Only what Stripes would bind from request parameters is bound: members are
+ * checked against the bean's {@link net.sourceforge.stripes.action.StrictBinding}
+ * policy, properties with <code>@Validate(ignore = true)</code> are skipped,
+ * and the minlength, maxlength, mask, minvalue, maxvalue and converter of a
+ * property's <code>@Validate</code> apply to its JSON values. The body is
+ * bound before the request parameters, so both go through the same
+ * validation.
+ *
+ * Values which cannot be converted become field errors in the action bean
+ * context's ValidationErrors, named with Stripes property paths such as
+ * <code>order.lines[2].quantity</code>, and malformed JSON becomes a global
+ * error; either way the request ends in the usual 400 JSON error response.
+ * Scalars of types this class does not know are converted with the Stripes
+ * TypeConverter for the type. Unknown members are ignored.
+ */
+final class JsonBodyBinder
+{
+
+    private static final Log log = Log.getInstance( JsonBodyBinder.class );
+
+    // Returned in place of a value which could not be bound
+    private static final Object INVALID = new Object();
+
+    /**
+     * A bindable property: its setter, or a public field.
+     */
+    private static final class BoundProperty
+    {
+
+        private final String name;
+        private final Type type;
+        private final Method setter;
+        private final Field field;
+
+        private BoundProperty( String name, Type type, Method setter, Field field )
+        {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+            this.field = field;
+        }
+
+        private void set( Object target, Object value ) throws IllegalAccessException, InvocationTargetException
+        {
+            if ( setter != null )
+            {
+                setter.invoke( target, value );
+            }
+            else
+            {
+                field.set( target, value );
+            }
+        }
+    }
+
+    /**
+     * The binding metadata of a class, gathered once.
+     */
+    private static final class ClassMetadata
+    {
+
+        private final Map< String, BoundProperty> properties;
+        private final BoundProperty body;
+        private final Constructor<?> constructor;
+
+        private ClassMetadata( Class<?> type )
+        {
+            Map< String, BoundProperty> bound = new HashMap< String, BoundProperty>();
+            for ( PropertyDescriptor descriptor : ReflectUtil.getPropertyDescriptors( type ) )
+            {
+                Method setter = descriptor.getWriteMethod() != null ? ReflectUtil.findAccessibleMethod( descriptor.getWriteMethod() ) : null;
+                if ( setter != null && isBindable( setter.getParameterTypes()[0] ) && isAccessible( setter.getDeclaringClass(), setter.getModifiers() ) )
+                {
+                    bound.put( descriptor.getName(), new BoundProperty( descriptor.getName(), setter.getGenericParameterTypes()[0], setter, null ) );
+                }
+            }
+
+            for ( Field field : type.getFields() )
+            {
+                if ( !Modifier.isStatic( field.getModifiers() ) && !Modifier.isFinal( field.getModifiers() ) && isBindable( field.getType() ) && isAccessible( field.getDeclaringClass(), field.getModifiers() )
+                        && !bound.containsKey( field.getName() ) )
+                {
+                    bound.put( field.getName(), new BoundProperty( field.getName(), field.getGenericType(), null, field ) );
+                }
+            }
+            this.properties = Collections.unmodifiableMap( bound );
+            this.body = findBody( type, bound );
+
+            Constructor<?> noArgs = null;
+            if ( !type.isInterface() && !Modifier.isAbstract( type.getModifiers() ) && !type.getName().startsWith( "java." ) )
+            {
+                try
+                {
+                    noArgs = type.getConstructor();
+                }
+                catch ( NoSuchMethodException e )
+                {
+                    // Cannot be bound from a JSON object
+                }
+            }
+            this.constructor = noArgs;
+        }
+
+        private static boolean isBindable( Class<?> type )
+        {
+            // The action bean context must never be replaced by a request
+            return !ActionBeanContext.class.isAssignableFrom( type ) && type != Class.class;
+        }
+
+        private static boolean isAccessible( Class<?> declaringClass, int modifiers )
+        {
+            // Only members which can be set without overriding access checks
+            return Modifier.isPublic( modifiers ) && Modifier.isPublic( declaringClass.getModifiers() );
+        }
+
+        private static BoundProperty findBody( Class<?> type, Map< String, BoundProperty> bound )
+        {
+            String name = null;
+            for ( Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass() )
+            {
+                for ( Field field : c.getDeclaredFields() )
+                {
+                    if ( field.isAnnotationPresent( JsonBody.class ) )
+                    {
+                        name = field.getName();
+                    }
+                }
+            }
+
+            for ( PropertyDescriptor descriptor : ReflectUtil.getPropertyDescriptors( type ) )
+            {
+                if ( descriptor.getWriteMethod() != null && descriptor.getWriteMethod().isAnnotationPresent( JsonBody.class ) )
+                {
+                    name = descriptor.getName();
+                }
+            }
+
+            if ( name == null )
+            {
+                return null;
+            }
+
+            BoundProperty body = bound.get( name );
+            if ( body == null )
+            {
+                throw new StripesRuntimeException( "The @JsonBody property " + name + " of " + type.getName() + " has neither a public setter nor is a public field" );
+            }
+            return body;
+        }
+    }
+
+    private static final ClassValue< ClassMetadata> METADATA = new ClassValue< ClassMetadata>()
+    {
+        @Override
+        protected ClassMetadata computeValue( Class<?> type )
+        {
+            return new ClassMetadata( type );
+        }
+    };
+
+    /**
+     * @param request - Current request
+     * @return True if the request has a JSON body: its media type is
+     * application/json or ends with +json
+     */
+    static boolean isJsonRequest( HttpServletRequest request )
+    {
+        String contentType = request.getContentType();
+        if ( contentType == null )
+        {
+            return false;
+        }
+
+        int end = contentType.indexOf( ';' );
+        String mediaType = ( end >= 0 ? contentType.substring( 0, end ) : contentType ).trim();
+        return mediaType.equalsIgnoreCase( "application/json" ) || mediaType.regionMatches( true, mediaType.length() - 5, "+json", 0, 5 );
+    }
+
+    /**
+     * @param request - Current request with a JSON body
+     * @return Charset of the body, UTF-8 unless the request says otherwise,
+     * or null if the request names a charset this JVM does not know
+     */
+    static Charset charsetOf( HttpServletRequest request )
+    {
+        String encoding = request.getCharacterEncoding();
+        if ( encoding == null )
+        {
+            return StandardCharsets.UTF_8;
+        }
+
+        try
+        {
+            return Charset.forName( encoding.trim() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // Illegal or unsupported charset name, both sent by the client
+            return null;
+        }
+    }
+
+    /**
+     * Binds the JSON body of the current request to an action bean. Call it
+     * before Stripes binds the request parameters, once
+     * {@link #charsetOf(HttpServletRequest)} has accepted its charset.
+     *
+     * @param bean - Action bean to bind to
+     * @param context - Action bean context of the request, receiving any
+     * validation errors
+     * @return Paths of the properties which were given a value, to pass to
+     * {@link #satisfyRequired(ValidationErrors, Set)}
+     * @throws IOException if the body cannot be read
+     */
+    static Set< String> bind( Object bean, ActionBeanContext context ) throws IOException
+    {
+        HttpServletRequest request = context.getRequest();
+        InputStream body = request.getInputStream();
+        if ( body == null )
+        {
+            return Collections.emptySet();
+        }
+
+        Charset charset = charsetOf( request );
+        if ( charset == null )
+        {
+            throw new StripesRuntimeException( "Unsupported request body charset: " + request.getCharacterEncoding() );
+        }
+
+        JsonBodyBinder binder = new JsonBodyBinder( bean, context );
+        binder.bindBody( bean, new JsonReader( new InputStreamReader( body, charset ) ) );
+        return binder.supplied;
+    }
+
+    /**
+     * Stripes checks required properties against the request parameters
+     * only. Drops its errors for the required properties which the JSON body
+     * did give a value.
+     *
+     * @param errors - Validation errors of the request
+     * @param supplied - Property paths returned by
+     * {@link #bind(Object, ActionBeanContext)}
+     */
+    static void satisfyRequired( ValidationErrors errors, Set< String> supplied )
+    {
+        for ( String path : supplied )
+        {
+            List< ValidationError> fieldErrors = errors.get( path );
+            if ( fieldErrors == null )
+            {
+                continue;
+            }
+
+            for ( Iterator< ValidationError> i = fieldErrors.iterator(); i.hasNext(); )
+            {
+                ValidationError error = i.next();
+                if ( error instanceof ScopedLocalizableError && "valueNotPresent".equals( ( (ScopedLocalizableError) error ).getKey() ) )
+                {
+                    i.remove();
+                }
+            }
+            if ( fieldErrors.isEmpty() )
+            {
+                errors.remove( path );
+            }
+        }
+    }
+
+    private final Object root;
+    private final ValidationErrors errors;
+    private final Locale locale;
+    private final BindingPolicyManager policy;
+    private final Map< String, ValidationMetadata> validations;
+    private final Map< String, Boolean> allowed = new HashMap< String, Boolean>();
+    private final Set< String> supplied = new HashSet< String>();
+
+    private JsonBodyBinder( Object root, ActionBeanContext context )
+    {
+        this.root = root;
+        this.errors = context.getValidationErrors();
+        this.locale = context.getLocale();
+        this.policy = BindingPolicyManager.getInstance( root.getClass() );
+        this.validations = StripesFilter.getConfiguration().getValidationMetadataProvider().getValidationMetadata( root.getClass() );
+    }
+
+    private void bindBody( Object bean, JsonReader json ) throws IOException
+    {
+        try
+        {
+            if ( json.peek() == JsonReader.Token.END_DOCUMENT )
+            {
+                return;
+            }
+
+            ClassMetadata metadata = METADATA.get( bean.getClass() );
+            if ( metadata.body != null )
+            {
+                bindProperty( json, bean, metadata.body, metadata.body.name );
+            }
+            else if ( json.peek() == JsonReader.Token.BEGIN_OBJECT )
+            {
+                bindProperties( json, bean, metadata, null );
+            }
+            else
+            {
+                json.skipValue();
+                errors.addGlobalError( new SimpleError( "The request body must be a JSON object." ) );
+            }
+
+            // Rejects anything after the document
+            json.peek();
+        }
+        catch ( JsonReader.MalformedJsonException e )
+        {
+            errors.addGlobalError( new SimpleError( "The request body is not valid JSON: " + e.getMessage() + "." ) );
+        }
+    }
+
+    private void bindProperties( JsonReader json, Object target, ClassMetadata metadata, String path ) throws IOException
+    {
+        json.beginObject();
+        while ( json.hasNext() )
+        {
+            String name = json.nextName();
+            BoundProperty property = metadata.properties.get( name );
+            if ( property == null )
+            {
+                json.skipValue();
+                continue;
+            }
+
+            bindProperty( json, target, property, path != null ? path + "." + name : name );
+        }
+        json.endObject();
+    }
+
+    private void bindProperty( JsonReader json, Object target, BoundProperty property, String path ) throws IOException
+    {
+        String strippedPath = new ParameterName( path ).getStrippedName();
+        ValidationMetadata validation = validations.get( strippedPath );
+
+        // Beans are entered even if not allowed themselves, as the policy
+        // may allow some of their properties
+        if ( ( validation != null && validation.ignore() ) || ( !isBindingAllowed( path, strippedPath ) && !holdsBeans( property.type ) ) )
+        {
+            json.skipValue();
+            return;
+        }
+
+        Object value = read( json, property.type, path );
+        if ( value != INVALID )
+        {
+            set( target, property, value, path );
+            if ( value != null )
+            {
+                supplied.add( path );
+            }
+        }
+    }
+
+    private static boolean holdsBeans( Type type )
+    {
+        Class<?> raw = rawType( type );
+        if ( raw.isArray() )
+        {
+            return holdsBeans( type instanceof GenericArrayType ? ( (GenericArrayType) type ).getGenericComponentType() : raw.getComponentType() );
+        }
+        if ( Collection.class.isAssignableFrom( raw ) )
+        {
+            return holdsBeans( typeArgument( type, 0 ) );
+        }
+        if ( Map.class.isAssignableFrom( raw ) )
+        {
+            return holdsBeans( typeArgument( type, 1 ) );
+        }
+        return raw != Object.class && METADATA.get( raw ).constructor != null;
+    }
+
+    private boolean isBindingAllowed( String path, String strippedPath )
+    {
+        // The policy only depends on the property names, not on the indexes
+        Boolean allow = allowed.get( strippedPath );
+        if ( allow == null )
+        {
+            try
+            {
+                allow = policy.isBindingAllowed( new PropertyExpressionEvaluation( PropertyExpression.getExpression( path ), root ) );
+            }
+            catch ( Exception e )
+            {
+                // A member name which is no property expression
+                allow = Boolean.FALSE;
+            }
+            allowed.put( strippedPath, allow );
+        }
+        return allow;
+    }
+
+    private void set( Object target, BoundProperty property, Object value, String path )
+    {
+        try
+        {
+            property.set( target, value );
+        }
+        catch ( Exception e )
+        {
+            log.warn( e, "Unable to set ", property.name, " on ", target.getClass().getName(), " from the JSON request body." );
+            invalid( path, null, "{0} could not be set." );
+        }
+    }
+
+    private Object read( JsonReader json, Type type, String path ) throws IOException
+    {
+        Class<?> raw = rawType( type );
+
+        switch ( json.peek() )
+        {
+            case NULL:
+                json.nextNull();
+                // Primitives keep their current value
+                return raw.isPrimitive() ? INVALID : null;
+
+            case BEGIN_OBJECT:
+                if ( raw == Object.class )
+                {
+                    return readNatural( json );
+                }
+                if ( Map.class.isAssignableFrom( raw ) )
+                {
+                    return readMap( json, raw, type, path );
+                }
+                return readBean( json, raw, path );
+
+            case BEGIN_ARRAY:
+                if ( raw == Object.class )
+                {
+                    return readNatural( json );
+                }
+                if ( raw.isArray() )
+                {
+                    return readArray( json, raw, type, path );
+                }
+                if ( Collection.class.isAssignableFrom( raw ) )
+                {
+                    return readCollection( json, raw, type, path );
+                }
+                json.skipValue();
+                return invalid( path, null, "{0} cannot be a list." );
+
+            default:
+                JsonReader.Token token = json.peek();
+                String text = json.nextScalar();
+                ValidationMetadata validation = validations.isEmpty() ? null : validations.get( new ParameterName( path ).getStrippedName() );
+                if ( validation == null )
+                {
+                    return convert( text, token, raw, path );
+                }
+                if ( text != null && !validateText( text, validation, path ) )
+                {
+                    return INVALID;
+                }
+
+                Object value = validation.converter() != null && text != null ? convertWithStripes( text, raw, path, validation.converter() ) : convert( text, token, raw, path );
+                return value instanceof Number ? validateNumber( (Number) value, text, validation, path ) : value;
+        }
+    }
+
+    private boolean validateText( String text, ValidationMetadata validation, String path )
+    {
+        ValidationError error = null;
+        if ( validation.minlength() != null && text.length() < validation.minlength() )
+        {
+            error = new ScopedLocalizableError( "validation.minlength", "valueTooShort", validation.minlength() );
+        }
+        else if ( validation.maxlength() != null && text.length() > validation.maxlength() )
+        {
+            error = new ScopedLocalizableError( "validation.maxlength", "valueTooLong", validation.maxlength() );
+        }
+        else if ( validation.mask() != null && !validation.mask().matcher( text ).matches() )
+        {
+            error = new ScopedLocalizableError( "validation.mask", "valueDoesNotMatch" );
+        }
+
+        if ( error != null )
+        {
+            error.setFieldValue( text );
+            errors.add( path, error );
+        }
+        return error == null;
+    }
+
+    private Object validateNumber( Number value, String text, ValidationMetadata validation, String path )
+    {
+        ValidationError error = null;
+        if ( validation.minvalue() != null && value.doubleValue() < validation.minvalue() )
+        {
+            error = new ScopedLocalizableError( "validation.minvalue", "valueBelowMinimum", validation.minvalue() );
+        }
+        else if ( validation.maxvalue() != null && value.doubleValue() > validation.maxvalue() )
+        {
+            error = new ScopedLocalizableError( "validation.maxvalue", "valueAboveMaximum", validation.maxvalue() );
+        }
+
+        if ( error == null )
+        {
+            return value;
+        }
+        error.setFieldValue( text );
+        errors.add( path, error );
+        return INVALID;
+    }
+
+    private Object readBean( JsonReader json, Class<?> raw, String path ) throws IOException
+    {
+        ClassMetadata metadata = METADATA.get( raw );
+        if ( metadata.constructor == null )
+        {
+            json.skipValue();
+            return invalid( path, null, "{0} cannot be an object." );
+        }
+
+        Object bean;
+        try
+        {
+            bean = metadata.constructor.newInstance();
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Unable to create a " + raw.getName() + " for " + path, e );
+        }
+
+        bindProperties( json, bean, metadata, path );
+        return bean;
+    }
+
+    private Object readCollection( JsonReader json, Class<?> raw, Type type, String path ) throws IOException
+    {
+        Collection< Object> collection = newCollection( raw );
+        if ( collection == null )
+        {
+            json.skipValue();
+            return invalid( path, null, "{0} cannot be a list." );
+        }
+
+        return readElements( json, typeArgument( type, 0 ), path, collection ) ? collection : INVALID;
+    }
+
+    private Object readArray( JsonReader json, Class<?> raw, Type type, String path ) throws IOException
+    {
+        Type componentType = type instanceof GenericArrayType ? ( (GenericArrayType) type ).getGenericComponentType() : raw.getComponentType();
+
+        List< Object> elements = new ArrayList< Object>();
+        if ( !readElements( json, componentType, path, elements ) )
+        {
+            return INVALID;
+        }
+
+        Object array = Array.newInstance( raw.getComponentType(), elements.size() );
+        for ( int i = 0; i < elements.size(); i++ )
+        {
+            Object element = elements.get( i );
+            if ( element != null || !raw.getComponentType().isPrimitive() )
+            {
+                Array.set( array, i, element );
+            }
+        }
+        return array;
+    }
+
+    private boolean readElements( JsonReader json, Type elementType, String path, Collection< Object> elements ) throws IOException
+    {
+        boolean valid = true;
+        int index = 0;
+
+        json.beginArray();
+        while ( json.hasNext() )
+        {
+            Object element = read( json, elementType, path + "[" + index++ + "]" );
+            if ( element == INVALID )
+            {
+                valid = false;
+            }
+            else
+            {
+                elements.add( element );
+            }
+        }
+        json.endArray();
+        return valid;
+    }
+
+    private Object readMap( JsonReader json, Class<?> raw, Type type, String path ) throws IOException
+    {
+        Map< Object, Object> map = newMap( raw );
+        if ( map == null )
+        {
+            json.skipValue();
+            return invalid( path, null, "{0} cannot be an object." );
+        }
+
+        Class<?> keyType = rawType( typeArgument( type, 0 ) );
+        Type valueType = typeArgument( type, 1 );
+        boolean valid = true;
+
+        json.beginObject();
+        while ( json.hasNext() )
+        {
+            String name = json.nextName();
+            String entryPath = path + "[" + name + "]";
+
+            Object key = convert( name, JsonReader.Token.STRING, keyType, entryPath );
+            Object value = key != INVALID ? read( json, valueType, entryPath ) : skip( json );
+            if ( key == INVALID || value == INVALID )
+            {
+                valid = false;
+            }
+            else if ( value != null || !( map instanceof ConcurrentMap ) )
+            {
+                map.put( key, value );
+            }
+        }
+        json.endObject();
+        return valid ? map : INVALID;
+    }
+
+    private Object readNatural( JsonReader json ) throws IOException
+    {
+        JsonReader.Token token = json.peek();
+        switch ( token )
+        {
+            case BEGIN_OBJECT:
+                Map< String, Object> map = new LinkedHashMap< String, Object>();
+                json.beginObject();
+                while ( json.hasNext() )
+                {
+                    String name = json.nextName();
+                    map.put( name, readNatural( json ) );
+                }
+                json.endObject();
+                return map;
+
+            case BEGIN_ARRAY:
+                List< Object> list = new ArrayList< Object>();
+                json.beginArray();
+                while ( json.hasNext() )
+                {
+                    list.add( readNatural( json ) );
+                }
+                json.endArray();
+                return list;
+
+            case NUMBER:
+                return naturalNumber( json.nextNumber() );
+
+            case BOOLEAN:
+                return json.nextBoolean();
+
+            case NULL:
+                json.nextNull();
+                return null;
+
+            default:
+                return json.nextString();
+        }
+    }
+
+    private Object convert( String text, JsonReader.Token token, Class<?> raw, String path )
+    {
+        if ( text == null )
+        {
+            return raw.isPrimitive() ? INVALID : null;
+        }
+
+        if ( raw == String.class || raw == CharSequence.class )
+        {
+            return text;
+        }
+
+        try
+        {
+            if ( raw == Object.class || raw == Number.class )
+            {
+                if ( token == JsonReader.Token.NUMBER )
+                {
+                    return naturalNumber( text );
+                }
+                if ( raw == Object.class )
+                {
+                    return token == JsonReader.Token.BOOLEAN ? Boolean.valueOf( text ) : text;
+                }
+                return naturalNumber( text );
+            }
+            if ( raw == int.class || raw == Integer.class )
+            {
+                return (int) parseIntegral( text, Integer.MIN_VALUE, Integer.MAX_VALUE );
+            }
+            if ( raw == long.class || raw == Long.class )
+            {
+                return parseIntegral( text, Long.MIN_VALUE, Long.MAX_VALUE );
+            }
+            if ( raw == double.class || raw == Double.class )
+            {
+                return Double.parseDouble( text );
+            }
+            if ( raw == float.class || raw == Float.class )
+            {
+                return Float.parseFloat( text );
+            }
+            if ( raw == short.class || raw == Short.class )
+            {
+                return (short) parseIntegral( text, Short.MIN_VALUE, Short.MAX_VALUE );
+            }
+            if ( raw == byte.class || raw == Byte.class )
+            {
+                return (byte) parseIntegral( text, Byte.MIN_VALUE, Byte.MAX_VALUE );
+            }
+            if ( raw == BigDecimal.class )
+            {
+                return new BigDecimal( text );
+            }
+            if ( raw == BigInteger.class )
+            {
+                return new BigDecimal( text ).toBigIntegerExact();
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            return invalid( path, text, "{0} must be a number." );
+        }
+        catch ( ArithmeticException e )
+        {
+            return invalid( path, text, "{0} must be a whole number within range." );
+        }
+
+        if ( raw == boolean.class || raw == Boolean.class )
+        {
+            if ( "true".equals( text ) || "false".equals( text ) )
+            {
+                return Boolean.valueOf( text );
+            }
+            return invalid( path, text, "{0} must be true or false." );
+        }
+
+        if ( raw == char.class || raw == Character.class )
+        {
+            return text.length() == 1 ? (Object) text.charAt( 0 ) : invalid( path, text, "{0} must be a single character." );
+        }
+
+        if ( raw.isEnum() )
+        {
+            for ( Object constant : raw.getEnumConstants() )
+            {
+                if ( ( (Enum<?>) constant ).name().equals( text ) )
+                {
+                    return constant;
+                }
+            }
+            return invalid( path, text, "{0} must be one of " + Arrays.toString( raw.getEnumConstants() ) + "." );
+        }
+
+        return convertWithStripes( text, raw, path, null );
+    }
+
+    @SuppressWarnings(
+                    {
+                "rawtypes", "unchecked"
+            } )
+    private Object convertWithStripes( String text, Class<?> raw, String path, Class<? extends TypeConverter> converterClass )
+    {
+        TypeConverter converter;
+        try
+        {
+            converter = converterClass != null ? StripesFilter.getConfiguration().getTypeConverterFactory().getInstance( converterClass, locale )
+                    : StripesFilter.getConfiguration().getTypeConverterFactory().getTypeConverter( raw, locale );
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Unable to look up the TypeConverter for " + raw.getName(), e );
+        }
+
+        if ( converter == null )
+        {
+            return invalid( path, text, "{0} cannot be a single value." );
+        }
+
+        List< ValidationError> conversionErrors = new ArrayList< ValidationError>();
+        Object value = converter.convert( text, (Class) raw, conversionErrors );
+        if ( !conversionErrors.isEmpty() )
+        {
+            for ( ValidationError error : conversionErrors )
+            {
+                error.setFieldValue( text );
+                errors.add( path, error );
+            }
+            return INVALID;
+        }
+        return value;
+    }
+
+    private Object invalid( String path, String value, String message )
+    {
+        SimpleError error = new SimpleError( message );
+        error.setFieldValue( value );
+        errors.add( path, error );
+        return INVALID;
+    }
+
+    private static Object skip( JsonReader json ) throws IOException
+    {
+        json.skipValue();
+        return INVALID;
+    }
+
+    private static long parseIntegral( String text, long min, long max )
+    {
+        long value;
+        try
+        {
+            value = Long.parseLong( text );
+        }
+        catch ( NumberFormatException e )
+        {
+            // Fractions and exponents which still denote a whole number
+            value = new BigDecimal( text ).longValueExact();
+        }
+
+        if ( value < min || value > max )
+        {
+            throw new ArithmeticException( "Out of range" );
+        }
+        return value;
+    }
+
+    private static Number naturalNumber( String text )
+    {
+        try
+        {
+            return Long.parseLong( text );
+        }
+        catch ( NumberFormatException e )
+        {
+            return new BigDecimal( text );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Collection< Object> newCollection( Class<?> raw )
+    {
+        if ( raw.isInterface() || Modifier.isAbstract( raw.getModifiers() ) )
+        {
+            if ( raw.isAssignableFrom( ArrayList.class ) )
+            {
+                return new ArrayList< Object>();
+            }
+            if ( raw.isAssignableFrom( LinkedHashSet.class ) )
+            {
+                return new LinkedHashSet< Object>();
+            }
+            if ( raw.isAssignableFrom( TreeSet.class ) || SortedSet.class.isAssignableFrom( raw ) && raw.isAssignableFrom( TreeSet.class ) )
+            {
+                return new TreeSet< Object>();
+            }
+            if ( raw.isAssignableFrom( ArrayDeque.class ) )
+            {
+                return new ArrayDeque< Object>();
+            }
+            return null;
+        }
+
+        try
+        {
+            return (Collection< Object>) raw.getConstructor().newInstance();
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Map< Object, Object> newMap( Class<?> raw )
+    {
+        if ( raw.isInterface() || Modifier.isAbstract( raw.getModifiers() ) )
+        {
+            if ( raw.isAssignableFrom( LinkedHashMap.class ) )
+            {
+                return new LinkedHashMap< Object, Object>();
+            }
+            if ( raw.isAssignableFrom( TreeMap.class ) || SortedMap.class.isAssignableFrom( raw ) && raw.isAssignableFrom( TreeMap.class ) )
+            {
+                return new TreeMap< Object, Object>();
+            }
+            if ( raw.isAssignableFrom( ConcurrentHashMap.class ) )
+            {
+                return new ConcurrentHashMap< Object, Object>();
+            }
+            return null;
+        }
+
+        try
+        {
+            return (Map< Object, Object>) raw.getConstructor().newInstance();
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    private static Type typeArgument( Type type, int index )
+    {
+        if ( type instanceof ParameterizedType )
+        {
+            Type[] arguments = ( (ParameterizedType) type ).getActualTypeArguments();
+            if ( index < arguments.length )
+            {
+                return arguments[ index ];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Class<?> rawType( Type type )
+    {
+        if ( type instanceof Class )
+        {
+            return (Class<?>) type;
+        }
+        if ( type instanceof ParameterizedType )
+        {
+            return rawType( ( (ParameterizedType) type ).getRawType() );
+        }
+        if ( type instanceof GenericArrayType )
+        {
+            return Array.newInstance( rawType( ( (GenericArrayType) type ).getGenericComponentType() ), 0 ).getClass();
+        }
+        if ( type instanceof WildcardType )
+        {
+            return rawType( ( (WildcardType) type ).getUpperBounds()[ 0 ] );
+        }
+        if ( type instanceof TypeVariable )
+        {
+            Type[] bounds = ( (TypeVariable<?>) type ).getBounds();
+            return bounds.length > 0 ? rawType( bounds[ 0 ] ) : Object.class;
+        }
+        return Object.class;
+    }
+}
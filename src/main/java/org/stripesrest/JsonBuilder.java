@@ -15,35 +15,84 @@
  */
 package org.stripesrest;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 import net.sourceforge.stripes.ajax.JavaScriptBuilder;
 import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.Log;
 
 /**
  * This class converts an object to JSON. It uses the same conventions as
- * JavaScriptBuilder.
+ * JavaScriptBuilder: Java beans are navigated through their readable
+ * properties, collections and arrays become JSON arrays, maps become JSON
+ * objects and enums are written with their ordinal and name.
+ *
+ * The object graph is walked directly and written to a Writer or
+ * OutputStream as it is visited, so no script engine is required. With
+ * {@link #setFields(String)}, only the requested properties are read at all.
+ * The same walk can produce a binary encoding of the document, through the
+ * {@link DocumentWriter} of a {@link ResponseEncoding}. Bean properties are
+ * read through the {@link BeanSerializer} of their class, built the first
+ * time the class is seen.
  *
  * @author Rick Grashel
  */
 public class JsonBuilder
 {
 
-    private JavaScriptBuilder javascriptBuilder;
+    private static final Log log = Log.getInstance( JsonBuilder.class );
+
+    /** Indentation which matches the JSON.stringify( value, undefined, 2 ) output of prior versions. */
+    private static final int DEFAULT_INDENT = 2;
+
+    private final Object root;
+    private final Set< String> excludeProperties = new HashSet< String>();
+    private final Set< Class<?>> excludeClasses = new HashSet< Class<?>>();
+    private int indent = DEFAULT_INDENT;
+    private FieldProjection projection;
 
     /**
      * Constructs a new JsonBuilder object which is used to convert
      * the passed Java object into JSON -- exluding the optional list
      * of objects passed.
-     * 
+     *
      * @param root - Root object to convert to JSON
-     * @param objectsToExclude - Objects to exclude from the resulting JSON
+     * @param objectsToExclude - Objects to exclude from the resulting JSON.
+     * Classes are treated as class exclusions and Strings as property exclusions.
      */
     public JsonBuilder( Object root, Object... objectsToExclude )
     {
-        // Construct the Stripes JavascriptBuilder.  This will be used to
-        // create a Javascript object which will be converted to JSON.
-        javascriptBuilder = new JavaScriptBuilder(root, objectsToExclude);
+        this.root = root;
+
+        // Just like JavaScriptBuilder, never try to serialize Class objects
+        this.excludeClasses.add( Class.class );
+
+        for ( Object object : objectsToExclude )
+        {
+            if ( object instanceof Class<?> )
+            {
+                addClassExclusion( (Class<?>) object );
+            }
+            else if ( object instanceof String )
+            {
+                addPropertyExclusion( (String) object );
+            }
+            else
+            {
+                log.warn( "Don't know to determine exclusion for objects of type ", object.getClass().getName(), ". You may only pass in instances of Class and/or String." );
+            }
+        }
     }
 
     /**
@@ -54,7 +103,10 @@ public class JsonBuilder
      */
     public void addPropertyExclusion( String... property )
     {
-        this.javascriptBuilder = javascriptBuilder.addPropertyExclusion(property);
+        for ( String prop : property )
+        {
+            this.excludeProperties.add( prop );
+        }
     }
 
     /**
@@ -65,7 +117,43 @@ public class JsonBuilder
      */
     public void addClassExclusion( Class<?>... clazz )
     {
-        this.javascriptBuilder = javascriptBuilder.addClassExclusion(clazz);
+        for ( Class<?> c : clazz )
+        {
+            this.excludeClasses.add( c );
+        }
+    }
+
+    /**
+     * Sets the number of spaces used to indent nested JSON values. An indent
+     * of zero produces compact JSON. Defaults to two spaces.
+     *
+     * @param indent - Number of spaces per nesting level
+     */
+    public void setIndent( int indent )
+    {
+        this.indent = indent;
+    }
+
+    /**
+     * Restricts the JSON to the passed properties, given as a comma-separated
+     * list of dotted paths such as <code>id,name,address.city</code>. A path
+     * includes everything below it, and applies to the elements of
+     * collections, arrays and maps along the way. Properties are written in
+     * the order requested; unknown ones are ignored. Exclusions still apply.
+     *
+     * @param fields - Paths to include, or null to include everything
+     */
+    public void setFields( String fields )
+    {
+        this.projection = FieldProjection.compile( fields );
+    }
+
+    /**
+     * @return True if the JSON has been restricted with {@link #setFields(String)}
+     */
+    public boolean hasFields()
+    {
+        return projection != null;
     }
 
     /**
@@ -75,30 +163,363 @@ public class JsonBuilder
      * @return JSON version of the Java object supplied to the builder.
      */
     public String build()
+    {
+        StringWriter writer = new StringWriter();
+        build( writer );
+        return writer.toString();
+    }
+
+    /**
+     * Navigates the properties of the supplied object and writes them to the
+     * passed stream as UTF-8 encoded JSON. The stream is flushed, but not
+     * closed.
+     *
+     * @param out - Stream to write JSON to
+     */
+    public void build( OutputStream out )
+    {
+        Object event = RestEvents.beginSerialization();
+        OutputStream counted = RestEvents.count( event, out );
+        write( newWriter( new Utf8Writer( counted ) ) );
+        RestEvents.commitSerialization( event, null, root, ContentNegotiation.JSON, RestEvents.countOf( counted ) );
+    }
+
+    /**
+     * Navigates the properties of the supplied object and writes them to the
+     * passed writer as JSON. The writer is flushed, but not closed.
+     *
+     * @param writer - Writer to write JSON to
+     */
+    public void build( Writer writer )
+    {
+        Object event = RestEvents.beginSerialization();
+        write( newWriter( writer ) );
+        RestEvents.commitSerialization( event, null, root, ContentNegotiation.JSON, -1 );
+    }
+
+    /**
+     * Navigates the properties of the supplied object and writes them to the
+     * passed document writer, in whatever format it produces. The writer is
+     * flushed, but not closed.
+     *
+     * @param writer - Writer to write the document to
+     */
+    public void build( DocumentWriter writer )
+    {
+        Object event = RestEvents.beginSerialization();
+        write( writer );
+        RestEvents.commitSerialization( event, null, root, null, -1 );
+    }
+
+    /**
+     * Writes the document and flushes the writer, without recording a
+     * serialization event: callers which know the request and the encoding
+     * record their own.
+     */
+    private void write( DocumentWriter writer )
     {
         try
         {
-            // Create the Javascript enging to be used for JSON conversion
-            String javascriptString = javascriptBuilder.build();
-            ScriptEngineManager manager = new ScriptEngineManager();
-            ScriptEngine engine = manager.getEngineByName("JavaScript");
+            writeValue( writer, root, "", projection, new IdentityHashMap< Object, Object>() );
+            writer.flush();
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Could not build JSON for object. An "
+                    + "exception was thrown while trying to convert a property from Java to "
+                    + "JSON. The object being converted is: " + root, e );
+        }
+    }
 
-            // Convert the root object to Javascript, and then take the 
-            // Javascript representation and convert it to JSON
-            // using the Rhino scripting engine within the JDK
-            StringBuilder jsonStringBuilder = new StringBuilder();
-            engine.put("jsonStringBuilder", jsonStringBuilder);
-            engine.eval(javascriptString + "; jsonString = JSON.stringify(" + javascriptBuilder.getRootVariableName() + ", undefined, 2); jsonStringBuilder.append( jsonString );");
+    /**
+     * Writes the document to the passed stream in the passed encoding, or as
+     * UTF-8 encoded JSON if the encoding is null.
+     *
+     * @param out - Stream to write the document to
+     * @param encoding - Negotiated encoding, or null for JSON
+     * @throws IOException if the encoding cannot write to the stream
+     */
+    void build( OutputStream out, ResponseEncoding encoding ) throws IOException
+    {
+        write( encoding != null ? encoding.newWriter( out ) : newWriter( new Utf8Writer( out ) ) );
+    }
 
-            return jsonStringBuilder.toString();
+    /**
+     * @return Root object converted by this builder
+     */
+    Object getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Creates a JsonWriter over the passed writer which uses the indentation
+     * of this builder.
+     */
+    JsonWriter newWriter( Writer writer )
+    {
+        return new JsonWriter( writer, indent );
+    }
+
+    /**
+     * Writes one value with the exclusions of this builder, as if it were the
+     * root object. Used to serialize the elements of a stream one by one.
+     *
+     * @param json - Writer positioned where the value belongs
+     * @param value - Value to write
+     * @param ancestors - Scratch map for cycle detection, empty between calls
+     * @throws IOException if the underlying writer fails
+     */
+    void writeElement( DocumentWriter json, Object value, IdentityHashMap< Object, Object> ancestors ) throws IOException
+    {
+        try
+        {
+            writeValue( json, value, "", projection, ancestors );
+        }
+        catch ( IOException e )
+        {
+            throw e;
         }
         catch ( Exception e )
         {
-            throw new StripesRuntimeException("Could not build JSON for object. An "
+            ancestors.clear();
+            throw new StripesRuntimeException( "Could not build JSON for object. An "
                     + "exception was thrown while trying to convert a property from Java to "
-                    + "JSON. The object being converted is: " + javascriptBuilder.getRootVariableName() );
+                    + "JSON. The object being converted is: " + value, e );
         }
+    }
 
+    /**
+     * Returns true if the passed type, or the component type of the passed
+     * array type, has been excluded.
+     */
+    private boolean isExcludedType( Class<?> type )
+    {
+        if ( excludeClasses.size() == 1 )
+        {
+            // Only Class itself, which is final, is excluded by default
+            return type == Class.class || ( type.isArray() && type.getComponentType() == Class.class );
+        }
+
+        for ( Class<?> excludedClass : excludeClasses )
+        {
+            if ( excludedClass.isAssignableFrom( type ) )
+            {
+                return true;
+            }
+            else if ( type.isArray() && excludedClass.isAssignableFrom( type.getComponentType() ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isExcludedProperty( String path )
+    {
+        return !excludeProperties.isEmpty() && excludeProperties.contains( path );
+    }
+
+    /**
+     * Builds the exclusion path of a nested node. Paths are only built when
+     * property exclusions exist, since they are never looked at otherwise.
+     */
+    private String childPath( String parentPath, String segment )
+    {
+        if ( excludeProperties.isEmpty() )
+        {
+            return parentPath;
+        }
+
+        return parentPath + segment;
+    }
+
+    private void writeValue( DocumentWriter json, Object value, String path, FieldProjection fields, IdentityHashMap< Object, Object> ancestors ) throws Exception
+    {
+        if ( value == null )
+        {
+            json.nullValue();
+        }
+        else if ( value instanceof String )
+        {
+            json.value( (String) value );
+        }
+        else if ( value instanceof Number )
+        {
+            json.value( (Number) value );
+        }
+        else if ( value instanceof Boolean )
+        {
+            json.value( ( (Boolean) value ).booleanValue() );
+        }
+        else if ( value instanceof Character )
+        {
+            json.value( value.toString() );
+        }
+        else if ( value instanceof Date )
+        {
+            json.value( formatDate( (Date) value ) );
+        }
+        else if ( isExcludedType( value.getClass() ) )
+        {
+            json.nullValue();
+        }
+        else
+        {
+            // JSON has no way to express references, so a cycle cannot be serialized
+            if ( ancestors.put( value, value ) != null )
+            {
+                throw new StripesRuntimeException( "Could not build JSON for object. A circular reference was found at : " + value.getClass().getName() );
+            }
+
+            if ( value instanceof Collection )
+            {
+                writeArray( json, ( (Collection<?>) value ).toArray(), path, fields, ancestors );
+            }
+            else if ( value.getClass().isArray() )
+            {
+                writeArray( json, value, path, fields, ancestors );
+            }
+            else if ( value instanceof Map )
+            {
+                writeMap( json, (Map<?, ?>) value, path, fields, ancestors );
+            }
+            else
+            {
+                writeObject( json, value, path, fields, ancestors );
+            }
+
+            ancestors.remove( value );
+        }
+    }
+
+    private void writeArray( DocumentWriter json, Object array, String path, FieldProjection fields, IdentityHashMap< Object, Object> ancestors ) throws Exception
+    {
+        json.beginArray();
+
+        int length = Array.getLength( array );
+        for ( int i = 0; i < length; i++ )
+        {
+            String elementPath = childPath( path, "[" + i + "]" );
+
+            if ( isExcludedProperty( elementPath ) )
+            {
+                json.nullValue();
+            }
+            else
+            {
+                writeValue( json, Array.get( array, i ), elementPath, fields, ancestors );
+            }
+        }
+
+        json.endArray();
+    }
+
+    private void writeMap( DocumentWriter json, Map<?, ?> map, String path, FieldProjection fields, IdentityHashMap< Object, Object> ancestors ) throws Exception
+    {
+        json.beginObject();
+
+        for ( Map.Entry<?, ?> entry : map.entrySet() )
+        {
+            Object key = entry.getKey();
+            String name = String.valueOf( key );
+            if ( fields != null && !fields.includes( name ) )
+            {
+                continue;
+            }
+
+            Object value = entry.getValue();
+            String entryPath = childPath( path, "[" + ( key instanceof String ? JavaScriptBuilder.quote( (String) key ) : String.valueOf( key ) ) + "]" );
+
+            if ( isExcludedProperty( entryPath ) || ( value != null && isExcludedType( value.getClass() ) ) )
+            {
+                continue;
+            }
+
+            json.name( name );
+            writeValue( json, value, entryPath, fields != null ? fields.getChild( name ) : null, ancestors );
+        }
+
+        json.endObject();
     }
 
+    private void writeObject( DocumentWriter json, Object bean, String path, FieldProjection fields, IdentityHashMap< Object, Object> ancestors ) throws Exception
+    {
+        json.beginObject();
+
+        BeanSerializer serializer = BeanSerializer.forClass( bean.getClass() );
+        if ( fields == null )
+        {
+            for ( BeanSerializer.Property property : serializer.getProperties() )
+            {
+                writeProperty( json, bean, property, path, null, ancestors );
+            }
+        }
+        else
+        {
+            // Only the requested properties are read
+            for ( String name : fields.getNames() )
+            {
+                BeanSerializer.Property property = serializer.getProperty( name );
+                if ( property != null )
+                {
+                    writeProperty( json, bean, property, path, fields.getChild( name ), ancestors );
+                }
+            }
+        }
+
+        if ( bean instanceof Enum )
+        {
+            Enum<?> enumValue = (Enum<?>) bean;
+            if ( fields == null || fields.includes( "ordinal" ) )
+            {
+                json.name( "ordinal" ).value( enumValue.ordinal() );
+            }
+            if ( fields == null || fields.includes( "name" ) )
+            {
+                json.name( "name" ).value( enumValue.name() );
+            }
+        }
+
+        json.endObject();
+    }
+
+    private void writeProperty( DocumentWriter json, Object bean, BeanSerializer.Property property, String path, FieldProjection fields, IdentityHashMap< Object, Object> ancestors ) throws Exception
+    {
+        String propertyPath = path.length() > 0 ? childPath( path, "." + property.getName() ) : property.getName();
+        if ( isExcludedProperty( propertyPath ) || isExcludedType( property.getType() ) )
+        {
+            return;
+        }
+
+        Object value;
+        try
+        {
+            value = property.read( bean );
+        }
+        catch ( Exception e )
+        {
+            log.warn( e, "Could not translate property [", property.getName(), "] of type [", property.getType().getName(), "] due to an exception." );
+            return;
+        }
+
+        if ( value != null && isExcludedType( value.getClass() ) )
+        {
+            return;
+        }
+
+        property.writeName( json );
+        writeValue( json, value, propertyPath, fields, ancestors );
+    }
+
+    /**
+     * Formats a date the way JSON.stringify formats a JavaScript Date.
+     */
+    private static String formatDate( Date date )
+    {
+        SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        return format.format( date );
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrors;
+
+/**
+ * Streams a JSON error document with an HTTP error status through a
+ * {@link JsonErrorWriter}, compressed if the client accepts it and the
+ * document is large enough. Clients which prefer a binary
+ * {@link ResponseEncoding} get the same document in that encoding.
+ */
+class JsonErrorResolution implements Resolution
+{
+
+    private final int status;
+    private final String message;
+    private final ValidationErrors validationErrors;
+
+    /**
+     * Creates an error holding a single global error message.
+     *
+     * @param status - HTTP status of the error
+     * @param message - Error message
+     */
+    JsonErrorResolution( int status, String message )
+    {
+        this.status = status;
+        this.message = message;
+        this.validationErrors = null;
+    }
+
+    /**
+     * Creates a "Bad Request" (400) error listing validation errors.
+     *
+     * @param validationErrors - Validation errors of the request
+     */
+    JsonErrorResolution( ValidationErrors validationErrors )
+    {
+        this.status = HttpServletResponse.SC_BAD_REQUEST;
+        this.message = null;
+        this.validationErrors = validationErrors;
+    }
+
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        response.setStatus( status );
+
+        String encoding = ResponseCompression.negotiate( request, response );
+        ResponseEncoding responseEncoding = ContentNegotiation.negotiate( request, response );
+        response.setContentType( ContentNegotiation.mediaType( responseEncoding ) );
+        if ( responseEncoding == null )
+        {
+            response.setCharacterEncoding( "UTF-8" );
+        }
+
+        CompressingOutputStream compressingStream = encoding != null ? new CompressingOutputStream( response, encoding, ResponseCompression.getMinSize() ) : null;
+
+        try
+        {
+            if ( responseEncoding != null )
+            {
+                writeDocument( responseEncoding.newWriter( compressingStream != null ? compressingStream : response.getOutputStream() ), request.getLocale() );
+            }
+            else
+            {
+                writeJson( response, compressingStream, request.getLocale() );
+            }
+
+            if ( compressingStream != null )
+            {
+                compressingStream.finish();
+            }
+        }
+        finally
+        {
+            if ( compressingStream != null )
+            {
+                compressingStream.release();
+            }
+        }
+
+        response.flushBuffer();
+    }
+
+    private void writeJson( HttpServletResponse response, CompressingOutputStream compressingStream, Locale locale ) throws IOException
+    {
+        JsonErrorWriter writer = new JsonErrorWriter( compressingStream != null ? compressingStream : response.getOutputStream() );
+        if ( validationErrors != null )
+        {
+            writer.writeValidationErrors( validationErrors, locale );
+        }
+        else
+        {
+            writer.writeGlobalError( message );
+        }
+
+        // Error documents are normally small enough to be fully buffered
+        if ( compressingStream == null && writer.bufferedLength() >= 0 )
+        {
+            response.setContentLength( writer.bufferedLength() );
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the error document through a document writer, with the same
+     * structure as the JSON written by {@link JsonErrorWriter}.
+     */
+    private void writeDocument( DocumentWriter writer, Locale locale ) throws IOException
+    {
+        writer.beginObject().name( "globalErrors" ).beginArray();
+        if ( validationErrors == null )
+        {
+            writer.value( message ).endArray();
+        }
+        else if ( !validationErrors.hasFieldErrors() )
+        {
+            writeMessages( writer, validationErrors.get( ValidationErrors.GLOBAL_ERROR ), locale );
+            writer.endArray();
+        }
+        else
+        {
+            writer.endArray().name( "fieldErrors" ).beginArray();
+            for ( Map.Entry< String, List< ValidationError>> field : validationErrors.entrySet() )
+            {
+                if ( field.getKey().equals( ValidationErrors.GLOBAL_ERROR ) || field.getValue().isEmpty() )
+                {
+                    continue;
+                }
+
+                writer.beginObject();
+                writer.name( "fieldName" ).value( field.getKey() );
+                writer.name( "fieldValue" ).value( field.getValue().get( 0 ).getFieldValue() );
+                writer.name( "errorMessages" ).beginArray();
+                writeMessages( writer, field.getValue(), locale );
+                writer.endArray().endObject();
+            }
+            writer.endArray();
+        }
+        writer.endObject().flush();
+    }
+
+    private static void writeMessages( DocumentWriter writer, List< ValidationError> errors, Locale locale ) throws IOException
+    {
+        if ( errors != null )
+        {
+            for ( ValidationError error : errors )
+            {
+                writer.value( error.getMessage( locale ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrors;
+
+/**
+ * Writes the JSON error documents of REST calls as UTF-8 straight to a
+ * stream. The fixed parts of the documents are pre-encoded and the messages
+ * are encoded character by character into a pooled buffer, so no map, list or
+ * intermediate String is created for an error response:
+ *
+ * <pre>
+ * {"globalErrors":["..."],"fieldErrors":[{"fieldName":"...","fieldValue":"...","errorMessages":["..."]}]}
+ * </pre>
+ *
+ * Global errors are only listed when there are no field errors, and the
+ * "fieldErrors" array is only present when there are.
+ */
+final class JsonErrorWriter
+{
+
+    private static final byte[] GLOBAL_ERRORS = bytes( "{\"globalErrors\":[" );
+    private static final byte[] FIELD_ERRORS = bytes( "],\"fieldErrors\":[" );
+    private static final byte[] FIELD_NAME = bytes( "{\"fieldName\":" );
+    private static final byte[] FIELD_VALUE = bytes( ",\"fieldValue\":" );
+    private static final byte[] ERROR_MESSAGES = bytes( ",\"errorMessages\":[" );
+    private static final byte[] END = bytes( "]}" );
+    private static final byte[] NULL = bytes( "null" );
+
+    private static final byte[] HEX_DIGITS = bytes( "0123456789abcdef" );
+
+    private final OutputStream out;
+    private byte[] buffer = BufferPool.acquire();
+    private int count;
+    private boolean flushed;
+
+    /**
+     * @param out - Stream receiving the UTF-8 encoded document
+     */
+    JsonErrorWriter( OutputStream out )
+    {
+        this.out = out;
+    }
+
+    /**
+     * Writes a document holding a single global error.
+     *
+     * @param message - Error message
+     * @throws IOException if writing to the stream fails
+     */
+    void writeGlobalError( String message ) throws IOException
+    {
+        write( GLOBAL_ERRORS );
+        writeString( message );
+        write( END );
+    }
+
+    /**
+     * Writes a document holding the validation errors of a request.
+     *
+     * @param validationErrors - Validation errors, which must not be empty
+     * @param locale - Locale the messages are formatted for
+     * @throws IOException if writing to the stream fails
+     */
+    void writeValidationErrors( ValidationErrors validationErrors, Locale locale ) throws IOException
+    {
+        write( GLOBAL_ERRORS );
+
+        if ( !validationErrors.hasFieldErrors() )
+        {
+            writeMessages( validationErrors.get( ValidationErrors.GLOBAL_ERROR ), locale );
+            write( END );
+            return;
+        }
+
+        write( FIELD_ERRORS );
+
+        boolean first = true;
+        for ( Map.Entry< String, List< ValidationError>> field : validationErrors.entrySet() )
+        {
+            if ( field.getKey().equals( ValidationErrors.GLOBAL_ERROR ) || field.getValue().isEmpty() )
+            {
+                continue;
+            }
+
+            if ( !first )
+            {
+                write( ',' );
+            }
+            first = false;
+
+            write( FIELD_NAME );
+            writeString( field.getKey() );
+            write( FIELD_VALUE );
+            writeString( field.getValue().get( 0 ).getFieldValue() );
+            write( ERROR_MESSAGES );
+            writeMessages( field.getValue(), locale );
+            write( END );
+        }
+
+        write( END );
+    }
+
+    /**
+     * @return Length of the document if all of it is still buffered, or -1
+     * if part of it has already been sent to the stream
+     */
+    int bufferedLength()
+    {
+        return flushed ? -1 : count;
+    }
+
+    /**
+     * Sends the buffered bytes to the stream and returns the buffer to the
+     * {@link BufferPool}, completing the document. The stream itself is
+     * neither flushed nor closed.
+     *
+     * @throws IOException if writing to the stream fails
+     */
+    void flush() throws IOException
+    {
+        if ( buffer != null )
+        {
+            drain();
+            BufferPool.release( buffer );
+            buffer = null;
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        if ( count > 0 )
+        {
+            out.write( buffer, 0, count );
+            count = 0;
+            flushed = true;
+        }
+    }
+
+    private void writeMessages( List< ValidationError> errors, Locale locale ) throws IOException
+    {
+        if ( errors == null )
+        {
+            return;
+        }
+
+        for ( int i = 0; i < errors.size(); i++ )
+        {
+            if ( i > 0 )
+            {
+                write( ',' );
+            }
+            writeString( errors.get( i ).getMessage( locale ) );
+        }
+    }
+
+    private void writeString( String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            write( NULL );
+            return;
+        }
+
+        write( '"' );
+
+        int length = value.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = value.charAt( i );
+
+            // The longest encoding of a char is a six byte escape
+            if ( count + 6 > buffer.length )
+            {
+                drain();
+            }
+
+            if ( c < 0x80 )
+            {
+                if ( c >= 0x20 && c != '"' && c != '\\' )
+                {
+                    buffer[ count++ ] = (byte) c;
+                }
+                else
+                {
+                    writeEscape( c );
+                }
+            }
+            else if ( c < 0x800 )
+            {
+                buffer[ count++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+                buffer[ count++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                // Unpaired surrogates are replaced, as String.getBytes() does
+                buffer[ count++ ] = '?';
+            }
+            else
+            {
+                buffer[ count++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+        }
+
+        write( '"' );
+    }
+
+    private void writeEscape( char c )
+    {
+        buffer[ count++ ] = '\\';
+        switch ( c )
+        {
+            case '"':
+                buffer[ count++ ] = '"';
+                break;
+            case '\\':
+                buffer[ count++ ] = '\\';
+                break;
+            case '\b':
+                buffer[ count++ ] = 'b';
+                break;
+            case '\f':
+                buffer[ count++ ] = 'f';
+                break;
+            case '\n':
+                buffer[ count++ ] = 'n';
+                break;
+            case '\r':
+                buffer[ count++ ] = 'r';
+                break;
+            case '\t':
+                buffer[ count++ ] = 't';
+                break;
+            default:
+                buffer[ count++ ] = 'u';
+                buffer[ count++ ] = '0';
+                buffer[ count++ ] = '0';
+                buffer[ count++ ] = HEX_DIGITS[ c >> 4 ];
+                buffer[ count++ ] = HEX_DIGITS[ c & 0xF ];
+        }
+    }
+
+    private void write( int b ) throws IOException
+    {
+        if ( count == buffer.length )
+        {
+            drain();
+        }
+        buffer[ count++ ] = (byte) b;
+    }
+
+    private void write( byte[] bytes ) throws IOException
+    {
+        if ( count + bytes.length > buffer.length )
+        {
+            drain();
+        }
+        System.arraycopy( bytes, 0, buffer, count, bytes.length );
+        count += bytes.length;
+    }
+
+    private static byte[] bytes( String ascii )
+    {
+        return ascii.getBytes( StandardCharsets.US_ASCII );
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A small, forward-only JSON reader -- the counterpart of {@link JsonWriter}.
+ * Tokens are pulled from the underlying Reader through a fixed-size buffer as
+ * they are asked for, so a document is never held in memory as a whole.
+ *
+ * Only the text of the current token is kept. Malformed input, including
+ * trailing content after the document and nesting deeper than 255 levels, is
+ * reported with a {@link MalformedJsonException}.
+ */
+public class JsonReader
+{
+
+    /**
+     * The kinds of tokens a JSON document is made of.
+     */
+    public enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * Thrown when the input is not well-formed JSON.
+     */
+    public static class MalformedJsonException extends IOException
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException( String message )
+        {
+            super( message );
+        }
+    }
+
+    private static final int MAX_DEPTH = 255;
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[ 1024 ];
+    private int position = 0;
+    private int limit = 0;
+    private int line = 1;
+    private int lineStart = 0;
+    private long consumed = 0;
+
+    private final int[] scopes = new int[ MAX_DEPTH + 1 ];
+    private int depth = 1;
+
+    private Token peeked;
+    private boolean booleanValue;
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Constructs a JsonReader which reads a single JSON document from the
+     * passed reader.
+     *
+     * @param reader - Reader to read JSON from
+     */
+    public JsonReader( Reader reader )
+    {
+        this.reader = reader;
+        scopes[ 0 ] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it.
+     *
+     * @return Next token
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    public Token peek() throws IOException
+    {
+        if ( peeked == null )
+        {
+            peeked = readToken();
+        }
+        return peeked;
+    }
+
+    /**
+     * @return True if the current object or array has another element
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    public boolean hasNext() throws IOException
+    {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException
+    {
+        expect( Token.BEGIN_OBJECT );
+        push( EMPTY_OBJECT );
+    }
+
+    public void endObject() throws IOException
+    {
+        expect( Token.END_OBJECT );
+        depth--;
+    }
+
+    public void beginArray() throws IOException
+    {
+        expect( Token.BEGIN_ARRAY );
+        push( EMPTY_ARRAY );
+    }
+
+    public void endArray() throws IOException
+    {
+        expect( Token.END_ARRAY );
+        depth--;
+    }
+
+    /**
+     * @return Name of the next object member
+     * @throws IOException if the next token is not a name
+     */
+    public String nextName() throws IOException
+    {
+        expect( Token.NAME );
+        return text.toString();
+    }
+
+    /**
+     * @return Value of the next string
+     * @throws IOException if the next token is not a string
+     */
+    public String nextString() throws IOException
+    {
+        expect( Token.STRING );
+        return text.toString();
+    }
+
+    /**
+     * @return Literal text of the next number, exactly as it appears in the
+     * document
+     * @throws IOException if the next token is not a number
+     */
+    public String nextNumber() throws IOException
+    {
+        expect( Token.NUMBER );
+        return text.toString();
+    }
+
+    /**
+     * @return Value of the next boolean
+     * @throws IOException if the next token is not a boolean
+     */
+    public boolean nextBoolean() throws IOException
+    {
+        expect( Token.BOOLEAN );
+        return booleanValue;
+    }
+
+    /**
+     * Consumes the next null.
+     *
+     * @throws IOException if the next token is not a null
+     */
+    public void nextNull() throws IOException
+    {
+        expect( Token.NULL );
+    }
+
+    /**
+     * Consumes the next scalar -- a string, number, boolean or null -- and
+     * returns its text.
+     *
+     * @return Value of a string, literal text of a number or boolean, or null
+     * @throws IOException if the next token is not a scalar
+     */
+    public String nextScalar() throws IOException
+    {
+        Token token = peek();
+        switch ( token )
+        {
+            case STRING:
+            case NUMBER:
+                peeked = null;
+                return text.toString();
+            case BOOLEAN:
+                peeked = null;
+                return booleanValue ? "true" : "false";
+            case NULL:
+                peeked = null;
+                return null;
+            default:
+                throw syntaxError( "Expected a value but found " + token );
+        }
+    }
+
+    /**
+     * Consumes the next value, including everything nested within it.
+     *
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    public void skipValue() throws IOException
+    {
+        int nesting = 0;
+        do
+        {
+            Token token = peek();
+            switch ( token )
+            {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nesting--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nesting--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError( "Unexpected end of document" );
+                default:
+                    peeked = null;
+            }
+        }
+        while ( nesting > 0 );
+    }
+
+    /**
+     * @return Description of the current position, for error messages
+     */
+    public String getLocation()
+    {
+        return "line " + line + ", column " + ( consumed + position - lineStart + 1 );
+    }
+
+    private void expect( Token expected ) throws IOException
+    {
+        Token token = peek();
+        if ( token != expected )
+        {
+            throw syntaxError( "Expected " + expected + " but found " + token );
+        }
+        peeked = null;
+    }
+
+    private void push( int scope ) throws IOException
+    {
+        if ( depth > MAX_DEPTH )
+        {
+            throw syntaxError( "Nesting too deep" );
+        }
+        scopes[ depth++ ] = scope;
+    }
+
+    private Token readToken() throws IOException
+    {
+        int scope = scopes[ depth - 1 ];
+        int c;
+
+        switch ( scope )
+        {
+            case EMPTY_ARRAY:
+                scopes[ depth - 1 ] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if ( c == ']' )
+                {
+                    return Token.END_ARRAY;
+                }
+                position--;
+                break;
+
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if ( c == ']' )
+                {
+                    return Token.END_ARRAY;
+                }
+                if ( c != ',' )
+                {
+                    throw syntaxError( "Expected a comma or the end of an array" );
+                }
+                break;
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if ( c == '}' )
+                {
+                    return Token.END_OBJECT;
+                }
+                if ( scope == NONEMPTY_OBJECT )
+                {
+                    if ( c != ',' )
+                    {
+                        throw syntaxError( "Expected a comma or the end of an object" );
+                    }
+                    c = nextNonWhitespace();
+                }
+                if ( c != '"' )
+                {
+                    throw syntaxError( "Expected a member name" );
+                }
+                readString();
+                scopes[ depth - 1 ] = DANGLING_NAME;
+                return Token.NAME;
+
+            case DANGLING_NAME:
+                scopes[ depth - 1 ] = NONEMPTY_OBJECT;
+                if ( nextNonWhitespace() != ':' )
+                {
+                    throw syntaxError( "Expected a colon after a member name" );
+                }
+                break;
+
+            case EMPTY_DOCUMENT:
+                scopes[ depth - 1 ] = NONEMPTY_DOCUMENT;
+                if ( nextNonWhitespace() == -1 )
+                {
+                    return Token.END_DOCUMENT;
+                }
+                position--;
+                break;
+
+            default:
+                if ( nextNonWhitespace() != -1 )
+                {
+                    throw syntaxError( "Unexpected content after the end of the document" );
+                }
+                return Token.END_DOCUMENT;
+        }
+
+        return readValue();
+    }
+
+    private Token readValue() throws IOException
+    {
+        int c = nextNonWhitespace();
+        switch ( c )
+        {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                readLiteral( "rue" );
+                booleanValue = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral( "alse" );
+                booleanValue = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral( "ull" );
+                return Token.NULL;
+            case -1:
+                throw syntaxError( "Unexpected end of document" );
+            default:
+                if ( c == '-' || ( c >= '0' && c <= '9' ) )
+                {
+                    position--;
+                    readNumber();
+                    return Token.NUMBER;
+                }
+                throw syntaxError( "Unexpected character" );
+        }
+    }
+
+    private void readString() throws IOException
+    {
+        text.setLength( 0 );
+        while ( true )
+        {
+            int start = position;
+            while ( position < limit )
+            {
+                char c = buffer[ position++ ];
+                if ( c == '"' )
+                {
+                    text.append( buffer, start, position - start - 1 );
+                    return;
+                }
+                if ( c == '\\' )
+                {
+                    text.append( buffer, start, position - start - 1 );
+                    text.append( readEscape() );
+                    start = position;
+                }
+                else if ( c < 0x20 )
+                {
+                    throw syntaxError( "Unescaped control character in a string" );
+                }
+            }
+
+            text.append( buffer, start, position - start );
+            if ( !fill() )
+            {
+                throw syntaxError( "Unterminated string" );
+            }
+        }
+    }
+
+    private char readEscape() throws IOException
+    {
+        int c = read();
+        switch ( c )
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for ( int i = 0; i < 4; i++ )
+                {
+                    int digit = Character.digit( read(), 16 );
+                    if ( digit < 0 )
+                    {
+                        throw syntaxError( "Invalid unicode escape" );
+                    }
+                    value = ( value << 4 ) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError( "Invalid escape sequence" );
+        }
+    }
+
+    private void readLiteral( String rest ) throws IOException
+    {
+        for ( int i = 0; i < rest.length(); i++ )
+        {
+            if ( read() != rest.charAt( i ) )
+            {
+                throw syntaxError( "Unexpected character" );
+            }
+        }
+        ensureDelimited();
+    }
+
+    private void readNumber() throws IOException
+    {
+        text.setLength( 0 );
+
+        int c = read();
+        if ( c == '-' )
+        {
+            text.append( '-' );
+            c = read();
+        }
+
+        if ( c == '0' )
+        {
+            text.append( '0' );
+            c = read();
+        }
+        else if ( c >= '1' && c <= '9' )
+        {
+            c = readDigits( c );
+        }
+        else
+        {
+            throw syntaxError( "Invalid number" );
+        }
+
+        if ( c == '.' )
+        {
+            text.append( '.' );
+            c = read();
+            if ( c < '0' || c > '9' )
+            {
+                throw syntaxError( "Invalid number" );
+            }
+            c = readDigits( c );
+        }
+
+        if ( c == 'e' || c == 'E' )
+        {
+            text.append( (char) c );
+            c = read();
+            if ( c == '+' || c == '-' )
+            {
+                text.append( (char) c );
+                c = read();
+            }
+            if ( c < '0' || c > '9' )
+            {
+                throw syntaxError( "Invalid number" );
+            }
+            c = readDigits( c );
+        }
+
+        if ( c != -1 )
+        {
+            position--;
+        }
+        ensureDelimited();
+    }
+
+    private int readDigits( int c ) throws IOException
+    {
+        while ( c >= '0' && c <= '9' )
+        {
+            text.append( (char) c );
+            c = read();
+        }
+        return c;
+    }
+
+    private void ensureDelimited() throws IOException
+    {
+        if ( position < limit || fill() )
+        {
+            char c = buffer[ position ];
+            if ( c != ',' && c != ']' && c != '}' && c != ' ' && c != '\t' && c != '\n' && c != '\r' )
+            {
+                throw syntaxError( "Unexpected character" );
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException
+    {
+        while ( true )
+        {
+            int c = read();
+            if ( c == '\n' )
+            {
+                line++;
+                lineStart = (int) ( consumed + position );
+            }
+            else if ( c != ' ' && c != '\t' && c != '\r' )
+            {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException
+    {
+        if ( position >= limit && !fill() )
+        {
+            // Keeps a position-- after the end of the input harmless
+            position = limit + 1;
+            return -1;
+        }
+        return buffer[ position++ ];
+    }
+
+    private boolean fill() throws IOException
+    {
+        // The end of the input has already been reached
+        if ( position > limit )
+        {
+            return false;
+        }
+
+        consumed += limit;
+        position = 0;
+        limit = 0;
+
+        int count = reader.read( buffer, 0, buffer.length );
+        if ( count <= 0 )
+        {
+            position = 0;
+            limit = 0;
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private MalformedJsonException syntaxError( String message )
+    {
+        return new MalformedJsonException( message + " at " + getLocation() );
+    }
+}
@@ -15,20 +15,94 @@
  */
 package org.stripesrest;
 
-import java.io.Writer;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.Log;
 
 /**
  * This resolution is intended to be used with Stripes REST action beans. This
  * type of resolution will take a Java object and serialize it to JSON
  * automatically.
+ *
+ * Objects are not serialized until the resolution is executed. The JSON is
+ * then streamed to the response as UTF-8 through a small, fixed-size buffer,
+ * so the full document is never held in memory.
+ *
+ * GET and HEAD responses are the exception: their body is buffered and hashed
+ * as it is serialized so that a strong ETag and a Content-Length can be sent.
+ * A request whose If-None-Match header matches the ETag gets a 304 (Not
+ * Modified) without a body, and a HEAD request gets the headers only. Only
+ * bodies up to {@link #DEFAULT_ETAG_MAX_SIZE} bytes (the RestETag.MaxSize
+ * Stripes filter parameter) are buffered; a larger body is streamed from
+ * there on, without an ETag or a Content-Length. For HEAD it is counted
+ * instead of sent, so the Content-Length is still known.
+ *
+ * Responses are compressed with gzip or deflate when the client accepts it
+ * and the body reaches the minimum compression size.
+ *
+ * Once turned on with the RestFields.Enabled Stripes filter parameter, a
+ * <code>fields</code> request parameter, such as
+ * <code>fields=id,name,address.city</code>, restricts the JSON to the listed
+ * properties unless the JsonBuilder was given fields of its own.
+ *
+ * Clients which prefer a binary {@link ResponseEncoding}, such as
+ * <code>Accept: application/cbor</code>, get the same document in that
+ * encoding instead. Raw JSON text is always sent as it is.
  */
 public class JsonResolution implements Resolution
 {
 
+    private static final Log log = Log.getInstance( JsonResolution.class );
+
+    /** Request parameter listing the properties to include in the JSON. */
+    public static final String FIELDS_PARAMETER = "fields";
+
+    /** Largest body, in bytes, buffered for its ETag unless set otherwise. */
+    public static final int DEFAULT_ETAG_MAX_SIZE = 64 * 1024;
+
+    private static volatile int eTagMaxSize = DEFAULT_ETAG_MAX_SIZE;
+
+    private static volatile boolean fieldsParameterEnabled;
+
     private final String rawJsonText;
+    private final JsonBuilder jsonBuilder;
+    private boolean eTagEnabled = true;
+
+    /**
+     * Sets the largest GET or HEAD response body which is buffered to send its
+     * ETag and Content-Length. Larger bodies are streamed without them.
+     *
+     * @param size - Maximum buffered size, in bytes
+     */
+    static void setETagMaxSize( int size )
+    {
+        eTagMaxSize = Math.max( size, 0 );
+    }
+
+    /**
+     * Turns the {@link #FIELDS_PARAMETER} request parameter on or off for
+     * every response. It is off unless configured.
+     *
+     * @param enabled - True to project responses on the fields parameter
+     */
+    static void setFieldsParameterEnabled( boolean enabled )
+    {
+        fieldsParameterEnabled = enabled;
+    }
+
+    /**
+     * @return True if responses are projected on the fields parameter
+     */
+    static boolean isFieldsParameterEnabled()
+    {
+        return fieldsParameterEnabled;
+    }
 
     /**
      * This constructor should be used if the caller has already serialized the
@@ -39,6 +113,7 @@ public class JsonResolution implements Resolution
     public JsonResolution( String rawJsonText )
     {
         this.rawJsonText = rawJsonText;
+        this.jsonBuilder = null;
     }
 
     /**
@@ -49,8 +124,60 @@ public class JsonResolution implements Resolution
      */
     public JsonResolution( Object objectToSerialize )
     {
-        JsonBuilder builder = new JsonBuilder(objectToSerialize);
-        this.rawJsonText = builder.build();
+        this( new JsonBuilder( objectToSerialize ) );
+    }
+
+    /**
+     * This constructor should be used if the caller wants to control how the
+     * object is serialized -- for example, to exclude properties or classes.
+     *
+     * @param jsonBuilder - Builder which will serialize the object into JSON
+     */
+    public JsonResolution( JsonBuilder jsonBuilder )
+    {
+        this.rawJsonText = null;
+        this.jsonBuilder = jsonBuilder;
+    }
+
+    /**
+     * Returns the builder which will serialize the object when this resolution
+     * executes, or null if this resolution was given raw JSON text.
+     *
+     * @return JsonBuilder for the object being returned
+     */
+    public JsonBuilder getJsonBuilder()
+    {
+        return jsonBuilder;
+    }
+
+    /**
+     * Turns ETag generation for GET and HEAD requests on or off. It is on by
+     * default, for bodies up to the ETag size limit; turning it off lets GET
+     * responses stream without being buffered first.
+     *
+     * @param eTagEnabled - True to send an ETag and honor If-None-Match
+     * @return This resolution
+     */
+    public JsonResolution setETagEnabled( boolean eTagEnabled )
+    {
+        this.eTagEnabled = eTagEnabled;
+        return this;
+    }
+
+    /**
+     * Restricts the JSON to the passed properties, overriding the fields
+     * request parameter. See {@link JsonBuilder#setFields(String)}.
+     *
+     * @param fields - Comma-separated dotted paths to include
+     * @return This resolution
+     */
+    public JsonResolution setFields( String fields )
+    {
+        if ( jsonBuilder != null )
+        {
+            jsonBuilder.setFields( fields );
+        }
+        return this;
     }
 
     /**
@@ -59,9 +186,328 @@ public class JsonResolution implements Resolution
      */
     public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
     {
-        response.setContentType("application/json");
-        Writer writer = response.getWriter();
-        writer.write(rawJsonText);
+        applyFieldsParameter( jsonBuilder, request );
+
+        String method = request.getMethod();
+        if ( "HEAD".equalsIgnoreCase( method ) || ( eTagEnabled && "GET".equalsIgnoreCase( method ) ) )
+        {
+            executeBuffered( request, response );
+            return;
+        }
+
+        String encoding = ResponseCompression.negotiate( request, response );
+        ResponseEncoding responseEncoding = jsonBuilder != null ? ContentNegotiation.negotiate( request, response ) : null;
+
+        response.setContentType( ContentNegotiation.mediaType( responseEncoding ) );
+        if ( responseEncoding == null )
+        {
+            response.setCharacterEncoding( "UTF-8" );
+        }
+
+        // Compression only kicks in once the body reaches the minimum size
+        CompressingOutputStream compressed = encoding != null ? new CompressingOutputStream( response, encoding, ResponseCompression.getMinSize() ) : null;
+        try
+        {
+            Object event = RestEvents.beginSerialization();
+            OutputStream out = RestEvents.count( event, compressed != null ? compressed : response.getOutputStream() );
+            if ( jsonBuilder == null )
+            {
+                writeRawJsonText( out );
+            }
+            else
+            {
+                jsonBuilder.build( out, responseEncoding );
+            }
+            RestEvents.commitSerialization( event, request, getRoot(), ContentNegotiation.mediaType( responseEncoding ), RestEvents.countOf( out ) );
+
+            if ( compressed != null )
+            {
+                compressed.finish();
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            // Nothing has reached the caller yet, so a proper JSON error can still be sent
+            if ( response.isCommitted() )
+            {
+                throw e;
+            }
+
+            log.error( e, "Unable to serialize JSON response." );
+            response.reset();
+            RestActionInterceptor.unexpectedErrorResolution( e ).execute( request, response );
+            return;
+        }
+        finally
+        {
+            if ( compressed != null )
+            {
+                compressed.release();
+            }
+        }
+
         response.flushBuffer();
     }
+
+    /**
+     * Serializes the object into memory, ready to be sent -- or cached and
+     * sent many times.
+     *
+     * @param request - Request the document answers
+     * @param encoding - Negotiated encoding, or null for JSON
+     * @return Serialized document
+     */
+    RenderedJson render( HttpServletRequest request, ResponseEncoding encoding )
+    {
+        Object event = RestEvents.beginSerialization();
+        String mediaType = jsonBuilder != null ? ContentNegotiation.mediaType( encoding ) : ContentNegotiation.JSON;
+        ETagOutputStream body = new ETagOutputStream();
+        try
+        {
+            if ( jsonBuilder == null )
+            {
+                writeRawJsonText( body );
+            }
+            else
+            {
+                jsonBuilder.build( body, encoding );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new StripesRuntimeException( "Could not encode the response as " + mediaType, e );
+        }
+        RestEvents.commitSerialization( event, request, getRoot(), mediaType, body.size() );
+        return new RenderedJson( body, mediaType, jsonBuilder != null, eTagEnabled );
+    }
+
+    /**
+     * @return Object being serialized, or the raw JSON text
+     */
+    private Object getRoot()
+    {
+        return jsonBuilder != null ? jsonBuilder.getRoot() : rawJsonText;
+    }
+
+    /**
+     * Encodes the raw JSON text through a pooled buffer, rather than into a
+     * byte array of its own.
+     */
+    private void writeRawJsonText( OutputStream out ) throws IOException
+    {
+        Utf8Writer writer = new Utf8Writer( out );
+        writer.write( rawJsonText );
+        writer.flush();
+    }
+
+    /**
+     * Applies the fields request parameter, if it is turned on, to a builder
+     * which has no fields of its own.
+     */
+    static void applyFieldsParameter( JsonBuilder jsonBuilder, HttpServletRequest request )
+    {
+        if ( fieldsParameterEnabled && jsonBuilder != null && !jsonBuilder.hasFields() )
+        {
+            jsonBuilder.setFields( request.getParameter( FIELDS_PARAMETER ) );
+        }
+    }
+
+    private void executeBuffered( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        ResponseEncoding encoding = jsonBuilder != null ? ContentNegotiation.select( request ) : null;
+        BoundedBody body = new BoundedBody( request, response, jsonBuilder != null ? ContentNegotiation.mediaType( encoding ) : ContentNegotiation.JSON );
+        try
+        {
+            Object event = RestEvents.beginSerialization();
+            if ( jsonBuilder == null )
+            {
+                writeRawJsonText( body );
+            }
+            else
+            {
+                jsonBuilder.build( body, encoding );
+            }
+            RestEvents.commitSerialization( event, request, getRoot(), body.mediaType, body.size );
+            body.finish();
+        }
+        catch ( RuntimeException e )
+        {
+            // Unless the body has outgrown the buffer, nothing has been sent yet
+            if ( response.isCommitted() )
+            {
+                throw e;
+            }
+
+            log.error( e, "Unable to serialize JSON response." );
+            response.reset();
+            RestActionInterceptor.unexpectedErrorResolution( e ).execute( request, response );
+        }
+        finally
+        {
+            body.release();
+        }
+    }
+
+    /**
+     * Buffers and hashes the body of a GET or HEAD response up to the ETag
+     * size limit. A body which outgrows it is streamed instead: what was
+     * buffered is sent first, then everything else as it is written. A HEAD
+     * response goes through the same steps into a stream which only counts,
+     * so that it gets the headers of the GET response and a Content-Length.
+     */
+    private final class BoundedBody extends OutputStream
+    {
+
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final String mediaType;
+        private final boolean head;
+        private final int limit = eTagMaxSize;
+        private ETagOutputStream buffered = new ETagOutputStream();
+        private CompressingOutputStream compressed;
+        private HeadResponse counted;
+        private OutputStream out;
+        private boolean streaming;
+        private long size;
+
+        private BoundedBody( HttpServletRequest request, HttpServletResponse response, String mediaType )
+        {
+            this.request = request;
+            this.response = response;
+            this.mediaType = mediaType;
+            this.head = "HEAD".equalsIgnoreCase( request.getMethod() );
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            if ( !streaming && size + 1 > limit )
+            {
+                stream();
+            }
+
+            size++;
+            if ( !streaming )
+            {
+                buffered.write( b );
+            }
+            else
+            {
+                out.write( b );
+            }
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            if ( !streaming && size + len > limit )
+            {
+                stream();
+            }
+
+            size += len;
+            if ( !streaming )
+            {
+                buffered.write( b, off, len );
+            }
+            else
+            {
+                out.write( b, off, len );
+            }
+        }
+
+        /**
+         * Sends the headers of a streamed response and the buffered part of
+         * its body. The body of a HEAD response is only counted.
+         */
+        private void stream() throws IOException
+        {
+            streaming = true;
+            response.setContentType( mediaType );
+            if ( ContentNegotiation.JSON.equals( mediaType ) )
+            {
+                response.setCharacterEncoding( "UTF-8" );
+            }
+            if ( jsonBuilder != null )
+            {
+                ContentNegotiation.addVary( response );
+            }
+
+            HttpServletResponse target = head ? ( counted = new HeadResponse( response ) ) : response;
+            String encoding = ResponseCompression.negotiate( request, response );
+            compressed = encoding != null ? new CompressingOutputStream( target, encoding, ResponseCompression.getMinSize() ) : null;
+            out = compressed != null ? compressed : target.getOutputStream();
+            buffered.writeTo( out );
+            buffered.release();
+            buffered = null;
+        }
+
+        private void finish() throws Exception
+        {
+            if ( !streaming )
+            {
+                new RenderedJson( buffered, mediaType, jsonBuilder != null, eTagEnabled ).execute( request, response );
+                return;
+            }
+
+            if ( compressed != null )
+            {
+                compressed.finish();
+            }
+            if ( counted != null && counted.count <= Integer.MAX_VALUE )
+            {
+                response.setContentLength( (int) counted.count );
+            }
+            response.flushBuffer();
+        }
+
+        private void release()
+        {
+            if ( buffered != null )
+            {
+                buffered.release();
+                buffered = null;
+            }
+            if ( compressed != null )
+            {
+                compressed.release();
+            }
+        }
+    }
+
+    /**
+     * Stands in for the response of a HEAD request while its body is
+     * produced, discarding the body and counting its bytes.
+     */
+    private static final class HeadResponse extends HttpServletResponseWrapper
+    {
+
+        private long count;
+
+        private final ServletOutputStream outputStream = new ServletOutputStream()
+        {
+            @Override
+            public void write( int b )
+            {
+                count++;
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len )
+            {
+                count += len;
+            }
+        };
+
+        private HeadResponse( HttpServletResponse response )
+        {
+            super( response );
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream()
+        {
+            return outputStream;
+        }
+    }
 }
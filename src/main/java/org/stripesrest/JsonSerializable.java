@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose objects are serialized by {@link JsonBuilder} often
+ * enough to be worth a generated {@link JsonAccessor}. When the class is
+ * compiled with {@link RestAnnotationProcessor} on the processor path, its
+ * properties are read by plain method calls from the first request on, with
+ * no introspection at all.
+ *
+ * The annotation is only a hint: without the processor, the class is
+ * serialized through reflection exactly the same way.
+ */
+@Target( ElementType.TYPE )
+@Retention( RetentionPolicy.RUNTIME )
+@Documented
+public @interface JsonSerializable
+{
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * This resolution streams the elements of an Iterator, Spliterator or Stream
+ * to the client as a JSON array, one element at a time. Only the current
+ * element and a small write buffer are held in memory, however many elements
+ * the source has, which makes it suitable for exports backed by a database
+ * cursor.
+ *
+ * The response is flushed every {@link #setChunkSize(int) chunk size}
+ * elements, so the client starts receiving the array -- with chunked
+ * transfer encoding -- before the source is exhausted. Elements are
+ * serialized with the conventions and exclusions of {@link JsonBuilder}.
+ * Responses are compressed when the client accepts it; ETags are never sent,
+ * since they would require buffering the whole array. The fields request
+ * parameter, when turned on, applies to each element, as it does for
+ * {@link JsonResolution}.
+ *
+ * The source, and any resources registered with {@link #onClose}, are closed
+ * once the resolution has executed -- including when serialization fails or
+ * the client disconnects. An error after the first chunk has been sent cannot
+ * be reported as a JSON error anymore; the array is left unterminated instead.
+ */
+public class JsonStreamResolution implements Resolution
+{
+
+    private static final Log log = Log.getInstance( JsonStreamResolution.class );
+
+    /** Number of elements written between flushes unless set otherwise. */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final Iterator<?> source;
+    private final JsonBuilder jsonBuilder;
+    private final List< AutoCloseable> resources = new ArrayList< AutoCloseable>( 2 );
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Streams the elements of a Stream. The stream is closed once the
+     * resolution has executed.
+     *
+     * @param stream - Elements to serialize
+     * @param objectsToExclude - Classes and properties to exclude, as for
+     * {@link JsonBuilder}
+     */
+    public JsonStreamResolution( Stream<?> stream, Object... objectsToExclude )
+    {
+        this( stream.iterator(), objectsToExclude );
+        resources.add( stream );
+    }
+
+    /**
+     * Streams the elements of a Spliterator. It is closed once the resolution
+     * has executed if it implements AutoCloseable.
+     *
+     * @param spliterator - Elements to serialize
+     * @param objectsToExclude - Classes and properties to exclude, as for
+     * {@link JsonBuilder}
+     */
+    public JsonStreamResolution( Spliterator<?> spliterator, Object... objectsToExclude )
+    {
+        this( Spliterators.iterator( spliterator ), objectsToExclude );
+        if ( spliterator instanceof AutoCloseable )
+        {
+            resources.add( (AutoCloseable) spliterator );
+        }
+    }
+
+    /**
+     * Streams the elements of an Iterator. It is closed once the resolution
+     * has executed if it implements AutoCloseable.
+     *
+     * @param iterator - Elements to serialize
+     * @param objectsToExclude - Classes and properties to exclude, as for
+     * {@link JsonBuilder}
+     */
+    public JsonStreamResolution( Iterator<?> iterator, Object... objectsToExclude )
+    {
+        this.source = iterator;
+        this.jsonBuilder = new JsonBuilder( null, objectsToExclude );
+        if ( iterator instanceof AutoCloseable )
+        {
+            resources.add( (AutoCloseable) iterator );
+        }
+    }
+
+    /**
+     * Returns the builder whose exclusions and indentation are used for each
+     * element. Property exclusions are relative to the element.
+     *
+     * @return JsonBuilder for the elements
+     */
+    public JsonBuilder getJsonBuilder()
+    {
+        return jsonBuilder;
+    }
+
+    /**
+     * Sets the number of elements written between flushes of the response.
+     *
+     * @param chunkSize - Elements per chunk, at least one
+     * @return This resolution
+     */
+    public JsonStreamResolution setChunkSize( int chunkSize )
+    {
+        this.chunkSize = Math.max( chunkSize, 1 );
+        return this;
+    }
+
+    /**
+     * Registers a resource -- such as the statement or connection behind a
+     * cursor -- to close after the source.
+     *
+     * @param resource - Resource to close once the resolution has executed
+     * @return This resolution
+     */
+    public JsonStreamResolution onClose( AutoCloseable resource )
+    {
+        resources.add( resource );
+        return this;
+    }
+
+    /**
+     * Streams the elements to the client as a JSON array and closes the
+     * source.
+     */
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        try
+        {
+            JsonResolution.applyFieldsParameter( jsonBuilder, request );
+            response.setContentType( "application/json" );
+            response.setCharacterEncoding( "UTF-8" );
+
+            // A HEAD request gets the headers only; the source is never read
+            if ( !"HEAD".equalsIgnoreCase( request.getMethod() ) )
+            {
+                stream( request, response );
+            }
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    private void stream( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        String encoding = ResponseCompression.negotiate( request, response );
+        CompressingOutputStream compressed = encoding != null ? new CompressingOutputStream( response, encoding, ResponseCompression.getMinSize() ) : null;
+        try
+        {
+            Object event = RestEvents.beginSerialization();
+            OutputStream out = RestEvents.count( event, compressed != null ? compressed : response.getOutputStream() );
+            JsonWriter json = jsonBuilder.newWriter( new Utf8Writer( out ) );
+            IdentityHashMap< Object, Object> ancestors = new IdentityHashMap< Object, Object>();
+
+            json.beginArray();
+            int inChunk = 0;
+            while ( source.hasNext() )
+            {
+                jsonBuilder.writeElement( json, source.next(), ancestors );
+
+                if ( ++inChunk == chunkSize )
+                {
+                    inChunk = 0;
+                    json.flush();
+                    if ( compressed != null )
+                    {
+                        compressed.syncFlush();
+                    }
+                    else
+                    {
+                        out.flush();
+                    }
+                }
+            }
+            json.endArray();
+            json.flush();
+            RestEvents.commitSerialization( event, request, source, ContentNegotiation.JSON, RestEvents.countOf( out ) );
+
+            if ( compressed != null )
+            {
+                compressed.finish();
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            // Nothing has reached the caller yet, so a proper JSON error can still be sent
+            if ( response.isCommitted() )
+            {
+                log.error( e, "Unable to serialize JSON stream after the response was committed." );
+                throw e;
+            }
+
+            log.error( e, "Unable to serialize JSON stream." );
+            response.reset();
+            RestActionInterceptor.unexpectedErrorResolution( e ).execute( request, response );
+            return;
+        }
+        finally
+        {
+            if ( compressed != null )
+            {
+                compressed.release();
+            }
+        }
+
+        response.flushBuffer();
+    }
+
+    private void close()
+    {
+        for ( AutoCloseable resource : resources )
+        {
+            try
+            {
+                resource.close();
+            }
+            catch ( Exception e )
+            {
+                log.warn( e, "Unable to close the source of a JSON stream." );
+            }
+        }
+    }
+}
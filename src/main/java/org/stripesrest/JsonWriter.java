@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A small, forward-only JSON writer. Tokens are written straight to the
+ * underlying Writer as they are produced, so no intermediate document is
+ * ever held in memory.
+ *
+ * The optional indentation mirrors the output of the JavaScript
+ * <code>JSON.stringify( value, undefined, indent )</code> call which was
+ * originally used to produce JSON in this library.
+ *
+ * @author Rick Grashel
+ */
+public class JsonWriter implements DocumentWriter
+{
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final String indent;
+
+    // One entry per open object/array: true once the container has an element
+    private boolean[] containerHasElements = new boolean[ 16 ];
+    private int depth = 0;
+    private boolean nameWritten = false;
+
+    /**
+     * Constructs a JsonWriter which writes compact JSON to the passed writer.
+     *
+     * @param writer - Writer to send JSON to
+     */
+    public JsonWriter( Writer writer )
+    {
+        this( writer, 0 );
+    }
+
+    /**
+     * Constructs a JsonWriter which writes JSON to the passed writer, indenting
+     * nested values by the passed number of spaces. An indent of zero produces
+     * compact JSON.
+     *
+     * @param writer - Writer to send JSON to
+     * @param indent - Number of spaces to indent each nesting level by
+     */
+    public JsonWriter( Writer writer, int indent )
+    {
+        this.writer = writer;
+
+        char[] indentChars = new char[ Math.max( indent, 0 ) ];
+        Arrays.fill( indentChars, ' ' );
+        this.indent = new String( indentChars );
+    }
+
+    public JsonWriter beginObject() throws IOException
+    {
+        return open( '{' );
+    }
+
+    public JsonWriter endObject() throws IOException
+    {
+        return close( '}' );
+    }
+
+    public JsonWriter beginArray() throws IOException
+    {
+        return open( '[' );
+    }
+
+    public JsonWriter endArray() throws IOException
+    {
+        return close( ']' );
+    }
+
+    /**
+     * Writes the name of the next property of the current object.
+     *
+     * @param name - Property name
+     * @return this writer
+     * @throws IOException if the underlying writer fails
+     */
+    public JsonWriter name( String name ) throws IOException
+    {
+        if ( depth == 0 || nameWritten )
+        {
+            throw new IllegalStateException( "A JSON property name can only be written directly inside an object." );
+        }
+
+        separate();
+        writeQuoted( name );
+        afterName();
+        return this;
+    }
+
+    /**
+     * Writes a property name which has already been escaped and quoted,
+     * copying its UTF-8 bytes straight into the buffer of a
+     * {@link Utf8Writer}.
+     *
+     * @param quotedName - Escaped and quoted name
+     * @param utf8 - UTF-8 encoding of the quoted name
+     * @return this writer
+     * @throws IOException if the underlying writer fails
+     */
+    JsonWriter name( String quotedName, byte[] utf8 ) throws IOException
+    {
+        if ( depth == 0 || nameWritten )
+        {
+            throw new IllegalStateException( "A JSON property name can only be written directly inside an object." );
+        }
+
+        separate();
+        if ( writer instanceof Utf8Writer )
+        {
+            ( (Utf8Writer) writer ).writeEncoded( utf8 );
+        }
+        else
+        {
+            writer.write( quotedName );
+        }
+        afterName();
+        return this;
+    }
+
+    private void afterName() throws IOException
+    {
+        writer.write( ':' );
+
+        if ( indent.length() > 0 )
+        {
+            writer.write( ' ' );
+        }
+
+        nameWritten = true;
+    }
+
+    public JsonWriter value( String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            return nullValue();
+        }
+
+        beforeValue();
+        writeQuoted( value );
+        return this;
+    }
+
+    public JsonWriter value( boolean value ) throws IOException
+    {
+        beforeValue();
+        writer.write( value ? "true" : "false" );
+        return this;
+    }
+
+    public JsonWriter value( long value ) throws IOException
+    {
+        beforeValue();
+        writer.write( Long.toString( value ) );
+        return this;
+    }
+
+    /**
+     * Writes a number using JavaScript number formatting. Values which have no
+     * JSON representation (NaN and the infinities) are written as null, just
+     * as JSON.stringify would.
+     *
+     * @param value - Number to write
+     * @return this writer
+     * @throws IOException if the underlying writer fails
+     */
+    public JsonWriter value( Number value ) throws IOException
+    {
+        if ( value == null )
+        {
+            return nullValue();
+        }
+
+        if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte )
+        {
+            return value( value.longValue() );
+        }
+
+        String text;
+        if ( value instanceof BigInteger || value instanceof BigDecimal )
+        {
+            text = value.toString();
+        }
+        else
+        {
+            double doubleValue = value.doubleValue();
+            if ( Double.isNaN( doubleValue ) || Double.isInfinite( doubleValue ) )
+            {
+                return nullValue();
+            }
+
+            text = formatDouble( value instanceof Float ? Double.parseDouble( value.toString() ) : doubleValue );
+        }
+
+        beforeValue();
+        writer.write( text );
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException
+    {
+        beforeValue();
+        writer.write( "null" );
+        return this;
+    }
+
+    /**
+     * Writes an already serialized JSON value as it is.
+     *
+     * @param json - Complete JSON value
+     * @return this writer
+     * @throws IOException if the underlying writer fails
+     */
+    JsonWriter jsonValue( String json ) throws IOException
+    {
+        beforeValue();
+        writer.write( json );
+        return this;
+    }
+
+    public void flush() throws IOException
+    {
+        writer.flush();
+    }
+
+    private JsonWriter open( char bracket ) throws IOException
+    {
+        beforeValue();
+        writer.write( bracket );
+
+        if ( depth == containerHasElements.length )
+        {
+            containerHasElements = Arrays.copyOf( containerHasElements, depth * 2 );
+        }
+        containerHasElements[ depth++ ] = false;
+        return this;
+    }
+
+    private JsonWriter close( char bracket ) throws IOException
+    {
+        if ( depth == 0 || nameWritten )
+        {
+            throw new IllegalStateException( "Unbalanced JSON document: cannot write '" + bracket + "' here." );
+        }
+
+        boolean hadElements = containerHasElements[ --depth ];
+        if ( hadElements )
+        {
+            newLine();
+        }
+        writer.write( bracket );
+        return this;
+    }
+
+    /**
+     * Writes the separator and whitespace which precede a value. Values
+     * following a property name are written in place.
+     */
+    private void beforeValue() throws IOException
+    {
+        if ( nameWritten )
+        {
+            nameWritten = false;
+        }
+        else if ( depth > 0 )
+        {
+            separate();
+        }
+    }
+
+    private void separate() throws IOException
+    {
+        if ( containerHasElements[ depth - 1 ] )
+        {
+            writer.write( ',' );
+        }
+        containerHasElements[ depth - 1 ] = true;
+        newLine();
+    }
+
+    private void newLine() throws IOException
+    {
+        if ( indent.length() > 0 )
+        {
+            writer.write( '\n' );
+            for ( int i = 0; i < depth; i++ )
+            {
+                writer.write( indent );
+            }
+        }
+    }
+
+    private void writeQuoted( String value ) throws IOException
+    {
+        writer.write( '"' );
+
+        int length = value.length();
+        int start = 0;
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = value.charAt( i );
+            if ( c >= 0x20 && c != '"' && c != '\\' )
+            {
+                continue;
+            }
+
+            writer.write( value, start, i - start );
+            start = i + 1;
+
+            switch ( c )
+            {
+                case '"':
+                    writer.write( "\\\"" );
+                    break;
+                case '\\':
+                    writer.write( "\\\\" );
+                    break;
+                case '\b':
+                    writer.write( "\\b" );
+                    break;
+                case '\f':
+                    writer.write( "\\f" );
+                    break;
+                case '\n':
+                    writer.write( "\\n" );
+                    break;
+                case '\r':
+                    writer.write( "\\r" );
+                    break;
+                case '\t':
+                    writer.write( "\\t" );
+                    break;
+                default:
+                    writer.write( "\\u00" );
+                    writer.write( HEX_DIGITS[ c >> 4 ] );
+                    writer.write( HEX_DIGITS[ c & 0xF ] );
+            }
+        }
+
+        writer.write( value, start, length - start );
+        writer.write( '"' );
+    }
+
+    /**
+     * Formats a finite double the way JavaScript's Number.toString() does:
+     * integral values have no fraction and exponents are only used for very
+     * large or very small magnitudes.
+     */
+    static String formatDouble( double value )
+    {
+        if ( value == 0 )
+        {
+            return "0";
+        }
+
+        double magnitude = Math.abs( value );
+        if ( magnitude < 1e21 && magnitude >= 1e-6 )
+        {
+            if ( value == Math.rint( value ) && magnitude < 1e18 )
+            {
+                return Long.toString( (long) value );
+            }
+            return new BigDecimal( Double.toString( value ) ).stripTrailingZeros().toPlainString();
+        }
+
+        // Java writes "1.0E-7", JavaScript writes "1e-7"
+        String text = Double.toString( value );
+        int exponentIndex = text.indexOf( 'E' );
+        String mantissa = text.substring( 0, exponentIndex );
+        String exponent = text.substring( exponentIndex + 1 );
+
+        if ( mantissa.endsWith( ".0" ) )
+        {
+            mantissa = mantissa.substring( 0, mantissa.length() - 2 );
+        }
+
+        return mantissa + "e" + ( exponent.startsWith( "-" ) ? exponent : "+" + exponent );
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds.
+ *
+ * Each power of two is split into four buckets, so a percentile is reported
+ * as the upper bound of its bucket and is at most 25% above the real value.
+ * Recording a latency is a handful of atomic increments and never allocates.
+ */
+public final class LatencyHistogram
+{
+
+    // Values below 4 get a bucket each; every power of two above gets four
+    private static final int BUCKET_COUNT = 4 + ( 62 - 1 ) * 4;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos - Latency, in nanoseconds
+     */
+    public void record( long nanos )
+    {
+        if ( nanos < 0 )
+        {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet( bucketOf( nanos ) );
+        count.increment();
+        total.add( nanos );
+
+        long current = max.get();
+        while ( nanos > current && !max.compareAndSet( current, nanos ) )
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return Number of latencies recorded
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of the latencies recorded, in nanoseconds
+     */
+    public long getTotalNanos()
+    {
+        return total.sum();
+    }
+
+    /**
+     * @return Mean latency, in nanoseconds, or zero if none was recorded
+     */
+    public long getMeanNanos()
+    {
+        long n = count.sum();
+        return n > 0 ? total.sum() / n : 0;
+    }
+
+    /**
+     * @return Highest latency recorded, in nanoseconds
+     */
+    public long getMaxNanos()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return Median latency, in nanoseconds
+     */
+    public long getMedianNanos()
+    {
+        return getPercentileNanos( 50 );
+    }
+
+    /**
+     * @return 95th percentile latency, in nanoseconds
+     */
+    public long getPercentile95Nanos()
+    {
+        return getPercentileNanos( 95 );
+    }
+
+    /**
+     * @return 99th percentile latency, in nanoseconds
+     */
+    public long getPercentile99Nanos()
+    {
+        return getPercentileNanos( 99 );
+    }
+
+    /**
+     * Returns the latency below which the passed percentage of the recorded
+     * latencies fall.
+     *
+     * @param percentile - Percentage, from 0 to 100
+     * @return Latency, in nanoseconds, or zero if none was recorded
+     */
+    public long getPercentileNanos( double percentile )
+    {
+        long[] counts = new long[ BUCKET_COUNT ];
+        long recorded = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            counts[ i ] = buckets.get( i );
+            recorded += counts[ i ];
+        }
+
+        if ( recorded == 0 )
+        {
+            return 0;
+        }
+
+        long rank = Math.max( (long) Math.ceil( recorded * Math.min( Math.max( percentile, 0 ), 100 ) / 100 ), 1 );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += counts[ i ];
+            if ( seen >= rank )
+            {
+                return Math.min( upperBoundOf( i ), max.get() );
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf( long nanos )
+    {
+        if ( nanos < 4 )
+        {
+            return (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+        return 4 + ( ( exponent - 2 ) << 2 ) + (int) ( ( nanos >>> ( exponent - 2 ) ) & 3 );
+    }
+
+    static long upperBoundOf( int bucket )
+    {
+        if ( bucket < 4 )
+        {
+            return bucket;
+        }
+
+        int exponent = ( ( bucket - 4 ) >> 2 ) + 2;
+        long subBucket = ( bucket - 4 ) & 3;
+
+        // Wraps to Long.MAX_VALUE for the last bucket
+        return ( ( 5 + subBucket ) << ( exponent - 2 ) ) - 1;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Follows one REST call for its {@link RestMetrics}. It is created when
+ * handler resolution starts and kept as a request attribute; while the
+ * resolution executes it stands in for the response, tracking the status and
+ * counting the body bytes written to the output stream. The status is tracked
+ * here because Servlet 2.5 responses cannot be asked for it.
+ */
+final class MeteredResponse extends HttpServletResponseWrapper
+{
+
+    static final String ATTRIBUTE = MeteredResponse.class.getName();
+
+    private final RestMetrics metrics;
+    private final long startNanos;
+    private final long threadId;
+    private final long startAllocatedBytes;
+    private int status = HttpServletResponse.SC_OK;
+    private CountingOutputStream outputStream;
+    private boolean completed;
+
+    MeteredResponse( RestMetrics metrics, HttpServletResponse response )
+    {
+        super( response );
+        this.metrics = metrics;
+        this.startNanos = System.nanoTime();
+        this.threadId = Thread.currentThread().getId();
+        this.startAllocatedBytes = RestMetrics.currentThreadAllocatedBytes();
+    }
+
+    RestMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Records the response in the metrics. Only the first call counts.
+     *
+     * @param succeeded - False if executing the resolution threw, in which
+     * case the container sends a 500
+     */
+    void complete( boolean succeeded )
+    {
+        if ( completed )
+        {
+            return;
+        }
+        completed = true;
+
+        // Allocations can only be attributed if the request stayed on one thread
+        long allocated = -1;
+        if ( startAllocatedBytes >= 0 && threadId == Thread.currentThread().getId() )
+        {
+            allocated = RestMetrics.currentThreadAllocatedBytes() - startAllocatedBytes;
+        }
+
+        metrics.recordResponse( System.nanoTime() - startNanos, succeeded ? status : HttpServletResponse.SC_INTERNAL_SERVER_ERROR, outputStream != null ? outputStream.count : 0, allocated );
+    }
+
+    @Override
+    public void setStatus( int status )
+    {
+        super.setStatus( status );
+        this.status = status;
+    }
+
+    @Override
+    @SuppressWarnings( "deprecation" )
+    public void setStatus( int status, String message )
+    {
+        super.setStatus( status, message );
+        this.status = status;
+    }
+
+    @Override
+    public void sendError( int status ) throws IOException
+    {
+        super.sendError( status );
+        this.status = status;
+    }
+
+    @Override
+    public void sendError( int status, String message ) throws IOException
+    {
+        super.sendError( status, message );
+        this.status = status;
+    }
+
+    @Override
+    public void sendRedirect( String location ) throws IOException
+    {
+        super.sendRedirect( location );
+        this.status = HttpServletResponse.SC_FOUND;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        status = HttpServletResponse.SC_OK;
+        if ( outputStream != null )
+        {
+            outputStream.count = 0;
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        if ( outputStream == null )
+        {
+            outputStream = new CountingOutputStream( super.getOutputStream() );
+        }
+        return outputStream;
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream
+    {
+
+        private final ServletOutputStream out;
+        private long count;
+
+        private CountingOutputStream( ServletOutputStream out )
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            out.write( b, off, len );
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+}
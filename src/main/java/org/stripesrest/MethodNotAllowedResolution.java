@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ErrorResolution;
+
+/**
+ * A "Method Not Allowed" (405) error resolution which also tells the caller
+ * which HTTP methods the resource does support through the Allow header.
+ *
+ * Instances hold no per-request state, so they can be built once and shared.
+ */
+public class MethodNotAllowedResolution extends ErrorResolution
+{
+
+    private final String allow;
+
+    /**
+     * Constructs a 405 error resolution.
+     *
+     * @param allow - Comma-separated list of the supported HTTP methods
+     * @param errorMessage - Error message returned to the caller
+     */
+    public MethodNotAllowedResolution( String allow, String errorMessage )
+    {
+        super( HttpServletResponse.SC_METHOD_NOT_ALLOWED, errorMessage );
+        this.allow = allow;
+    }
+
+    /**
+     * Returns the value of the Allow header sent with this error.
+     *
+     * @return Comma-separated list of the supported HTTP methods
+     */
+    public String getAllow()
+    {
+        return allow;
+    }
+
+    @Override
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        response.setHeader( "Allow", allow );
+        super.execute( request, response );
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+
+/**
+ * The answer to an OPTIONS request made to a resource without an OPTIONS
+ * handler of its own: a 204 whose Allow header lists the HTTP methods the
+ * resource supports.
+ *
+ * Instances hold no per-request state; one is built per resource by its
+ * {@link RestDispatchTable} and shared.
+ */
+final class OptionsResolution implements Resolution
+{
+
+    private final String allow;
+
+    /**
+     * @param allow - Comma-separated list of the supported HTTP methods
+     */
+    OptionsResolution( String allow )
+    {
+        this.allow = allow;
+    }
+
+    /**
+     * @return Comma-separated list of the supported HTTP methods
+     */
+    String getAllow()
+    {
+        return allow;
+    }
+
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        response.setStatus( HttpServletResponse.SC_NO_CONTENT );
+        response.setHeader( "Allow", allow );
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+
+/**
+ * A JSON document which has already been serialized, ready to be sent any
+ * number of times. It answers conditional requests from its ETag, sends only
+ * the headers to HEAD requests, and compresses the document for clients which
+ * accept it. Each compressed form is produced the first time it is needed and
+ * then kept, so a cached document is compressed at most once per coding.
+ *
+ * The document may also have been serialized in a negotiated
+ * {@link ResponseEncoding}, which then gives its media type.
+ */
+final class RenderedJson implements Resolution
+{
+
+    private final ETagOutputStream body;
+    private final String mediaType;
+    private final boolean negotiated;
+    private final boolean eTagEnabled;
+    private volatile ByteArrayOutputStream gzip;
+    private volatile ByteArrayOutputStream deflate;
+
+    /**
+     * @param body - Serialized document
+     * @param mediaType - Media type of the document
+     * @param negotiated - True if the media type was chosen from the Accept
+     * header, so the response varies on it; false for raw JSON text
+     * @param eTagEnabled - True to send an ETag and honor If-None-Match
+     */
+    RenderedJson( ETagOutputStream body, String mediaType, boolean negotiated, boolean eTagEnabled )
+    {
+        this.body = body;
+        this.mediaType = mediaType;
+        this.negotiated = negotiated;
+        this.eTagEnabled = eTagEnabled;
+    }
+
+    /**
+     * Releases memory the document does not use, before it is cached.
+     */
+    void trimToSize()
+    {
+        body.trimToSize();
+    }
+
+    /**
+     * @return Size of the uncompressed document, in bytes
+     */
+    int size()
+    {
+        return body.size();
+    }
+
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        response.setContentType( mediaType );
+        if ( ContentNegotiation.JSON.equals( mediaType ) )
+        {
+            response.setCharacterEncoding( "UTF-8" );
+        }
+
+        String encoding = ResponseCompression.negotiate( request, response );
+        if ( encoding != null && body.size() < ResponseCompression.getMinSize() )
+        {
+            encoding = null;
+        }
+        if ( negotiated )
+        {
+            ContentNegotiation.addVary( response );
+        }
+
+        if ( eTagEnabled )
+        {
+            // Each content coding is a different representation, so it gets its own ETag
+            String eTag = body.getETag( encoding );
+            response.setHeader( "ETag", eTag );
+
+            String ifNoneMatch = request.getHeader( "If-None-Match" );
+            if ( ETagOutputStream.matches( ifNoneMatch, eTag ) || ( encoding != null && ETagOutputStream.matches( ifNoneMatch, body.getETag( null ) ) ) )
+            {
+                response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                return;
+            }
+        }
+
+        ByteArrayOutputStream compressed = null;
+        if ( encoding != null )
+        {
+            compressed = compressed( encoding );
+            response.setHeader( "Content-Encoding", encoding );
+        }
+
+        response.setContentLength( compressed != null ? compressed.size() : body.size() );
+        if ( !"HEAD".equalsIgnoreCase( request.getMethod() ) )
+        {
+            if ( compressed != null )
+            {
+                compressed.writeTo( response.getOutputStream() );
+            }
+            else
+            {
+                body.writeTo( response.getOutputStream() );
+            }
+        }
+        response.flushBuffer();
+    }
+
+    private ByteArrayOutputStream compressed( String encoding ) throws IOException
+    {
+        // Racing threads may both compress; either result is correct
+        if ( ResponseCompression.GZIP.equals( encoding ) )
+        {
+            ByteArrayOutputStream compressed = gzip;
+            if ( compressed == null )
+            {
+                gzip = compressed = body.compress( encoding );
+            }
+            return compressed;
+        }
+
+        ByteArrayOutputStream compressed = deflate;
+        if ( compressed == null )
+        {
+            deflate = compressed = body.compress( encoding );
+        }
+        return compressed;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.ExecutionContext;
+
+/**
+ * Single-flight execution of one GET event handler annotated with
+ * {@link CoalesceRequests}.
+ *
+ * The first request for a key invokes the handler -- through the
+ * {@link ResponseCache} of the handler, if it has one -- and serializes the
+ * JSON it returns once. Identical requests arriving in the meantime wait for
+ * that execution and are answered with the same serialized document, which
+ * answers conditional requests, HEAD and compression for each of them. When
+ * the execution fails or returns anything but JSON, each waiting request
+ * invokes the handler itself.
+ *
+ * A key is the request URI, the negotiated encoding, the remote user, the
+ * declared vary headers and every request parameter, sorted by name. Since
+ * nothing else of the request is part of the key, requests carrying
+ * credentials in an Authorization or Cookie header which is not declared are
+ * never coalesced: the handler may answer them on behalf of a session or a
+ * token. A request which waits longer than the declared maximum for the
+ * execution in flight invokes the handler itself.
+ */
+public final class RequestCoalescer
+{
+
+    /**
+     * Returns the coalescer of an event handler.
+     *
+     * @param beanClass - REST action bean class
+     * @param eventName - Name of the handler
+     * @return Coalescer of the handler, or null if it is not annotated with
+     * {@link CoalesceRequests}
+     */
+    public static RequestCoalescer forEvent( Class<?> beanClass, String eventName )
+    {
+        RestDispatchTable.Dispatch dispatch = RestDispatchTable.forClass( beanClass ).forEvent( eventName );
+        return dispatch != null ? dispatch.getRequestCoalescer() : null;
+    }
+
+    /**
+     * One execution of the handler, shared by the requests which wait on it.
+     */
+    private static final class Flight
+    {
+
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        // Null if the execution produced nothing which can be shared
+        private volatile RenderedJson json;
+    }
+
+    private final Method handler;
+    private final ResponseCache responseCache;
+    private final String[] varyHeaders;
+    private final String[] credentialHeaders;
+    private final long maxWait;
+    private final ConcurrentMap< String, Flight> flights = new ConcurrentHashMap< String, Flight>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param handler - GET event handler
+     * @param responseCache - Cache of the handler, or null
+     */
+    RequestCoalescer( Method handler, ResponseCache responseCache )
+    {
+        this.handler = handler;
+        this.responseCache = responseCache;
+
+        CoalesceRequests annotation = handler.getAnnotation( CoalesceRequests.class );
+        this.varyHeaders = annotation.varyHeaders().clone();
+        this.maxWait = annotation.maxWait();
+        this.credentialHeaders = ResponseCache.undeclaredCredentials( varyHeaders );
+    }
+
+    /**
+     * Answers a request with the response of an identical request in flight,
+     * or invokes the handler through the execution context and shares its
+     * JSON with the identical requests which arrive meanwhile.
+     *
+     * @param ctx - Execution context at the EventHandling stage
+     * @return Resolution to send
+     * @throws Exception if the handler fails
+     */
+    Resolution resolve( ExecutionContext ctx ) throws Exception
+    {
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        if ( isBypassed( request ) )
+        {
+            return invoke( ctx );
+        }
+
+        ResponseEncoding encoding = ContentNegotiation.select( request );
+        String key = key( request, encoding );
+        Flight flight = new Flight();
+        Flight inFlight = flights.putIfAbsent( key, flight );
+        if ( inFlight != null )
+        {
+            // Rather than wait on an execution which hangs, run another
+            boolean done;
+            waiting.incrementAndGet();
+            try
+            {
+                done = inFlight.done.await( maxWait, TimeUnit.MILLISECONDS );
+            }
+            finally
+            {
+                waiting.decrementAndGet();
+            }
+            if ( !done )
+            {
+                return invoke( ctx );
+            }
+
+            if ( inFlight.json != null )
+            {
+                coalesced.increment();
+                return inFlight.json;
+            }
+            return invoke( ctx );
+        }
+
+        executions.increment();
+        try
+        {
+            Resolution resolution = invoke( ctx );
+            flight.json = share( resolution, request, encoding );
+            return flight.json != null ? flight.json : resolution;
+        }
+        finally
+        {
+            // Later requests start an execution of their own
+            flights.remove( key, flight );
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * @return Number of requests which invoked the handler themselves, not
+     * counting those which bypassed coalescing
+     */
+    public long getExecutionCount()
+    {
+        return executions.sum();
+    }
+
+    /**
+     * @return Number of requests answered with the response of another
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of executions currently in flight
+     */
+    public int getInFlightCount()
+    {
+        return flights.size();
+    }
+
+    /**
+     * @return Number of requests currently waiting for an execution in flight
+     */
+    public int getWaitingCount()
+    {
+        return waiting.get();
+    }
+
+    /**
+     * @return Event handler whose executions are shared
+     */
+    public Method getHandler()
+    {
+        return handler;
+    }
+
+    private Resolution invoke( ExecutionContext ctx ) throws Exception
+    {
+        return responseCache != null ? responseCache.resolve( ctx ) : RestActionInterceptor.proceedToHandler( ctx );
+    }
+
+    /**
+     * Serializes the JSON returned by the handler so that it can be sent to
+     * every waiting request.
+     */
+    private static RenderedJson share( Resolution resolution, HttpServletRequest request, ResponseEncoding encoding )
+    {
+        if ( resolution instanceof RenderedJson )
+        {
+            return (RenderedJson) resolution;
+        }
+        if ( !( resolution instanceof JsonResolution ) )
+        {
+            return null;
+        }
+
+        JsonResolution jsonResolution = (JsonResolution) resolution;
+        JsonResolution.applyFieldsParameter( jsonResolution.getJsonBuilder(), request );
+        RenderedJson json = jsonResolution.render( request, encoding );
+
+        // The document outlives the request, so it must not hold pooled buffers
+        json.trimToSize();
+        return json;
+    }
+
+    private boolean isBypassed( HttpServletRequest request )
+    {
+        if ( ResponseCache.carriesAny( request, credentialHeaders ) )
+        {
+            return true;
+        }
+
+        String cacheControl = request.getHeader( "Cache-Control" );
+        return cacheControl != null && cacheControl.toLowerCase( Locale.ENGLISH ).contains( "no-cache" );
+    }
+
+    private String key( HttpServletRequest request, ResponseEncoding encoding )
+    {
+        StringBuilder key = new StringBuilder( request.getRequestURI() );
+        if ( encoding != null )
+        {
+            key.append( '\u0003' ).append( encoding.getMediaType() );
+        }
+
+        ResponseCache.appendClient( key, request, varyHeaders );
+
+        Map< String, String[]> parameters = new TreeMap< String, String[]>( request.getParameterMap() );
+        for ( Map.Entry< String, String[]> parameter : parameters.entrySet() )
+        {
+            ResponseCache.appendParameter( key, parameter.getKey(), parameter.getValue() );
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.ExecutionContext;
+
+/**
+ * The server-side cache of the JSON responses of one GET event handler
+ * annotated with {@link CacheResponse}.
+ *
+ * Entries are spread over a few independently locked segments, each evicting
+ * its least recently used entry when full, so concurrent requests rarely
+ * contend. Write handlers on the same resource should call
+ * {@link #invalidate(Class)} once they have changed it:
+ *
+ * <pre>
+ * public Resolution put()
+ * {
+ *     orderService.save( order );
+ *     ResponseCache.invalidate( getClass() );
+ *     return new JsonResolution( order );
+ * }
+ * </pre>
+ */
+public final class ResponseCache
+{
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final String[] CREDENTIAL_HEADERS =
+    {
+        "Authorization", "Cookie"
+    };
+
+    /**
+     * Returns the cache of an event handler.
+     *
+     * @param beanClass - REST action bean class
+     * @param eventName - Name of the handler
+     * @return Cache of the handler, or null if it is not annotated with
+     * {@link CacheResponse}
+     */
+    public static ResponseCache forEvent( Class<?> beanClass, String eventName )
+    {
+        RestDispatchTable.Dispatch dispatch = RestDispatchTable.forClass( beanClass ).forEvent( eventName );
+        return dispatch != null ? dispatch.getResponseCache() : null;
+    }
+
+    /**
+     * Drops every cached response of a resource.
+     *
+     * @param beanClass - REST action bean class whose caches to clear
+     */
+    public static void invalidate( Class<?> beanClass )
+    {
+        for ( ResponseCache cache : RestDispatchTable.forClass( beanClass ).getResponseCaches() )
+        {
+            cache.invalidateAll();
+        }
+    }
+
+    private static final class Entry
+    {
+
+        private final RenderedJson json;
+        private final long expiresAt;
+
+        private Entry( RenderedJson json, long expiresAt )
+        {
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One independently locked part of the cache, in access order.
+     */
+    private final class Segment extends LinkedHashMap< String, Entry>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment( int capacity )
+        {
+            super( 16, 0.75f, true );
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry< String, ResponseCache.Entry> eldest )
+        {
+            if ( size() > capacity )
+            {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Method handler;
+    private final long ttlNanos;
+    private final String[] keyParameters;
+    private final boolean fieldsInKey;
+    private final String[] varyHeaders;
+    private final String[] credentialHeaders;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache( Method handler, CacheResponse cacheResponse )
+    {
+        this.handler = handler;
+        this.ttlNanos = cacheResponse.unit().toNanos( cacheResponse.ttl() );
+        this.keyParameters = cacheResponse.keyParameters().clone();
+        Arrays.sort( this.keyParameters );
+        this.fieldsInKey = Arrays.binarySearch( this.keyParameters, JsonResolution.FIELDS_PARAMETER ) >= 0;
+        this.varyHeaders = cacheResponse.varyHeaders().clone();
+        this.credentialHeaders = undeclaredCredentials( varyHeaders );
+
+        int maxEntries = Math.max( cacheResponse.maxEntries(), 1 );
+        int segmentCount = 1;
+        while ( segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maxEntries )
+        {
+            segmentCount *= 2;
+        }
+
+        this.segments = new Segment[segmentCount];
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment( ( maxEntries + segmentCount - 1 ) / segmentCount );
+        }
+    }
+
+    /**
+     * Answers a request from the cache, or invokes the handler through the
+     * execution context and caches the JSON it returns.
+     *
+     * @param ctx - Execution context at the EventHandling stage
+     * @return Resolution to send
+     * @throws Exception if the handler fails
+     */
+    Resolution resolve( ExecutionContext ctx ) throws Exception
+    {
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        if ( carriesAny( request, credentialHeaders ) )
+        {
+            return RestActionInterceptor.proceedToHandler( ctx );
+        }
+
+        ResponseEncoding encoding = ContentNegotiation.select( request );
+        String key = key( request, encoding );
+        Segment segment = segmentFor( key );
+
+        Entry entry;
+        synchronized ( segment )
+        {
+            entry = segment.get( key );
+        }
+
+        long now = System.nanoTime();
+        if ( entry != null && now - entry.expiresAt < 0 )
+        {
+            hits.increment();
+            return entry.json;
+        }
+        misses.increment();
+
+        Resolution resolution = RestActionInterceptor.proceedToHandler( ctx );
+        if ( !( resolution instanceof JsonResolution ) )
+        {
+            return resolution;
+        }
+
+        JsonResolution jsonResolution = (JsonResolution) resolution;
+        JsonResolution.applyFieldsParameter( jsonResolution.getJsonBuilder(), request );
+        RenderedJson json = jsonResolution.render( request, encoding );
+        json.trimToSize();
+        synchronized ( segment )
+        {
+            segment.put( key, new Entry( json, now + ttlNanos ) );
+        }
+        return json;
+    }
+
+    /**
+     * Drops every cached response of this handler.
+     */
+    public void invalidateAll()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Number of requests answered from the cache
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of requests which had to invoke the handler
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of entries evicted to make room for newer ones
+     */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Number of entries currently held, including expired entries
+     * which have not been replaced yet
+     */
+    public int size()
+    {
+        int size = 0;
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Event handler whose responses are cached
+     */
+    public Method getHandler()
+    {
+        return handler;
+    }
+
+    private Segment segmentFor( String key )
+    {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & ( segments.length - 1 )];
+    }
+
+    private String key( HttpServletRequest request, ResponseEncoding encoding )
+    {
+        StringBuilder key = new StringBuilder( request.getRequestURI() );
+
+        // Each encoding of the response is a different entry
+        if ( encoding != null )
+        {
+            key.append( '\u0003' ).append( encoding.getMediaType() );
+        }
+        appendClient( key, request, varyHeaders );
+
+        if ( keyParameters.length > 0 )
+        {
+            for ( String name : keyParameters )
+            {
+                appendParameter( key, name, request.getParameterValues( name ) );
+            }
+
+            // Each projection of the response is a different entry
+            if ( !fieldsInKey && JsonResolution.isFieldsParameterEnabled() )
+            {
+                appendParameter( key, JsonResolution.FIELDS_PARAMETER, request.getParameterValues( JsonResolution.FIELDS_PARAMETER ) );
+            }
+        }
+        else
+        {
+            Map< String, String[]> parameters = new TreeMap< String, String[]>( request.getParameterMap() );
+            for ( Map.Entry< String, String[]> parameter : parameters.entrySet() )
+            {
+                appendParameter( key, parameter.getKey(), parameter.getValue() );
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends what tells the responses of clients apart to a key: the remote
+     * user and the declared headers.
+     */
+    static void appendClient( StringBuilder key, HttpServletRequest request, String[] varyHeaders )
+    {
+        String remoteUser = request.getRemoteUser();
+        if ( remoteUser != null )
+        {
+            key.append( '\u0004' ).append( remoteUser );
+        }
+
+        for ( String varyHeader : varyHeaders )
+        {
+            Enumeration< String> values = request.getHeaders( varyHeader );
+            key.append( '\u0005' );
+            appendParameter( key, varyHeader, values != null ? Collections.list( values ).toArray( new String[ 0 ] ) : null );
+        }
+    }
+
+    /**
+     * Lists the headers carrying credentials which are not part of a key, and
+     * so rule the requests carrying them out of sharing responses.
+     */
+    static String[] undeclaredCredentials( String[] varyHeaders )
+    {
+        List< String> undeclared = new ArrayList< String>();
+        for ( String credentialHeader : CREDENTIAL_HEADERS )
+        {
+            boolean declared = false;
+            for ( String varyHeader : varyHeaders )
+            {
+                declared = declared || credentialHeader.equalsIgnoreCase( varyHeader );
+            }
+
+            if ( !declared )
+            {
+                undeclared.add( credentialHeader );
+            }
+        }
+        return undeclared.toArray( new String[ undeclared.size() ] );
+    }
+
+    static boolean carriesAny( HttpServletRequest request, String[] headers )
+    {
+        for ( String header : headers )
+        {
+            if ( request.getHeader( header ) != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void appendParameter( StringBuilder key, String name, String[] values )
+    {
+        // Control characters keep names and values from running into each other
+        key.append( '\u0001' ).append( name );
+        if ( values != null )
+        {
+            for ( String value : values )
+            {
+                key.append( '\u0002' ).append( value );
+            }
+        }
+    }
+}
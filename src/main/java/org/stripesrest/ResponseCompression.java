@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Content-Encoding negotiation for the JSON responses written by this
+ * library. gzip is preferred over deflate; bodies smaller than the minimum
+ * size are never compressed, as the framing would outweigh the savings.
+ *
+ * Deflaters hold native memory which is only released by Deflater.end(), so
+ * they are pooled rather than created for every response.
+ */
+final class ResponseCompression
+{
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    /**
+     * Default size, in bytes, below which responses are not compressed.
+     */
+    static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final int POOL_SIZE = Math.max( 4, Runtime.getRuntime().availableProcessors() * 2 );
+
+    private static final BlockingQueue< Deflater> GZIP_DEFLATERS = new ArrayBlockingQueue< Deflater>( POOL_SIZE );
+    private static final BlockingQueue< Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue< Deflater>( POOL_SIZE );
+
+    private static volatile int minSize = DEFAULT_MIN_SIZE;
+
+    private ResponseCompression()
+    {
+    }
+
+    /**
+     * Sets the size, in bytes, below which responses are not compressed. A
+     * negative size turns compression off. The size is capped at one pooled
+     * buffer, which is all a streamed body holds back before compressing.
+     *
+     * @param size - Minimum size of a compressed response
+     */
+    static void setMinSize( int size )
+    {
+        minSize = Math.min( size, BufferPool.BUFFER_SIZE );
+    }
+
+    /**
+     * @return Size, in bytes, below which responses are not compressed, or a
+     * negative number if compression is off
+     */
+    static int getMinSize()
+    {
+        return minSize;
+    }
+
+    /**
+     * Picks the content coding for a response and marks the response as
+     * varying by Accept-Encoding.
+     *
+     * @param request - Current request
+     * @param response - Response about to be written
+     * @return "gzip", "deflate" or null if the response must not be compressed
+     */
+    static String negotiate( HttpServletRequest request, HttpServletResponse response )
+    {
+        if ( minSize < 0 )
+        {
+            return null;
+        }
+
+        // Whatever the outcome for this request, another client's may differ
+        response.addHeader( "Vary", "Accept-Encoding" );
+
+        String acceptEncoding = request.getHeader( "Accept-Encoding" );
+        if ( acceptEncoding == null || acceptEncoding.isEmpty() )
+        {
+            return null;
+        }
+
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for ( String coding : acceptEncoding.split( "," ) )
+        {
+            float quality = 1;
+            int parameters = coding.indexOf( ';' );
+            if ( parameters >= 0 )
+            {
+                quality = quality( coding.substring( parameters + 1 ) );
+                coding = coding.substring( 0, parameters );
+            }
+            coding = coding.trim();
+
+            if ( coding.equalsIgnoreCase( GZIP ) || coding.equalsIgnoreCase( "x-gzip" ) )
+            {
+                gzip = quality;
+            }
+            else if ( coding.equalsIgnoreCase( DEFLATE ) )
+            {
+                deflate = quality;
+            }
+            else if ( coding.equals( "*" ) )
+            {
+                any = quality;
+            }
+        }
+
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+
+        if ( gzip > 0 && gzip >= deflate )
+        {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Takes a deflater from the pool, creating one if the pool is empty.
+     *
+     * @param gzip - True for raw deflate data to wrap in gzip framing, false
+     * for zlib-wrapped data
+     * @return Deflater ready for use
+     */
+    static Deflater acquireDeflater( boolean gzip )
+    {
+        Deflater deflater = ( gzip ? GZIP_DEFLATERS : ZLIB_DEFLATERS ).poll();
+        return deflater != null ? deflater : new Deflater( Deflater.DEFAULT_COMPRESSION, gzip );
+    }
+
+    /**
+     * Returns a deflater to the pool, or frees it if the pool is full.
+     *
+     * @param deflater - Deflater obtained from {@link #acquireDeflater(boolean)}
+     * @param gzip - Value passed when the deflater was acquired
+     */
+    static void releaseDeflater( Deflater deflater, boolean gzip )
+    {
+        deflater.reset();
+        if ( !( gzip ? GZIP_DEFLATERS : ZLIB_DEFLATERS ).offer( deflater ) )
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the quality value from the parameters of an Accept or
+     * Accept-Encoding element.
+     *
+     * @param parameters - Parameters following the first ';' of the element
+     * @return Quality of the element, 1 if it has none and 0 if it is invalid
+     */
+    static float quality( String parameters )
+    {
+        for ( String parameter : parameters.split( ";" ) )
+        {
+            parameter = parameter.trim();
+            if ( parameter.startsWith( "q=" ) || parameter.startsWith( "Q=" ) )
+            {
+                try
+                {
+                    return Float.parseFloat( parameter.substring( 2 ).trim() );
+                }
+                catch ( NumberFormatException e )
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A binary encoding which {@link JsonResolution} and the JSON error responses
+ * of REST calls can be sent in, instead of JSON, to clients which ask for it
+ * in their Accept header. The document is the same one the JSON would
+ * describe: it comes from the same walk of the same object, with the same
+ * exclusions and fields.
+ *
+ * Encodings are listed in the RestEncoding.Classes Stripes filter parameter
+ * (see {@link RestActionInterceptor#ENCODINGS}) and must have a public no-arg
+ * constructor. CBOR ({@link CborEncoding}) is offered by default. JSON is
+ * always available, and is sent when the client has no preference.
+ *
+ * @author Rick Grashel
+ */
+public interface ResponseEncoding
+{
+
+    /**
+     * @return Media type of the encoding, such as application/cbor, matched
+     * against the Accept header and sent as the Content-Type
+     */
+    String getMediaType();
+
+    /**
+     * Creates a writer which encodes a document straight to the passed
+     * stream. It is flushed, but never closed, once the document is complete.
+     *
+     * @param out - Stream receiving the encoded document
+     * @return Writer of one document
+     * @throws IOException if the stream cannot be written to
+     */
+    DocumentWriter newWriter( OutputStream out ) throws IOException;
+}
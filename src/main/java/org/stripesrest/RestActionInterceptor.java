@@ -15,21 +15,30 @@
  */
 package org.stripesrest;
 
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import net.sourceforge.stripes.action.ErrorResolution;
+import net.sourceforge.stripes.action.ActionBean;
 import net.sourceforge.stripes.action.Resolution;
-import net.sourceforge.stripes.action.StreamingResolution;
+import net.sourceforge.stripes.config.BootstrapPropertyResolver;
+import net.sourceforge.stripes.config.ConfigurableComponent;
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.controller.DispatcherHelper;
 import net.sourceforge.stripes.controller.ExecutionContext;
 import net.sourceforge.stripes.controller.Interceptor;
 import net.sourceforge.stripes.controller.Intercepts;
 import net.sourceforge.stripes.controller.LifecycleStage;
 import net.sourceforge.stripes.controller.StripesConstants;
 import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
 import net.sourceforge.stripes.util.Log;
 import net.sourceforge.stripes.validation.ValidationError;
 import net.sourceforge.stripes.validation.ValidationErrors;
@@ -37,14 +46,396 @@ import net.sourceforge.stripes.validation.ValidationErrors;
 /**
  * This interceptor is responsible for ensuring that the proper event handler
  * methods are called for Stripes REST action beans.
+ *
+ * Event handlers may also return a CompletionStage of a Resolution. The
+ * request is then put into servlet async mode and the resolution is written
+ * once the stage completes, or a JSON 503/504 error is returned if it does not
+ * complete in time. The default timeout is set with the RestAsync.Timeout
+ * (milliseconds) and RestAsync.TimeoutStatus Stripes filter parameters and
+ * can be overridden per handler with {@link AsyncTimeout}.
+ *
+ * Unless the RestMetrics.Enabled Stripes filter parameter is false, the time
+ * spent in each intercepted lifecycle stage and the outcome of every call are
+ * recorded in the {@link RestMetrics} of the action bean and HTTP verb.
+ *
+ * Calls other than GET and HEAD which carry an <code>Idempotency-Key</code>
+ * header run their handler once; retries with the same key are answered with
+ * the stored response. See {@link IdempotencyStore}.
+ *
+ * If the RestCors.Origins Stripes filter parameter is set, CORS preflights
+ * from those origins are answered before any handler is looked up, and the
+ * responses to their calls carry the CORS headers.
  */
 @Intercepts(
                 {
-            LifecycleStage.HandlerResolution, LifecycleStage.BindingAndValidation, LifecycleStage.CustomValidation, LifecycleStage.EventHandling
+            LifecycleStage.HandlerResolution, LifecycleStage.BindingAndValidation, LifecycleStage.CustomValidation, LifecycleStage.EventHandling, LifecycleStage.ResolutionExecution
         } )
-public class RestActionInterceptor implements Interceptor
+public class RestActionInterceptor implements Interceptor, ConfigurableComponent
 {
 
+    /**
+     * Stripes filter parameter holding the default timeout, in milliseconds,
+     * of asynchronous event handlers. Zero or less waits indefinitely.
+     */
+    public static final String ASYNC_TIMEOUT = "RestAsync.Timeout";
+
+    /**
+     * Stripes filter parameter holding the HTTP status (503 or 504) returned
+     * when an asynchronous event handler times out.
+     */
+    public static final String ASYNC_TIMEOUT_STATUS = "RestAsync.TimeoutStatus";
+
+    /**
+     * Stripes filter parameter holding the largest number of requests in a
+     * batch sent to the {@link RestBatchActionBean}.
+     */
+    public static final String BATCH_MAX_SIZE = "RestBatch.MaxSize";
+
+    /**
+     * Stripes filter parameter holding the number of batched requests
+     * executed in parallel by the {@link RestBatchActionBean}.
+     */
+    public static final String BATCH_CONCURRENCY = "RestBatch.Concurrency";
+
+    /**
+     * Stripes filter parameter holding the comma-separated action bean
+     * classes which may be called through the {@link RestBatchActionBean},
+     * as <code>com.example.OrderActionBean</code> or, for a whole package,
+     * <code>com.example.*</code>. Unset, nothing can be batched.
+     */
+    public static final String BATCH_RESOURCES = "RestBatch.Resources";
+
+    /**
+     * Stripes filter parameter holding the number of 8 KB buffers kept in the
+     * pool which responses are encoded into. Zero turns pooling off.
+     */
+    public static final String BUFFER_POOL_SIZE = "RestBuffer.PoolSize";
+
+    /**
+     * Stripes filter parameter holding the size, in bytes, up to which the
+     * body of a GET or HEAD response is buffered to send its ETag and
+     * Content-Length. Larger bodies are streamed without them.
+     */
+    public static final String ETAG_MAX_SIZE = "RestETag.MaxSize";
+
+    /**
+     * Stripes filter parameter which, if true, lets clients restrict the JSON
+     * of every REST response to the properties listed in a
+     * {@link JsonResolution#FIELDS_PARAMETER} request parameter. Off by
+     * default, as handlers may already use a parameter of that name.
+     */
+    public static final String FIELDS_ENABLED = "RestFields.Enabled";
+
+    /**
+     * Stripes filter parameter holding the size, in bytes, below which JSON
+     * responses are not compressed. A negative size turns compression off,
+     * and sizes above 8192 are treated as 8192.
+     */
+    public static final String COMPRESSION_MIN_SIZE = "RestCompression.MinSize";
+
+    /**
+     * Stripes filter parameter holding the comma-separated origins allowed to
+     * make cross-origin calls, such as <code>https://app.example.com</code>,
+     * or * for any origin. Unset, no CORS header is sent.
+     */
+    public static final String CORS_ORIGINS = "RestCors.Origins";
+
+    /**
+     * Stripes filter parameter holding the comma-separated request headers
+     * allowed in cross-origin calls.
+     */
+    public static final String CORS_ALLOW_HEADERS = "RestCors.AllowHeaders";
+
+    /**
+     * Stripes filter parameter holding the comma-separated response headers
+     * exposed to cross-origin scripts.
+     */
+    public static final String CORS_EXPOSE_HEADERS = "RestCors.ExposeHeaders";
+
+    /**
+     * Stripes filter parameter which, if true, allows cross-origin calls to
+     * carry cookies and credentials. It is ignored if {@link #CORS_ORIGINS}
+     * is *.
+     */
+    public static final String CORS_ALLOW_CREDENTIALS = "RestCors.AllowCredentials";
+
+    /**
+     * Stripes filter parameter holding the time, in seconds, browsers may
+     * cache a CORS preflight. Defaults to an hour.
+     */
+    public static final String CORS_MAX_AGE = "RestCors.MaxAge";
+
+    /**
+     * Stripes filter parameter holding the comma-separated class names of the
+     * {@link ResponseEncoding}s offered besides JSON, in order of preference.
+     * Defaults to {@link CborEncoding}; an empty value offers JSON only.
+     */
+    public static final String ENCODINGS = "RestEncoding.Classes";
+
+    /**
+     * Stripes filter parameter holding the class name of the
+     * {@link IdempotencyStore} which keeps the responses of calls made with
+     * an Idempotency-Key. Defaults to an {@link InMemoryIdempotencyStore}.
+     */
+    public static final String IDEMPOTENCY_STORE = "RestIdempotency.Store";
+
+    /**
+     * Stripes filter parameter holding the time, in seconds, for which the
+     * default store keeps a response. Defaults to a day.
+     */
+    public static final String IDEMPOTENCY_TTL = "RestIdempotency.Ttl";
+
+    /**
+     * Stripes filter parameter holding the largest number of keys held by the
+     * default store. Defaults to 10000.
+     */
+    public static final String IDEMPOTENCY_MAX_ENTRIES = "RestIdempotency.MaxEntries";
+
+    /**
+     * Stripes filter parameter holding the time, in milliseconds, a retry
+     * waits for the call in flight with its Idempotency-Key before it is
+     * answered with a 409. Defaults to zero: no waiting.
+     */
+    public static final String IDEMPOTENCY_WAIT = "RestIdempotency.WaitTimeout";
+
+    /**
+     * Stripes filter parameter holding the concurrency limit of every HTTP
+     * verb of every REST action bean without a {@link ConcurrencyLimit} of
+     * its own. Unset, or zero, means no limit.
+     */
+    public static final String LIMIT_DEFAULT = "RestLimit.Default";
+
+    /**
+     * Stripes filter parameter which, if true, makes the limits set by
+     * {@link #LIMIT_DEFAULT} and {@link #LIMIT_RESOURCES} adaptive.
+     */
+    public static final String LIMIT_ADAPTIVE = "RestLimit.Adaptive";
+
+    /**
+     * Stripes filter parameter holding the comma-separated limits of single
+     * resources, as <code>com.example.OrderActionBean=20</code> or
+     * <code>com.example.OrderActionBean.POST=5</code>. They override any
+     * {@link ConcurrencyLimit} annotation.
+     */
+    public static final String LIMIT_RESOURCES = "RestLimit.Resources";
+
+    /**
+     * Stripes filter parameter holding the HTTP status (429 or 503) of calls
+     * rejected by a limit which was not set by an annotation.
+     */
+    public static final String LIMIT_STATUS = "RestLimit.Status";
+
+    /**
+     * Stripes filter parameter holding the Retry-After seconds of calls
+     * rejected by a limit which was not set by an annotation.
+     */
+    public static final String LIMIT_RETRY_AFTER = "RestLimit.RetryAfter";
+
+    /**
+     * Stripes filter parameter which turns the recording of
+     * {@link RestMetrics} on (the default) or off.
+     */
+    public static final String METRICS_ENABLED = "RestMetrics.Enabled";
+
+    /**
+     * Stripes filter parameter which turns the registration of
+     * {@link RestMetrics} as JMX MXBeans on (the default) or off.
+     */
+    public static final String METRICS_JMX = "RestMetrics.Jmx";
+
+    /**
+     * Stripes filter parameter which, if true, verifies and prepares every
+     * REST action bean at startup. See {@link RestStartup}.
+     */
+    public static final String STARTUP_SCAN = "RestStartup.Scan";
+
+    /**
+     * Stripes filter parameter holding the number of warm-up passes run at
+     * startup. Implies {@link #STARTUP_SCAN}.
+     */
+    public static final String WARM_UP_ITERATIONS = "RestStartup.WarmUpIterations";
+
+    /**
+     * Stripes filter parameter holding the comma-separated class names of the
+     * objects serialized during the warm-up.
+     */
+    public static final String WARM_UP_SAMPLES = "RestStartup.WarmUpSamples";
+
+    private static final Log log = Log.getInstance( RestActionInterceptor.class );
+
+    private static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+
+    private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+    private int asyncTimeoutStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    private boolean metricsEnabled = true;
+
+    /**
+     * Reads the asynchronous handler, batch, buffer pool, compression, CORS,
+     * encoding, idempotency, concurrency limit and metrics settings from the Stripes filter
+     * parameters, then runs the startup scan and warm-up if they are
+     * configured.
+     *
+     * @param configuration - Stripes configuration
+     * @throws Exception if a setting is invalid
+     */
+    public void init( Configuration configuration ) throws Exception
+    {
+        BootstrapPropertyResolver resolver = configuration.getBootstrapPropertyResolver();
+
+        String timeout = resolver.getProperty( ASYNC_TIMEOUT );
+        if ( timeout != null )
+        {
+            asyncTimeout = Long.parseLong( timeout.trim() );
+        }
+
+        String timeoutStatus = resolver.getProperty( ASYNC_TIMEOUT_STATUS );
+        if ( timeoutStatus != null )
+        {
+            asyncTimeoutStatus = Integer.parseInt( timeoutStatus.trim() );
+            if ( asyncTimeoutStatus != HttpServletResponse.SC_SERVICE_UNAVAILABLE && asyncTimeoutStatus != HttpServletResponse.SC_GATEWAY_TIMEOUT )
+            {
+                throw new StripesRuntimeException( ASYNC_TIMEOUT_STATUS + " must be 503 or 504, not " + asyncTimeoutStatus );
+            }
+        }
+
+        String batchMaxSize = resolver.getProperty( BATCH_MAX_SIZE );
+        if ( batchMaxSize != null )
+        {
+            RestBatchActionBean.setMaxSize( Integer.parseInt( batchMaxSize.trim() ) );
+        }
+
+        String batchConcurrency = resolver.getProperty( BATCH_CONCURRENCY );
+        if ( batchConcurrency != null )
+        {
+            RestBatchActionBean.setConcurrency( Integer.parseInt( batchConcurrency.trim() ) );
+        }
+
+        // Unset, any resources of an earlier configuration are dropped
+        RestBatchActionBean.setResources( resolver.getProperty( BATCH_RESOURCES ) );
+
+        String bufferPoolSize = resolver.getProperty( BUFFER_POOL_SIZE );
+        if ( bufferPoolSize != null )
+        {
+            BufferPool.setPoolSize( Integer.parseInt( bufferPoolSize.trim() ) );
+        }
+
+        String eTagMaxSize = resolver.getProperty( ETAG_MAX_SIZE );
+        if ( eTagMaxSize != null )
+        {
+            JsonResolution.setETagMaxSize( Integer.parseInt( eTagMaxSize.trim() ) );
+        }
+
+        // Unset, the fields parameter of an earlier configuration is turned off
+        String fieldsEnabled = resolver.getProperty( FIELDS_ENABLED );
+        JsonResolution.setFieldsParameterEnabled( fieldsEnabled != null && Boolean.parseBoolean( fieldsEnabled.trim() ) );
+
+        String compressionMinSize = resolver.getProperty( COMPRESSION_MIN_SIZE );
+        if ( compressionMinSize != null )
+        {
+            ResponseCompression.setMinSize( Integer.parseInt( compressionMinSize.trim() ) );
+        }
+
+        // Unset, any policy of an earlier configuration is dropped
+        CorsPolicy.setPolicy( null );
+        String corsOrigins = resolver.getProperty( CORS_ORIGINS );
+        if ( corsOrigins != null && !corsOrigins.trim().isEmpty() )
+        {
+            String corsAllowHeaders = resolver.getProperty( CORS_ALLOW_HEADERS );
+            String corsExposeHeaders = resolver.getProperty( CORS_EXPOSE_HEADERS );
+            String corsAllowCredentials = resolver.getProperty( CORS_ALLOW_CREDENTIALS );
+            String corsMaxAge = resolver.getProperty( CORS_MAX_AGE );
+            CorsPolicy.setPolicy( new CorsPolicy( corsOrigins,
+                    corsAllowHeaders != null ? corsAllowHeaders : CorsPolicy.DEFAULT_ALLOW_HEADERS,
+                    corsExposeHeaders != null ? corsExposeHeaders : CorsPolicy.DEFAULT_EXPOSE_HEADERS,
+                    corsAllowCredentials != null && Boolean.parseBoolean( corsAllowCredentials.trim() ),
+                    corsMaxAge != null ? Integer.parseInt( corsMaxAge.trim() ) : CorsPolicy.DEFAULT_MAX_AGE ) );
+        }
+
+        String encodings = resolver.getProperty( ENCODINGS );
+        if ( encodings != null )
+        {
+            ContentNegotiation.setEncodings( encodings );
+        }
+
+        String idempotencyStore = resolver.getProperty( IDEMPOTENCY_STORE );
+        String idempotencyTtl = resolver.getProperty( IDEMPOTENCY_TTL );
+        String idempotencyMaxEntries = resolver.getProperty( IDEMPOTENCY_MAX_ENTRIES );
+        if ( idempotencyStore != null && !idempotencyStore.trim().isEmpty() )
+        {
+            IdempotentCalls.setStore( idempotencyStore.trim() );
+        }
+        else if ( idempotencyTtl != null || idempotencyMaxEntries != null )
+        {
+            long ttl = idempotencyTtl != null ? TimeUnit.SECONDS.toMillis( Long.parseLong( idempotencyTtl.trim() ) ) : InMemoryIdempotencyStore.DEFAULT_TTL;
+            int maxEntries = idempotencyMaxEntries != null ? Integer.parseInt( idempotencyMaxEntries.trim() ) : InMemoryIdempotencyStore.DEFAULT_MAX_ENTRIES;
+            IdempotentCalls.setStore( new InMemoryIdempotencyStore( ttl, maxEntries ) );
+        }
+
+        String idempotencyWait = resolver.getProperty( IDEMPOTENCY_WAIT );
+        if ( idempotencyWait != null )
+        {
+            IdempotentCalls.setWaitTimeout( Long.parseLong( idempotencyWait.trim() ) );
+        }
+
+        String limit = resolver.getProperty( LIMIT_DEFAULT );
+        if ( limit != null )
+        {
+            ConcurrencyLimiter.setDefaultLimit( Integer.parseInt( limit.trim() ) );
+        }
+
+        String adaptive = resolver.getProperty( LIMIT_ADAPTIVE );
+        if ( adaptive != null )
+        {
+            ConcurrencyLimiter.setDefaultAdaptive( Boolean.parseBoolean( adaptive.trim() ) );
+        }
+
+        String limits = resolver.getProperty( LIMIT_RESOURCES );
+        if ( limits != null )
+        {
+            ConcurrencyLimiter.setLimits( limits );
+        }
+
+        String limitStatus = resolver.getProperty( LIMIT_STATUS );
+        if ( limitStatus != null )
+        {
+            ConcurrencyLimiter.setDefaultStatus( Integer.parseInt( limitStatus.trim() ) );
+        }
+
+        String retryAfter = resolver.getProperty( LIMIT_RETRY_AFTER );
+        if ( retryAfter != null )
+        {
+            ConcurrencyLimiter.setDefaultRetryAfter( Integer.parseInt( retryAfter.trim() ) );
+        }
+
+        String enabled = resolver.getProperty( METRICS_ENABLED );
+        if ( enabled != null )
+        {
+            metricsEnabled = Boolean.parseBoolean( enabled.trim() );
+        }
+
+        String jmx = resolver.getProperty( METRICS_JMX );
+        if ( jmx != null )
+        {
+            RestMetrics.setJmxEnabled( Boolean.parseBoolean( jmx.trim() ) );
+        }
+        if ( jmx == null || Boolean.parseBoolean( jmx.trim() ) )
+        {
+            BufferPool.register();
+        }
+
+        String scan = resolver.getProperty( STARTUP_SCAN );
+        String warmUpIterations = resolver.getProperty( WARM_UP_ITERATIONS );
+        int iterations = warmUpIterations != null ? Integer.parseInt( warmUpIterations.trim() ) : 0;
+        if ( iterations > 0 || ( scan != null && Boolean.parseBoolean( scan.trim() ) ) )
+        {
+            List< RestDispatchTable> tables = RestStartup.scan( configuration );
+            if ( iterations > 0 )
+            {
+                RestStartup.warmUp( tables, iterations, RestStartup.createSamples( resolver.getProperty( WARM_UP_SAMPLES ) ) );
+            }
+        }
+    }
+
     /**
      * Intercepts execution and checks that the user has appropriate
      * permissions.
@@ -55,218 +446,505 @@ public class RestActionInterceptor implements Interceptor
      */
     public Resolution intercept( ExecutionContext ctx ) throws Exception
     {
-        if ( RestActionBean.class.isAssignableFrom( ctx.getActionBean().getClass() ) )
+        if ( !( ctx.getActionBean() instanceof RestActionBean ) )
         {
-            Log.getInstance( getClass() ).debug( "Found Rest API Action Bean: ", ctx.getActionBean().getClass(), " | Stripes Lifecycle Stage => ", ctx.getLifecycleStage() );
+            return ctx.proceed();
+        }
 
-            // Perform the REST handler resolution before handler resolution occurs
-            if ( ctx.getLifecycleStage() == LifecycleStage.HandlerResolution )
-            {
-                Log.getInstance( getClass() ).debug( "Found Rest API Action Bean: ", ctx.getActionBean().getClass() );
+        Object event = RestEvents.beginStage();
+        try
+        {
+            return interceptMetered( ctx );
+        }
+        finally
+        {
+            RestEvents.commitStage( event, ctx );
+        }
+    }
 
-                // Get the http method
-                String httpMethod = ctx.getActionBeanContext().getRequest().getMethod().toLowerCase();
+    /**
+     * Intercepts the stage, recording it in the metrics of the action bean
+     * unless they are disabled.
+     */
+    private Resolution interceptMetered( ExecutionContext ctx ) throws Exception
+    {
+        if ( !metricsEnabled )
+        {
+            return interceptRestActionBean( ctx );
+        }
+
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        MeteredResponse meteredResponse;
+        if ( ctx.getLifecycleStage() == LifecycleStage.HandlerResolution )
+        {
+            meteredResponse = new MeteredResponse( RestMetrics.forResource( ctx.getActionBean().getClass(), request.getMethod() ), ctx.getActionBeanContext().getResponse() );
+            request.setAttribute( MeteredResponse.ATTRIBUTE, meteredResponse );
+        }
+        else
+        {
+            meteredResponse = (MeteredResponse) request.getAttribute( MeteredResponse.ATTRIBUTE );
+            if ( meteredResponse == null )
+            {
+                return interceptRestActionBean( ctx );
+            }
+        }
 
-                // Try to get an event name if one was supplied
-                String eventName = StripesFilter.getConfiguration().getActionResolver().getEventName( ctx.getActionBean().getClass(), ctx.getActionBeanContext() );
+        long start = System.nanoTime();
+        try
+        {
+            if ( ctx.getLifecycleStage() == LifecycleStage.ResolutionExecution )
+            {
+                return executeMetered( ctx, meteredResponse );
+            }
+            return interceptRestActionBean( ctx );
+        }
+        finally
+        {
+            meteredResponse.getMetrics().recordStage( ctx.getLifecycleStage(), System.nanoTime() - start );
+        }
+    }
 
-                Log.getInstance( getClass() ).debug( "(" + ctx.getActionBean().getClass(), ") HTTP method : ", httpMethod, " | Event Name : " + eventName );
+    /**
+     * Executes the resolution against the metered response, so that its status
+     * and size are recorded.
+     */
+    private Resolution executeMetered( ExecutionContext ctx, MeteredResponse meteredResponse ) throws Exception
+    {
+        HttpServletResponse response = ctx.getActionBeanContext().getResponse();
+        ctx.getActionBeanContext().setResponse( meteredResponse );
 
-                // See if the event handler for the HTTP method exists in the target REST action bean
-                try
-                {
-                    // If we have a passed event name, then we need to check it
-                    // to make sure that it is annotated with the HTTP method
-                    // being used.
-                    if ( eventName != null )
-                    {
-                        Method method = ctx.getActionBean().getClass().getMethod( eventName );
+        boolean succeeded = false;
+        try
+        {
+            Resolution resolution = interceptRestActionBean( ctx );
+            succeeded = true;
+            return resolution;
+        }
+        finally
+        {
+            ctx.getActionBeanContext().setResponse( response );
+            meteredResponse.complete( succeeded );
+        }
+    }
 
-                        Class annotationClass = Class.forName( "org.stripesrest." + httpMethod.toUpperCase() );
-                        boolean eventSupportsHttpMethod = ( method.getDeclaredAnnotation( annotationClass ) != null );
+    private Resolution interceptRestActionBean( ExecutionContext ctx ) throws Exception
+    {
+        log.debug( "Found Rest API Action Bean: ", ctx.getActionBean().getClass(), " | Stripes Lifecycle Stage => ", ctx.getLifecycleStage() );
 
-                        if ( !eventSupportsHttpMethod )
-                        {
-                            return new ErrorResolution( HttpServletResponse.SC_METHOD_NOT_ALLOWED, "The event (" + eventName + ") resource does not support the HTTP method : " + httpMethod.toUpperCase() );
-                        }
-                    }
-                    else
-                    {
-                        ctx.getActionBean().getClass().getMethod( httpMethod );
-                        eventName = httpMethod;
-                    }
-                    Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") HTTP method successfully found for : ", httpMethod );
-                }
-                catch ( NoSuchMethodException nsme )
+        // Perform the REST handler resolution before handler resolution occurs
+        if ( ctx.getLifecycleStage() == LifecycleStage.HandlerResolution )
+        {
+            // Answer CORS preflights before looking for a handler
+            CorsPolicy cors = CorsPolicy.getPolicy();
+            if ( cors != null )
+            {
+                Resolution preflight = cors.apply( ctx.getActionBeanContext().getRequest(), ctx.getActionBeanContext().getResponse(), ctx.getActionBean().getClass() );
+                if ( preflight != null )
                 {
-                    Log.getInstance( getClass() ).error( "(" + ctx.getActionBean().getClass() + ") No HTTP method found for : ", httpMethod );
-                    return new ErrorResolution( HttpServletResponse.SC_METHOD_NOT_ALLOWED, "This resource does not support the HTTP method : " + httpMethod.toUpperCase() );
+                    return preflight;
                 }
+            }
 
-                // Override the Stripes event with the HTTP method/verb
-                ctx.getActionBeanContext().getRequest().setAttribute( StripesConstants.REQ_ATTR_EVENT_NAME, eventName );
+            // Get the http method
+            String httpMethod = ctx.getActionBeanContext().getRequest().getMethod();
 
-                return ctx.proceed();
+            RestDispatchTable dispatchTable = RestDispatchTable.forClass( ctx.getActionBean().getClass() );
 
-                // Nothing to process after hander resolution
-            } 
-            else if ( ctx.getLifecycleStage() == LifecycleStage.BindingAndValidation )
+            // Try to get an event name if one was supplied
+            String eventName = StripesFilter.getConfiguration().getActionResolver().getEventName( ctx.getActionBean().getClass(), ctx.getActionBeanContext() );
+            if ( eventName == null )
             {
-                // Do nothing before binding and validation
-                Resolution resolution = ctx.proceed();
-
-                Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Checking for Resource Not Found errors after : ", ctx.getLifecycleStage().name() );
+                eventName = dispatchTable.findAsyncEvent( ctx.getActionBeanContext().getRequest() );
+            }
 
-                // Check for Resource Not Found Errors.  If any exist, return 
-                // the 404.
-                ValidationErrors validationErrors = ctx.getActionBeanContext().getValidationErrors();
+            log.debug( "(", ctx.getActionBean().getClass(), ") HTTP method : ", httpMethod, " | Event Name : ", eventName );
 
-                for ( List< ValidationError> validationErrorList : validationErrors.values() )
-                {
-                    for ( ValidationError error : validationErrorList )
-                    {
-                        if ( ResourceNotFoundError.class.isAssignableFrom( error.getClass() ) )
-                        {
-                            return new ErrorResolution( HttpServletResponse.SC_NOT_FOUND, error.getMessage( null ) );
-                        }
-                    }
-                }
+            // Look the handler up in the precomputed dispatch table for
+            // this class.  If we have a passed event name, then it must be
+            // annotated with the HTTP method being used.  Otherwise, the
+            // handler named after the HTTP method is used.
+            RestDispatchTable.Dispatch dispatch = dispatchTable.resolve( httpMethod, eventName );
 
-                return resolution;
-            } 
-            else if ( ctx.getLifecycleStage() == LifecycleStage.CustomValidation )
+            if ( dispatch.getRejection() instanceof OptionsResolution )
             {
-                // Nothing to process before validation occurs
-                Resolution resolution = ctx.proceed();
+                log.debug( "(", ctx.getActionBean().getClass(), ") Answering OPTIONS with : ", dispatchTable.getAllow() );
+                return dispatch.getRejection();
+            }
+            if ( dispatch.getHandler() == null )
+            {
+                log.error( "(", ctx.getActionBean().getClass(), ") No HTTP method found for : ", httpMethod, " | Event Name : ", eventName );
+                return dispatch.getRejection();
+            }
 
-                // Now check for validation errors.  If any exist, then return the error resolution
-                ValidationErrors validationErrors = ctx.getActionBeanContext().getValidationErrors();
+            log.debug( "(", ctx.getActionBean().getClass(), ") HTTP method successfully found for : ", httpMethod );
 
-                Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Checking for validation errors : ", ctx.getLifecycleStage().name() );
+            // Override the Stripes event with the HTTP method/verb
+            ctx.getActionBeanContext().getRequest().setAttribute( StripesConstants.REQ_ATTR_EVENT_NAME, dispatch.getHandler().getName() );
 
-                if ( validationErrors != null && !validationErrors.isEmpty() )
-                {
-                    Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Found validation errors : ", ctx.getLifecycleStage().name() );
+            if ( dispatch.isAsync() )
+            {
+                // Stripes only registers handlers which return a
+                // Resolution, so an asynchronous handler is bound here
+                ctx.getActionBeanContext().setEventName( dispatch.getHandler().getName() );
+                ctx.setHandler( dispatch.getHandler() );
+                return null;
+            }
 
-                    Map< Object, Object> jsonErrorMap = new HashMap< Object, Object>();
+            return ctx.proceed();
 
-                    // First, append the global errors -- if any
-                    List< String> jsonGlobalErrors = new ArrayList< String>();
+            // Nothing to process after hander resolution
+        } 
+        else if ( ctx.getLifecycleStage() == LifecycleStage.BindingAndValidation )
+        {
+            // Bind a JSON request body before the request parameters, so
+            // that Stripes validates the bean with both
+            Set< String> jsonProperties = null;
+            HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+            if ( JsonBodyBinder.isJsonRequest( request ) )
+            {
+                if ( JsonBodyBinder.charsetOf( request ) == null )
+                {
+                    return new JsonErrorResolution( HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "The request body charset " + request.getCharacterEncoding() + " is not supported." );
+                }
+                jsonProperties = JsonBodyBinder.bind( ctx.getActionBean(), ctx.getActionBeanContext() );
+            }
 
-                    if ( !validationErrors.hasFieldErrors() )
-                    {
-                        Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Found global errors : ", ctx.getLifecycleStage().name() );
+            Resolution resolution = ctx.proceed();
+            if ( jsonProperties != null )
+            {
+                JsonBodyBinder.satisfyRequired( ctx.getActionBeanContext().getValidationErrors(), jsonProperties );
+            }
 
-                        List< ValidationError> globalErrors = validationErrors.get( ValidationErrors.GLOBAL_ERROR );
+            log.debug( "(", ctx.getActionBean().getClass(), ") Checking for Resource Not Found errors after : ", ctx.getLifecycleStage().name() );
 
-                        for ( ValidationError validationError : globalErrors )
-                        {
-                            jsonGlobalErrors.add( validationError.getMessage( null ) );
-                        }
+            // Check for Resource Not Found Errors.  If any exist, return 
+            // the 404.
+            ValidationErrors validationErrors = ctx.getActionBeanContext().getValidationErrors();
 
+            for ( List< ValidationError> validationErrorList : validationErrors.values() )
+            {
+                for ( ValidationError error : validationErrorList )
+                {
+                    if ( ResourceNotFoundError.class.isAssignableFrom( error.getClass() ) )
+                    {
+                        return new JsonErrorResolution( HttpServletResponse.SC_NOT_FOUND, error.getMessage( null ) );
                     }
+                }
+            }
 
-                    jsonErrorMap.put( "globalErrors", jsonGlobalErrors );
+            return resolution;
+        } 
+        else if ( ctx.getLifecycleStage() == LifecycleStage.CustomValidation )
+        {
+            // Nothing to process before validation occurs
+            Resolution resolution = ctx.proceed();
 
-                    ArrayList< Map< String, Object>> allFieldErrors = new ArrayList< Map< String, Object>>();
+            // Now check for validation errors.  If any exist, then return the error resolution
+            ValidationErrors validationErrors = ctx.getActionBeanContext().getValidationErrors();
 
-                    // Next, append the field errors -- if any
-                    if ( validationErrors.hasFieldErrors() )
-                    {
-                        Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Found field errors : ", ctx.getLifecycleStage().name() );
-
-                        for ( String fieldName : validationErrors.keySet() )
-                        {
-                            if ( !fieldName.equals( ValidationErrors.GLOBAL_ERROR ) )
-                            {
-                                List< ValidationError> fieldValidationErrors = validationErrors.get( fieldName );
-                                Map< String, Object> fieldErrors = new HashMap< String, Object>();
-                                fieldErrors.put( "fieldName", fieldName );
-                                fieldErrors.put( "fieldValue", fieldValidationErrors.get( 0 ).getFieldValue() );
-
-                                List< String> fieldErrorMessages = new ArrayList< String>();
-                                for ( ValidationError validationError : fieldValidationErrors )
-                                {
-                                    fieldErrorMessages.add( validationError.getMessage( null ) );
-                                }
-
-                                fieldErrors.put( "errorMessages", fieldErrorMessages );
-
-                                allFieldErrors.add( fieldErrors );
-                            }
-                        }
-
-                        jsonErrorMap.put( "fieldErrors", allFieldErrors );
-                    }
+            log.debug( "(", ctx.getActionBean().getClass(), ") Checking for validation errors : ", ctx.getLifecycleStage().name() );
 
-                    final JsonBuilder jsonBuilder = new JsonBuilder( jsonErrorMap );
-                    final byte[] errorBytes = jsonBuilder.build().getBytes();
+            if ( validationErrors != null && !validationErrors.isEmpty() )
+            {
+                log.debug( "(", ctx.getActionBean().getClass(), ") Found validation errors : ", ctx.getLifecycleStage().name() );
 
-                    Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Returning validation error resolution : ", ctx.getLifecycleStage().name(), " | Contents => " + errorBytes );
+                // The errors are streamed straight to the response when
+                // the resolution executes
+                return new JsonErrorResolution( validationErrors );
+            }
 
-                    return new StreamingResolution( "application/json" )
-                    {
-                        @Override
-                        protected void stream( HttpServletResponse response ) throws Exception
-                        {
-                            response.setStatus( HttpServletResponse.SC_BAD_REQUEST );
-                            response.getOutputStream().write( errorBytes );
-                            response.flushBuffer();
-                        }
-                    };
-                }
+            return resolution;
+        }
+        else if ( ctx.getLifecycleStage() == LifecycleStage.EventHandling )
+        // After execute the event handler and catch any unhandled exceptions
+        // that may occur so they can be converted to a proper JSON error
+        // response.
+        {
+            RestDispatchTable.Dispatch dispatch = RestDispatchTable.forClass( ctx.getActionBean().getClass() ).forHandler( ctx.getHandler() );
 
-                return resolution;
-            }
-            else if ( ctx.getLifecycleStage() == LifecycleStage.EventHandling )
-            // After execute the event handler and catch any unhandled exceptions
-            // that may occur so they can be converted to a proper JSON error
-            // response.
+            // Replay retries of a completed call before the handler, or a
+            // limit, is involved
+            if ( dispatch != null && !dispatch.isAsync() )
             {
-                try
+                Resolution replay = IdempotentCalls.begin( ctx );
+                if ( replay != null )
                 {
-                    // Execute the event
-                    return ctx.proceed();
+                    return replay;
                 }
-                catch ( Throwable e )
-                {
-                    Log.getInstance( getClass() ).error( e, "(", ctx.getActionBean().getClass(), ") Unhandled exception occurred executing handler." );
+            }
+
+            Resolution resolution = handleEvent( ctx, dispatch );
+            if ( resolution == null )
+            {
+                IdempotentCalls.abandon( ctx );
+            }
+            return resolution;
+        }
+        else if ( ctx.getLifecycleStage() == LifecycleStage.ResolutionExecution )
+        {
+            // Keep the response of a call made with an Idempotency-Key
+            return IdempotentCalls.execute( ctx );
+        }
+        else
+        {
+            return ctx.proceed();
+        }
+    }
 
-                    // If an error occurs, we need to create a well-formed
-                    // JSON error response and return it back to the caller.
-                    Map< Object, Object> jsonErrorMap = new HashMap< Object, Object>();
+    /**
+     * Invokes the event handler within its concurrency limit, converting any
+     * unhandled exception to a JSON error response.
+     */
+    private Resolution handleEvent( ExecutionContext ctx, RestDispatchTable.Dispatch dispatch ) throws Exception
+    {
+        String httpMethod = ctx.getActionBeanContext().getRequest().getMethod();
 
-                    // First, append the global errors -- if any
-                    List< String> jsonGlobalErrors = new ArrayList< String>();
+        // Turn the call away at once rather than let it wait on a saturated resource
+        ConcurrencyLimiter limiter = dispatch != null ? ConcurrencyLimiter.forResource( ctx.getActionBean().getClass(), httpMethod, dispatch.getConcurrencyLimit() ) : null;
+        ConcurrencyLimiter.Permit permit = null;
+        if ( limiter != null )
+        {
+            permit = limiter.tryAcquire();
+            if ( permit == null )
+            {
+                log.debug( "(", ctx.getActionBean().getClass(), ") Concurrency limit reached for : ", httpMethod );
+                return limiter.getRejection();
+            }
+        }
 
-                    jsonGlobalErrors.add( "Unexpected error occurred executing this API call: " + e.getCause().getMessage() );
-                    jsonErrorMap.put( "globalErrors", jsonGlobalErrors );
-                    final JsonBuilder jsonBuilder = new JsonBuilder( jsonErrorMap );
-                    final byte[] errorBytes = jsonBuilder.build().getBytes();
+        boolean failed = false;
+        try
+        {
+            if ( dispatch != null && dispatch.isAsync() )
+            {
+                return invokeAsyncHandler( ctx, dispatch, permit );
+            }
 
-                    Log.getInstance( getClass() ).debug( "(", ctx.getActionBean().getClass(), ") Returning validation error resolution : ", ctx.getLifecycleStage().name(), " | Content => " + errorBytes );
+            // Share one execution between identical GETs in flight
+            if ( dispatch != null && dispatch.getRequestCoalescer() != null && "GET".equalsIgnoreCase( httpMethod ) )
+            {
+                return dispatch.getRequestCoalescer().resolve( ctx );
+            }
 
-                    return new StreamingResolution( "application/json" )
-                    {
-                        @Override
-                        protected void stream( HttpServletResponse response ) throws Exception
-                        {
-                            response.setStatus( HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
-                            response.getOutputStream().write( errorBytes );
-                            response.flushBuffer();
-                        }
-                    };
-                }
+            // Answer GETs of cached handlers without invoking them if possible
+            if ( dispatch != null && dispatch.getResponseCache() != null && "GET".equalsIgnoreCase( httpMethod ) )
+            {
+                return dispatch.getResponseCache().resolve( ctx );
             }
-            else
+
+            // Execute the event
+            return proceedToHandler( ctx );
+        }
+        catch ( Throwable e )
+        {
+            failed = true;
+            log.error( e, "(", ctx.getActionBean().getClass(), ") Unhandled exception occurred executing handler." );
+
+            // If an error occurs, we need to create a well-formed
+            // JSON error response and return it back to the caller.
+            return unexpectedErrorResolution( e );
+        }
+        finally
+        {
+            // An asynchronous handler keeps its permit until its stage completes
+            if ( permit != null && !permit.isDeferred() )
             {
-                return ctx.proceed();
+                permit.release( failed );
             }
         }
-        else
+    }
+
+    /**
+     * Invokes a handler returning a CompletionStage. Stripes would discard
+     * such a return value, so the handler is invoked here instead of through
+     * the rest of the interceptor chain.
+     *
+     * If the container supports it, the request is switched to async mode and
+     * null is returned so that the container thread is released; the response
+     * is written by {@link AsyncHandlerCompletion}. Otherwise -- or when the
+     * stage has already completed -- the resolution is waited for here.
+     */
+    private Resolution invokeAsyncHandler( ExecutionContext ctx, RestDispatchTable.Dispatch dispatch, ConcurrencyLimiter.Permit permit ) throws Exception
+    {
+        Object stage = dispatch.invoke( ctx.getActionBean() );
+        ctx.setResolutionFromHandler( true );
+
+        if ( stage == null )
+        {
+            return null;
+        }
+
+        AsyncTimeout declaredTimeout = dispatch.getAsyncTimeout();
+        long timeout = declaredTimeout != null ? declaredTimeout.value() : asyncTimeout;
+        int timeoutStatus = declaredTimeout != null ? declaredTimeout.status() : asyncTimeoutStatus;
+
+        CompletableFuture<?> future = ( (CompletionStage<?>) stage ).toCompletableFuture();
+
+        if ( future.isDone() || !isAsyncSupported( ctx ) )
+        {
+            return awaitResolution( future, timeout, timeoutStatus );
+        }
+
+        HttpServletRequest request = ctx.getActionBeanContext().getRequest();
+        AsyncContext asyncContext = request.startAsync( request, ctx.getActionBeanContext().getResponse() );
+        asyncContext.setTimeout( timeout > 0 ? timeout : 0 );
+
+        MeteredResponse meteredResponse = (MeteredResponse) request.getAttribute( MeteredResponse.ATTRIBUTE );
+        AsyncHandlerCompletion completion = new AsyncHandlerCompletion( asyncContext, future, timeout, timeoutStatus, meteredResponse );
+        asyncContext.addListener( completion );
+        future.whenComplete( completion );
+        if ( permit != null )
+        {
+            permit.defer( future );
+        }
+
+        log.debug( "(", ctx.getActionBean().getClass(), ") Started async processing for : ", dispatch.getHandler().getName() );
+        return null;
+    }
+
+    /**
+     * Invokes a synchronous event handler. When no other interceptor follows
+     * this one and the bean has a generated {@link RestDispatcher}, the
+     * handler is invoked through the dispatcher just as Stripes would invoke
+     * it, without reflection. Otherwise the chain proceeds and Stripes
+     * invokes it.
+     *
+     * @param ctx - Execution context at event handling
+     * @return Resolution returned by the handler, or null
+     * @throws Exception thrown by the handler
+     */
+    static Resolution proceedToHandler( ExecutionContext ctx ) throws Exception
+    {
+        RestDispatchTable.Dispatch dispatch = RestDispatchTable.forClass( ctx.getActionBean().getClass() ).forHandler( ctx.getHandler() );
+        if ( dispatch == null || !dispatch.isGenerated() || !isLastEventInterceptor() )
         {
             return ctx.proceed();
         }
+
+        Object returned = dispatch.invoke( ctx.getActionBean() );
+        DispatcherHelper.fillInValidationErrors( ctx );
+        if ( returned instanceof Resolution )
+        {
+            ctx.setResolutionFromHandler( true );
+            return (Resolution) returned;
+        }
+
+        if ( returned != null )
+        {
+            log.warn( "(", ctx.getActionBean().getClass(), ") Handler ", dispatch.getHandler().getName(), " returned ", returned.getClass().getName(), " instead of a Resolution." );
+        }
+        return null;
+    }
+
+    private static boolean isLastEventInterceptor()
+    {
+        Interceptor last = null;
+        for ( Interceptor interceptor : StripesFilter.getConfiguration().getInterceptors( LifecycleStage.EventHandling ) )
+        {
+            last = interceptor;
+        }
+        return last instanceof RestActionInterceptor;
+    }
+
+    private static boolean isAsyncSupported( ExecutionContext ctx )
+    {
+        return isAsyncSupported( ctx.getActionBeanContext().getServletContext(), ctx.getActionBeanContext().getRequest() );
+    }
+
+    /**
+     * Checks whether a resolution executing for the passed request can put
+     * it into servlet async mode.
+     *
+     * @param request - Current request
+     * @return True if the request can be put into servlet async mode
+     */
+    static boolean isAsyncSupported( HttpServletRequest request )
+    {
+        Object actionBean = request.getAttribute( StripesConstants.REQ_ATTR_ACTION_BEAN );
+        if ( !( actionBean instanceof ActionBean ) || ( (ActionBean) actionBean ).getContext() == null )
+        {
+            return false;
+        }
+        return isAsyncSupported( ( (ActionBean) actionBean ).getContext().getServletContext(), request );
+    }
+
+    private static boolean isAsyncSupported( ServletContext servletContext, HttpServletRequest request )
+    {
+        // Servlet 2.5 containers, including the Stripes mock container, do
+        // not implement isAsyncSupported() at all
+        return servletContext != null && servletContext.getMajorVersion() >= 3 && request.isAsyncSupported();
+    }
+
+    private static Resolution awaitResolution( CompletableFuture<?> future, long timeout, int timeoutStatus ) throws InterruptedException
+    {
+        try
+        {
+            Object value = timeout > 0 ? future.get( timeout, TimeUnit.MILLISECONDS ) : future.get();
+            return completedResolution( value, null );
+        }
+        catch ( TimeoutException e )
+        {
+            log.warn( "Asynchronous handler did not complete within ", timeout, "ms." );
+
+            // Nobody is waiting for the result anymore
+            future.cancel( false );
+            return asyncTimeoutResolution( timeoutStatus, timeout );
+        }
+        catch ( ExecutionException e )
+        {
+            return completedResolution( null, e );
+        }
+    }
+
+    /**
+     * Turns the outcome of an asynchronous handler into the resolution to
+     * execute. Exceptional completion becomes the JSON 500 error.
+     *
+     * @param value - Value the handler's stage completed with
+     * @param failure - Exception the stage completed with, or null
+     * @return Resolution to execute
+     */
+    static Resolution completedResolution( Object value, Throwable failure )
+    {
+        if ( failure != null )
+        {
+            log.error( failure, "Unhandled exception occurred completing asynchronous handler." );
+            return unexpectedErrorResolution( failure );
+        }
+
+        if ( value == null || value instanceof Resolution )
+        {
+            return (Resolution) value;
+        }
+
+        return unexpectedErrorResolution( new StripesRuntimeException( "Asynchronous handler completed with a " + value.getClass().getName() + " instead of a Resolution" ) );
     }
 
+    /**
+     * Creates the JSON error returned when an asynchronous handler does not
+     * complete in time.
+     *
+     * @param status - HTTP status, 503 or 504
+     * @param timeout - Timeout which expired, in milliseconds
+     * @return Resolution which streams the JSON error back to the caller
+     */
+    static Resolution asyncTimeoutResolution( int status, long timeout )
+    {
+        return new JsonErrorResolution( status, "This API call did not complete within " + timeout + "ms." );
+    }
+
+    /**
+     * Creates the JSON "Internal Server Error" (500) resolution which is
+     * returned when an unhandled exception occurs while handling or resolving
+     * a REST call.
+     *
+     * @param e - Unhandled exception
+     * @return Resolution which streams the JSON error back to the caller
+     */
+    static Resolution unexpectedErrorResolution( Throwable e )
+    {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+
+        return new JsonErrorResolution( HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unexpected error occurred executing this API call: " + cause.getMessage() );
+    }
 }
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the code which lets a service start without reflecting over its
+ * REST resources: a {@link RestDispatcher} for every concrete
+ * {@link RestActionBean}, and a {@link JsonAccessor} for every class marked
+ * {@link JsonSerializable}. The generated classes are placed next to the
+ * classes they serve and are found by name at runtime.
+ *
+ * The processor is registered as a service, so javac runs it for any code
+ * compiled with this library on the class path. Private classes, and those
+ * with methods which throw more than Exceptions, are skipped with a note and
+ * go through reflection at runtime.
+ *
+ * @author Rick Grashel
+ */
+public class RestAnnotationProcessor extends AbstractProcessor
+{
+
+    @Override
+    public Set< String> getSupportedAnnotationTypes()
+    {
+        // Action beans are recognized by their type, not by an annotation
+        return Collections.singleton( "*" );
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process( Set< ? extends TypeElement> annotations, RoundEnvironment roundEnv )
+    {
+        TypeElement restActionBean = processingEnv.getElementUtils().getTypeElement( RestActionBean.class.getName() );
+        for ( TypeElement type : ElementFilter.typesIn( roundEnv.getRootElements() ) )
+        {
+            visit( type, restActionBean );
+        }
+        return false;
+    }
+
+    private void visit( TypeElement type, TypeElement restActionBean )
+    {
+        if ( type.getKind() == ElementKind.CLASS && !isPrivate( type ) )
+        {
+            if ( restActionBean != null && !type.getModifiers().contains( Modifier.ABSTRACT ) && isSubtype( type, restActionBean ) )
+            {
+                generateDispatcher( type );
+            }
+            if ( type.getAnnotation( JsonSerializable.class ) != null )
+            {
+                generateAccessor( type );
+            }
+        }
+
+        for ( TypeElement member : ElementFilter.typesIn( type.getEnclosedElements() ) )
+        {
+            visit( member, restActionBean );
+        }
+    }
+
+    private void generateDispatcher( TypeElement type )
+    {
+        // The same candidates as RestDispatchTable finds through getMethods()
+        Map< String, ExecutableElement> handlers = new TreeMap< String, ExecutableElement>();
+        for ( ExecutableElement method : publicMethods( type ) )
+        {
+            if ( !handlers.containsKey( method.getSimpleName().toString() ) )
+            {
+                handlers.put( method.getSimpleName().toString(), method );
+            }
+        }
+
+        if ( !throwsOnlyExceptions( type, handlers.values() ) )
+        {
+            return;
+        }
+
+        List< String> names = new ArrayList< String>( handlers.keySet() );
+        StringBuilder isAnnotated = new StringBuilder();
+        StringBuilder invoke = new StringBuilder();
+        for ( int i = 0; i < names.size(); i++ )
+        {
+            ExecutableElement handler = handlers.get( names.get( i ) );
+
+            List< String> verbs = new ArrayList< String>();
+            for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+            {
+                if ( handler.getAnnotation( httpMethod.getAnnotationType() ) != null )
+                {
+                    verbs.add( "httpMethod == org.stripesrest.HttpRequestMethod." + httpMethod.name() );
+                }
+            }
+            if ( !verbs.isEmpty() )
+            {
+                isAnnotated.append( "            case " ).append( i ).append( ":\n" );
+                isAnnotated.append( "                return " ).append( join( verbs, " || " ) ).append( ";\n" );
+            }
+
+            invoke.append( "            case " ).append( i ).append( ":\n" );
+            if ( handler.getReturnType().getKind() == TypeKind.VOID )
+            {
+                invoke.append( "                target." ).append( names.get( i ) ).append( "();\n" );
+                invoke.append( "                return null;\n" );
+            }
+            else
+            {
+                invoke.append( "                return target." ).append( names.get( i ) ).append( "();\n" );
+            }
+        }
+
+        StringBuilder body = new StringBuilder();
+        body.append( "    private static final String[] HANDLER_NAMES = { " ).append( literals( names ) ).append( " };\n\n" );
+        body.append( "    public String[] getHandlerNames()\n    {\n        return HANDLER_NAMES.clone();\n    }\n\n" );
+        body.append( "    public boolean isAnnotated( int handler, org.stripesrest.HttpRequestMethod httpMethod )\n    {\n" );
+        body.append( "        switch ( handler )\n        {\n" ).append( isAnnotated );
+        body.append( "            default:\n                return false;\n        }\n    }\n\n" );
+        body.append( "    public Object invoke( Object bean, int handler ) throws Exception\n    {\n" );
+        body.append( "        " ).append( erasure( type.asType() ) ).append( " target = (" ).append( erasure( type.asType() ) ).append( ") bean;\n" );
+        body.append( "        switch ( handler )\n        {\n" ).append( invoke );
+        body.append( "            default:\n                throw new IllegalArgumentException( \"No handler \" + handler );\n        }\n    }\n" );
+
+        write( type, RestDispatcher.SUFFIX, "RestDispatcher", body );
+    }
+
+    private void generateAccessor( TypeElement type )
+    {
+        // JavaBeans getters, sorted by property name like Introspector's descriptors
+        Map< String, ExecutableElement> getters = new TreeMap< String, ExecutableElement>();
+        for ( ExecutableElement method : publicMethods( type ) )
+        {
+            String name = method.getSimpleName().toString();
+            TypeMirror returnType = method.getReturnType();
+            if ( name.startsWith( "is" ) && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN )
+            {
+                getters.put( Introspector.decapitalize( name.substring( 2 ) ), method );
+            }
+            else if ( name.startsWith( "get" ) && name.length() > 3 && returnType.getKind() != TypeKind.VOID )
+            {
+                String property = Introspector.decapitalize( name.substring( 3 ) );
+                if ( !getters.containsKey( property ) )
+                {
+                    getters.put( property, method );
+                }
+            }
+        }
+
+        if ( !throwsOnlyExceptions( type, getters.values() ) )
+        {
+            return;
+        }
+
+        List< String> names = new ArrayList< String>( getters.keySet() );
+        List< String> propertyTypes = new ArrayList< String>();
+        StringBuilder read = new StringBuilder();
+        for ( int i = 0; i < names.size(); i++ )
+        {
+            ExecutableElement getter = getters.get( names.get( i ) );
+            propertyTypes.add( erasure( getter.getReturnType() ) + ".class" );
+            read.append( "            case " ).append( i ).append( ":\n" );
+            read.append( "                return target." ).append( getter.getSimpleName() ).append( "();\n" );
+        }
+
+        StringBuilder body = new StringBuilder();
+        body.append( "    private static final String[] PROPERTY_NAMES = { " ).append( literals( names ) ).append( " };\n\n" );
+        body.append( "    public String[] getPropertyNames()\n    {\n        return PROPERTY_NAMES.clone();\n    }\n\n" );
+        body.append( "    public Class<?>[] getPropertyTypes()\n    {\n        return new Class<?>[] { " ).append( join( propertyTypes, ", " ) ).append( " };\n    }\n\n" );
+        body.append( "    public Object read( Object bean, int property ) throws Exception\n    {\n" );
+        body.append( "        " ).append( erasure( type.asType() ) ).append( " target = (" ).append( erasure( type.asType() ) ).append( ") bean;\n" );
+        body.append( "        switch ( property )\n        {\n" ).append( read );
+        body.append( "            default:\n                throw new IllegalArgumentException( \"No property \" + property );\n        }\n    }\n" );
+
+        write( type, JsonAccessor.SUFFIX, "JsonAccessor", body );
+    }
+
+    /**
+     * Returns the public, no-argument instance methods of a class, inherited
+     * ones included, other than those of Object.
+     */
+    private List< ExecutableElement> publicMethods( TypeElement type )
+    {
+        List< ExecutableElement> methods = new ArrayList< ExecutableElement>();
+        for ( ExecutableElement method : ElementFilter.methodsIn( processingEnv.getElementUtils().getAllMembers( type ) ) )
+        {
+            Set< Modifier> modifiers = method.getModifiers();
+            TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+            if ( modifiers.contains( Modifier.PUBLIC ) && !modifiers.contains( Modifier.STATIC ) && method.getParameters().isEmpty()
+                    && !declaringType.getQualifiedName().contentEquals( Object.class.getName() ) )
+            {
+                methods.add( method );
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Checks that generated code calling the passed methods can declare
+     * <code>throws Exception</code>.
+     */
+    private boolean throwsOnlyExceptions( TypeElement type, Iterable< ExecutableElement> methods )
+    {
+        TypeMirror exception = processingEnv.getElementUtils().getTypeElement( Exception.class.getName() ).asType();
+        TypeMirror error = processingEnv.getElementUtils().getTypeElement( Error.class.getName() ).asType();
+        for ( ExecutableElement method : methods )
+        {
+            for ( TypeMirror thrown : method.getThrownTypes() )
+            {
+                if ( !processingEnv.getTypeUtils().isSubtype( thrown, exception ) && !processingEnv.getTypeUtils().isSubtype( thrown, error ) )
+                {
+                    processingEnv.getMessager().printMessage( Diagnostic.Kind.NOTE, method + " throws " + thrown + ", so " + type + " is left to reflection", type );
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void write( TypeElement type, String suffix, String interfaceName, CharSequence body )
+    {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf( type );
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName( type ).toString();
+        String simpleName = ( packageName.isEmpty() ? binaryName : binaryName.substring( packageName.length() + 1 ) ) + suffix;
+
+        try
+        {
+            Writer writer = processingEnv.getFiler().createSourceFile( packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type ).openWriter();
+            try
+            {
+                if ( !packageName.isEmpty() )
+                {
+                    writer.write( "package " + packageName + ";\n\n" );
+                }
+                writer.write( "/**\n * Generated by " + getClass().getName() + " for " + type.getQualifiedName() + ". Do not edit.\n */\n" );
+                writer.write( "@SuppressWarnings( \"rawtypes\" )\n" );
+                writer.write( "public final class " + simpleName + " implements org.stripesrest." + interfaceName + "\n{\n\n" );
+                writer.write( body.toString() );
+                writer.write( "}\n" );
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Unable to generate " + simpleName + ": " + e, type );
+        }
+    }
+
+    private static boolean isPrivate( Element element )
+    {
+        for ( Element enclosing = element; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement() )
+        {
+            if ( enclosing.getModifiers().contains( Modifier.PRIVATE ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSubtype( TypeElement type, TypeElement supertype )
+    {
+        return processingEnv.getTypeUtils().isSubtype( processingEnv.getTypeUtils().erasure( type.asType() ), processingEnv.getTypeUtils().erasure( supertype.asType() ) );
+    }
+
+    private String erasure( TypeMirror type )
+    {
+        return processingEnv.getTypeUtils().erasure( type ).toString();
+    }
+
+    private static String literals( List< String> values )
+    {
+        List< String> literals = new ArrayList< String>();
+        for ( String value : values )
+        {
+            StringBuilder literal = new StringBuilder( "\"" );
+            for ( char c : value.toCharArray() )
+            {
+                if ( c < 0x80 )
+                {
+                    literal.append( c );
+                }
+                else
+                {
+                    literal.append( String.format( "\\u%04x", (int) c ) );
+                }
+            }
+            literals.add( literal.append( '"' ).toString() );
+        }
+        return join( literals, ", " );
+    }
+
+    private static String join( List< String> values, String separator )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( String value : values )
+        {
+            if ( builder.length() > 0 )
+            {
+                builder.append( separator );
+            }
+            builder.append( value );
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.UrlBinding;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * Executes several REST calls in one round trip. The body of the POST is a
+ * JSON array of requests, each with a method (GET by default), a path within
+ * the application -- optionally with a query string -- and optional params
+ * and body:
+ *
+ * <pre>
+ * [ { "method": "GET", "path": "/api/orders/42" },
+ *   { "method": "POST", "path": "/api/orders", "body": { "sku": "A-1" } } ]
+ * </pre>
+ *
+ * Every request goes through the StripesFilter and the whole Stripes
+ * lifecycle, including the verb checks and validation of the
+ * {@link RestActionInterceptor}, exactly as if it had been sent on its own.
+ * It shares the session, locale, cookies and other headers of the batch.
+ * It does not go through the security constraints of the container or the
+ * other filters of the application, though, so only the action beans listed
+ * in the RestBatch.Resources filter parameter can be batched; any other is
+ * answered with a "Forbidden" (403).
+ *
+ * Consecutive GET and HEAD requests run in parallel, on a pool shared by all
+ * batches whose size is set by the RestBatch.Concurrency filter parameter.
+ * Any other request waits for the requests before it and runs alone, so
+ * writes are applied in order. The response is a JSON array holding the
+ * status, headers and body of each request, in the order of the requests; it
+ * is streamed as requests complete. Batches larger than the RestBatch.MaxSize
+ * filter parameter are rejected with a "Request Entity Too Large" (413).
+ *
+ * Like {@link RestMetricsActionBean}, this bean is only available if
+ * <code>org.stripesrest</code> is listed in the ActionResolver.Packages
+ * Stripes filter parameter -- or through a subclass with a binding of its
+ * own. Requests for streams, forwards and other batches cannot be batched.
+ */
+@UrlBinding( "/stripes-rest/batch" )
+public class RestBatchActionBean implements ActionBean, RestActionBean
+{
+
+    private static final Log log = Log.getInstance( RestBatchActionBean.class );
+
+    /** Largest number of requests in a batch unless set otherwise. */
+    public static final int DEFAULT_MAX_SIZE = 50;
+
+    /** Number of requests executed in parallel unless set otherwise. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    // Headers describing the embedded body rather than the result
+    private static final List< String> BODY_HEADERS = Arrays.asList( "content-encoding", "content-length", "content-type", "transfer-encoding", "vary" );
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    // Guarded by RestBatchActionBean.class
+    private static ThreadPoolExecutor executor;
+    private static int concurrency = DEFAULT_CONCURRENCY;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+    private static volatile List< String> resources = Collections.emptyList();
+
+    /**
+     * Sets the largest number of requests in a batch.
+     *
+     * @param size - Maximum batch size, at least one
+     */
+    static void setMaxSize( int size )
+    {
+        maxSize = Math.max( size, 1 );
+    }
+
+    /**
+     * Sets the number of threads executing batched requests, which is also
+     * the number of requests of one batch executed in parallel.
+     *
+     * @param threads - Number of threads, at least one
+     */
+    static synchronized void setConcurrency( int threads )
+    {
+        concurrency = Math.max( threads, 1 );
+        if ( executor == null )
+        {
+            return;
+        }
+
+        // The core size may never exceed the maximum size, even for a moment
+        if ( concurrency > executor.getMaximumPoolSize() )
+        {
+            executor.setMaximumPoolSize( concurrency );
+            executor.setCorePoolSize( concurrency );
+        }
+        else
+        {
+            executor.setCorePoolSize( concurrency );
+            executor.setMaximumPoolSize( concurrency );
+        }
+    }
+
+    /**
+     * Sets the action beans which can be batched.
+     *
+     * @param classNames - Comma-separated class names, or package names
+     * followed by <code>.*</code>; null or empty for none
+     */
+    static void setResources( String classNames )
+    {
+        List< String> names = new ArrayList< String>();
+        if ( classNames != null )
+        {
+            for ( String name : classNames.split( "," ) )
+            {
+                if ( !name.trim().isEmpty() )
+                {
+                    names.add( name.trim() );
+                }
+            }
+        }
+        resources = Collections.unmodifiableList( names );
+    }
+
+    private static boolean isBatchable( Class<?> type )
+    {
+        for ( String resource : resources )
+        {
+            if ( resource.endsWith( ".*" ) ? type.getName().startsWith( resource.substring( 0, resource.length() - 1 ) ) : type.getName().equals( resource ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static synchronized ThreadPoolExecutor executor()
+    {
+        if ( executor == null )
+        {
+            executor = new ThreadPoolExecutor( concurrency, concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue< Runnable>(), new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "stripes-rest-batch-" + THREAD_COUNT.incrementAndGet() );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+
+            // Idle batch threads go away, so an unused pool holds no threads at all
+            executor.allowCoreThreadTimeOut( true );
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the threads which execute batched requests, so that they do not
+     * outlive the application. Batches which are still running fail.
+     */
+    static synchronized void shutdown()
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * One request of a batch.
+     */
+    public static class Entry
+    {
+
+        private String method;
+        private String path;
+        private Map< String, Object> params;
+        private Object body;
+
+        /**
+         * @return HTTP method, GET if not set
+         */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public void setMethod( String method )
+        {
+            this.method = method;
+        }
+
+        /**
+         * @return Path within the application, optionally followed by a query
+         * string
+         */
+        public String getPath()
+        {
+            return path;
+        }
+
+        public void setPath( String path )
+        {
+            this.path = path;
+        }
+
+        /**
+         * @return Request parameters; a list value is a multi-valued
+         * parameter
+         */
+        public Map< String, Object> getParams()
+        {
+            return params;
+        }
+
+        public void setParams( Map< String, Object> params )
+        {
+            this.params = params;
+        }
+
+        /**
+         * @return JSON body of the request
+         */
+        public Object getBody()
+        {
+            return body;
+        }
+
+        public void setBody( Object body )
+        {
+            this.body = body;
+        }
+    }
+
+    @JsonBody
+    private List< Entry> requests;
+
+    public List< Entry> getRequests()
+    {
+        return requests;
+    }
+
+    public void setRequests( List< Entry> requests )
+    {
+        this.requests = requests;
+    }
+
+    public Resolution post()
+    {
+        if ( requests == null || requests.isEmpty() )
+        {
+            return new JsonErrorResolution( HttpServletResponse.SC_BAD_REQUEST, "The request body must be a JSON array of requests." );
+        }
+
+        int limit = maxSize;
+        if ( requests.size() > limit )
+        {
+            return new JsonErrorResolution( HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "A batch cannot hold more than " + limit + " requests." );
+        }
+
+        final List< Entry> entries = new ArrayList< Entry>( requests );
+        return new Resolution()
+        {
+            public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+            {
+                stream( entries, request, response );
+            }
+        };
+    }
+
+    private void stream( List< Entry> entries, HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        ServletContext servletContext = getContext().getServletContext();
+        StripesFilter filter = (StripesFilter) servletContext.getAttribute( StripesFilter.class.getName() );
+        if ( filter == null )
+        {
+            throw new StripesRuntimeException( "No StripesFilter is registered in the servlet context, so batched requests cannot be dispatched" );
+        }
+        DispatcherServlet dispatcher = createDispatcher( servletContext );
+
+        response.setContentType( "application/json" );
+        response.setCharacterEncoding( "UTF-8" );
+
+        String encoding = ResponseCompression.negotiate( request, response );
+        CompressingOutputStream compressed = encoding != null ? new CompressingOutputStream( response, encoding, ResponseCompression.getMinSize() ) : null;
+        try
+        {
+            OutputStream out = compressed != null ? compressed : response.getOutputStream();
+            JsonWriter json = new JsonWriter( new Utf8Writer( out ) );
+            json.beginArray();
+
+            ThreadPoolExecutor pool = executor();
+            int concurrency = pool.getMaximumPoolSize();
+            int start = 0;
+            while ( start < entries.size() )
+            {
+                // Reads run together; anything else runs alone
+                int end = start + 1;
+                if ( isRead( entries.get( start ) ) )
+                {
+                    while ( end < entries.size() && isRead( entries.get( end ) ) )
+                    {
+                        end++;
+                    }
+                }
+
+                Deque< Future< BatchResponse>> running = new ArrayDeque< Future< BatchResponse>>();
+                int submitted = start;
+                try
+                {
+                    for ( int i = start; i < end; i++ )
+                    {
+                        while ( submitted < end && submitted - i < concurrency )
+                        {
+                            running.add( pool.submit( task( filter, dispatcher, request, response, entries.get( submitted++ ) ) ) );
+                        }
+
+                        writeResult( json, await( running.poll() ) );
+                        json.flush();
+                        if ( compressed != null )
+                        {
+                            compressed.syncFlush();
+                        }
+                        else
+                        {
+                            out.flush();
+                        }
+                    }
+                }
+                finally
+                {
+                    // Only left over if writing to the client failed
+                    for ( Future< BatchResponse> abandoned : running )
+                    {
+                        abandoned.cancel( true );
+                    }
+                }
+                start = end;
+            }
+
+            json.endArray();
+            json.flush();
+
+            if ( compressed != null )
+            {
+                compressed.finish();
+            }
+        }
+        finally
+        {
+            if ( compressed != null )
+            {
+                compressed.release();
+            }
+        }
+
+        response.flushBuffer();
+    }
+
+    private static boolean isRead( Entry entry )
+    {
+        String method = entry != null ? method( entry ) : null;
+        return "GET".equals( method ) || "HEAD".equals( method );
+    }
+
+    private static String method( Entry entry )
+    {
+        return entry.getMethod() != null ? entry.getMethod().trim().toUpperCase( Locale.ENGLISH ) : "GET";
+    }
+
+    private static BatchResponse await( Future< BatchResponse> future ) throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( ExecutionException e )
+        {
+            throw new StripesRuntimeException( "Batched request failed", e.getCause() );
+        }
+    }
+
+    private static Callable< BatchResponse> task( final StripesFilter filter, final DispatcherServlet dispatcher, final HttpServletRequest request, final HttpServletResponse response, final Entry entry )
+    {
+        return new Callable< BatchResponse>()
+        {
+            public BatchResponse call() throws Exception
+            {
+                return execute( filter, dispatcher, request, response, entry );
+            }
+        };
+    }
+
+    /**
+     * Runs one request through the StripesFilter and a dispatcher of its own,
+     * capturing the response.
+     */
+    private static BatchResponse execute( StripesFilter filter, final DispatcherServlet dispatcher, HttpServletRequest request, HttpServletResponse response, Entry entry ) throws Exception
+    {
+        BatchResponse entryResponse = new BatchResponse( response );
+        if ( entry == null || entry.getPath() == null || !entry.getPath().startsWith( "/" ) )
+        {
+            BatchRequest invalid = new BatchRequest( request, "GET", "/", Collections.< String, List< String>>emptyMap(), null );
+            new JsonErrorResolution( HttpServletResponse.SC_BAD_REQUEST, "Each batched request needs a path starting with /." ).execute( invalid, entryResponse );
+            return entryResponse;
+        }
+
+        byte[] body = entry.getBody() != null ? new JsonBuilder( entry.getBody() ).build().getBytes( StandardCharsets.UTF_8 ) : null;
+        BatchRequest entryRequest = new BatchRequest( request, method( entry ), entry.getPath(), toParameters( entry.getParams() ), body );
+
+        Class<? extends ActionBean> type = filter.getInstanceConfiguration().getActionResolver().getActionBeanType( entryRequest.getServletPath() );
+        if ( type == null )
+        {
+            new JsonErrorResolution( HttpServletResponse.SC_NOT_FOUND, "No resource is bound to " + entryRequest.getServletPath() + "." ).execute( entryRequest, entryResponse );
+            return entryResponse;
+        }
+        if ( RestBatchActionBean.class.isAssignableFrom( type ) )
+        {
+            new JsonErrorResolution( HttpServletResponse.SC_BAD_REQUEST, "Batches cannot be nested." ).execute( entryRequest, entryResponse );
+            return entryResponse;
+        }
+        if ( !isBatchable( type ) )
+        {
+            new JsonErrorResolution( HttpServletResponse.SC_FORBIDDEN, entryRequest.getServletPath() + " cannot be batched." ).execute( entryRequest, entryResponse );
+            return entryResponse;
+        }
+
+        try
+        {
+            filter.doFilter( entryRequest, entryResponse, new FilterChain()
+            {
+                public void doFilter( ServletRequest request, ServletResponse response ) throws IOException, ServletException
+                {
+                    dispatcher.service( request, response );
+                }
+            } );
+        }
+        catch ( Exception e )
+        {
+            log.error( e, "Unable to execute batched request ", entryRequest.getMethod(), " ", entry.getPath() );
+            entryResponse.reset();
+            RestActionInterceptor.unexpectedErrorResolution( e ).execute( entryRequest, entryResponse );
+        }
+        return entryResponse;
+    }
+
+    private static Map< String, List< String>> toParameters( Map< String, Object> params )
+    {
+        if ( params == null )
+        {
+            return Collections.emptyMap();
+        }
+
+        Map< String, List< String>> parameters = new LinkedHashMap< String, List< String>>();
+        for ( Map.Entry< String, Object> param : params.entrySet() )
+        {
+            List< String> values = new ArrayList< String>();
+            if ( param.getValue() instanceof Collection )
+            {
+                for ( Object value : (Collection<?>) param.getValue() )
+                {
+                    if ( value != null )
+                    {
+                        values.add( value.toString() );
+                    }
+                }
+            }
+            else if ( param.getValue() != null )
+            {
+                values.add( param.getValue().toString() );
+            }
+            parameters.put( param.getKey(), values );
+        }
+        return parameters;
+    }
+
+    private static void writeResult( JsonWriter json, BatchResponse result ) throws IOException
+    {
+        json.beginObject();
+        json.name( "status" ).value( (long) result.getStatus() );
+
+        boolean hasHeaders = false;
+        for ( Map.Entry< String, List< String>> header : result.getHeaderMap().entrySet() )
+        {
+            if ( BODY_HEADERS.contains( header.getKey().toLowerCase( Locale.ENGLISH ) ) )
+            {
+                continue;
+            }
+            if ( !hasHeaders )
+            {
+                json.name( "headers" ).beginObject();
+                hasHeaders = true;
+            }
+
+            StringBuilder value = new StringBuilder();
+            for ( String headerValue : header.getValue() )
+            {
+                value.append( value.length() > 0 ? ", " : "" ).append( headerValue );
+            }
+            json.name( header.getKey() ).value( value.toString() );
+        }
+        if ( hasHeaders )
+        {
+            json.endObject();
+        }
+
+        json.name( "body" );
+        if ( !result.hasBody() )
+        {
+            json.nullValue();
+        }
+        else
+        {
+            String body = result.getBodyText();
+            if ( result.isJson() && isJsonDocument( body ) )
+            {
+                json.jsonValue( body );
+            }
+            else
+            {
+                json.value( body );
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * JsonResolution writes strings as they are, so a JSON content type does
+     * not guarantee a JSON body; embedding anything else would corrupt the
+     * whole batch response.
+     */
+    private static boolean isJsonDocument( String text )
+    {
+        try
+        {
+            JsonReader reader = new JsonReader( new StringReader( text ) );
+            reader.skipValue();
+            return reader.peek() == JsonReader.Token.END_DOCUMENT;
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    private static DispatcherServlet createDispatcher( final ServletContext servletContext ) throws ServletException
+    {
+        DispatcherServlet dispatcher = new DispatcherServlet();
+        dispatcher.init( new ServletConfig()
+        {
+            public String getServletName()
+            {
+                return RestBatchActionBean.class.getSimpleName();
+            }
+
+            public ServletContext getServletContext()
+            {
+                return servletContext;
+            }
+
+            public String getInitParameter( String name )
+            {
+                return null;
+            }
+
+            public Enumeration< String> getInitParameterNames()
+            {
+                return Collections.enumeration( Collections.< String>emptyList() );
+            }
+        } );
+        return dispatcher;
+    }
+
+    private ActionBeanContext context;
+
+    public ActionBeanContext getContext()
+    {
+        return this.context;
+    }
+
+    public void setContext( ActionBeanContext context )
+    {
+        this.context = context;
+    }
+}
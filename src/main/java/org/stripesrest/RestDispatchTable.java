@@ -0,0 +1,584 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.StripesConstants;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+
+/**
+ * An immutable index of the REST event handlers of a single RestActionBean
+ * class. For every HTTP method it maps the (optional) requested event name to
+ * either the handler method which should be invoked or to a prebuilt 405
+ * resolution carrying the Allow header for the resource. OPTIONS requests to a
+ * resource without an OPTIONS handler are answered with a prebuilt 204
+ * carrying the same Allow header.
+ *
+ * Tables are built once per class, on first use or eagerly through
+ * {@link #forClass(Class)}, and can then be read concurrently without any
+ * reflection, exceptions or string building.
+ *
+ * When the class was compiled with {@link RestAnnotationProcessor}, its
+ * generated {@link RestDispatcher} supplies the handlers and their HTTP
+ * method annotations, and invokes the handlers which this library calls
+ * itself. Other classes are inspected and invoked through reflection. The
+ * handler methods are still looked up once, when the table is built, since
+ * Stripes resolves events to them and their annotations configure caching,
+ * coalescing and limits.
+ */
+public final class RestDispatchTable
+{
+
+    private static final ClassValue< RestDispatchTable> TABLES = new ClassValue< RestDispatchTable>()
+    {
+        @Override
+        protected RestDispatchTable computeValue( Class<?> beanClass )
+        {
+            return new RestDispatchTable( beanClass );
+        }
+    };
+
+    /**
+     * Returns the dispatch table for the passed action bean class, building it
+     * if this is the first time the class has been seen.
+     *
+     * @param beanClass - REST action bean class
+     * @return Dispatch table for the class
+     */
+    public static RestDispatchTable forClass( Class<?> beanClass )
+    {
+        return TABLES.get( beanClass );
+    }
+
+    /**
+     * The outcome of resolving a request against the table: either a handler
+     * to invoke or a resolution rejecting the request.
+     */
+    public static final class Dispatch
+    {
+
+        private final Method handler;
+        private final RestDispatcher dispatcher;
+        private final int handlerIndex;
+        private final Resolution rejection;
+        private final boolean async;
+        private final AsyncTimeout asyncTimeout;
+        private final ResponseCache responseCache;
+        private final RequestCoalescer requestCoalescer;
+        private final ConcurrencyLimit concurrencyLimit;
+
+        private Dispatch( Method handler, Resolution rejection )
+        {
+            this( handler, null, -1, rejection );
+        }
+
+        private Dispatch( Method handler, RestDispatcher dispatcher, int handlerIndex, Resolution rejection )
+        {
+            this.handler = handler;
+            this.dispatcher = dispatcher;
+            this.handlerIndex = handlerIndex;
+            this.rejection = rejection;
+            this.async = handler != null && CompletionStage.class.isAssignableFrom( handler.getReturnType() );
+            this.asyncTimeout = async ? asyncTimeout( handler ) : null;
+            this.responseCache = handler != null ? responseCache( handler, async ) : null;
+            this.requestCoalescer = handler != null ? requestCoalescer( handler, async, responseCache ) : null;
+            this.concurrencyLimit = handler != null ? concurrencyLimit( handler ) : null;
+        }
+
+        /**
+         * @return Handler method to invoke, or null if the request is rejected
+         */
+        public Method getHandler()
+        {
+            return handler;
+        }
+
+        /**
+         * Invokes the handler on an action bean, through the generated
+         * dispatcher if there is one.
+         *
+         * @param bean - Action bean to invoke the handler on
+         * @return Value returned by the handler
+         * @throws Exception thrown by the handler, or by reflection
+         */
+        Object invoke( Object bean ) throws Exception
+        {
+            return dispatcher != null ? dispatcher.invoke( bean, handlerIndex ) : handler.invoke( bean );
+        }
+
+        /**
+         * @return True if the handler is invoked through a generated dispatcher
+         */
+        boolean isGenerated()
+        {
+            return dispatcher != null;
+        }
+
+        /**
+         * @return Resolution to return instead of invoking a handler, or null
+         */
+        public Resolution getRejection()
+        {
+            return rejection;
+        }
+
+        /**
+         * @return True if the handler returns a CompletionStage which has to
+         * be waited on for its resolution
+         */
+        public boolean isAsync()
+        {
+            return async;
+        }
+
+        /**
+         * @return Timeout declared for an asynchronous handler, or null if the
+         * configured default applies
+         */
+        public AsyncTimeout getAsyncTimeout()
+        {
+            return asyncTimeout;
+        }
+
+        /**
+         * @return Cache of the handler's responses, or null if the handler is
+         * not annotated with {@link CacheResponse}
+         */
+        public ResponseCache getResponseCache()
+        {
+            return responseCache;
+        }
+
+        /**
+         * @return Single-flight execution of the handler, or null if the
+         * handler is not annotated with {@link CoalesceRequests}
+         */
+        public RequestCoalescer getRequestCoalescer()
+        {
+            return requestCoalescer;
+        }
+
+        /**
+         * @return Concurrency limit declared for the handler, or null if only
+         * the configured limits apply
+         */
+        public ConcurrencyLimit getConcurrencyLimit()
+        {
+            return concurrencyLimit;
+        }
+    }
+
+    /**
+     * The dispatches available for one HTTP method.
+     */
+    private static final class VerbDispatch
+    {
+
+        private final Dispatch defaultDispatch;
+        private final Dispatch unsupported;
+        private final Map< String, Dispatch> eventDispatches;
+
+        private VerbDispatch( Dispatch defaultDispatch, Dispatch unsupported, Map< String, Dispatch> eventDispatches )
+        {
+            this.defaultDispatch = defaultDispatch;
+            this.unsupported = unsupported;
+            this.eventDispatches = eventDispatches;
+        }
+    }
+
+    private final Class<?> beanClass;
+    private final Map< String, VerbDispatch> verbs;
+    private final Map< String, Dispatch> handlers;
+    private final List< String> asyncEvents;
+    private final List< ResponseCache> responseCaches;
+    private final List< RequestCoalescer> requestCoalescers;
+    private final String allow;
+    private final RestDispatcher dispatcher;
+    private final Map< String, Integer> handlerIndexes = new HashMap< String, Integer>();
+
+    private RestDispatchTable( Class<?> beanClass )
+    {
+        this.beanClass = beanClass;
+        this.dispatcher = findDispatcher( beanClass );
+
+        // Collect the public, no-argument methods which could be event handlers.
+        // Stripes resolves events to Method objects, so they are looked up
+        // even when the generated dispatcher invokes them.
+        Map< String, Method> candidates = new HashMap< String, Method>();
+        if ( dispatcher != null )
+        {
+            String[] handlerNames = dispatcher.getHandlerNames();
+            for ( int i = 0; i < handlerNames.length; i++ )
+            {
+                try
+                {
+                    candidates.put( handlerNames[ i ], beanClass.getMethod( handlerNames[ i ] ) );
+                    handlerIndexes.put( handlerNames[ i ], i );
+                }
+                catch ( NoSuchMethodException e )
+                {
+                    throw new StripesRuntimeException( "The generated dispatcher of " + beanClass.getName() + " is out of date: " + handlerNames[ i ] + "() is missing", e );
+                }
+            }
+        }
+        else
+        {
+            for ( Method method : beanClass.getMethods() )
+            {
+                if ( method.getParameterTypes().length == 0 && method.getDeclaringClass() != Object.class && !Modifier.isStatic( method.getModifiers() ) )
+                {
+                    candidates.put( method.getName(), method );
+                }
+            }
+        }
+
+        // Work out which HTTP methods the resource supports at all
+        List< String> allowed = new ArrayList< String>();
+        for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+        {
+            boolean supported = httpMethod == HttpRequestMethod.OPTIONS || candidates.containsKey( httpMethod.getHandlerName() );
+            for ( Method method : candidates.values() )
+            {
+                supported = supported || isAnnotated( method, httpMethod );
+            }
+
+            if ( supported )
+            {
+                allowed.add( httpMethod.name() );
+            }
+        }
+        this.allow = join( allowed );
+
+        Map< String, Dispatch> handlerDispatches = new HashMap< String, Dispatch>();
+        List< String> asyncEventNames = new ArrayList< String>();
+        List< ResponseCache> caches = new ArrayList< ResponseCache>();
+        List< RequestCoalescer> coalescers = new ArrayList< RequestCoalescer>();
+        for ( Method method : candidates.values() )
+        {
+            Integer index = handlerIndexes.get( method.getName() );
+            Dispatch dispatch = index != null ? new Dispatch( method, dispatcher, index, null ) : new Dispatch( method, null );
+            handlerDispatches.put( method.getName(), dispatch );
+            if ( dispatch.isAsync() )
+            {
+                asyncEventNames.add( method.getName() );
+            }
+            if ( dispatch.getResponseCache() != null )
+            {
+                caches.add( dispatch.getResponseCache() );
+            }
+            if ( dispatch.getRequestCoalescer() != null )
+            {
+                coalescers.add( dispatch.getRequestCoalescer() );
+            }
+        }
+        this.handlers = Collections.unmodifiableMap( handlerDispatches );
+        this.asyncEvents = Collections.unmodifiableList( asyncEventNames );
+        this.responseCaches = Collections.unmodifiableList( caches );
+        this.requestCoalescers = Collections.unmodifiableList( coalescers );
+
+        Map< String, VerbDispatch> verbDispatches = new HashMap< String, VerbDispatch>();
+        for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+        {
+            Dispatch unsupported = new Dispatch( null, new MethodNotAllowedResolution( allow, "This resource does not support the HTTP method : " + httpMethod.name() ) );
+
+            // Every resource answers OPTIONS, by itself if need be
+            Dispatch defaultDispatch = handlers.get( httpMethod.getHandlerName() );
+            if ( defaultDispatch == null )
+            {
+                defaultDispatch = httpMethod == HttpRequestMethod.OPTIONS ? new Dispatch( null, new OptionsResolution( allow ) ) : unsupported;
+            }
+
+            // An explicitly requested event must carry the annotation for the HTTP method
+            Map< String, Dispatch> eventDispatches = new HashMap< String, Dispatch>();
+            for ( Method method : candidates.values() )
+            {
+                Dispatch dispatch;
+                if ( isAnnotated( method, httpMethod ) )
+                {
+                    dispatch = handlers.get( method.getName() );
+                }
+                else
+                {
+                    dispatch = new Dispatch( null, new MethodNotAllowedResolution( join( annotatedMethods( method ) ),
+                            "The event (" + method.getName() + ") resource does not support the HTTP method : " + httpMethod.name() ) );
+                }
+                eventDispatches.put( method.getName(), dispatch );
+            }
+
+            verbDispatches.put( httpMethod.name(), new VerbDispatch( defaultDispatch, unsupported, Collections.unmodifiableMap( eventDispatches ) ) );
+        }
+        this.verbs = Collections.unmodifiableMap( verbDispatches );
+    }
+
+    /**
+     * Resolves a request against this table.
+     *
+     * @param httpMethod - HTTP method of the request
+     * @param eventName - Event name requested explicitly, or null to use the
+     * default handler for the HTTP method
+     * @return Dispatch holding either the handler or the rejection
+     */
+    public Dispatch resolve( String httpMethod, String eventName )
+    {
+        VerbDispatch verb = verbs.get( httpMethod );
+        if ( verb == null )
+        {
+            verb = verbs.get( httpMethod.toUpperCase( Locale.ENGLISH ) );
+        }
+
+        if ( verb == null )
+        {
+            // Not an HTTP method this library knows about.  This is rare enough not to precompute.
+            return new Dispatch( null, new MethodNotAllowedResolution( allow, "This resource does not support the HTTP method : " + httpMethod.toUpperCase( Locale.ENGLISH ) ) );
+        }
+
+        if ( eventName == null )
+        {
+            return verb.defaultDispatch;
+        }
+
+        Dispatch dispatch = verb.eventDispatches.get( eventName );
+        return dispatch != null ? dispatch : verb.unsupported;
+    }
+
+    /**
+     * Returns the dispatch for a handler which has already been resolved.
+     *
+     * @param handler - Event handler method of this table's bean class, or
+     * null if no handler was resolved
+     * @return Dispatch for the handler, or null if it is not a REST handler
+     */
+    public Dispatch forHandler( Method handler )
+    {
+        return handler != null ? handlers.get( handler.getName() ) : null;
+    }
+
+    /**
+     * Returns the dispatch for a handler by name, whatever HTTP method it
+     * handles.
+     *
+     * @param eventName - Name of the event handler
+     * @return Dispatch for the handler, or null if there is no such handler
+     */
+    public Dispatch forEvent( String eventName )
+    {
+        return handlers.get( eventName );
+    }
+
+    /**
+     * @return Names of every event handler in the table
+     */
+    public Set< String> getEventNames()
+    {
+        return handlers.keySet();
+    }
+
+    /**
+     * @return Response caches of the handlers annotated with
+     * {@link CacheResponse}
+     */
+    public List< ResponseCache> getResponseCaches()
+    {
+        return responseCaches;
+    }
+
+    /**
+     * @return Single-flight executions of the handlers annotated with
+     * {@link CoalesceRequests}
+     */
+    public List< RequestCoalescer> getRequestCoalescers()
+    {
+        return requestCoalescers;
+    }
+
+    /**
+     * Finds the name of an asynchronous handler requested explicitly. Stripes
+     * only registers handlers which return a Resolution, so it cannot find
+     * these events itself; like Stripes, the event is named either by the
+     * _eventName parameter or by a parameter with the event's name.
+     *
+     * @param request - Current request
+     * @return Name of the requested asynchronous event, or null
+     */
+    public String findAsyncEvent( HttpServletRequest request )
+    {
+        if ( asyncEvents.isEmpty() )
+        {
+            return null;
+        }
+
+        String eventName = request.getParameter( StripesConstants.URL_KEY_EVENT_NAME );
+        if ( eventName != null && asyncEvents.contains( eventName ) )
+        {
+            return eventName;
+        }
+
+        for ( String asyncEvent : asyncEvents )
+        {
+            if ( request.getParameter( asyncEvent ) != null )
+            {
+                return asyncEvent;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Action bean class this table was built for
+     */
+    public Class<?> getBeanClass()
+    {
+        return beanClass;
+    }
+
+    /**
+     * @return Comma-separated list of the HTTP methods this resource supports
+     */
+    public String getAllow()
+    {
+        return allow;
+    }
+
+    private static AsyncTimeout asyncTimeout( Method handler )
+    {
+        AsyncTimeout asyncTimeout = handler.getAnnotation( AsyncTimeout.class );
+        if ( asyncTimeout == null )
+        {
+            asyncTimeout = handler.getDeclaringClass().getAnnotation( AsyncTimeout.class );
+        }
+
+        if ( asyncTimeout != null && asyncTimeout.status() != HttpServletResponse.SC_SERVICE_UNAVAILABLE && asyncTimeout.status() != HttpServletResponse.SC_GATEWAY_TIMEOUT )
+        {
+            throw new StripesRuntimeException( "The @AsyncTimeout status of " + handler + " must be 503 or 504, not " + asyncTimeout.status() );
+        }
+        return asyncTimeout;
+    }
+
+    private static ConcurrencyLimit concurrencyLimit( Method handler )
+    {
+        ConcurrencyLimit concurrencyLimit = handler.getAnnotation( ConcurrencyLimit.class );
+        if ( concurrencyLimit == null )
+        {
+            concurrencyLimit = handler.getDeclaringClass().getAnnotation( ConcurrencyLimit.class );
+        }
+
+        if ( concurrencyLimit != null )
+        {
+            ConcurrencyLimiter.checkStatus( concurrencyLimit.status(), "@ConcurrencyLimit on " + handler );
+        }
+        return concurrencyLimit;
+    }
+
+    private static ResponseCache responseCache( Method handler, boolean async )
+    {
+        CacheResponse cacheResponse = handler.getAnnotation( CacheResponse.class );
+        if ( cacheResponse == null )
+        {
+            return null;
+        }
+
+        if ( async )
+        {
+            throw new StripesRuntimeException( "@CacheResponse is not supported on asynchronous handler " + handler );
+        }
+        return new ResponseCache( handler, cacheResponse );
+    }
+
+    private static RequestCoalescer requestCoalescer( Method handler, boolean async, ResponseCache responseCache )
+    {
+        if ( !handler.isAnnotationPresent( CoalesceRequests.class ) )
+        {
+            return null;
+        }
+
+        if ( async )
+        {
+            throw new StripesRuntimeException( "@CoalesceRequests is not supported on asynchronous handler " + handler );
+        }
+        return new RequestCoalescer( handler, responseCache );
+    }
+
+    /**
+     * Loads the dispatcher generated for the class, if it was compiled with
+     * the annotation processor.
+     */
+    private static RestDispatcher findDispatcher( Class<?> beanClass )
+    {
+        Class<?> dispatcherClass;
+        try
+        {
+            dispatcherClass = Class.forName( beanClass.getName() + RestDispatcher.SUFFIX, true, beanClass.getClassLoader() );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return null;
+        }
+
+        try
+        {
+            return dispatcherClass.asSubclass( RestDispatcher.class ).getConstructor().newInstance();
+        }
+        catch ( Exception e )
+        {
+            throw new StripesRuntimeException( "Unable to create the generated dispatcher " + dispatcherClass.getName(), e );
+        }
+    }
+
+    private boolean isAnnotated( Method method, HttpRequestMethod httpMethod )
+    {
+        Integer index = handlerIndexes.get( method.getName() );
+        return index != null ? dispatcher.isAnnotated( index, httpMethod ) : method.isAnnotationPresent( httpMethod.getAnnotationType() );
+    }
+
+    private List< String> annotatedMethods( Method method )
+    {
+        List< String> allowed = new ArrayList< String>();
+        for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+        {
+            if ( isAnnotated( method, httpMethod ) )
+            {
+                allowed.add( httpMethod.name() );
+            }
+        }
+        return allowed;
+    }
+
+    private static String join( List< String> values )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( String value : values )
+        {
+            if ( builder.length() > 0 )
+            {
+                builder.append( ", " );
+            }
+            builder.append( value );
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+/**
+ * Dispatches to the event handlers of one RestActionBean class without
+ * reflection. Implementations are generated at compile time by
+ * {@link RestAnnotationProcessor}, as a class named after the action bean's
+ * binary name followed by <code>$$RestDispatcher</code>, and are picked up by
+ * {@link RestDispatchTable}. Action beans compiled without the processor are
+ * dispatched through reflection as before.
+ *
+ * Handlers are identified by their index in {@link #getHandlerNames()}.
+ *
+ * @author Rick Grashel
+ */
+public interface RestDispatcher
+{
+
+    /**
+     * Suffix appended to the binary name of an action bean class to name its
+     * generated dispatcher.
+     */
+    String SUFFIX = "$$RestDispatcher";
+
+    /**
+     * @return Names of the public, no-argument instance methods of the action
+     * bean which could handle events, other than those of Object
+     */
+    String[] getHandlerNames();
+
+    /**
+     * @param handler - Index of the handler
+     * @param httpMethod - HTTP method
+     * @return True if the handler is annotated for the HTTP method
+     */
+    boolean isAnnotated( int handler, HttpRequestMethod httpMethod );
+
+    /**
+     * Invokes a handler on an action bean.
+     *
+     * @param bean - Action bean of the class this dispatcher was generated for
+     * @param handler - Index of the handler
+     * @return Value returned by the handler, or null if it returns nothing
+     * @throws Exception thrown by the handler
+     */
+    Object invoke( Object bean, int handler ) throws Exception;
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.stripes.controller.ExecutionContext;
+
+/**
+ * Emits the JDK Flight Recorder events of this library: a
+ * {@link RestStageEvent} per intercepted lifecycle stage and a
+ * {@link RestSerializationEvent} per serialized document. They are named
+ * <code>org.stripesrest.Stage</code> and
+ * <code>org.stripesrest.Serialization</code>, and are turned on, off or given
+ * a threshold with the usual JFR settings.
+ *
+ * The events are recorded by {@link FlightRecorderEvents}, which is loaded by
+ * name only when the JVM has jdk.jfr -- Java 11 and later, or a Java 8 update
+ * with Flight Recorder -- and the library was built with it. Callers only
+ * ever hold an event as an Object, so nothing else refers to jdk.jfr. The
+ * begin methods return null, and nothing else is done, when there is no
+ * recorder or the event is not enabled in any recording.
+ */
+final class RestEvents
+{
+
+    /**
+     * Records the events; implemented against jdk.jfr.
+     */
+    interface Recorder
+    {
+
+        Object beginStage();
+
+        void commitStage( Object event, ExecutionContext ctx );
+
+        Object beginSerialization();
+
+        void commitSerialization( Object event, HttpServletRequest request, Object root, String mediaType, long bytes );
+    }
+
+    private static final Recorder RECORDER = loadRecorder();
+
+    private RestEvents()
+    {
+    }
+
+    /**
+     * Starts timing a lifecycle stage.
+     *
+     * @return Event to pass to {@link #commitStage}, or null if it is not
+     * recorded
+     */
+    static Object beginStage()
+    {
+        return RECORDER != null ? RECORDER.beginStage() : null;
+    }
+
+    /**
+     * Ends and commits the event of a lifecycle stage.
+     *
+     * @param event - Event from {@link #beginStage()}, or null
+     * @param ctx - Execution context of the stage
+     */
+    static void commitStage( Object event, ExecutionContext ctx )
+    {
+        if ( event != null )
+        {
+            RECORDER.commitStage( event, ctx );
+        }
+    }
+
+    /**
+     * Starts timing a serialization.
+     *
+     * @return Event to pass to {@link #commitSerialization}, or null if it is
+     * not recorded
+     */
+    static Object beginSerialization()
+    {
+        return RECORDER != null ? RECORDER.beginSerialization() : null;
+    }
+
+    /**
+     * Ends and commits the event of a serialization.
+     *
+     * @param event - Event from {@link #beginSerialization()}, or null
+     * @param request - Request the document answers, or null outside of a
+     * REST call
+     * @param root - Object serialized
+     * @param mediaType - Media type of the document
+     * @param bytes - Size of the document, or -1 if unknown
+     */
+    static void commitSerialization( Object event, HttpServletRequest request, Object root, String mediaType, long bytes )
+    {
+        if ( event != null )
+        {
+            RECORDER.commitSerialization( event, request, root, mediaType, bytes );
+        }
+    }
+
+    /**
+     * Wraps a stream to count the bytes of a serialization which is being
+     * recorded.
+     *
+     * @param event - Event from {@link #beginSerialization()}, or null
+     * @param out - Stream the document is written to
+     * @return Counting stream, or the passed stream if the event is null
+     */
+    static OutputStream count( Object event, OutputStream out )
+    {
+        return event != null ? new CountingOutputStream( out ) : out;
+    }
+
+    /**
+     * @param out - Stream returned by {@link #count}
+     * @return Bytes written through the stream, or -1 if they were not counted
+     */
+    static long countOf( OutputStream out )
+    {
+        return out instanceof CountingOutputStream ? ( (CountingOutputStream) out ).count : -1;
+    }
+
+    private static Recorder loadRecorder()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            return (Recorder) Class.forName( RestEvents.class.getPackage().getName() + ".FlightRecorderEvents" ).getDeclaredConstructor().newInstance();
+        }
+        catch ( Throwable t )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the bytes written to a stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream
+    {
+
+        private long count;
+
+        private CountingOutputStream( OutputStream out )
+        {
+            super( out );
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            out.write( b, off, len );
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Releases what this library holds outside of the application when the
+ * application is shut down: the JMX MXBeans of the {@link RestMetrics} and of
+ * the response buffer pool, the heartbeat thread of the
+ * {@link EventStreamResolution}s, the threads of the
+ * {@link RestBatchActionBean} and the CORS policy. Stripes does not tell its
+ * interceptors when the filter is destroyed, so without this listener a
+ * redeployed application stays pinned in memory by the MBean server and the
+ * threads.
+ *
+ * The listener is picked up by containers which scan for
+ * {@link WebListener}s; with a metadata-complete <code>web.xml</code> add it
+ * as a <code>&lt;listener&gt;</code>.
+ */
+@WebListener
+public class RestLifecycleListener implements ServletContextListener
+{
+
+    public void contextInitialized( ServletContextEvent event )
+    {
+        // Everything is set up by the RestActionInterceptor
+    }
+
+    public void contextDestroyed( ServletContextEvent event )
+    {
+        RestMetrics.unregisterAll();
+        BufferPool.unregister();
+        EventStreamResolution.shutdownHeartbeats();
+        RestBatchActionBean.shutdown();
+        CorsPolicy.setPolicy( null );
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.util.Log;
+
+/**
+ * Throughput, latency and response metrics of one HTTP verb of a REST action
+ * bean, recorded by the {@link RestActionInterceptor}.
+ *
+ * All counters are lock-free and recording never allocates, so the metrics
+ * are on by default. They can be turned off with the RestMetrics.Enabled
+ * Stripes filter parameter, and their registration as JMX MXBeans with
+ * RestMetrics.Jmx.
+ */
+public final class RestMetrics implements RestMetricsMXBean
+{
+
+    /**
+     * Verb under which the calls made with any HTTP method other than those of
+     * {@link HttpRequestMethod} are recorded.
+     */
+    public static final String OTHER_METHOD = "OTHER";
+
+    private static final Log log = Log.getInstance( RestMetrics.class );
+
+    private static final HttpRequestMethod[] KNOWN_METHODS = HttpRequestMethod.values();
+
+    private static final LifecycleStage[] METERED_STAGES =
+    {
+        LifecycleStage.HandlerResolution, LifecycleStage.BindingAndValidation, LifecycleStage.CustomValidation, LifecycleStage.EventHandling, LifecycleStage.ResolutionExecution
+    };
+
+    private static final ClassValue< ConcurrentMap< String, RestMetrics>> METRICS = new ClassValue< ConcurrentMap< String, RestMetrics>>()
+    {
+        @Override
+        protected ConcurrentMap< String, RestMetrics> computeValue( Class<?> beanClass )
+        {
+            return new ConcurrentHashMap< String, RestMetrics>( 8 );
+        }
+    };
+
+    private static final Queue< RestMetrics> ALL = new ConcurrentLinkedQueue< RestMetrics>();
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCountingThreadBean();
+
+    private static volatile boolean jmxEnabled = true;
+
+    /**
+     * Returns the metrics of an HTTP verb of a REST action bean, creating them
+     * the first time they are asked for. Verbs are taken from the request, so
+     * those which are not an {@link HttpRequestMethod} all share the metrics
+     * of {@link #OTHER_METHOD}; made-up verbs cannot add entries without end.
+     *
+     * @param beanClass - REST action bean class
+     * @param httpMethod - HTTP verb
+     * @return Metrics of the verb
+     */
+    public static RestMetrics forResource( Class<?> beanClass, String httpMethod )
+    {
+        ConcurrentMap< String, RestMetrics> byMethod = METRICS.get( beanClass );
+        httpMethod = normalize( httpMethod );
+
+        RestMetrics metrics = byMethod.get( httpMethod );
+        if ( metrics == null )
+        {
+            RestMetrics created = new RestMetrics( beanClass, httpMethod );
+            metrics = byMethod.putIfAbsent( httpMethod, created );
+            if ( metrics == null )
+            {
+                metrics = created;
+                ALL.add( created );
+                if ( jmxEnabled )
+                {
+                    created.register();
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return Metrics of every REST action bean and verb called so far
+     */
+    public static List< RestMetrics> getAll()
+    {
+        return new ArrayList< RestMetrics>( ALL );
+    }
+
+    /**
+     * @return Utilization of the pool of buffers which responses are encoded
+     * into, shared by every REST action bean
+     */
+    public static BufferPoolMXBean getBufferPool()
+    {
+        return BufferPool.STATISTICS;
+    }
+
+    private static String normalize( String httpMethod )
+    {
+        for ( HttpRequestMethod known : KNOWN_METHODS )
+        {
+            if ( known.name().equalsIgnoreCase( httpMethod ) )
+            {
+                return known.name();
+            }
+        }
+        return OTHER_METHOD;
+    }
+
+    static void setJmxEnabled( boolean enabled )
+    {
+        jmxEnabled = enabled;
+    }
+
+    /**
+     * Unregisters the JMX MXBeans of every metrics registered so far and
+     * forgets the metrics, so that neither the platform MBean server nor this
+     * class hold on to the classes of the application once it is shut down.
+     */
+    static void unregisterAll()
+    {
+        for ( RestMetrics metrics = ALL.poll(); metrics != null; metrics = ALL.poll() )
+        {
+            metrics.unregister();
+            METRICS.remove( metrics.beanClass );
+        }
+    }
+
+    /**
+     * @return Bytes allocated so far by the current thread, or -1 if the JVM
+     * cannot measure it
+     */
+    static long currentThreadAllocatedBytes()
+    {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes( Thread.currentThread().getId() ) : -1;
+    }
+
+    private final Class<?> beanClass;
+    private final String httpMethod;
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final EnumMap< LifecycleStage, LatencyHistogram> stageLatencies = new EnumMap< LifecycleStage, LatencyHistogram>( LifecycleStage.class );
+    private final LongAdder success = new LongAdder();
+    private final LongAdder redirection = new LongAdder();
+    private final LongAdder clientError = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder methodNotAllowed = new LongAdder();
+    private final LongAdder serverError = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private volatile ObjectName objectName;
+
+    private RestMetrics( Class<?> beanClass, String httpMethod )
+    {
+        this.beanClass = beanClass;
+        this.httpMethod = httpMethod;
+
+        // Filled once, then only read
+        for ( LifecycleStage stage : METERED_STAGES )
+        {
+            stageLatencies.put( stage, new LatencyHistogram() );
+        }
+    }
+
+    /**
+     * Records how long a lifecycle stage took.
+     *
+     * @param stage - Lifecycle stage
+     * @param nanos - Time spent in the stage, in nanoseconds
+     */
+    void recordStage( LifecycleStage stage, long nanos )
+    {
+        LatencyHistogram histogram = stageLatencies.get( stage );
+        if ( histogram != null )
+        {
+            histogram.record( nanos );
+        }
+    }
+
+    /**
+     * Records a response which has been sent.
+     *
+     * @param nanos - Latency of the request, in nanoseconds
+     * @param status - HTTP status of the response
+     * @param bytes - Number of body bytes written
+     * @param allocated - Bytes allocated handling the request, or -1 if
+     * unknown
+     */
+    void recordResponse( long nanos, int status, long bytes, long allocated )
+    {
+        requestLatency.record( nanos );
+
+        if ( status == HttpServletResponse.SC_NOT_FOUND )
+        {
+            notFound.increment();
+        }
+        else if ( status == HttpServletResponse.SC_METHOD_NOT_ALLOWED )
+        {
+            methodNotAllowed.increment();
+        }
+        else if ( status >= 500 )
+        {
+            serverError.increment();
+        }
+        else if ( status >= 400 )
+        {
+            clientError.increment();
+        }
+        else if ( status >= 300 )
+        {
+            redirection.increment();
+        }
+        else
+        {
+            success.increment();
+        }
+
+        bytesWritten.add( bytes );
+        if ( allocated >= 0 )
+        {
+            allocatedBytes.add( allocated );
+        }
+    }
+
+    /**
+     * @return REST action bean class
+     */
+    public Class<?> getBeanClass()
+    {
+        return beanClass;
+    }
+
+    public String getResource()
+    {
+        return beanClass.getName();
+    }
+
+    public String getHttpMethod()
+    {
+        return httpMethod;
+    }
+
+    public long getRequestCount()
+    {
+        return requestLatency.getCount();
+    }
+
+    public LatencyHistogram getRequestLatency()
+    {
+        return requestLatency;
+    }
+
+    /**
+     * @param stage - Lifecycle stage
+     * @return Latency of the stage, or null if the stage is not measured
+     */
+    public LatencyHistogram getStageLatency( LifecycleStage stage )
+    {
+        return stageLatencies.get( stage );
+    }
+
+    public Map< String, LatencyHistogram> getStageLatencies()
+    {
+        Map< String, LatencyHistogram> latencies = new LinkedHashMap< String, LatencyHistogram>();
+        for ( Map.Entry< LifecycleStage, LatencyHistogram> stage : stageLatencies.entrySet() )
+        {
+            latencies.put( stage.getKey().name(), stage.getValue() );
+        }
+        return latencies;
+    }
+
+    public long getSuccessCount()
+    {
+        return success.sum();
+    }
+
+    public long getRedirectionCount()
+    {
+        return redirection.sum();
+    }
+
+    public long getClientErrorCount()
+    {
+        return clientError.sum();
+    }
+
+    public long getNotFoundCount()
+    {
+        return notFound.sum();
+    }
+
+    public long getMethodNotAllowedCount()
+    {
+        return methodNotAllowed.sum();
+    }
+
+    public long getServerErrorCount()
+    {
+        return serverError.sum();
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten.sum();
+    }
+
+    public long getAllocatedBytes()
+    {
+        return THREADS != null ? allocatedBytes.sum() : -1;
+    }
+
+    public int getConcurrencyLimit()
+    {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.find( beanClass, httpMethod );
+        return limiter != null ? limiter.getLimit() : -1;
+    }
+
+    public long getRejectedCount()
+    {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.find( beanClass, httpMethod );
+        return limiter != null ? limiter.getRejectedCount() : 0;
+    }
+
+    public long getCoalescedCount()
+    {
+        long coalesced = 0;
+        if ( "GET".equals( httpMethod ) )
+        {
+            for ( RequestCoalescer coalescer : RestDispatchTable.forClass( beanClass ).getRequestCoalescers() )
+            {
+                coalesced += coalescer.getCoalescedCount();
+            }
+        }
+        return coalesced;
+    }
+
+    private void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "org.stripesrest:type=RestMetrics,resource=" + ObjectName.quote( getResource() ) + ",method=" + ObjectName.quote( httpMethod ) );
+            server.registerMBean( this, name );
+            objectName = name;
+        }
+        catch ( InstanceAlreadyExistsException e )
+        {
+            // Another deployment of the application owns the name, and is left alone
+            log.warn( "The REST metrics of ", getResource(), " ", httpMethod, " are not registered with JMX, as another application already registered them." );
+        }
+        catch ( JMException e )
+        {
+            log.warn( e, "Unable to register the REST metrics of ", getResource(), " ", httpMethod, " with JMX." );
+        }
+    }
+
+    private void unregister()
+    {
+        ObjectName name = objectName;
+        if ( name != null )
+        {
+            objectName = null;
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+            }
+            catch ( InstanceNotFoundException e )
+            {
+                // Already unregistered by someone else
+            }
+            catch ( JMException e )
+            {
+                log.warn( e, "Unable to unregister the REST metrics of ", getResource(), " ", httpMethod, " from JMX." );
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreadBean()
+    {
+        try
+        {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if ( threads instanceof com.sun.management.ThreadMXBean )
+            {
+                com.sun.management.ThreadMXBean allocationCounting = (com.sun.management.ThreadMXBean) threads;
+                if ( allocationCounting.isThreadAllocatedMemorySupported() && allocationCounting.isThreadAllocatedMemoryEnabled() )
+                {
+                    return allocationCounting;
+                }
+            }
+        }
+        catch ( LinkageError e )
+        {
+            // Not a JVM with the com.sun.management extensions
+        }
+        return null;
+    }
+}
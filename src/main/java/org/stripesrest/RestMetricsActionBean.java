@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.UrlBinding;
+
+/**
+ * Serves the {@link RestMetrics} of every REST action bean as JSON. It is only
+ * available if <code>org.stripesrest</code> is listed in the
+ * ActionResolver.Packages Stripes filter parameter, and should be secured
+ * like any other administrative URL. Latencies are reported in milliseconds.
+ */
+@UrlBinding( "/stripes-rest/metrics" )
+public class RestMetricsActionBean implements ActionBean, RestActionBean
+{
+
+    public Resolution get()
+    {
+        List< Map< String, Object>> resources = new ArrayList< Map< String, Object>>();
+        for ( RestMetrics metrics : RestMetrics.getAll() )
+        {
+            resources.add( toMap( metrics ) );
+        }
+
+        // Metrics change with every call, so there is no point in an ETag
+        return new JsonResolution( resources ).setETagEnabled( false );
+    }
+
+    private static Map< String, Object> toMap( RestMetrics metrics )
+    {
+        Map< String, Object> statuses = new LinkedHashMap< String, Object>();
+        statuses.put( "2xx", metrics.getSuccessCount() );
+        statuses.put( "3xx", metrics.getRedirectionCount() );
+        statuses.put( "4xx", metrics.getClientErrorCount() );
+        statuses.put( "404", metrics.getNotFoundCount() );
+        statuses.put( "405", metrics.getMethodNotAllowedCount() );
+        statuses.put( "5xx", metrics.getServerErrorCount() );
+
+        Map< String, Object> latencies = new LinkedHashMap< String, Object>();
+        latencies.put( "request", toMap( metrics.getRequestLatency() ) );
+        for ( Map.Entry< String, LatencyHistogram> stage : metrics.getStageLatencies().entrySet() )
+        {
+            latencies.put( stage.getKey(), toMap( stage.getValue() ) );
+        }
+
+        Map< String, Object> resource = new LinkedHashMap< String, Object>();
+        resource.put( "resource", metrics.getResource() );
+        resource.put( "httpMethod", metrics.getHttpMethod() );
+        resource.put( "requests", metrics.getRequestCount() );
+        resource.put( "statuses", statuses );
+        resource.put( "bytesWritten", metrics.getBytesWritten() );
+        resource.put( "allocatedBytes", metrics.getAllocatedBytes() );
+        resource.put( "concurrencyLimit", metrics.getConcurrencyLimit() );
+        resource.put( "rejected", metrics.getRejectedCount() );
+        resource.put( "coalesced", metrics.getCoalescedCount() );
+        resource.put( "latencies", latencies );
+        return resource;
+    }
+
+    private static Map< String, Object> toMap( LatencyHistogram histogram )
+    {
+        Map< String, Object> latency = new LinkedHashMap< String, Object>();
+        latency.put( "count", histogram.getCount() );
+        latency.put( "mean", millis( histogram.getMeanNanos() ) );
+        latency.put( "median", millis( histogram.getMedianNanos() ) );
+        latency.put( "p95", millis( histogram.getPercentile95Nanos() ) );
+        latency.put( "p99", millis( histogram.getPercentile99Nanos() ) );
+        latency.put( "max", millis( histogram.getMaxNanos() ) );
+        return latency;
+    }
+
+    private static double millis( long nanos )
+    {
+        return nanos / 1000000.0;
+    }
+
+    private ActionBeanContext context;
+
+    public ActionBeanContext getContext()
+    {
+        return this.context;
+    }
+
+    public void setContext( ActionBeanContext context )
+    {
+        this.context = context;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one HTTP verb of a REST action bean. Each is
+ * registered as <code>org.stripesrest:type=RestMetrics,resource=&lt;action
+ * bean class&gt;,method=&lt;HTTP verb&gt;</code>.
+ */
+public interface RestMetricsMXBean
+{
+
+    /**
+     * @return Name of the REST action bean class
+     */
+    String getResource();
+
+    /**
+     * @return HTTP verb
+     */
+    String getHttpMethod();
+
+    /**
+     * @return Number of responses sent
+     */
+    long getRequestCount();
+
+    /**
+     * @return Latency of whole requests, from handler resolution until the
+     * resolution has been executed
+     */
+    LatencyHistogram getRequestLatency();
+
+    /**
+     * @return Latency of each lifecycle stage, by stage name
+     */
+    Map< String, LatencyHistogram> getStageLatencies();
+
+    /**
+     * @return Number of 2xx responses
+     */
+    long getSuccessCount();
+
+    /**
+     * @return Number of 3xx responses, including "Not Modified"
+     */
+    long getRedirectionCount();
+
+    /**
+     * @return Number of 4xx responses other than 404 and 405
+     */
+    long getClientErrorCount();
+
+    /**
+     * @return Number of "Not Found" (404) responses
+     */
+    long getNotFoundCount();
+
+    /**
+     * @return Number of "Method Not Allowed" (405) responses
+     */
+    long getMethodNotAllowedCount();
+
+    /**
+     * @return Number of 5xx responses
+     */
+    long getServerErrorCount();
+
+    /**
+     * @return Number of response body bytes written
+     */
+    long getBytesWritten();
+
+    /**
+     * @return Number of bytes allocated on the request threads, or -1 if the
+     * JVM cannot measure it
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return Number of calls currently admitted at once, or -1 if the verb
+     * has no {@link ConcurrencyLimit}
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * @return Number of calls rejected by the concurrency limit
+     */
+    long getRejectedCount();
+
+    /**
+     * @return Number of calls answered with the response of an identical
+     * call in flight, see {@link CoalesceRequests}
+     */
+    long getCoalescedCount();
+}
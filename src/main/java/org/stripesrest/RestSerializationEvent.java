@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event covering the serialization of one document by a
+ * {@link JsonBuilder}, directly or through one of the JSON resolutions. Only
+ * created through {@link FlightRecorderEvents}, which {@link RestEvents}
+ * loads when JFR is available.
+ */
+@Name( "org.stripesrest.Serialization" )
+@Label( "REST Serialization" )
+@Category( "Stripes REST" )
+@Description( "Serialization of one document by a JsonBuilder or a JSON resolution" )
+@StackTrace( false )
+@Enabled( false )
+final class RestSerializationEvent extends Event
+{
+
+    @Label( "Resource" )
+    @Description( "REST action bean class, if the document is the response to a REST call" )
+    Class<?> resource;
+
+    @Label( "HTTP Method" )
+    String httpMethod;
+
+    @Label( "Event" )
+    String eventName;
+
+    @Label( "Root Type" )
+    @Description( "Class of the object serialized" )
+    Class<?> rootType;
+
+    @Label( "Media Type" )
+    String mediaType;
+
+    @Label( "Size" )
+    @Description( "Bytes serialized, before compression, or -1 if the document was written to a character writer" )
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event covering one lifecycle stage of a REST call, as
+ * intercepted by the {@link RestActionInterceptor}. Only created through
+ * {@link FlightRecorderEvents}, which {@link RestEvents} loads when JFR is
+ * available.
+ */
+@Name( "org.stripesrest.Stage" )
+@Label( "REST Lifecycle Stage" )
+@Category( "Stripes REST" )
+@Description( "One Stripes lifecycle stage of a call to a REST action bean" )
+@StackTrace( false )
+@Enabled( false )
+final class RestStageEvent extends Event
+{
+
+    @Label( "Resource" )
+    @Description( "REST action bean class" )
+    Class<?> resource;
+
+    @Label( "HTTP Method" )
+    String httpMethod;
+
+    @Label( "Event" )
+    @Description( "Event handler, once it has been resolved" )
+    String eventName;
+
+    @Label( "Stage" )
+    String stage;
+
+    @Label( "Status" )
+    @Description( "HTTP status sent by the resolution execution stage, 0 for the other stages" )
+    int status;
+}
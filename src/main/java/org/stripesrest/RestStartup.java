@@ -0,0 +1,386 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.util.Log;
+import net.sourceforge.stripes.util.ReflectUtil;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrors;
+
+/**
+ * Prepares the REST action beans when Stripes starts instead of on their
+ * first request. It is run by the {@link RestActionInterceptor} according to
+ * these Stripes filter parameters:
+ *
+ * <ul>
+ * <li>RestStartup.Scan -- if true, every RestActionBean known to the
+ * ActionResolver has its event handlers verified and its dispatch table
+ * built. A handler which could never be invoked fails startup.</li>
+ * <li>RestStartup.WarmUpIterations -- number of warm-up passes to run after
+ * the scan. Each pass dispatches synthetic requests of every HTTP method
+ * through the dispatch tables and serializes the warm-up samples through
+ * every response path (ETag, HEAD, compression, streaming and errors)
+ * against mock requests.</li>
+ * <li>RestStartup.WarmUpSamples -- comma-separated names of classes with a
+ * public no-argument constructor whose instances are serialized during the
+ * warm-up. A built-in sample of maps, lists, strings and numbers is used
+ * when none are given.</li>
+ * </ul>
+ */
+public final class RestStartup
+{
+
+    private static final Log log = Log.getInstance( RestStartup.class );
+
+    /**
+     * A validation error with a fixed message. Stripes' own errors look their
+     * messages up through the StripesFilter, which is not available while
+     * Stripes is still starting.
+     */
+    private static final class WarmUpError implements ValidationError
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String message;
+        private String fieldName;
+        private String fieldValue;
+        private String actionPath;
+        private Class< ? extends ActionBean> beanclass;
+
+        private WarmUpError( String message )
+        {
+            this.message = message;
+        }
+
+        public String getMessage( Locale locale )
+        {
+            return message;
+        }
+
+        public void setFieldName( String fieldName )
+        {
+            this.fieldName = fieldName;
+        }
+
+        public void setFieldValue( String fieldValue )
+        {
+            this.fieldValue = fieldValue;
+        }
+
+        public void setActionPath( String actionPath )
+        {
+            this.actionPath = actionPath;
+        }
+
+        public void setBeanclass( Class< ? extends ActionBean> beanclass )
+        {
+            this.beanclass = beanclass;
+        }
+
+        public String getFieldName()
+        {
+            return fieldName;
+        }
+
+        public String getFieldValue()
+        {
+            return fieldValue;
+        }
+
+        public String getActionPath()
+        {
+            return actionPath;
+        }
+
+        public Class< ? extends ActionBean> getBeanclass()
+        {
+            return beanclass;
+        }
+    }
+
+    private RestStartup()
+    {
+    }
+
+    /**
+     * Verifies and builds the dispatch table of every REST action bean known
+     * to the ActionResolver.
+     *
+     * @param configuration - Stripes configuration
+     * @return Dispatch tables of the REST action beans
+     * @throws StripesRuntimeException if an action bean has inconsistent
+     * event handlers
+     */
+    public static List< RestDispatchTable> scan( Configuration configuration )
+    {
+        List< RestDispatchTable> tables = new ArrayList< RestDispatchTable>();
+        for ( Class< ? extends ActionBean> beanClass : configuration.getActionResolver().getActionBeanClasses() )
+        {
+            if ( RestActionBean.class.isAssignableFrom( beanClass ) && !Modifier.isAbstract( beanClass.getModifiers() ) )
+            {
+                verify( beanClass );
+                tables.add( RestDispatchTable.forClass( beanClass ) );
+            }
+        }
+
+        log.info( "Found ", tables.size(), " REST action beans." );
+        return tables;
+    }
+
+    /**
+     * Checks that the HTTP method annotations and the methods named after
+     * HTTP methods of a REST action bean agree with each other. Handlers
+     * which can never be invoked are errors; a method named after one HTTP
+     * method but annotated only with others is logged as a warning.
+     *
+     * @param beanClass - REST action bean class
+     * @throws StripesRuntimeException listing every error found
+     */
+    public static void verify( Class<?> beanClass )
+    {
+        Map< String, HttpRequestMethod> verbsByHandlerName = new HashMap< String, HttpRequestMethod>();
+        for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+        {
+            verbsByHandlerName.put( httpMethod.getHandlerName(), httpMethod );
+        }
+
+        List< String> errors = new ArrayList< String>();
+        for ( Method method : beanClass.getMethods() )
+        {
+            if ( method.getDeclaringClass() == Object.class || method.isBridge() )
+            {
+                continue;
+            }
+
+            List< HttpRequestMethod> annotated = new ArrayList< HttpRequestMethod>();
+            for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+            {
+                if ( method.isAnnotationPresent( httpMethod.getAnnotationType() ) )
+                {
+                    annotated.add( httpMethod );
+                }
+            }
+
+            boolean candidate = method.getParameterTypes().length == 0 && !Modifier.isStatic( method.getModifiers() );
+            HttpRequestMethod namedFor = candidate ? verbsByHandlerName.get( method.getName() ) : null;
+
+            if ( !annotated.isEmpty() && !candidate )
+            {
+                errors.add( method + " is annotated with " + annotated + " but event handlers must be instance methods without parameters" );
+                continue;
+            }
+
+            if ( ( !annotated.isEmpty() || namedFor != null ) && !isHandlerReturnType( method.getReturnType() ) )
+            {
+                errors.add( method + " would handle " + ( namedFor != null ? namedFor : annotated ) + " requests but returns neither a Resolution nor a CompletionStage" );
+                continue;
+            }
+
+            if ( namedFor != null && !annotated.isEmpty() && !annotated.contains( namedFor ) )
+            {
+                log.warn( method, " handles ", namedFor, " requests by its name as well as ", annotated, " requests by its annotations." );
+            }
+        }
+
+        if ( !errors.isEmpty() )
+        {
+            throw new StripesRuntimeException( "The REST event handlers of " + beanClass.getName() + " are inconsistent: " + errors );
+        }
+    }
+
+    /**
+     * Runs warm-up passes over the passed dispatch tables and samples.
+     *
+     * @param tables - Dispatch tables to exercise
+     * @param iterations - Number of passes
+     * @param samples - Objects to serialize; the built-in sample is used if
+     * empty
+     * @throws Exception if a pass fails
+     */
+    public static void warmUp( List< RestDispatchTable> tables, int iterations, List< Object> samples ) throws Exception
+    {
+        List< Object> toSerialize = samples.isEmpty() ? Collections.singletonList( builtInSample() ) : samples;
+
+        long start = System.nanoTime();
+        for ( int i = 0; i < iterations; i++ )
+        {
+            for ( RestDispatchTable table : tables )
+            {
+                dispatch( table );
+            }
+
+            for ( Object sample : toSerialize )
+            {
+                serialize( sample );
+            }
+            writeErrors();
+        }
+
+        log.info( "Warmed up ", tables.size(), " REST action beans and ", toSerialize.size(), " samples with ", iterations, " passes in ",
+                ( System.nanoTime() - start ) / 1000000, "ms." );
+    }
+
+    /**
+     * Instantiates the warm-up samples named by the RestStartup.WarmUpSamples
+     * filter parameter and introspects their properties.
+     *
+     * @param classNames - Comma-separated class names, or null
+     * @return Sample instances
+     */
+    public static List< Object> createSamples( String classNames )
+    {
+        List< Object> samples = new ArrayList< Object>();
+        if ( classNames == null )
+        {
+            return samples;
+        }
+
+        for ( String className : classNames.split( "," ) )
+        {
+            className = className.trim();
+            if ( className.isEmpty() )
+            {
+                continue;
+            }
+
+            try
+            {
+                Class<?> sampleClass = ReflectUtil.findClass( className );
+                ReflectUtil.getPropertyDescriptors( sampleClass );
+                samples.add( sampleClass.getConstructor().newInstance() );
+            }
+            catch ( Exception e )
+            {
+                throw new StripesRuntimeException( "Unable to create the REST warm-up sample " + className, e );
+            }
+        }
+        return samples;
+    }
+
+    private static boolean isHandlerReturnType( Class<?> returnType )
+    {
+        return Resolution.class.isAssignableFrom( returnType ) || CompletionStage.class.isAssignableFrom( returnType );
+    }
+
+    private static void dispatch( RestDispatchTable table )
+    {
+        MockHttpServletRequest request = request( "GET" );
+        for ( HttpRequestMethod httpMethod : HttpRequestMethod.values() )
+        {
+            table.resolve( httpMethod.name(), null );
+            for ( String eventName : table.getEventNames() )
+            {
+                table.resolve( httpMethod.name(), eventName );
+                table.forEvent( eventName );
+            }
+        }
+        table.findAsyncEvent( request );
+    }
+
+    private static void serialize( Object sample ) throws Exception
+    {
+        MockHttpServletResponse get = execute( new JsonResolution( sample ), request( "GET" ) );
+
+        MockHttpServletRequest conditional = request( "GET" );
+        Object eTag = get.getHeaderMap().containsKey( "ETag" ) ? get.getHeaderMap().get( "ETag" ).get( 0 ) : null;
+        if ( eTag != null )
+        {
+            conditional.addHeader( "If-None-Match", eTag );
+        }
+        execute( new JsonResolution( sample ), conditional );
+
+        execute( new JsonResolution( sample ), request( "HEAD" ) );
+        execute( new JsonResolution( sample ), compressed( request( "GET" ), ResponseCompression.GZIP ) );
+        execute( new JsonResolution( sample ), request( "POST" ) );
+        execute( new JsonResolution( sample ), compressed( request( "POST" ), ResponseCompression.GZIP ) );
+        execute( new JsonResolution( sample ), compressed( request( "PUT" ), ResponseCompression.DEFLATE ) );
+    }
+
+    private static void writeErrors() throws Exception
+    {
+        ValidationErrors validationErrors = new ValidationErrors();
+        validationErrors.add( "field", new WarmUpError( "Warm-up field error." ) );
+        execute( new JsonErrorResolution( validationErrors ), request( "POST" ) );
+
+        ValidationErrors globalErrors = new ValidationErrors();
+        globalErrors.addGlobalError( new WarmUpError( "Warm-up global error." ) );
+        execute( new JsonErrorResolution( globalErrors ), request( "POST" ) );
+
+        execute( new JsonErrorResolution( HttpServletResponse.SC_NOT_FOUND, "Warm-up error." ), request( "GET" ) );
+    }
+
+    private static MockHttpServletRequest request( String httpMethod )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "", "/stripes-rest/warm-up" );
+        request.setMethod( httpMethod );
+        return request;
+    }
+
+    private static MockHttpServletRequest compressed( MockHttpServletRequest request, String encoding )
+    {
+        request.addHeader( "Accept-Encoding", encoding );
+        return request;
+    }
+
+    private static MockHttpServletResponse execute( Resolution resolution, MockHttpServletRequest request ) throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        resolution.execute( request, response );
+        return response;
+    }
+
+    private static Object builtInSample()
+    {
+        // Large enough to be compressed
+        List< Object> items = new ArrayList< Object>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            Map< String, Object> item = new LinkedHashMap< String, Object>();
+            item.put( "id", i );
+            item.put( "name", "Item \"" + i + "\"" );
+            item.put( "price", i * 1.25 );
+            item.put( "available", i % 2 == 0 );
+            item.put( "tags", new String[]
+            {
+                "warm", "up"
+            } );
+            items.add( item );
+        }
+
+        Map< String, Object> sample = new LinkedHashMap< String, Object>();
+        sample.put( "items", items );
+        sample.put( "count", items.size() );
+        return sample;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+
+/**
+ * The status, headers and body of a completed call, as kept by an
+ * {@link IdempotencyStore}. As a resolution it replays the call, adding an
+ * <code>Idempotent-Replayed: true</code> header.
+ */
+public final class StoredResponse implements Resolution, Serializable
+{
+
+    /**
+     * Header marking a replayed response.
+     */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String contentType;
+    private final Map< String, List< String>> headers;
+    private final byte[] body;
+
+    /**
+     * @param status - HTTP status of the response
+     * @param contentType - Content type of the response, or null
+     * @param headers - Headers of the response, other than the content type,
+     * by name
+     * @param body - Body of the response, as sent
+     */
+    public StoredResponse( int status, String contentType, Map< String, List< String>> headers, byte[] body )
+    {
+        this.status = status;
+        this.contentType = contentType;
+        TreeMap< String, List< String>> copy = new TreeMap< String, List< String>>( String.CASE_INSENSITIVE_ORDER );
+        for ( Map.Entry< String, List< String>> header : headers.entrySet() )
+        {
+            copy.put( header.getKey(), Collections.unmodifiableList( new ArrayList< String>( header.getValue() ) ) );
+        }
+        this.headers = Collections.unmodifiableMap( copy );
+        this.body = body.clone();
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public Map< String, List< String>> getHeaders()
+    {
+        return headers;
+    }
+
+    public byte[] getBody()
+    {
+        return body.clone();
+    }
+
+    /**
+     * Replays the response.
+     */
+    public void execute( HttpServletRequest request, HttpServletResponse response ) throws Exception
+    {
+        response.setHeader( REPLAYED_HEADER, "true" );
+        writeTo( response );
+    }
+
+    /**
+     * Writes the status, headers and body to a response.
+     *
+     * @param response - Response to write to
+     * @throws IOException if the response cannot be written
+     */
+    void writeTo( HttpServletResponse response ) throws IOException
+    {
+        response.setStatus( status );
+        for ( Map.Entry< String, List< String>> header : headers.entrySet() )
+        {
+            for ( String value : header.getValue() )
+            {
+                response.addHeader( header.getKey(), value );
+            }
+        }
+        if ( contentType != null )
+        {
+            response.setContentType( contentType );
+        }
+
+        if ( body.length > 0 )
+        {
+            response.setContentLength( body.length );
+            response.getOutputStream().write( body );
+        }
+        response.flushBuffer();
+    }
+}
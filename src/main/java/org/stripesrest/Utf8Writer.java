@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 straight into a pooled buffer and sends the
+ * buffer to a stream whenever it fills up. It replaces the BufferedWriter and
+ * OutputStreamWriter pair, whose char and byte buffers would otherwise be
+ * allocated for every response.
+ *
+ * The buffer is only held between writes and the next flush: flushing sends
+ * it to the stream and returns it to the {@link BufferPool}, and the next
+ * write takes one again. A writer which is flushed once its document is
+ * complete therefore never keeps a buffer, and is not synchronized since it
+ * is only used by one response at a time. Closing it flushes it, without
+ * closing the stream.
+ */
+final class Utf8Writer extends Writer
+{
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+
+    // High surrogate of a pair split across two writes
+    private char highSurrogate;
+
+    /**
+     * @param out - Stream receiving the UTF-8 encoded characters
+     */
+    Utf8Writer( OutputStream out )
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void write( int c ) throws IOException
+    {
+        if ( buffer == null )
+        {
+            buffer = BufferPool.acquire();
+        }
+        else if ( count + 4 > buffer.length )
+        {
+            drain();
+        }
+        encode( (char) c );
+    }
+
+    @Override
+    public void write( char[] chars, int offset, int length ) throws IOException
+    {
+        for ( int i = offset, end = offset + length; i < end; i++ )
+        {
+            write( chars[ i ] );
+        }
+    }
+
+    @Override
+    public void write( String text, int offset, int length ) throws IOException
+    {
+        if ( buffer == null )
+        {
+            buffer = BufferPool.acquire();
+        }
+
+        for ( int i = offset, end = offset + length; i < end; i++ )
+        {
+            // The longest encoding of a char is four bytes, for the second half of a pair
+            if ( count + 4 > buffer.length )
+            {
+                drain();
+            }
+            encode( text.charAt( i ) );
+        }
+    }
+
+    /**
+     * Writes bytes which are already UTF-8 encoded, such as the pre-encoded
+     * property names of a {@link BeanSerializer}.
+     *
+     * @param bytes - UTF-8 encoded characters
+     * @throws IOException if the stream fails
+     */
+    void writeEncoded( byte[] bytes ) throws IOException
+    {
+        if ( highSurrogate != 0 )
+        {
+            highSurrogate = 0;
+            write( '?' );
+        }
+
+        if ( buffer == null )
+        {
+            buffer = BufferPool.acquire();
+        }
+        if ( bytes.length > buffer.length - count )
+        {
+            drain();
+            if ( bytes.length > buffer.length )
+            {
+                out.write( bytes );
+                return;
+            }
+        }
+        System.arraycopy( bytes, 0, buffer, count, bytes.length );
+        count += bytes.length;
+    }
+
+    /**
+     * Sends the buffered bytes to the stream, flushes it and returns the
+     * buffer to the pool.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if ( buffer != null )
+        {
+            drain();
+            BufferPool.release( buffer );
+            buffer = null;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if ( highSurrogate != 0 )
+        {
+            highSurrogate = 0;
+            write( '?' );
+        }
+        flush();
+    }
+
+    private void encode( char c )
+    {
+        if ( highSurrogate != 0 )
+        {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if ( Character.isLowSurrogate( c ) )
+            {
+                int codePoint = Character.toCodePoint( high, c );
+                buffer[ count++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ count++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+                return;
+            }
+
+            // Unpaired surrogates are replaced, as String.getBytes() does; with
+            // the char which follows, this still fits in the four bytes to spare
+            buffer[ count++ ] = '?';
+        }
+
+        if ( c < 0x80 )
+        {
+            buffer[ count++ ] = (byte) c;
+        }
+        else if ( c < 0x800 )
+        {
+            buffer[ count++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+            buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+        else if ( Character.isHighSurrogate( c ) )
+        {
+            highSurrogate = c;
+        }
+        else if ( Character.isLowSurrogate( c ) )
+        {
+            buffer[ count++ ] = '?';
+        }
+        else
+        {
+            buffer[ count++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+            buffer[ count++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+            buffer[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        if ( count > 0 )
+        {
+            out.write( buffer, 0, count );
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import org.stripesrest.ConcurrencyLimit;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RestActionBean;
+import org.stripesrest.RestMetrics;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the concurrency limits of REST action beans.
+ */
+public class ConcurrencyLimitTest implements ActionBean, RestActionBean
+{
+
+    private static final CountDownLatch entered = new CountDownLatch( 1 );
+    private static final CountDownLatch leave = new CountDownLatch( 1 );
+
+    private MockServletContext context;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        context = StripesTestFixture.createServletContext();
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    @ConcurrencyLimit( value = 1, status = 429, retryAfter = 2 )
+    public Resolution get() throws InterruptedException
+    {
+        entered.countDown();
+        leave.await( 5, TimeUnit.SECONDS );
+        return new JsonResolution( "done" );
+    }
+
+    private ActionBeanContext actionBeanContext;
+
+    public ActionBeanContext getContext()
+    {
+        return this.actionBeanContext;
+    }
+
+    public void setContext( ActionBeanContext actionBeanContext )
+    {
+        this.actionBeanContext = actionBeanContext;
+    }
+
+    @Test
+    public void callsOverTheLimitAreRejected() throws Exception
+    {
+        final String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        final MockHttpServletResponse admitted = new MockHttpServletResponse();
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    context.acceptRequest( get( url ), admitted );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue( entered.await( 5, TimeUnit.SECONDS ) );
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        context.acceptRequest( get( url ), rejected );
+        Assert.assertEquals( rejected.getStatus(), 429 );
+        Assert.assertEquals( rejected.getHeaderMap().get( "Retry-After" ).get( 0 ), "2" );
+        Assert.assertEquals( rejected.getOutputString(), "{\"globalErrors\":[\"This resource is handling too many calls; retry in 2s.\"]}" );
+
+        leave.countDown();
+        first.join( 5000 );
+        Assert.assertEquals( admitted.getStatus(), HttpServletResponse.SC_OK );
+
+        MockHttpServletResponse afterwards = new MockHttpServletResponse();
+        context.acceptRequest( get( url ), afterwards );
+        Assert.assertEquals( afterwards.getStatus(), HttpServletResponse.SC_OK );
+
+        RestMetrics metrics = RestMetrics.forResource( getClass(), "GET" );
+        Assert.assertEquals( metrics.getConcurrencyLimit(), 1 );
+        Assert.assertEquals( metrics.getRejectedCount(), 1 );
+    }
+
+    private static MockHttpServletRequest get( String url )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", url );
+        request.setMethod( "GET" );
+        return request;
+    }
+}
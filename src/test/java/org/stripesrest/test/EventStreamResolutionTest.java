@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import org.stripesrest.EventFeed;
+import org.stripesrest.EventStreamResolution;
+import org.stripesrest.EventStreamResolution.Format;
+import org.stripesrest.EventStreamResolution.OverflowPolicy;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the Server-Sent Events and NDJSON streams. The mock container has
+ * no async support, so the streams are written on the calling thread.
+ */
+public class EventStreamResolutionTest
+{
+
+    @Test
+    public void serverSentEventsAreFramed() throws Exception
+    {
+        final AtomicBoolean closed = new AtomicBoolean();
+        EventStreamResolution stream = new EventStreamResolution( Format.SERVER_SENT_EVENTS ).onClose( new Runnable()
+        {
+            public void run()
+            {
+                closed.set( true );
+            }
+        } );
+        stream.publish( Collections.singletonMap( "price", 10 ) );
+        stream.publish( "7", "quote", "line\nbreak" );
+        stream.close();
+        Assert.assertFalse( stream.publish( "ignored" ) );
+
+        MockHttpServletResponse response = execute( stream, null );
+        Assert.assertEquals( response.getContentType(), "text/event-stream" );
+        Assert.assertEquals( response.getHeaderMap().get( "Cache-Control" ).get( 0 ), "no-cache" );
+        Assert.assertEquals( response.getOutputString(), "data: {\"price\":10}\n\nid: 7\nevent: quote\ndata: \"line\\nbreak\"\n\n" );
+        Assert.assertTrue( closed.get() );
+    }
+
+    @Test
+    public void ndjsonWritesOneDocumentPerLine() throws Exception
+    {
+        EventStreamResolution stream = new EventStreamResolution( Format.NDJSON );
+        stream.publish( "a", 1 );
+        stream.publish( "b", Collections.singletonList( true ) );
+        stream.close();
+
+        MockHttpServletResponse response = execute( stream, null );
+        Assert.assertEquals( response.getContentType(), "application/x-ndjson" );
+        Assert.assertEquals( response.getOutputString(), "1\n[true]\n" );
+    }
+
+    @Test
+    public void overflowPoliciesBoundTheQueue() throws Exception
+    {
+        EventStreamResolution dropOldest = new EventStreamResolution( Format.NDJSON ).setQueueCapacity( 2 );
+        dropOldest.publish( 1 );
+        dropOldest.publish( 2 );
+        dropOldest.publish( 3 );
+        dropOldest.close();
+        Assert.assertEquals( execute( dropOldest, null ).getOutputString(), "2\n3\n" );
+        Assert.assertEquals( dropOldest.getDroppedCount(), 1 );
+
+        EventStreamResolution coalesce = new EventStreamResolution( Format.NDJSON ).setQueueCapacity( 2 ).setOverflowPolicy( OverflowPolicy.COALESCE );
+        coalesce.publish( "cpu", 1 );
+        coalesce.publish( "memory", 2 );
+        coalesce.publish( "cpu", 3 );
+        coalesce.close();
+        Assert.assertEquals( execute( coalesce, null ).getOutputString(), "2\n3\n" );
+
+        EventStreamResolution disconnect = new EventStreamResolution( Format.NDJSON ).setQueueCapacity( 2 ).setOverflowPolicy( OverflowPolicy.DISCONNECT );
+        disconnect.publish( 1 );
+        disconnect.publish( 2 );
+        Assert.assertFalse( disconnect.publish( 3 ) );
+        Assert.assertTrue( disconnect.isClosed() );
+        Assert.assertEquals( execute( disconnect, null ).getOutputString(), "" );
+    }
+
+    @Test
+    public void feedResumesAfterLastEventId() throws Exception
+    {
+        final EventFeed feed = new EventFeed( 10 );
+        feed.publish( "tick", 1 );
+        feed.publish( "tick", 2 );
+        feed.publish( "tick", 3 );
+
+        final EventStreamResolution stream = feed.subscribe( Format.SERVER_SENT_EVENTS );
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        Thread client = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    stream.execute( request( "1" ), response );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        };
+        client.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( feed.getSubscriberCount() == 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 5 );
+        }
+        feed.publish( "tick", 4 );
+        feed.close();
+        client.join( 5000 );
+
+        Assert.assertFalse( client.isAlive() );
+        Assert.assertEquals( stream.getLastEventId(), "1" );
+        Assert.assertEquals( response.getOutputString(), "id: 2\nevent: tick\ndata: 2\n\nid: 3\nevent: tick\ndata: 3\n\nid: 4\nevent: tick\ndata: 4\n\n" );
+        Assert.assertEquals( feed.getSubscriberCount(), 0 );
+    }
+
+    @Test
+    public void idleStreamSendsHeartbeats() throws Exception
+    {
+        final EventStreamResolution stream = new EventStreamResolution( Format.SERVER_SENT_EVENTS ).setHeartbeatInterval( 10 );
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        Thread client = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    stream.execute( request( null ), response );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        };
+        client.start();
+
+        Thread.sleep( 100 );
+        stream.close();
+        client.join( 5000 );
+
+        Assert.assertFalse( client.isAlive() );
+        Assert.assertTrue( response.getOutputString().startsWith( ": heartbeat\n\n" ), response.getOutputString() );
+    }
+
+    private static MockHttpServletResponse execute( EventStreamResolution stream, String lastEventId ) throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        stream.execute( request( lastEventId ), response );
+        return response;
+    }
+
+    private static MockHttpServletRequest request( String lastEventId )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/feed" );
+        request.setMethod( "GET" );
+        if ( lastEventId != null )
+        {
+            request.addHeader( "Last-Event-ID", lastEventId );
+        }
+        return request;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.mock.MockRoundtrip;
+import net.sourceforge.stripes.mock.MockServletContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the Flight Recorder events. They need jdk.jfr, so they are kept
+ * apart from the other tests and skipped by builds on Java 8.
+ */
+public class FlightRecorderTest
+{
+
+    private MockServletContext context;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        context = StripesTestFixture.createServletContext();
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    @Test
+    public void flightRecorderEventsAreEmitted() throws Exception
+    {
+        Path file = Files.createTempFile( "stripes-rest", ".jfr" );
+        MockRoundtrip trip = new MockRoundtrip( context, RestActionBeanTest.class );
+        Recording recording = new Recording();
+        try
+        {
+            recording.enable( "org.stripesrest.Stage" );
+            recording.enable( "org.stripesrest.Serialization" );
+            recording.start();
+            trip.getRequest().setMethod( "GET" );
+            trip.execute();
+            recording.stop();
+            recording.dump( file );
+
+            List< String> stages = new ArrayList< String>();
+            RecordedEvent serialization = null;
+            for ( RecordedEvent event : RecordingFile.readAllEvents( file ) )
+            {
+                RecordedClass resource = event.getClass( "resource" );
+                if ( resource == null || !resource.getName().equals( RestActionBeanTest.class.getName() ) )
+                {
+                    continue;
+                }
+
+                Assert.assertEquals( event.getString( "httpMethod" ), "GET" );
+                Assert.assertEquals( event.getString( "eventName" ), "get" );
+                if ( event.getEventType().getName().equals( "org.stripesrest.Stage" ) )
+                {
+                    stages.add( event.getString( "stage" ) );
+                    if ( event.getString( "stage" ).equals( LifecycleStage.ResolutionExecution.name() ) )
+                    {
+                        Assert.assertEquals( event.getInt( "status" ), HttpServletResponse.SC_OK );
+                    }
+                }
+                else
+                {
+                    serialization = event;
+                }
+            }
+
+            Assert.assertTrue( stages.contains( LifecycleStage.HandlerResolution.name() ), stages.toString() );
+            Assert.assertTrue( stages.contains( LifecycleStage.EventHandling.name() ), stages.toString() );
+            Assert.assertTrue( stages.contains( LifecycleStage.ResolutionExecution.name() ), stages.toString() );
+            Assert.assertNotNull( serialization );
+            Assert.assertEquals( serialization.getClass( "rootType" ).getName(), HashMap.class.getName() );
+            Assert.assertEquals( serialization.getString( "mediaType" ), "application/json" );
+            Assert.assertEquals( serialization.getLong( "bytes" ), trip.getResponse().getOutputBytes().length );
+        }
+        finally
+        {
+            recording.close();
+            Files.delete( file );
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RestActionBean;
+import org.stripesrest.StoredResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the replay of calls made with an Idempotency-Key.
+ */
+public class IdempotencyTest implements ActionBean, RestActionBean
+{
+
+    private static final AtomicInteger posts = new AtomicInteger();
+    private static final CountDownLatch entered = new CountDownLatch( 1 );
+    private static final CountDownLatch leave = new CountDownLatch( 1 );
+    private static volatile boolean blocking;
+
+    private MockServletContext context;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        context = StripesTestFixture.createServletContext();
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    public Resolution post() throws InterruptedException
+    {
+        int count = posts.incrementAndGet();
+        if ( blocking )
+        {
+            entered.countDown();
+            leave.await( 5, TimeUnit.SECONDS );
+        }
+        return new JsonResolution( "created " + count );
+    }
+
+    private ActionBeanContext actionBeanContext;
+
+    public ActionBeanContext getContext()
+    {
+        return this.actionBeanContext;
+    }
+
+    public void setContext( ActionBeanContext actionBeanContext )
+    {
+        this.actionBeanContext = actionBeanContext;
+    }
+
+    @Test
+    public void retriesAreReplayed() throws Exception
+    {
+        String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        int before = posts.get();
+
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        context.acceptRequest( post( url, "retried" ), first );
+        Assert.assertEquals( first.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertNull( first.getHeaderMap().get( StoredResponse.REPLAYED_HEADER ) );
+
+        MockHttpServletResponse retry = new MockHttpServletResponse();
+        context.acceptRequest( post( url, "retried" ), retry );
+        Assert.assertEquals( retry.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( retry.getOutputString(), first.getOutputString() );
+        Assert.assertEquals( retry.getHeaderMap().get( StoredResponse.REPLAYED_HEADER ).get( 0 ), "true" );
+        Assert.assertEquals( posts.get(), before + 1 );
+
+        MockHttpServletResponse other = new MockHttpServletResponse();
+        context.acceptRequest( post( url, "other" ), other );
+        Assert.assertEquals( other.getOutputString(), "created " + ( before + 2 ) );
+    }
+
+    @Test
+    public void callsInFlightAreNotRunTwice() throws Exception
+    {
+        final String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        final MockHttpServletResponse admitted = new MockHttpServletResponse();
+        blocking = true;
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    context.acceptRequest( post( url, "in-flight" ), admitted );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue( entered.await( 5, TimeUnit.SECONDS ) );
+        blocking = false;
+
+        MockHttpServletResponse duplicate = new MockHttpServletResponse();
+        context.acceptRequest( post( url, "in-flight" ), duplicate );
+        Assert.assertEquals( duplicate.getStatus(), HttpServletResponse.SC_CONFLICT );
+        Assert.assertEquals( duplicate.getOutputString(), "{\"globalErrors\":[\"A call with this Idempotency-Key is still in progress.\"]}" );
+
+        leave.countDown();
+        first.join( 5000 );
+        Assert.assertEquals( admitted.getStatus(), HttpServletResponse.SC_OK );
+
+        MockHttpServletResponse retry = new MockHttpServletResponse();
+        context.acceptRequest( post( url, "in-flight" ), retry );
+        Assert.assertEquals( retry.getOutputString(), admitted.getOutputString() );
+    }
+
+    private static MockHttpServletRequest post( String url, String key )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", url );
+        request.setMethod( "POST" );
+        request.addHeader( "Idempotency-Key", key );
+        return request;
+    }
+}
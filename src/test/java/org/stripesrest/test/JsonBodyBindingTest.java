@@ -0,0 +1,357 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.StrictBinding;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import net.sourceforge.stripes.validation.Validate;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RestActionBean;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the binding of JSON request bodies to REST action beans.
+ */
+public class JsonBodyBindingTest implements ActionBean, RestActionBean
+{
+
+    public enum Status
+    {
+        OPEN, CLOSED
+    }
+
+    public static class Line
+    {
+
+        private String sku;
+        private int count;
+
+        public String getSku()
+        {
+            return sku;
+        }
+
+        public void setSku( String sku )
+        {
+            this.sku = sku;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public void setCount( int count )
+        {
+            this.count = count;
+        }
+    }
+
+    /**
+     * Action bean which binds only what its policy and validations allow.
+     */
+    @StrictBinding( allow = { "lines.sku" } )
+    public static class StrictOrder implements ActionBean, RestActionBean
+    {
+
+        @Validate( required = true, maxlength = 5 )
+        private String name;
+
+        @Validate( minvalue = 1 )
+        private int quantity;
+
+        @Validate( ignore = true )
+        private String note;
+
+        private String role = "user";
+        private List< Line> lines;
+        private ActionBeanContext actionBeanContext;
+
+        public Resolution post()
+        {
+            StringBuilder summary = new StringBuilder();
+            summary.append( name ).append( '/' ).append( quantity ).append( '/' ).append( note ).append( '/' ).append( role );
+            for ( Line line : lines )
+            {
+                summary.append( '/' ).append( line.getSku() ).append( 'x' ).append( line.getCount() );
+            }
+            return new JsonResolution( summary.toString() );
+        }
+
+        public void setName( String name )
+        {
+            this.name = name;
+        }
+
+        public void setQuantity( int quantity )
+        {
+            this.quantity = quantity;
+        }
+
+        public void setNote( String note )
+        {
+            this.note = note;
+        }
+
+        public void setRole( String role )
+        {
+            this.role = role;
+        }
+
+        public void setLines( List< Line> lines )
+        {
+            this.lines = lines;
+        }
+
+        public ActionBeanContext getContext()
+        {
+            return this.actionBeanContext;
+        }
+
+        public void setContext( ActionBeanContext actionBeanContext )
+        {
+            this.actionBeanContext = actionBeanContext;
+        }
+    }
+
+    private String name;
+    private int quantity;
+    private BigDecimal price;
+    private Status status;
+    private List< Line> lines;
+    private Map< String, Long> totals;
+
+    private MockServletContext context;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        context = StripesTestFixture.createServletContext();
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    public Resolution post()
+    {
+        StringBuilder summary = new StringBuilder();
+        summary.append( name ).append( '/' ).append( quantity ).append( '/' ).append( price ).append( '/' ).append( status );
+        for ( Line line : lines )
+        {
+            summary.append( '/' ).append( line.getSku() ).append( 'x' ).append( line.getCount() );
+        }
+        summary.append( '/' ).append( totals );
+        return new JsonResolution( summary.toString() );
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public void setQuantity( int quantity )
+    {
+        this.quantity = quantity;
+    }
+
+    public void setPrice( BigDecimal price )
+    {
+        this.price = price;
+    }
+
+    public void setStatus( Status status )
+    {
+        this.status = status;
+    }
+
+    public void setLines( List< Line> lines )
+    {
+        this.lines = lines;
+    }
+
+    public void setTotals( Map< String, Long> totals )
+    {
+        this.totals = totals;
+    }
+
+    private ActionBeanContext actionBeanContext;
+
+    public ActionBeanContext getContext()
+    {
+        return this.actionBeanContext;
+    }
+
+    public void setContext( ActionBeanContext actionBeanContext )
+    {
+        this.actionBeanContext = actionBeanContext;
+    }
+
+    @Test
+    public void bodyIsBoundToProperties() throws Exception
+    {
+        MockHttpServletResponse response = post( "{\"name\":\"Widget \\u00e9\",\"quantity\":3,\"price\":12.50,\"status\":\"OPEN\","
+                + "\"unknown\":{\"ignored\":[1,2,{}]},\"lines\":[{\"sku\":\"A\",\"count\":1},{\"sku\":\"B\",\"count\":2e0}],"
+                + "\"totals\":{\"x\":1,\"y\":null}}" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( new String( response.getOutputBytes(), StandardCharsets.UTF_8 ), "Widget \u00e9/3/12.50/OPEN/Ax1/Bx2/{x=1, y=null}" );
+    }
+
+    @Test
+    public void unconvertibleValuesAreFieldErrors() throws Exception
+    {
+        MockHttpServletResponse response = post( "{\"quantity\":\"three\",\"lines\":[{\"sku\":\"A\",\"count\":1},{\"count\":1.5}]}" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        String output = response.getOutputString();
+        Assert.assertTrue( output.contains( "{\"fieldName\":\"quantity\",\"fieldValue\":\"three\",\"errorMessages\":[" ), output );
+        Assert.assertTrue( output.contains( "{\"fieldName\":\"lines[1].count\",\"fieldValue\":\"1.5\",\"errorMessages\":[" ), output );
+    }
+
+    @Test
+    public void malformedBodyIsGlobalError() throws Exception
+    {
+        MockHttpServletResponse response = post( "{\"name\":\"Widget\",}" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        Assert.assertTrue( response.getOutputString().startsWith( "{\"globalErrors\":[\"The request body is not valid JSON: " ), response.getOutputString() );
+    }
+
+    @Test
+    public void onlyAllowedPropertiesAreBound() throws Exception
+    {
+        MockHttpServletResponse response = post( StrictOrder.class, "{\"name\":\"Bolt\",\"quantity\":2,\"note\":\"x\",\"role\":\"admin\","
+                + "\"lines\":[{\"sku\":\"A\",\"count\":9}]}" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK, response.getOutputString() );
+        Assert.assertEquals( response.getOutputString(), "Bolt/2/null/user/Ax0" );
+    }
+
+    @Test
+    public void validationsApplyToTheBody() throws Exception
+    {
+        MockHttpServletResponse response = post( StrictOrder.class, "{\"name\":\"Widget\",\"quantity\":0,\"lines\":[]}" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        String output = response.getOutputString();
+        Assert.assertTrue( output.contains( "{\"fieldName\":\"name\",\"fieldValue\":\"Widget\",\"errorMessages\":[" ), output );
+        Assert.assertTrue( output.contains( "{\"fieldName\":\"quantity\",\"fieldValue\":\"0\",\"errorMessages\":[" ), output );
+
+        response = post( StrictOrder.class, "{\"quantity\":1,\"lines\":[]}" );
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        Assert.assertTrue( response.getOutputString().contains( "{\"fieldName\":\"name\"," ), response.getOutputString() );
+    }
+
+    @Test
+    public void unknownCharsetIsUnsupportedMediaType() throws Exception
+    {
+        MockHttpServletResponse response = post( getClass(), "{\"name\":\"Widget\"}", "no-such-charset" );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE );
+        Assert.assertEquals( response.getOutputString(), "{\"globalErrors\":[\"The request body charset no-such-charset is not supported.\"]}" );
+    }
+
+    private MockHttpServletResponse post( String body ) throws Exception
+    {
+        return post( getClass(), body );
+    }
+
+    private MockHttpServletResponse post( Class< ? extends ActionBean> beanClass, String body ) throws Exception
+    {
+        return post( beanClass, body, null );
+    }
+
+    private MockHttpServletResponse post( Class< ? extends ActionBean> beanClass, String body, String charset ) throws Exception
+    {
+        String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( beanClass );
+        JsonRequest request = new JsonRequest( "/test", url, body.getBytes( StandardCharsets.UTF_8 ) );
+        request.setMethod( "POST" );
+        if ( charset != null )
+        {
+            request.setCharacterEncoding( charset );
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        context.acceptRequest( request, response );
+        return response;
+    }
+
+    /**
+     * Mock request carrying a JSON body.
+     */
+    private static class JsonRequest extends MockHttpServletRequest
+    {
+
+        private final byte[] body;
+
+        JsonRequest( String contextPath, String requestUri, byte[] body )
+        {
+            super( contextPath, requestUri );
+            this.body = body;
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "application/json; charset=UTF-8";
+        }
+
+        @Override
+        public int getContentLength()
+        {
+            return body.length;
+        }
+
+        @Override
+        public ServletInputStream getInputStream()
+        {
+            final ByteArrayInputStream in = new ByteArrayInputStream( body );
+            return new ServletInputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    return in.read();
+                }
+
+                @Override
+                public int read( byte[] b, int off, int len ) throws IOException
+                {
+                    return in.read( b, off, len );
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.beans.PropertyDescriptor;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.util.ReflectUtil;
+import org.stripesrest.CborWriter;
+import org.stripesrest.JsonAccessor;
+import org.stripesrest.JsonBuilder;
+import org.stripesrest.JsonSerializable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the native JSON serialization performed by JsonBuilder.
+ */
+public class JsonBuilderTest
+{
+
+    public enum Color
+    {
+        RED, GREEN
+    }
+
+    public static class Person
+    {
+        private String name;
+        private String password;
+        private int age;
+        private Person friend;
+        private List< Person> children = new ArrayList< Person>();
+
+        public Person( String name, int age )
+        {
+            this.name = name;
+            this.age = age;
+            this.password = "secret";
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getPassword()
+        {
+            return password;
+        }
+
+        public int getAge()
+        {
+            return age;
+        }
+
+        public Person getFriend()
+        {
+            return friend;
+        }
+
+        public void setFriend( Person friend )
+        {
+            this.friend = friend;
+        }
+
+        public List< Person> getChildren()
+        {
+            return children;
+        }
+    }
+
+    @JsonSerializable
+    public static class Employee extends Person
+    {
+        public Employee( String name, int age )
+        {
+            super( name, age );
+        }
+
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        public long getCaf\u00e9()
+        {
+            return 5000000000L;
+        }
+    }
+
+    private static String compact( Object root, Object... objectsToExclude )
+    {
+        JsonBuilder builder = new JsonBuilder( root, objectsToExclude );
+        builder.setIndent( 0 );
+        return builder.build();
+    }
+
+    @Test
+    public void scalarsAndNestedMaps()
+    {
+        Map< String, Object> response = new LinkedHashMap< String, Object>();
+        response.put( "foo", "bar \"quoted\"\n" );
+        response.put( "int", 1 );
+        response.put( "double", 2.5d );
+        response.put( "whole", 3.0d );
+        response.put( "flag", true );
+        response.put( "nothing", null );
+        response.put( "list", Arrays.asList( 1, 2 ) );
+        response.put( "array", new int[] { 3, 4 } );
+        response.put( "date", new Date( 0 ) );
+
+        Assert.assertEquals( compact( response ), "{\"foo\":\"bar \\\"quoted\\\"\\n\",\"int\":1,\"double\":2.5,\"whole\":3,\"flag\":true,"
+                + "\"nothing\":null,\"list\":[1,2],\"array\":[3,4],\"date\":\"1970-01-01T00:00:00.000Z\"}" );
+    }
+
+    @Test
+    public void defaultOutputIsIndented()
+    {
+        Map< String, Object> response = new LinkedHashMap< String, Object>();
+        response.put( "a", Arrays.asList( 1 ) );
+        response.put( "b", new LinkedHashMap< String, Object>() );
+
+        Assert.assertEquals( new JsonBuilder( response ).build(), "{\n  \"a\": [\n    1\n  ],\n  \"b\": {}\n}" );
+    }
+
+    @Test
+    public void beanPropertiesAndExclusions()
+    {
+        Person parent = new Person( "Parent", 40 );
+        parent.getChildren().add( new Person( "Child", 10 ) );
+
+        Assert.assertEquals( compact( parent, "password", "children[0].password" ),
+                "{\"age\":40,\"children\":[{\"age\":10,\"children\":[],\"friend\":null,\"name\":\"Child\"}],\"friend\":null,\"name\":\"Parent\"}" );
+
+        Assert.assertEquals( compact( parent, "children", String.class ), "{\"age\":40,\"friend\":null}" );
+    }
+
+    @Test
+    public void enumsHaveOrdinalAndName()
+    {
+        Assert.assertEquals( compact( Color.GREEN ), "{\"ordinal\":1,\"name\":\"GREEN\"}" );
+    }
+
+    @Test
+    public void streamsUtf8()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonBuilder builder = new JsonBuilder( Arrays.asList( "caf\u00e9" ) );
+        builder.setIndent( 0 );
+        builder.build( out );
+
+        Assert.assertEquals( out.toByteArray(), "[\"caf\u00e9\"]".getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void preEncodedPropertyNamesMatchEveryWriter() throws Exception
+    {
+        Employee employee = new Employee( "Emp", 30 );
+        String expected = "{\"active\":true,\"age\":30,\"caf\u00e9\":5000000000,\"children\":[],\"friend\":null,\"name\":\"Emp\"}";
+        Assert.assertEquals( compact( employee, "password" ), expected );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonBuilder builder = new JsonBuilder( employee, "password" );
+        builder.setIndent( 0 );
+        builder.build( out );
+        Assert.assertEquals( new String( out.toByteArray(), StandardCharsets.UTF_8 ), expected );
+
+        // The CBOR of the bean must match that of a map written name by name
+        Map< String, Object> map = new LinkedHashMap< String, Object>();
+        map.put( "active", true );
+        map.put( "age", 30 );
+        map.put( "caf\u00e9", 5000000000L );
+        map.put( "children", new ArrayList< Object>() );
+        map.put( "friend", null );
+        map.put( "name", "Emp" );
+
+        ByteArrayOutputStream beanCbor = new ByteArrayOutputStream();
+        new JsonBuilder( employee, "password" ).build( new CborWriter( beanCbor ) );
+        ByteArrayOutputStream mapCbor = new ByteArrayOutputStream();
+        new JsonBuilder( map ).build( new CborWriter( mapCbor ) );
+        Assert.assertEquals( beanCbor.toByteArray(), mapCbor.toByteArray() );
+    }
+
+    @Test
+    public void generatedAccessorMatchesIntrospection() throws Exception
+    {
+        List< String> introspected = new ArrayList< String>();
+        for ( PropertyDescriptor property : ReflectUtil.getPropertyDescriptors( Employee.class ) )
+        {
+            if ( property.getReadMethod() != null && property.getPropertyType() != Class.class )
+            {
+                introspected.add( property.getName() );
+            }
+        }
+
+        JsonAccessor accessor = (JsonAccessor) Class.forName( Employee.class.getName() + JsonAccessor.SUFFIX ).getConstructor().newInstance();
+        Assert.assertEquals( Arrays.asList( accessor.getPropertyNames() ), introspected );
+        Assert.assertEquals( accessor.getPropertyTypes()[ introspected.indexOf( "caf\u00e9" ) ], long.class );
+    }
+
+    @Test
+    public void fieldsSelectNestedProperties()
+    {
+        Person parent = new Person( "Parent", 40 );
+        parent.setFriend( new Person( "Friend", 41 ) );
+        parent.getChildren().add( new Person( "Child", 10 ) );
+
+        JsonBuilder builder = new JsonBuilder( parent );
+        builder.setIndent( 0 );
+        builder.setFields( "name, children.name,children.age,friend,missing" );
+        Assert.assertTrue( builder.hasFields() );
+        Assert.assertEquals( builder.build(),
+                "{\"name\":\"Parent\",\"children\":[{\"name\":\"Child\",\"age\":10}],"
+                + "\"friend\":{\"age\":41,\"children\":[],\"friend\":null,\"name\":\"Friend\",\"password\":\"secret\"}}" );
+
+        // A shorter path includes everything below it, and exclusions still apply
+        builder = new JsonBuilder( Arrays.asList( parent ), "[0].friend.password" );
+        builder.setIndent( 0 );
+        builder.setFields( "friend.name,friend" );
+        Assert.assertEquals( builder.build(), "[{\"friend\":{\"age\":41,\"children\":[],\"friend\":null,\"name\":\"Friend\"}}]" );
+    }
+
+    @Test
+    public void fieldsApplyToMapKeys()
+    {
+        Map< String, Object> response = new LinkedHashMap< String, Object>();
+        response.put( "a", 1 );
+        response.put( "b", Arrays.asList( Color.RED ) );
+        response.put( "c", 3 );
+
+        JsonBuilder builder = new JsonBuilder( response );
+        builder.setIndent( 0 );
+        builder.setFields( "b.name,c" );
+        Assert.assertEquals( builder.build(), "{\"b\":[{\"name\":\"RED\"}],\"c\":3}" );
+    }
+
+    @Test( expectedExceptions = StripesRuntimeException.class )
+    public void circularReferencesAreRejected()
+    {
+        Person a = new Person( "A", 1 );
+        Person b = new Person( "B", 2 );
+        a.setFriend( b );
+        b.setFriend( a );
+
+        compact( a );
+    }
+}
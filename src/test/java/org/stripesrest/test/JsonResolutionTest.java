@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import org.stripesrest.BufferPoolMXBean;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RestActionInterceptor;
+import org.stripesrest.RestMetrics;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the conditional GET, HEAD, compression and content negotiation
+ * handling of JsonResolution.
+ */
+public class JsonResolutionTest
+{
+
+    private static final Map< String, String> BODY = Collections.singletonMap( "foo", "bar" );
+    private static final List< String> LARGE_BODY = new ArrayList< String>();
+    private static final List< String> HUGE_BODY = new ArrayList< String>();
+
+    static
+    {
+        for ( int i = 0; i < 500; i++ )
+        {
+            LARGE_BODY.add( "Item number " + i );
+        }
+        for ( int i = 0; i < 5000; i++ )
+        {
+            HUGE_BODY.add( "Item number " + i );
+        }
+    }
+
+    @Test
+    public void getSendsETagAndContentLength() throws Exception
+    {
+        MockHttpServletResponse response = execute( "GET", null );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertNotNull( eTag( response ) );
+        Assert.assertEquals( response.getContentLength(), response.getOutputBytes().length );
+        Assert.assertEquals( response.getOutputString(), "{\n  \"foo\": \"bar\"\n}" );
+    }
+
+    @Test
+    public void matchingIfNoneMatchIsNotModified() throws Exception
+    {
+        String eTag = eTag( execute( "GET", null ) );
+
+        MockHttpServletResponse response = execute( "GET", "\"other\", W/" + eTag );
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_NOT_MODIFIED );
+        Assert.assertEquals( eTag( response ), eTag );
+        Assert.assertEquals( response.getOutputBytes().length, 0 );
+
+        response = execute( "GET", "\"other\"" );
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertTrue( response.getOutputBytes().length > 0 );
+    }
+
+    @Test
+    public void headSendsHeadersWithoutBody() throws Exception
+    {
+        MockHttpServletResponse get = execute( "GET", null );
+        MockHttpServletResponse head = execute( "HEAD", null );
+
+        Assert.assertEquals( head.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( eTag( head ), eTag( get ) );
+        Assert.assertEquals( head.getContentLength(), get.getOutputBytes().length );
+        Assert.assertEquals( head.getOutputBytes().length, 0 );
+    }
+
+    @Test
+    public void rawJsonTextDoesNotVaryOnAccept() throws Exception
+    {
+        for ( String method : new String[] { "GET", "POST" } )
+        {
+            MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+            request.setMethod( method );
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            new JsonResolution( "{\"foo\": \"bar\"}" ).execute( request, response );
+
+            Assert.assertEquals( response.getOutputString(), "{\"foo\": \"bar\"}" );
+            Assert.assertFalse( response.getHeaderMap().get( "Vary" ).contains( "Accept" ) );
+        }
+
+        MockHttpServletResponse response = execute( "GET", null );
+        Assert.assertTrue( response.getHeaderMap().get( "Vary" ).contains( "Accept" ) );
+    }
+
+    @Test
+    public void postIsStreamedWithoutETag() throws Exception
+    {
+        MockHttpServletResponse response = execute( "POST", null );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertNull( eTag( response ) );
+        Assert.assertTrue( response.getOutputBytes().length > 0 );
+    }
+
+    @Test
+    public void largeGetIsCompressed() throws Exception
+    {
+        String plain = execute( "GET", LARGE_BODY, null, null ).getOutputString();
+        MockHttpServletResponse response = execute( "GET", LARGE_BODY, "deflate;q=0.5, gzip", null );
+
+        Assert.assertEquals( header( response, "Content-Encoding" ), "gzip" );
+        Assert.assertEquals( header( response, "Vary" ), "Accept-Encoding" );
+        Assert.assertEquals( response.getContentLength(), response.getOutputBytes().length );
+        Assert.assertTrue( response.getOutputBytes().length < plain.length() / 4 );
+        Assert.assertEquals( inflate( new GZIPInputStream( new ByteArrayInputStream( response.getOutputBytes() ) ) ), plain );
+
+        // The compressed representation has its own ETag, but either one is current
+        Assert.assertTrue( eTag( response ).endsWith( "-gzip\"" ) );
+        Assert.assertEquals( execute( "GET", LARGE_BODY, "gzip", eTag( response ) ).getStatus(), HttpServletResponse.SC_NOT_MODIFIED );
+        Assert.assertEquals( execute( "GET", LARGE_BODY, "gzip", eTag( execute( "GET", LARGE_BODY, null, null ) ) ).getStatus(), HttpServletResponse.SC_NOT_MODIFIED );
+    }
+
+    @Test
+    public void getLargerThanTheETagLimitIsStreamed() throws Exception
+    {
+        String plain = execute( "POST", HUGE_BODY, null, null ).getOutputString();
+        Assert.assertTrue( plain.length() > JsonResolution.DEFAULT_ETAG_MAX_SIZE );
+
+        MockHttpServletResponse response = execute( "GET", HUGE_BODY, null, null );
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertNull( eTag( response ) );
+        Assert.assertEquals( response.getOutputString(), plain );
+
+        response = execute( "GET", HUGE_BODY, "gzip", null );
+        Assert.assertNull( eTag( response ) );
+        Assert.assertEquals( header( response, "Content-Encoding" ), "gzip" );
+        Assert.assertEquals( inflate( new GZIPInputStream( new ByteArrayInputStream( response.getOutputBytes() ) ) ), plain );
+
+        MockHttpServletResponse head = execute( "HEAD", HUGE_BODY, null, null );
+        Assert.assertNull( eTag( head ) );
+        Assert.assertEquals( head.getContentLength(), plain.length() );
+        Assert.assertEquals( head.getOutputBytes().length, 0 );
+
+        // HEAD gets the headers of GET, with the length of the compressed body
+        head = execute( "HEAD", HUGE_BODY, "gzip", null );
+        Assert.assertEquals( header( head, "Content-Encoding" ), "gzip" );
+        Assert.assertEquals( head.getContentLength(), response.getOutputBytes().length );
+        Assert.assertEquals( head.getOutputBytes().length, 0 );
+    }
+
+    @Test
+    public void largePostIsCompressedWhileStreaming() throws Exception
+    {
+        String plain = execute( "POST", LARGE_BODY, null, null ).getOutputString();
+        MockHttpServletResponse response = execute( "POST", LARGE_BODY, "gzip;q=0, deflate", null );
+
+        Assert.assertEquals( header( response, "Content-Encoding" ), "deflate" );
+        Assert.assertEquals( inflate( new InflaterInputStream( new ByteArrayInputStream( response.getOutputBytes() ) ) ), plain );
+    }
+
+    @Test
+    public void smallResponsesAreNotCompressed() throws Exception
+    {
+        for ( String method : new String[] { "GET", "POST" } )
+        {
+            MockHttpServletResponse response = execute( method, BODY, "gzip", null );
+
+            Assert.assertNull( header( response, "Content-Encoding" ) );
+            Assert.assertEquals( header( response, "Vary" ), "Accept-Encoding" );
+            Assert.assertEquals( response.getOutputString(), "{\n  \"foo\": \"bar\"\n}" );
+        }
+    }
+
+    @Test
+    public void fieldsParameterProjectsResponse() throws Exception
+    {
+        Map< String, Object> body = new LinkedHashMap< String, Object>();
+        body.put( "foo", "bar" );
+        body.put( "other", "value" );
+
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+        request.setMethod( "GET" );
+        request.getParameterMap().put( JsonResolution.FIELDS_PARAMETER, new String[] { "foo" } );
+
+        // The parameter is ignored unless turned on
+        StripesTestFixture.createServletContext().close();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( body ).execute( request, response );
+        Assert.assertEquals( response.getOutputString(), "{\n  \"foo\": \"bar\",\n  \"other\": \"value\"\n}" );
+
+        Map< String, String> parameters = StripesTestFixture.getDefaultFilterParams();
+        parameters.put( RestActionInterceptor.FIELDS_ENABLED, "true" );
+        MockServletContext context = new MockServletContext( "test" )
+                .addFilter( StripesFilter.class, "StripesFilter", parameters )
+                .setServlet( DispatcherServlet.class, "StripesDispatcher", null );
+        try
+        {
+            response = new MockHttpServletResponse();
+            new JsonResolution( body ).execute( request, response );
+            Assert.assertEquals( response.getOutputString(), "{\n  \"foo\": \"bar\"\n}" );
+
+            // Fields set by the handler take precedence
+            response = new MockHttpServletResponse();
+            new JsonResolution( body ).setFields( "other" ).execute( request, response );
+            Assert.assertEquals( response.getOutputString(), "{\n  \"other\": \"value\"\n}" );
+        }
+        finally
+        {
+            context.close();
+            // Turns the parameter off again for the other tests
+            StripesTestFixture.createServletContext().close();
+        }
+    }
+
+    @Test
+    public void cborIsSentWhenPreferred() throws Exception
+    {
+        Map< String, Object> body = new LinkedHashMap< String, Object>();
+        body.put( "foo", "bar" );
+        body.put( "n", new Number[] { 1, -2, 1.5 } );
+        body.put( "ok", true );
+        body.put( "none", null );
+
+        for ( String method : new String[] { "GET", "POST" } )
+        {
+            MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+            request.setMethod( method );
+            request.addHeader( "Accept", "application/json;q=0.5, application/cbor" );
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            new JsonResolution( body ).execute( request, response );
+
+            Assert.assertEquals( response.getContentType(), "application/cbor" );
+            Assert.assertTrue( response.getHeaderMap().get( "Vary" ).contains( "Accept" ) );
+            Assert.assertEquals( response.getOutputBytes(), new byte[]
+            {
+                (byte) 0xBF, 0x63, 'f', 'o', 'o', 0x63, 'b', 'a', 'r', 0x61, 'n', (byte) 0x9F, 0x01, 0x21, (byte) 0xFB, 0x3F, (byte) 0xF8, 0, 0, 0, 0, 0, 0, (byte) 0xFF,
+                0x62, 'o', 'k', (byte) 0xF5, 0x64, 'n', 'o', 'n', 'e', (byte) 0xF6, (byte) 0xFF
+            } );
+        }
+
+        // JSON wins ties, and is sent to clients which accept anything
+        for ( String accept : new String[] { "*/*", "application/cbor, application/json" } )
+        {
+            MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+            request.setMethod( "GET" );
+            request.addHeader( "Accept", accept );
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            new JsonResolution( BODY ).execute( request, response );
+            Assert.assertEquals( response.getOutputString(), "{\n  \"foo\": \"bar\"\n}" );
+        }
+    }
+
+    @Test
+    public void buffersAreReturnedToThePool() throws Exception
+    {
+        BufferPoolMXBean pool = RestMetrics.getBufferPool();
+        String plain = execute( "POST", LARGE_BODY, null, null ).getOutputString();
+
+        long acquired = pool.getAcquireCount();
+        long allocated = pool.getAllocationCount();
+        for ( String method : new String[] { "GET", "POST" } )
+        {
+            Assert.assertEquals( execute( method, LARGE_BODY, null, null ).getOutputString(), plain );
+            Assert.assertEquals( inflate( new GZIPInputStream( new ByteArrayInputStream( execute( method, LARGE_BODY, "gzip", null ).getOutputBytes() ) ) ), plain );
+        }
+
+        Assert.assertTrue( pool.getAcquireCount() > acquired );
+        Assert.assertTrue( pool.getAllocationCount() - allocated < pool.getAcquireCount() - acquired );
+        Assert.assertTrue( pool.getPooledCount() > 0 );
+    }
+
+    private static MockHttpServletResponse execute( String method, String ifNoneMatch ) throws Exception
+    {
+        return execute( method, BODY, null, ifNoneMatch );
+    }
+
+    private static MockHttpServletResponse execute( String method, Object body, String acceptEncoding, String ifNoneMatch ) throws Exception
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+        request.setMethod( method );
+        if ( acceptEncoding != null )
+        {
+            request.addHeader( "Accept-Encoding", acceptEncoding );
+        }
+        if ( ifNoneMatch != null )
+        {
+            request.addHeader( "If-None-Match", ifNoneMatch );
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonResolution( body ).execute( request, response );
+        return response;
+    }
+
+    private static String eTag( MockHttpServletResponse response )
+    {
+        return header( response, "ETag" );
+    }
+
+    private static String header( MockHttpServletResponse response, String name )
+    {
+        return response.getHeaderMap().containsKey( name ) ? (String) response.getHeaderMap().get( name ).get( 0 ) : null;
+    }
+
+    private static String inflate( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for ( int count = in.read( buffer ); count > 0; count = in.read( buffer ) )
+        {
+            out.write( buffer, 0, count );
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
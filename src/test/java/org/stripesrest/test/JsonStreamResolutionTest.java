@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.JsonStreamResolution;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the chunked streaming and source handling of
+ * JsonStreamResolution.
+ */
+public class JsonStreamResolutionTest
+{
+
+    private static final List< String> ITEMS = new ArrayList< String>();
+
+    static
+    {
+        for ( int i = 0; i < 500; i++ )
+        {
+            ITEMS.add( "Item number " + i );
+        }
+    }
+
+    @Test
+    public void streamMatchesJsonResolutionAndIsClosed() throws Exception
+    {
+        MockHttpServletResponse expected = new MockHttpServletResponse();
+        new JsonResolution( ITEMS ).execute( request( "POST", null ), expected );
+
+        final AtomicBoolean closed = new AtomicBoolean();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonStreamResolution( ITEMS.stream().onClose( new Runnable()
+        {
+            public void run()
+            {
+                closed.set( true );
+            }
+        } ) ).execute( request( "GET", null ), response );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( response.getContentType(), "application/json" );
+        Assert.assertNull( response.getHeaderMap().get( "ETag" ) );
+        Assert.assertEquals( response.getOutputString(), expected.getOutputString() );
+        Assert.assertTrue( closed.get() );
+    }
+
+    @Test
+    public void responseIsFlushedInChunks() throws Exception
+    {
+        FlushCountingResponse response = new FlushCountingResponse();
+        new JsonStreamResolution( ITEMS.iterator() ).setChunkSize( 100 ).execute( request( "GET", null ), response );
+
+        Assert.assertTrue( response.flushes >= 5, "Flushes: " + response.flushes );
+        Assert.assertEquals( response.getOutputString(), plain() );
+    }
+
+    @Test
+    public void compressedStreamInflatesToPlainArray() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonStreamResolution( ITEMS.spliterator() ).setChunkSize( 50 ).execute( request( "GET", "gzip" ), response );
+
+        Assert.assertEquals( response.getHeaderMap().get( "Content-Encoding" ).get( 0 ), "gzip" );
+        Assert.assertEquals( inflate( new GZIPInputStream( new ByteArrayInputStream( response.getOutputBytes() ) ) ), plain() );
+    }
+
+    @Test
+    public void sourceIsClosedWhenSerializationFails() throws Exception
+    {
+        FailingIterator source = new FailingIterator( 150 );
+        try
+        {
+            new JsonStreamResolution( source ).setChunkSize( 100 ).execute( request( "GET", null ), new MockHttpServletResponse() );
+            Assert.fail( "The failure after the first chunk should have been rethrown" );
+        }
+        catch ( IllegalStateException e )
+        {
+            Assert.assertEquals( e.getMessage(), "Cursor failed" );
+        }
+        Assert.assertTrue( source.closed );
+    }
+
+    @Test
+    public void headDoesNotReadSource() throws Exception
+    {
+        FailingIterator source = new FailingIterator( 0 );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonStreamResolution( source ).execute( request( "HEAD", null ), response );
+
+        Assert.assertEquals( response.getOutputBytes().length, 0 );
+        Assert.assertTrue( source.closed );
+    }
+
+    private String plain() throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new JsonStreamResolution( ITEMS.iterator() ).execute( request( "POST", null ), response );
+        return response.getOutputString();
+    }
+
+    private static MockHttpServletRequest request( String method, String acceptEncoding )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", "/resource" );
+        request.setMethod( method );
+        if ( acceptEncoding != null )
+        {
+            request.addHeader( "Accept-Encoding", acceptEncoding );
+        }
+        return request;
+    }
+
+    private static String inflate( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for ( int count = in.read( buffer ); count > 0; count = in.read( buffer ) )
+        {
+            out.write( buffer, 0, count );
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Cursor-like source which fails after a number of elements.
+     */
+    private static class FailingIterator implements Iterator< String>, AutoCloseable
+    {
+
+        private final int failAfter;
+        private int count;
+        private boolean closed;
+
+        FailingIterator( int failAfter )
+        {
+            this.failAfter = failAfter;
+        }
+
+        public boolean hasNext()
+        {
+            if ( count == failAfter )
+            {
+                throw new IllegalStateException( "Cursor failed" );
+            }
+            return true;
+        }
+
+        public String next()
+        {
+            return "Row " + count++;
+        }
+
+        public void close()
+        {
+            closed = true;
+        }
+    }
+
+    /**
+     * Mock response which counts the flushes of its output stream.
+     */
+    private static class FlushCountingResponse extends MockHttpServletResponse
+    {
+
+        private int flushes;
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            final ServletOutputStream out = super.getOutputStream();
+            return new ServletOutputStream()
+            {
+                @Override
+                public void write( int b ) throws IOException
+                {
+                    out.write( b );
+                }
+
+                @Override
+                public void write( byte[] b, int off, int len ) throws IOException
+                {
+                    out.write( b, off, len );
+                }
+
+                @Override
+                public void flush() throws IOException
+                {
+                    flushes++;
+                    out.flush();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import org.stripesrest.CoalesceRequests;
+import org.stripesrest.GET;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RequestCoalescer;
+import org.stripesrest.RestActionBean;
+import org.stripesrest.RestMetrics;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the coalescing of identical concurrent GETs.
+ */
+public class RequestCoalescingTest implements ActionBean, RestActionBean
+{
+
+    private static final AtomicInteger calls = new AtomicInteger();
+    private static final CountDownLatch entered = new CountDownLatch( 1 );
+    private static final CountDownLatch leave = new CountDownLatch( 1 );
+    private static final AtomicInteger slowCalls = new AtomicInteger();
+    private static final CountDownLatch slowEntered = new CountDownLatch( 1 );
+    private static final CountDownLatch slowLeave = new CountDownLatch( 1 );
+
+    private MockServletContext context;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        context = StripesTestFixture.createServletContext();
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    @CoalesceRequests
+    public Resolution get() throws InterruptedException
+    {
+        int call = calls.incrementAndGet();
+        entered.countDown();
+        leave.await( 5, TimeUnit.SECONDS );
+        return new JsonResolution( "call " + call );
+    }
+
+    @GET
+    @CoalesceRequests( maxWait = 50 )
+    public Resolution slow() throws InterruptedException
+    {
+        int call = slowCalls.incrementAndGet();
+        if ( call == 1 )
+        {
+            slowEntered.countDown();
+            slowLeave.await( 5, TimeUnit.SECONDS );
+        }
+        return new JsonResolution( "slow call " + call );
+    }
+
+    private ActionBeanContext actionBeanContext;
+
+    public ActionBeanContext getContext()
+    {
+        return this.actionBeanContext;
+    }
+
+    public void setContext( ActionBeanContext actionBeanContext )
+    {
+        this.actionBeanContext = actionBeanContext;
+    }
+
+    @Test
+    public void identicalGetsShareOneExecution() throws Exception
+    {
+        final String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        RequestCoalescer coalescer = RequestCoalescer.forEvent( getClass(), "get" );
+        List< Thread> threads = new ArrayList< Thread>();
+        final List< MockHttpServletResponse> responses = new ArrayList< MockHttpServletResponse>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            final MockHttpServletResponse response = new MockHttpServletResponse();
+            responses.add( response );
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        context.acceptRequest( get( url ), response );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            };
+            threads.add( thread );
+            thread.start();
+            if ( i == 0 )
+            {
+                Assert.assertTrue( entered.await( 5, TimeUnit.SECONDS ) );
+            }
+        }
+
+        // Wait for the other two to queue up behind the first
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( coalescer.getWaitingCount() < 2 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 1 );
+        }
+        Assert.assertEquals( coalescer.getWaitingCount(), 2 );
+
+        leave.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join( 5000 );
+        }
+
+        Assert.assertEquals( calls.get(), 1 );
+        for ( MockHttpServletResponse response : responses )
+        {
+            Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+            Assert.assertEquals( response.getOutputString(), "call 1" );
+        }
+
+        Assert.assertEquals( coalescer.getWaitingCount(), 0 );
+        Assert.assertEquals( coalescer.getExecutionCount(), 1 );
+        Assert.assertEquals( coalescer.getCoalescedCount(), 2 );
+        Assert.assertEquals( RestMetrics.forResource( getClass(), "GET" ).getCoalescedCount(), 2 );
+
+        // A request which asks for a fresh response runs the handler itself
+        MockHttpServletRequest fresh = get( url );
+        fresh.addHeader( "Cache-Control", "no-cache" );
+        MockHttpServletResponse bypassed = new MockHttpServletResponse();
+        context.acceptRequest( fresh, bypassed );
+        Assert.assertEquals( bypassed.getOutputString(), "call 2" );
+        Assert.assertEquals( coalescer.getExecutionCount(), 1 );
+
+        // So do requests carrying credentials which are not part of the key
+        MockHttpServletRequest authorized = get( url );
+        authorized.addHeader( "Authorization", "Bearer token" );
+        MockHttpServletResponse uncoalesced = new MockHttpServletResponse();
+        context.acceptRequest( authorized, uncoalesced );
+        Assert.assertEquals( uncoalesced.getOutputString(), "call 3" );
+
+        MockHttpServletRequest withCookie = get( url );
+        withCookie.addHeader( "Cookie", "JSESSIONID=1234" );
+        uncoalesced = new MockHttpServletResponse();
+        context.acceptRequest( withCookie, uncoalesced );
+        Assert.assertEquals( uncoalesced.getOutputString(), "call 4" );
+        Assert.assertEquals( coalescer.getExecutionCount(), 1 );
+    }
+
+    @Test
+    public void waitingIsBounded() throws Exception
+    {
+        final String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        final MockHttpServletResponse first = new MockHttpServletResponse();
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    context.acceptRequest( slow( url ), first );
+                }
+                catch ( Exception e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        };
+        thread.start();
+        Assert.assertTrue( slowEntered.await( 5, TimeUnit.SECONDS ) );
+
+        // The identical request gives up on the hung execution and runs its own
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        context.acceptRequest( slow( url ), second );
+        Assert.assertEquals( second.getOutputString(), "slow call 2" );
+
+        slowLeave.countDown();
+        thread.join( 5000 );
+        Assert.assertEquals( first.getOutputString(), "slow call 1" );
+        Assert.assertEquals( RequestCoalescer.forEvent( getClass(), "slow" ).getExecutionCount(), 1 );
+    }
+
+    private static MockHttpServletRequest slow( String url )
+    {
+        MockHttpServletRequest request = get( url );
+        request.getParameterMap().put( "slow", new String[] { "" } );
+        return request;
+    }
+
+    private static MockHttpServletRequest get( String url )
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest( "/test", url );
+        request.setMethod( "GET" );
+        return request;
+    }
+}
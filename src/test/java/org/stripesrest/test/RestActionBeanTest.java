@@ -15,13 +15,31 @@
  */
 package org.stripesrest.test;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.timer.Timer;
 import javax.servlet.http.HttpServletResponse;
 import net.sourceforge.stripes.action.ActionBean;
 import net.sourceforge.stripes.action.ActionBeanContext;
 import net.sourceforge.stripes.action.DefaultHandler;
 import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.exception.StripesRuntimeException;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
 import net.sourceforge.stripes.mock.MockRoundtrip;
 import net.sourceforge.stripes.mock.MockServletContext;
 import net.sourceforge.stripes.util.Log;
@@ -29,9 +47,21 @@ import net.sourceforge.stripes.validation.SimpleError;
 import net.sourceforge.stripes.validation.Validate;
 import net.sourceforge.stripes.validation.ValidationErrors;
 import net.sourceforge.stripes.validation.ValidationMethod;
+import org.stripesrest.AsyncTimeout;
+import org.stripesrest.CacheResponse;
+import org.stripesrest.GET;
+import org.stripesrest.HttpRequestMethod;
 import org.stripesrest.JsonResolution;
+import org.stripesrest.PATCH;
 import org.stripesrest.POST;
+import org.stripesrest.ResponseCache;
 import org.stripesrest.RestActionBean;
+import org.stripesrest.RestActionInterceptor;
+import org.stripesrest.RestDispatcher;
+import org.stripesrest.RestLifecycleListener;
+import org.stripesrest.RestMetrics;
+import org.stripesrest.RestMetricsActionBean;
+import org.stripesrest.RestStartup;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -45,6 +75,8 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
 
     private static final Log log = Log.getInstance( RestActionBeanTest.class );
 
+    private static final AtomicInteger cachedGetCalls = new AtomicInteger();
+
     @Validate( on = "head", required = true )
     private String id;
 
@@ -89,6 +121,46 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         throw new RuntimeException( "This is a completely unhandled exception." );
     }
 
+    @GET
+    public CompletionStage< Resolution> asyncGet()
+    {
+        return CompletableFuture.supplyAsync( new Supplier< Resolution>()
+        {
+            public Resolution get()
+            {
+                return new JsonResolution( "Successful async get!" );
+            }
+        } );
+    }
+
+    @GET
+    public Resolution dispatchedGet()
+    {
+        return new JsonResolution( new Throwable().getStackTrace()[ 1 ].getClassName() );
+    }
+
+    @GET
+    @AsyncTimeout( value = 50, status = HttpServletResponse.SC_GATEWAY_TIMEOUT )
+    public CompletionStage< Resolution> asyncTimeoutGet()
+    {
+        return new CompletableFuture< Resolution>();
+    }
+
+    @GET
+    public CompletionStage< Resolution> asyncErrorGet()
+    {
+        CompletableFuture< Resolution> future = new CompletableFuture< Resolution>();
+        future.completeExceptionally( new RuntimeException( "This is a failed asynchronous call." ) );
+        return future;
+    }
+
+    @GET
+    @CacheResponse( ttl = 60, keyParameters = "id" )
+    public Resolution cachedGet()
+    {
+        return new JsonResolution( "Call " + cachedGetCalls.incrementAndGet() + " for " + id );
+    }
+
     @ValidationMethod( on = "head" )
     public void validateHeadCall( ValidationErrors errors )
     {
@@ -100,6 +172,12 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         return new JsonResolution( "Successful head!" );
     }
 
+    @PATCH
+    public Resolution renamePatch()
+    {
+        return new JsonResolution( "Renamed " + id );
+    }
+
     public void setId( String id )
     {
         this.id = id;
@@ -130,6 +208,8 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         trip.execute();
 
         Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( trip.getResponse().getContentType(), "application/json" );
+        Assert.assertTrue( trip.getResponse().getOutputString().contains( "\"foo\": \"bar\"" ) );
         logTripResponse( trip );
     }
 
@@ -143,13 +223,119 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         logTripResponse( trip );
     }
 
+    @Test
+    public void unsupportedMethodListsAllowedMethods() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "PUT" );
+        trip.execute();
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+        Assert.assertEquals( trip.getResponse().getHeaderMap().get( "Allow" ).get( 0 ), "GET, POST, HEAD, PATCH, OPTIONS" );
+        logTripResponse( trip );
+    }
+
+    @Test
+    public void patchHandlerIsDispatched() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.setParameter( "id", "SOME_ID" );
+        trip.getRequest().setMethod( "PATCH" );
+        trip.execute( "renamePatch" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( trip.getResponse().getOutputString(), "Renamed SOME_ID" );
+    }
+
+    @Test
+    public void optionsAreAnsweredWithAllowedMethods() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "OPTIONS" );
+        trip.execute();
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_NO_CONTENT );
+        Assert.assertEquals( trip.getResponse().getHeaderMap().get( "Allow" ).get( 0 ), "GET, POST, HEAD, PATCH, OPTIONS" );
+        Assert.assertNull( trip.getResponse().getHeaderMap().get( "Access-Control-Allow-Origin" ) );
+    }
+
+    @Test
+    public void corsPreflightsAreAnsweredForAllowedOrigins() throws Exception
+    {
+        MockServletContext cors = createServletContext( RestActionInterceptor.CORS_ORIGINS, "https://app.example.com" );
+        try
+        {
+            MockRoundtrip preflight = new MockRoundtrip( cors, getClass() );
+            preflight.getRequest().setMethod( "OPTIONS" );
+            preflight.getRequest().addHeader( "Origin", "https://app.example.com" );
+            preflight.getRequest().addHeader( "Access-Control-Request-Method", "PATCH" );
+            preflight.execute();
+            Assert.assertEquals( preflight.getResponse().getStatus(), HttpServletResponse.SC_NO_CONTENT );
+            Assert.assertEquals( preflight.getResponse().getHeaderMap().get( "Access-Control-Allow-Origin" ).get( 0 ), "https://app.example.com" );
+            Assert.assertEquals( preflight.getResponse().getHeaderMap().get( "Access-Control-Allow-Methods" ).get( 0 ), "GET, POST, HEAD, PATCH, OPTIONS" );
+            Assert.assertEquals( preflight.getResponse().getHeaderMap().get( "Access-Control-Max-Age" ).get( 0 ), "3600" );
+
+            MockRoundtrip call = new MockRoundtrip( cors, getClass() );
+            call.getRequest().setMethod( "GET" );
+            call.getRequest().addHeader( "Origin", "https://app.example.com" );
+            call.execute();
+            Assert.assertEquals( call.getResponse().getStatus(), HttpServletResponse.SC_OK );
+            Assert.assertEquals( call.getResponse().getHeaderMap().get( "Access-Control-Allow-Origin" ).get( 0 ), "https://app.example.com" );
+            Assert.assertTrue( call.getResponse().getHeaderMap().get( "Vary" ).contains( "Origin" ) );
+
+            MockRoundtrip foreign = new MockRoundtrip( cors, getClass() );
+            foreign.getRequest().setMethod( "OPTIONS" );
+            foreign.getRequest().addHeader( "Origin", "https://elsewhere.example.com" );
+            foreign.getRequest().addHeader( "Access-Control-Request-Method", "PATCH" );
+            foreign.execute();
+            Assert.assertNull( foreign.getResponse().getHeaderMap().get( "Access-Control-Allow-Origin" ) );
+        }
+        finally
+        {
+            cors.close();
+        }
+    }
+
+    @Test
+    public void corsCredentialsAreNeverAllowedFromAnyOrigin() throws Exception
+    {
+        Map< String, String> parameters = StripesTestFixture.getDefaultFilterParams();
+        parameters.put( RestActionInterceptor.CORS_ORIGINS, "*" );
+        parameters.put( RestActionInterceptor.CORS_ALLOW_CREDENTIALS, "true" );
+        MockServletContext cors = new MockServletContext( "test" )
+                .addFilter( StripesFilter.class, "StripesFilter", parameters )
+                .setServlet( DispatcherServlet.class, "StripesDispatcher", null );
+        try
+        {
+            MockRoundtrip call = new MockRoundtrip( cors, getClass() );
+            call.getRequest().setMethod( "GET" );
+            call.getRequest().addHeader( "Origin", "https://evil.example.com" );
+            call.execute();
+            Assert.assertEquals( call.getResponse().getHeaderMap().get( "Access-Control-Allow-Origin" ).get( 0 ), "*" );
+            Assert.assertNull( call.getResponse().getHeaderMap().get( "Access-Control-Allow-Credentials" ) );
+        }
+        finally
+        {
+            cors.close();
+        }
+    }
+
+    @Test
+    public void eventNotAnnotatedForMethod() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "runtimeErrorPost" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+        Assert.assertEquals( trip.getResponse().getHeaderMap().get( "Allow" ).get( 0 ), "POST" );
+        logTripResponse( trip );
+    }
+
     @Test
     public void missingRequiredParameterOnHead() throws Exception
     {
         MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
         trip.getRequest().setMethod( "HEAD" );
         trip.execute();
-        Assert.assertNotEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        Assert.assertTrue( trip.getResponse().getOutputString().startsWith( "{\"globalErrors\":[],\"fieldErrors\":[{\"fieldName\":\"id\",\"fieldValue\":null,\"errorMessages\":[\"" ) );
         logTripResponse( trip );
     }
 
@@ -160,11 +346,37 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         trip.setParameter( "id", "SOME_ID" );
         trip.getRequest().setMethod( "HEAD" );
         trip.execute();
-        Assert.assertNotEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_BAD_REQUEST );
         Assert.assertTrue( trip.getValidationErrors() != null && !trip.getValidationErrors().isEmpty() );
+        Assert.assertEquals( trip.getResponse().getOutputString(), "{\"globalErrors\":[\"The head request was not valid for whatever custom reason.\"]}" );
         logTripResponse( trip );
     }
 
+    @Test
+    public void errorsFollowTheAcceptHeader() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.setParameter( "id", "SOME_ID" );
+        trip.getRequest().setMethod( "HEAD" );
+        trip.getRequest().addHeader( "Accept", "application/cbor" );
+        trip.execute();
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        Assert.assertEquals( trip.getResponse().getContentType(), "application/cbor" );
+
+        String message = "The head request was not valid for whatever custom reason.";
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write( 0xBF );
+        expected.write( 0x6C );
+        expected.write( "globalErrors".getBytes( StandardCharsets.US_ASCII ) );
+        expected.write( 0x9F );
+        expected.write( 0x78 );
+        expected.write( message.length() );
+        expected.write( message.getBytes( StandardCharsets.US_ASCII ) );
+        expected.write( 0xFF );
+        expected.write( 0xFF );
+        Assert.assertEquals( trip.getResponse().getOutputBytes(), expected.toByteArray() );
+    }
+
     @Test
     public void testUnhandledExceptionAtRuntime() throws Exception
     {
@@ -172,9 +384,296 @@ public class RestActionBeanTest implements ActionBean, RestActionBean
         trip.getRequest().setMethod( "POST" );
         trip.execute( "runtimeErrorPost" );
         Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+        Assert.assertEquals( trip.getResponse().getOutputString(), "{\"globalErrors\":[\"Unexpected error occurred executing this API call: This is a completely unhandled exception.\"]}" );
+        Assert.assertEquals( trip.getResponse().getContentLength(), trip.getResponse().getOutputBytes().length );
+        logTripResponse( trip );
+    }
+
+    @Test
+    public void successfulAsyncGet() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "asyncGet" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertEquals( trip.getResponse().getOutputString(), "Successful async get!" );
+        logTripResponse( trip );
+    }
+
+    @Test
+    public void asyncGetTimesOut() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "asyncTimeoutGet" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_GATEWAY_TIMEOUT );
+        Assert.assertTrue( trip.getResponse().getOutputString().contains( "globalErrors" ) );
+        logTripResponse( trip );
+    }
+
+    @Test
+    public void asyncGetCompletesExceptionally() throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "asyncErrorGet" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+        Assert.assertTrue( trip.getResponse().getOutputString().contains( "This is a failed asynchronous call." ) );
         logTripResponse( trip );
     }
 
+    @Test
+    public void cachedGetIsServedFromCache() throws Exception
+    {
+        ResponseCache cache = ResponseCache.forEvent( getClass(), "cachedGet" );
+        cache.invalidateAll();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        String first = cachedGet( "A", "1" );
+        Assert.assertEquals( cachedGet( "A", "2" ), first, "Parameters outside the key should not matter" );
+        Assert.assertNotEquals( cachedGet( "B", "1" ), first );
+        Assert.assertEquals( cache.getHitCount() - hits, 1 );
+        Assert.assertEquals( cache.getMissCount() - misses, 2 );
+
+        ResponseCache.invalidate( getClass() );
+        Assert.assertNotEquals( cachedGet( "A", "1" ), first );
+    }
+
+    @Test
+    public void cachedGetIsNeverSharedBetweenClients() throws Exception
+    {
+        ResponseCache cache = ResponseCache.forEvent( getClass(), "cachedGet" );
+        cache.invalidateAll();
+
+        // Each remote user has entries of their own
+        String alice = cachedGetAs( "alice", null, null );
+        Assert.assertEquals( cachedGetAs( "alice", null, null ), alice );
+        Assert.assertNotEquals( cachedGetAs( "bob", null, null ), alice );
+
+        // Calls with undeclared credentials are neither answered nor cached
+        long misses = cache.getMissCount();
+        String bearer = cachedGetAs( null, "Authorization", "Bearer token" );
+        Assert.assertNotEquals( cachedGetAs( null, "Authorization", "Bearer token" ), bearer );
+        Assert.assertNotEquals( cachedGetAs( null, "Cookie", "JSESSIONID=1234" ), bearer );
+        Assert.assertEquals( cache.getMissCount(), misses );
+    }
+
+    @Test
+    public void metricsAreRecordedPerVerb() throws Exception
+    {
+        RestMetrics getMetrics = RestMetrics.forResource( getClass(), "GET" );
+        RestMetrics putMetrics = RestMetrics.forResource( getClass(), "PUT" );
+        long requests = getMetrics.getRequestCount();
+        long successes = getMetrics.getSuccessCount();
+        long bytes = getMetrics.getBytesWritten();
+        long eventHandling = getMetrics.getStageLatency( LifecycleStage.EventHandling ).getCount();
+        long methodNotAllowed = putMetrics.getMethodNotAllowedCount();
+
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute();
+
+        Assert.assertEquals( getMetrics.getRequestCount() - requests, 1 );
+        Assert.assertEquals( getMetrics.getSuccessCount() - successes, 1 );
+        Assert.assertEquals( getMetrics.getBytesWritten() - bytes, trip.getResponse().getOutputBytes().length );
+        Assert.assertEquals( getMetrics.getStageLatency( LifecycleStage.EventHandling ).getCount() - eventHandling, 1 );
+        Assert.assertTrue( getMetrics.getRequestLatency().getMaxNanos() > 0 );
+
+        trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "PUT" );
+        trip.execute();
+
+        Assert.assertEquals( putMetrics.getMethodNotAllowedCount() - methodNotAllowed, 1 );
+        Assert.assertTrue( ManagementFactory.getPlatformMBeanServer().isRegistered( new ObjectName( "org.stripesrest:type=RestMetrics,resource=\"" + getClass().getName() + "\",method=\"GET\"" ) ) );
+
+        // Made-up verbs share one entry
+        RestMetrics otherMetrics = RestMetrics.forResource( getClass(), RestMetrics.OTHER_METHOD );
+        long others = otherMetrics.getRequestCount();
+        int resources = RestMetrics.getAll().size();
+        for ( String madeUp : Arrays.asList( "FOO1", "FOO2" ) )
+        {
+            trip = new MockRoundtrip( getMockServletContext(), getClass() );
+            trip.getRequest().setMethod( madeUp );
+            trip.execute();
+        }
+        Assert.assertEquals( otherMetrics.getRequestCount() - others, 2 );
+        Assert.assertEquals( RestMetrics.getAll().size(), resources );
+        Assert.assertSame( RestMetrics.forResource( getClass(), "get" ), getMetrics );
+    }
+
+    @Test( dependsOnMethods = "metricsAreRecordedPerVerb" )
+    public void mbeansAreUnregisteredAtShutdown() throws Exception
+    {
+        ObjectName metrics = new ObjectName( "org.stripesrest:type=RestMetrics,resource=\"" + getClass().getName() + "\",method=\"GET\"" );
+        ObjectName bufferPool = new ObjectName( "org.stripesrest:type=BufferPool" );
+        MockServletContext shutDown = createServletContext( RestActionInterceptor.METRICS_JMX, "true" ).addListener( new RestLifecycleListener() );
+        MockRoundtrip trip = new MockRoundtrip( shutDown, getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute();
+        Assert.assertTrue( ManagementFactory.getPlatformMBeanServer().isRegistered( metrics ) );
+        Assert.assertTrue( ManagementFactory.getPlatformMBeanServer().isRegistered( bufferPool ) );
+
+        shutDown.close();
+        Assert.assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( metrics ) );
+        Assert.assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( bufferPool ) );
+        Assert.assertTrue( RestMetrics.getAll().isEmpty() );
+    }
+
+    @Test
+    public void mbeanOfAnotherApplicationIsNotReplaced() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName metrics = new ObjectName( "org.stripesrest:type=RestMetrics,resource=\"" + String.class.getName() + "\",method=\"GET\"" );
+        server.registerMBean( new Timer(), metrics );
+        try
+        {
+            RestMetrics.forResource( String.class, "GET" );
+            Assert.assertEquals( server.getMBeanInfo( metrics ).getClassName(), Timer.class.getName() );
+        }
+        finally
+        {
+            server.unregisterMBean( metrics );
+        }
+    }
+
+    @Test
+    public void metricsEndpointListsResources() throws Exception
+    {
+        RestMetrics.forResource( getClass(), "GET" );
+
+        MockHttpServletRequest request = new MockHttpServletRequest( "", "/stripes-rest/metrics" );
+        request.setMethod( "GET" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new RestMetricsActionBean().get().execute( request, response );
+
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+        Assert.assertTrue( response.getOutputString().contains( "\"resource\": \"" + getClass().getName() + "\"" ) );
+        Assert.assertTrue( response.getOutputString().contains( "\"EventHandling\"" ) );
+    }
+
+    @Test
+    public void handlersAreDispatchedByGeneratedCode() throws Exception
+    {
+        RestDispatcher dispatcher = (RestDispatcher) Class.forName( getClass().getName() + RestDispatcher.SUFFIX ).getConstructor().newInstance();
+        int asyncGet = Arrays.asList( dispatcher.getHandlerNames() ).indexOf( "asyncGet" );
+        Assert.assertTrue( dispatcher.isAnnotated( asyncGet, HttpRequestMethod.GET ) );
+        Assert.assertFalse( dispatcher.isAnnotated( asyncGet, HttpRequestMethod.POST ) );
+
+        // The asynchronous handler is invoked through the generated dispatcher
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "asyncGet" );
+        Assert.assertEquals( trip.getResponse().getOutputString(), "Successful async get!" );
+
+        // So is the synchronous one, since no interceptor follows ours
+        trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.execute( "dispatchedGet" );
+        Assert.assertEquals( trip.getResponse().getOutputString(), getClass().getName() + RestDispatcher.SUFFIX );
+    }
+
+    @Test
+    public void inconsistentHandlersFailVerification()
+    {
+        RestStartup.verify( getClass() );
+
+        try
+        {
+            RestStartup.verify( InconsistentRestResource.class );
+            Assert.fail( "Inconsistent handlers should have been reported" );
+        }
+        catch ( StripesRuntimeException e )
+        {
+            Assert.assertTrue( e.getMessage().contains( "list()" ) );
+            Assert.assertTrue( e.getMessage().contains( "create(java.lang.String)" ) );
+        }
+    }
+
+    @Test
+    public void beansAreWarmedUpAtStartup() throws Exception
+    {
+        MockServletContext warmedUp = createServletContext( RestActionInterceptor.WARM_UP_ITERATIONS, "2" );
+        try
+        {
+            MockRoundtrip trip = new MockRoundtrip( warmedUp, getClass() );
+            trip.getRequest().setMethod( "GET" );
+            trip.execute();
+            Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        }
+        finally
+        {
+            warmedUp.close();
+        }
+    }
+
+    /**
+     * Creates a servlet context configured like the shared one, plus one
+     * Stripes filter parameter.
+     */
+    private static MockServletContext createServletContext( String name, String value )
+    {
+        Map< String, String> parameters = StripesTestFixture.getDefaultFilterParams();
+        parameters.put( name, value );
+        return new MockServletContext( "test" )
+                .addFilter( StripesFilter.class, "StripesFilter", parameters )
+                .setServlet( DispatcherServlet.class, "StripesDispatcher", null );
+    }
+
+    private String cachedGet( String id, String other ) throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.setParameter( "id", id );
+        trip.setParameter( "other", other );
+        trip.execute( "cachedGet" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        return trip.getResponse().getOutputString();
+    }
+
+    private String cachedGetAs( final String user, String header, String value ) throws Exception
+    {
+        MockRoundtrip trip = new MockRoundtrip( getMockServletContext(), getClass() );
+        trip.getRequest().setMethod( "GET" );
+        trip.setParameter( "id", "C" );
+        if ( user != null )
+        {
+            trip.getRequest().setUserPrincipal( new Principal()
+            {
+                public String getName()
+                {
+                    return user;
+                }
+            } );
+        }
+        if ( header != null )
+        {
+            trip.getRequest().addHeader( header, value );
+        }
+        trip.execute( "cachedGet" );
+        Assert.assertEquals( trip.getResponse().getStatus(), HttpServletResponse.SC_OK );
+        return trip.getResponse().getOutputString();
+    }
+
+    /**
+     * Not an ActionBean, so Stripes never picks it up.
+     */
+    public static class InconsistentRestResource implements RestActionBean
+    {
+
+        @GET
+        public String list()
+        {
+            return null;
+        }
+
+        @POST
+        public Resolution create( String body )
+        {
+            return null;
+        }
+    }
+
     private void logTripResponse( MockRoundtrip trip )
     {
         log.debug( "TRIP RESPONSE: [Event=" + trip.getActionBean( getClass() ).getContext().getEventName() + "] [Status=" + trip.getResponse().getStatus()
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Rick Grashel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stripesrest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.UrlBinding;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.mock.MockHttpServletRequest;
+import net.sourceforge.stripes.mock.MockHttpServletResponse;
+import net.sourceforge.stripes.mock.MockServletContext;
+import net.sourceforge.stripes.validation.Validate;
+import org.stripesrest.JsonResolution;
+import org.stripesrest.RestActionBean;
+import org.stripesrest.RestActionInterceptor;
+import org.stripesrest.RestBatchActionBean;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the execution of batched REST calls.
+ */
+public class RestBatchActionBeanTest implements ActionBean, RestActionBean
+{
+
+    /**
+     * The batch resource, bound within the packages scanned by the tests.
+     */
+    @UrlBinding( "/test/batch" )
+    public static class Batch extends RestBatchActionBean
+    {
+    }
+
+    private static volatile CountDownLatch reads = new CountDownLatch( 0 );
+
+    private MockServletContext context;
+
+    @Validate( required = true, on = "post" )
+    private String name;
+
+    private int id;
+
+    @BeforeClass
+    public void initCtx()
+    {
+        Map< String, String> parameters = StripesTestFixture.getDefaultFilterParams();
+        parameters.put( RestActionInterceptor.BATCH_RESOURCES, RestBatchActionBeanTest.class.getName() );
+        context = new MockServletContext( "test" )
+                .addFilter( StripesFilter.class, "StripesFilter", parameters )
+                .setServlet( DispatcherServlet.class, "StripesDispatcher", null );
+    }
+
+    @AfterClass
+    public void closeCtx()
+    {
+        context.close();
+    }
+
+    public Resolution get() throws InterruptedException
+    {
+        // Every read of a batch must be running at once for this to succeed
+        reads.countDown();
+        return new JsonResolution( id + ":" + reads.await( 5, TimeUnit.SECONDS ) );
+    }
+
+    public Resolution post()
+    {
+        return new JsonResolution( "created " + name + " " + id );
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public void setId( int id )
+    {
+        this.id = id;
+    }
+
+    private ActionBeanContext actionBeanContext;
+
+    public ActionBeanContext getContext()
+    {
+        return this.actionBeanContext;
+    }
+
+    public void setContext( ActionBeanContext actionBeanContext )
+    {
+        this.actionBeanContext = actionBeanContext;
+    }
+
+    @Test
+    public void entriesGoThroughTheStripesLifecycle() throws Exception
+    {
+        String url = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( getClass() );
+        reads = new CountDownLatch( 2 );
+
+        MockHttpServletResponse response = batch( "[{\"path\":\"" + url + "?id=1\"},{\"method\":\"get\",\"path\":\"" + url + "\",\"params\":{\"id\":2}},"
+                + "{\"method\":\"POST\",\"path\":\"" + url + "?name=widget\",\"body\":{\"id\":3}},{\"method\":\"POST\",\"path\":\"" + url + "\"},"
+                + "{\"method\":\"DELETE\",\"path\":\"" + url + "\"},{\"path\":\"/missing\"}]" );
+        Assert.assertEquals( response.getStatus(), HttpServletResponse.SC_OK );
+
+        String output = new String( response.getOutputBytes(), StandardCharsets.UTF_8 );
+        Assert.assertTrue( output.startsWith( "[{\"status\":200,\"headers\":{\"ETag\":" ), output );
+        Assert.assertTrue( output.contains( "\"body\":\"1:true\"},{\"status\":200,\"headers\":{\"ETag\":" ), output );
+        Assert.assertTrue( output.contains( "\"body\":\"2:true\"},{\"status\":200,\"body\":\"created widget 3\"},{\"status\":400,\"body\":{\"globalErrors\":[],\"fieldErrors\":[{\"fieldName\":\"name\"," ), output );
+        Assert.assertTrue( output.contains( "{\"status\":405,\"headers\":{\"Allow\":\"GET, POST, OPTIONS\"},\"body\":null}" ), output );
+        Assert.assertTrue( output.endsWith( "{\"status\":404,\"body\":{\"globalErrors\":[\"No resource is bound to /missing.\"]}}]" ), output );
+    }
+
+    @Test
+    public void invalidBatchesAreRejected() throws Exception
+    {
+        Assert.assertEquals( batch( "{\"path\":\"/\"}" ).getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+        Assert.assertEquals( batch( "[]" ).getStatus(), HttpServletResponse.SC_BAD_REQUEST );
+
+        StringBuilder tooLarge = new StringBuilder( "[" );
+        for ( int i = 0; i <= RestBatchActionBean.DEFAULT_MAX_SIZE; i++ )
+        {
+            tooLarge.append( i > 0 ? "," : "" ).append( "{\"path\":\"/missing\"}" );
+        }
+        Assert.assertEquals( batch( tooLarge.append( "]" ).toString() ).getStatus(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE );
+
+        MockHttpServletResponse nested = batch( "[{\"method\":\"POST\",\"path\":\"/test/batch\",\"body\":[]}]" );
+        Assert.assertEquals( nested.getOutputString(), "[{\"status\":400,\"body\":{\"globalErrors\":[\"Batches cannot be nested.\"]}}]" );
+
+        // Only the listed resources can be reached through a batch
+        String unlisted = StripesFilter.getConfiguration().getActionResolver().getUrlBinding( RequestCoalescingTest.class );
+        MockHttpServletResponse forbidden = batch( "[{\"path\":\"" + unlisted + "\"}]" );
+        Assert.assertEquals( forbidden.getOutputString(), "[{\"status\":403,\"body\":{\"globalErrors\":[\"" + unlisted + " cannot be batched.\"]}}]" );
+    }
+
+    private MockHttpServletResponse batch( String body ) throws Exception
+    {
+        JsonRequest request = new JsonRequest( "/test", "/test/batch", body.getBytes( StandardCharsets.UTF_8 ) );
+        request.setMethod( "POST" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        context.acceptRequest( request, response );
+        return response;
+    }
+
+    /**
+     * Mock request carrying a JSON body.
+     */
+    private static class JsonRequest extends MockHttpServletRequest
+    {
+
+        private final byte[] body;
+
+        JsonRequest( String contextPath, String requestUri, byte[] body )
+        {
+            super( contextPath, requestUri );
+            this.body = body;
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return "application/json";
+        }
+
+        @Override
+        public int getContentLength()
+        {
+            return body.length;
+        }
+
+        @Override
+        public ServletInputStream getInputStream()
+        {
+            final ByteArrayInputStream in = new ByteArrayInputStream( body );
+            return new ServletInputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    return in.read();
+                }
+
+                @Override
+                public int read( byte[] b, int off, int len ) throws IOException
+                {
+                    return in.read( b, off, len );
+                }
+            };
+        }
+    }
+}